@@ -17,10 +17,21 @@
 package com.acciente.securetodo;
 
 import com.acciente.oacc.AccessControlContext;
+import com.acciente.oacc.encryptor.PasswordEncryptor;
 import com.acciente.oacc.encryptor.bcrypt.BCryptPasswordEncryptor;
 import com.acciente.oacc.sql.SQLAccessControlContextFactory;
 import com.acciente.oacc.sql.SQLProfile;
+import com.acciente.securetodo.auth.CredentialCacheFactory;
+import com.acciente.securetodo.auth.OffloadedPasswordEncryptor;
+import com.acciente.securetodo.auth.PasswordHashingExecutor;
+import com.acciente.securetodo.auth.PasswordHashingExecutorFactory;
+import com.acciente.securetodo.auth.PasswordHashingFactory;
+import com.acciente.securetodo.auth.PasswordRehasher;
+import com.acciente.securetodo.db.TodoUserDAO;
 import com.acciente.securetodo.health.DataSourceHealthCheck;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dropwizard.db.ManagedDataSource;
 import io.dropwizard.db.PooledDataSourceFactory;
@@ -28,6 +39,9 @@ import io.dropwizard.setup.Environment;
 import io.dropwizard.util.Duration;
 import org.hibernate.validator.constraints.NotEmpty;
 
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+
 public class AccessControlContextFactory {
    @NotEmpty
    private String schemaName;
@@ -35,8 +49,28 @@ public class AccessControlContextFactory {
    @NotEmpty
    private String sqlProfile;
 
-   private ManagedDataSource dataSource;
-   private BCryptPasswordEncryptor bCryptPasswordEncryptor;
+   @Valid
+   @NotNull
+   private CredentialCacheFactory credentialCache = new CredentialCacheFactory();
+
+   @Valid
+   @NotNull
+   private AccessControlContextPoolFactory contextPool = new AccessControlContextPoolFactory();
+
+   @Valid
+   @NotNull
+   private PasswordHashingExecutorFactory hashingExecutor = new PasswordHashingExecutorFactory();
+
+   @Valid
+   @NotNull
+   private PasswordHashingFactory passwordHashing = new PasswordHashingFactory();
+
+   private ManagedDataSource        dataSource;
+   private PasswordHashingExecutor  passwordHashingExecutor;
+   private PasswordEncryptor        passwordEncryptor;
+   private int                      passwordCost;
+   private AccessControlContextPool pool;
+   private Meter                    allocations;
 
    @JsonProperty
    public String getSchemaName() {
@@ -58,22 +92,136 @@ public class AccessControlContextFactory {
       this.sqlProfile = sqlProfile;
    }
 
+   @JsonProperty
+   public CredentialCacheFactory getCredentialCache() {
+      return credentialCache;
+   }
+
+   @JsonProperty
+   public void setCredentialCache(CredentialCacheFactory credentialCache) {
+      this.credentialCache = credentialCache;
+   }
+
+   @JsonProperty
+   public AccessControlContextPoolFactory getContextPool() {
+      return contextPool;
+   }
+
+   @JsonProperty
+   public void setContextPool(AccessControlContextPoolFactory contextPool) {
+      this.contextPool = contextPool;
+   }
+
+   @JsonProperty
+   public PasswordHashingExecutorFactory getHashingExecutor() {
+      return hashingExecutor;
+   }
+
+   @JsonProperty
+   public void setHashingExecutor(PasswordHashingExecutorFactory hashingExecutor) {
+      this.hashingExecutor = hashingExecutor;
+   }
+
+   @JsonProperty
+   public PasswordHashingFactory getPasswordHashing() {
+      return passwordHashing;
+   }
+
+   @JsonProperty
+   public void setPasswordHashing(PasswordHashingFactory passwordHashing) {
+      this.passwordHashing = passwordHashing;
+   }
+
+   @JsonIgnore
+   public ManagedDataSource getDataSource() {
+      return dataSource;
+   }
+
+   @JsonIgnore
+   public PasswordHashingExecutor getPasswordHashingExecutor() {
+      return passwordHashingExecutor;
+   }
+
+   /**
+    * Returns the bcrypt cost factor new passwords are hashed with.
+    */
+   @JsonIgnore
+   public int getPasswordCost() {
+      return passwordCost;
+   }
+
+   /**
+    * Returns a rehasher that brings stored passwords up to the configured cost factor, or null if rehashing on login
+    * is not enabled.
+    */
+   public PasswordRehasher buildPasswordRehasher(TodoUserDAO todoUserDAO, MetricRegistry metrics) {
+      if (!passwordHashing.isRehashOnLogin()) {
+         return null;
+      }
+      return new PasswordRehasher(todoUserDAO, this, passwordHashingExecutor, passwordCost, metrics);
+   }
+
    public void initialize(Environment environment, PooledDataSourceFactory dataSourceFactory, String name) {
-      dataSource = dataSourceFactory.build(environment.metrics(), name);
-      bCryptPasswordEncryptor = BCryptPasswordEncryptor.newInstance(12);
-      environment.lifecycle().manage(dataSource);
+      final ManagedDataSource managedDataSource = dataSourceFactory.build(environment.metrics(), name);
+      initialize(environment, managedDataSource);
+      environment.lifecycle().manage(managedDataSource);
       environment.healthChecks().register(name,
                                           new DataSourceHealthCheck(environment.getHealthCheckExecutorService(),
                                                                     dataSourceFactory.getValidationQueryTimeout()
                                                                           .orElse(Duration.seconds(5)),
-                                                                    dataSource,
+                                                                    managedDataSource,
                                                                     dataSourceFactory.getValidationQuery()));
    }
 
+   /**
+    * Initializes this factory with a data source that is shared with the todo database, and thus already managed
+    * (and health checked) along with it.
+    */
+   public void initialize(Environment environment, ManagedDataSource sharedDataSource) {
+      dataSource = sharedDataSource;
+      passwordHashingExecutor = hashingExecutor.build(environment);
+      passwordCost = passwordHashing.resolveCost();
+      // check the cache first, so that only actual bcrypt work is queued on the hashing executor
+      passwordEncryptor = credentialCache.build(environment.metrics(),
+                                                new OffloadedPasswordEncryptor(BCryptPasswordEncryptor.newInstance(
+                                                      passwordCost), passwordHashingExecutor));
+      allocations = environment.metrics().meter(getClass().getCanonicalName() + " allocations");
+      if (contextPool.isEnabled()) {
+         pool = contextPool.build(environment.metrics(), this::build);
+      }
+   }
+
+   /**
+    * Returns a new, unpooled oacc context.
+    */
    public AccessControlContext build() {
+      allocations.mark();
       return SQLAccessControlContextFactory.getAccessControlContext(dataSource,
                                                                     getSchemaName(),
                                                                     SQLProfile.valueOf(getSqlProfile()),
-                                                                    bCryptPasswordEncryptor);
+                                                                    passwordEncryptor);
+   }
+
+   /**
+    * Returns an unauthenticated oacc context from the pool (or a new one, if pooling is disabled), which has to be
+    * handed back with {@link #release(AccessControlContext)} once the caller is done with it.
+    */
+   public AccessControlContext borrow() {
+      return pool != null ? pool.borrow() : build();
+   }
+
+   public void release(AccessControlContext oacc) {
+      if (pool != null) {
+         pool.release(oacc);
+      }
+   }
+
+   /**
+    * Takes a borrowed oacc context out of the pool for good, so it can outlive the request that borrowed it.
+    */
+   public void detach(AccessControlContext oacc) {
+      if (pool != null) {
+         pool.detach(oacc);
+      }
    }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo;
+
+import com.acciente.oacc.AccessControlContext;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool of reusable, unauthenticated OACC contexts.
+ * <p>
+ * A borrowed context is handed back with {@link #release(AccessControlContext)}, which unauthenticates it (and thus
+ * also ends any impersonation) before it can be borrowed again. When all pooled contexts are in use and none becomes
+ * available within the borrow timeout, a new context outside of the pool is handed out instead, so that a request is
+ * never refused for lack of a context; such overflow contexts are simply discarded on release.
+ */
+public class AccessControlContextPool {
+   private final Supplier<AccessControlContext>      contextSupplier;
+   private final int                                 maximumSize;
+   private final long                                borrowTimeoutMillis;
+   private final BlockingQueue<AccessControlContext> idleContexts;
+   private final Set<AccessControlContext>           pooledContexts;
+   private final AtomicInteger                       allocatedCount;
+   private final Timer                               borrowWait;
+   private final Meter                               overflows;
+
+   public AccessControlContextPool(Supplier<AccessControlContext> contextSupplier,
+                                   int maximumSize,
+                                   long borrowTimeoutMillis,
+                                   MetricRegistry metrics) {
+      this.contextSupplier = contextSupplier;
+      this.maximumSize = maximumSize;
+      this.borrowTimeoutMillis = borrowTimeoutMillis;
+      this.idleContexts = new ArrayBlockingQueue<>(maximumSize);
+      this.pooledContexts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+      this.allocatedCount = new AtomicInteger();
+
+      borrowWait = metrics.timer(getClass().getCanonicalName() + " borrow-wait");
+      overflows = metrics.meter(getClass().getCanonicalName() + " overflows");
+      metrics.register(getClass().getCanonicalName() + " idle",
+                       (Gauge<Integer>) idleContexts::size);
+      metrics.register(getClass().getCanonicalName() + " allocated",
+                       (Gauge<Integer>) allocatedCount::get);
+   }
+
+   public AccessControlContext borrow() {
+      try (Timer.Context ignored = borrowWait.time()) {
+         AccessControlContext oacc = idleContexts.poll();
+         if (oacc != null) {
+            return oacc;
+         }
+
+         if (tryReserve()) {
+            oacc = contextSupplier.get();
+            pooledContexts.add(oacc);
+            return oacc;
+         }
+
+         try {
+            oacc = idleContexts.poll(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         if (oacc != null) {
+            return oacc;
+         }
+      }
+
+      overflows.mark();
+      return contextSupplier.get();
+   }
+
+   public void release(AccessControlContext oacc) {
+      oacc.unauthenticate();
+
+      if (pooledContexts.contains(oacc)) {
+         idleContexts.offer(oacc);
+      }
+   }
+
+   /**
+    * Permanently removes a borrowed context from the pool, for when it has to outlive the borrower (e.g. a session).
+    */
+   public void detach(AccessControlContext oacc) {
+      if (pooledContexts.remove(oacc)) {
+         allocatedCount.decrementAndGet();
+      }
+   }
+
+   public int getIdleCount() {
+      return idleContexts.size();
+   }
+
+   public int getAllocatedCount() {
+      return allocatedCount.get();
+   }
+
+   private boolean tryReserve() {
+      int allocated;
+      do {
+         allocated = allocatedCount.get();
+         if (allocated >= maximumSize) {
+            return false;
+         }
+      } while (!allocatedCount.compareAndSet(allocated, allocated + 1));
+      return true;
+   }
+}
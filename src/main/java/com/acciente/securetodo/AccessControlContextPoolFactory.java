@@ -0,0 +1,73 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo;
+
+import com.acciente.oacc.AccessControlContext;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.function.Supplier;
+
+public class AccessControlContextPoolFactory {
+   private boolean enabled = true;
+
+   @Min(1)
+   private int maximumSize = 256;
+
+   @NotNull
+   private Duration borrowTimeout = Duration.milliseconds(50);
+
+   @JsonProperty
+   public boolean isEnabled() {
+      return enabled;
+   }
+
+   @JsonProperty
+   public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+   }
+
+   @JsonProperty
+   public int getMaximumSize() {
+      return maximumSize;
+   }
+
+   @JsonProperty
+   public void setMaximumSize(int maximumSize) {
+      this.maximumSize = maximumSize;
+   }
+
+   @JsonProperty
+   public Duration getBorrowTimeout() {
+      return borrowTimeout;
+   }
+
+   @JsonProperty
+   public void setBorrowTimeout(Duration borrowTimeout) {
+      this.borrowTimeout = borrowTimeout;
+   }
+
+   public AccessControlContextPool build(MetricRegistry metrics, Supplier<AccessControlContext> contextSupplier) {
+      return new AccessControlContextPool(contextSupplier,
+                                          maximumSize,
+                                          borrowTimeout.toMilliseconds(),
+                                          metrics);
+   }
+}
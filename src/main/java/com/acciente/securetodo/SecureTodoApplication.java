@@ -16,23 +16,54 @@
 
 package com.acciente.securetodo;
 
+import com.acciente.oacc.sql.SQLProfile;
+import com.acciente.securetodo.auth.LoginThrottle;
+import com.acciente.securetodo.auth.LoginThrottleFactory;
+import com.acciente.securetodo.auth.LoginThrottleFilter;
 import com.acciente.securetodo.auth.OaccBasicAuthenticator;
+import com.acciente.securetodo.auth.OaccBearerAuthenticator;
 import com.acciente.securetodo.auth.OaccPrincipal;
+import com.acciente.securetodo.auth.OaccPrincipalReleaseFilter;
+import com.acciente.securetodo.auth.OaccSessionStore;
+import com.acciente.securetodo.auth.PasswordRehasher;
+import com.acciente.securetodo.cli.BCryptCostCommand;
+import com.acciente.securetodo.cli.RebuildInheritanceClosureCommand;
+import com.acciente.securetodo.cli.ReconcileTodoItemAccessCommand;
+import com.acciente.securetodo.core.AccessibleTodoIdCache;
+import com.acciente.securetodo.core.ColocatedTodoItemStore;
+import com.acciente.securetodo.core.InheritanceClosure;
+import com.acciente.securetodo.core.OaccResourceIdBackfill;
+import com.acciente.securetodo.core.OaccTransactionRunner;
+import com.acciente.securetodo.core.TodoChangeVersions;
+import com.acciente.securetodo.core.TodoEventBus;
+import com.acciente.securetodo.core.TodoItemAccessReconciler;
 import com.acciente.securetodo.core.TodoItemService;
 import com.acciente.securetodo.core.TodoUserService;
+import com.acciente.securetodo.db.CountingDataSource;
+import com.acciente.securetodo.db.TodoChangeDAO;
+import com.acciente.securetodo.db.TodoItemAccessDAO;
 import com.acciente.securetodo.db.TodoItemDAO;
 import com.acciente.securetodo.db.TodoUserDAO;
+import com.acciente.securetodo.db.UnitOfWorkHandles;
 import com.acciente.securetodo.resources.TodoItemResource;
+import com.acciente.securetodo.resources.TodoSessionResource;
 import com.acciente.securetodo.resources.TodoUserResource;
 import com.acciente.securetodo.resources.exceptions.AuthorizationExceptionMapper;
 import com.acciente.securetodo.resources.exceptions.IllegalArgumentExceptionMapper;
 import com.acciente.securetodo.resources.exceptions.InvalidCredentialsExceptionMapper;
 import com.acciente.securetodo.resources.exceptions.NotAuthenticatedExceptionMapper;
+import com.acciente.securetodo.resources.exceptions.RejectedExecutionExceptionMapper;
+import com.acciente.securetodo.resources.exceptions.StaleTodoItemExceptionMapper;
+import com.acciente.securetodo.tasks.RebuildInheritanceClosureTask;
+import com.acciente.securetodo.tasks.ReconcileTodoItemAccessTask;
 import io.dropwizard.Application;
 import io.dropwizard.ConfiguredBundle;
 import io.dropwizard.auth.AuthDynamicFeature;
+import io.dropwizard.auth.AuthFilter;
 import io.dropwizard.auth.AuthValueFactoryProvider;
 import io.dropwizard.auth.basic.BasicCredentialAuthFilter;
+import io.dropwizard.auth.chained.ChainedAuthFilter;
+import io.dropwizard.auth.oauth.OAuthCredentialAuthFilter;
 import io.dropwizard.db.DataSourceFactory;
 import io.dropwizard.db.DatabaseConfiguration;
 import io.dropwizard.jdbi.DBIFactory;
@@ -41,8 +72,12 @@ import io.dropwizard.migrations.CloseableLiquibaseWithClassPathMigrationsFile;
 import io.dropwizard.migrations.DbCommand;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
+import org.glassfish.jersey.media.sse.SseFeature;
 import org.skife.jdbi.v2.DBI;
 
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
 public class SecureTodoApplication extends Application<SecureTodoConfiguration> {
 
    public static void main(final String[] args) throws Exception {
@@ -56,10 +91,14 @@ public class SecureTodoApplication extends Application<SecureTodoConfiguration>
 
    @Override
    public void initialize(final Bootstrap<SecureTodoConfiguration> bootstrap) {
+      bootstrap.addCommand(new BCryptCostCommand());
+      bootstrap.addCommand(new ReconcileTodoItemAccessCommand());
+      bootstrap.addCommand(new RebuildInheritanceClosureCommand());
+
       bootstrap.addBundle(new InitializingMigrationsBundle<SecureTodoConfiguration>() {
          @Override
          public DataSourceFactory getDataSourceFactory(SecureTodoConfiguration configuration) {
-            return configuration.getOaccDbDataSourceFactory();
+            return configuration.getOaccSchemaDataSourceFactory();
          }
 
          @Override
@@ -93,23 +132,136 @@ public class SecureTodoApplication extends Application<SecureTodoConfiguration>
 
    @Override
    public void run(final SecureTodoConfiguration configuration,
-                   final Environment environment) {
+                   final Environment environment) throws Exception {
       final DBIFactory dbiFactory = new DBIFactory();
-      final DBI todoJdbi = dbiFactory.build(environment, configuration.getTodoDbDataSourceFactory(), "todoDb");
-      final TodoUserDAO todoUserDao = todoJdbi.onDemand(TodoUserDAO.class);
-      final TodoItemDAO todoItemDao = todoJdbi.onDemand(TodoItemDAO.class);
+      final DataSourceFactory todoDbDataSourceFactory = configuration.getTodoDbDataSourceFactory();
+      // counts the connections each request checks out, including those oacc checks out when it is co-located
+      final CountingDataSource todoDataSource
+            = new CountingDataSource(todoDbDataSourceFactory.build(environment.metrics(), "todoDb"),
+                                     "todoDb",
+                                     environment.metrics());
+      final DBI todoJdbi = dbiFactory.build(environment, todoDbDataSourceFactory, todoDataSource, "todoDb");
+      // the todo DAOs share one connection per request, in the resource methods marked as a unit of work
+      final UnitOfWorkHandles todoHandles = configuration.getUnitOfWorkFactory().build(environment,
+                                                                                       todoJdbi,
+                                                                                       todoDataSource);
+      final TodoUserDAO todoUserDao = todoHandles.onDemand(TodoUserDAO.class);
+      final TodoItemDAO todoItemDao = configuration.getTodoItemCacheFactory().build(environment.metrics(), todoHandles);
 
       final AccessControlContextFactory accessControlContextFactory = configuration.getAccessControlContextFactory();
-      accessControlContextFactory.initialize(environment, configuration.getOaccDbDataSourceFactory(), "oacc");
+      if (configuration.isColocated()) {
+         // both schemas live in the todo database, so oacc shares its connection pool
+         accessControlContextFactory.initialize(environment, todoDataSource);
+      }
+      else {
+         accessControlContextFactory.initialize(environment, configuration.getOaccDbDataSourceFactory(), "oacc");
+      }
 
-      environment.jersey().register(new TodoUserResource(new TodoUserService(todoUserDao, accessControlContextFactory)));
-      environment.jersey().register(new TodoItemResource(new TodoItemService(todoItemDao)));
+      final DBI oaccJdbi = configuration.isColocated()
+                           ? todoJdbi
+                           : new DBI(accessControlContextFactory.getDataSource());
+      // only the co-located todo list reads the inheritance closure, so signups only refresh it in co-located mode;
+      // it is not maintained otherwise, so it is rebuilt on startup, in case the server ran in the other mode before
+      final InheritanceClosure inheritanceClosure
+            = configuration.isColocated()
+              ? new InheritanceClosure(oaccJdbi, accessControlContextFactory.getSchemaName())
+              : null;
+      if (inheritanceClosure != null) {
+         inheritanceClosure.rebuild();
+         environment.admin().addTask(new RebuildInheritanceClosureTask(inheritanceClosure));
+      }
 
-      environment.jersey().register(new AuthDynamicFeature(
-            new BasicCredentialAuthFilter.Builder<OaccPrincipal>()
-                  .setAuthenticator(new OaccBasicAuthenticator(accessControlContextFactory))
+      final TodoUserService todoUserService = new TodoUserService(todoUserDao,
+                                                                  accessControlContextFactory,
+                                                                  inheritanceClosure);
+      todoUserService.initialize();
+      environment.jersey().register(new TodoUserResource(todoUserService));
+      final AccessibleTodoIdCache accessibleTodoIdCache
+            = configuration.getAccessibleTodoIdCacheFactory().build(environment.metrics());
+      final ColocatedTodoItemStore colocatedTodoItemStore
+            = configuration.isColocated()
+              ? new ColocatedTodoItemStore(todoJdbi,
+                                           accessControlContextFactory.getSchemaName(),
+                                           SQLProfile.valueOf(accessControlContextFactory.getSqlProfile()))
+              : null;
+      // a co-located todo list is read straight from oacc's grants, which leaves nothing for the access index to do
+      final TodoItemAccessDAO todoItemAccessDao = colocatedTodoItemStore == null
+                                                  ? configuration.getTodoItemAccessIndexFactory().build(todoHandles)
+                                                  : null;
+      if (todoItemAccessDao != null) {
+         final TodoItemAccessReconciler reconciler
+               = new TodoItemAccessReconciler(accessControlContextFactory.getDataSource(),
+                                              accessControlContextFactory.getSchemaName(),
+                                              todoItemAccessDao);
+         if (configuration.getTodoItemAccessIndexFactory().isReconcileOnStartup()) {
+            reconciler.reconcile();
+         }
+         environment.admin().addTask(new ReconcileTodoItemAccessTask(reconciler));
+      }
+      final OaccTransactionRunner oaccTransactionRunner
+            = new OaccTransactionRunner(oaccJdbi,
+                                        accessControlContextFactory.getSchemaName(),
+                                        SQLProfile.valueOf(accessControlContextFactory.getSqlProfile()));
+      // todo items created before their oacc resource IDs were recorded get them now (a no-op once they all have one)
+      new OaccResourceIdBackfill(todoItemDao, oaccTransactionRunner).backfill();
+      final TodoChangeVersions todoChangeVersions
+            = configuration.getTodoChangeVersionsFactory().build(environment.metrics());
+      final TodoChangeDAO todoChangeDao = configuration.getTodoChangeLogFactory().build(environment, todoHandles);
+      final TodoEventBus todoEventBus = configuration.getTodoEventBusFactory().build(environment);
+      final ExecutorService permissionLookupExecutor
+            = configuration.getPermissionLookupExecutorFactory().build(environment);
+      // for GET /todos/events
+      environment.jersey().register(SseFeature.class);
+      final TodoItemService todoItemService = TodoItemService.builder(todoItemDao)
+            .withAccessibleTodoIdCache(accessibleTodoIdCache)
+            .withTodoItemAccessDAO(todoItemAccessDao)
+            .withColocatedTodoItemStore(colocatedTodoItemStore)
+            .withOaccTransactionRunner(oaccTransactionRunner)
+            .withMetrics(environment.metrics())
+            .withTodoChangeVersions(todoChangeVersions)
+            .withTodoChangeDAO(todoChangeDao)
+            .withTodoEventBus(todoEventBus)
+            .withUnitOfWorkHandles(todoHandles)
+            .withPermissionLookupExecutor(permissionLookupExecutor,
+                                          configuration.getPermissionLookupExecutorFactory().getMinimumBatchSize())
+            .build();
+      environment.jersey().register(new TodoItemResource(todoItemService,
+                                                         todoChangeVersions,
+                                                         environment.getObjectMapper()));
+
+      final OaccSessionStore sessionStore = configuration.getSessionStoreFactory().build(environment.metrics());
+      environment.jersey().register(new TodoSessionResource(sessionStore));
+
+      // reject repeatedly failing usernames and client addresses before any bcrypt work is done
+      LoginThrottle loginThrottle = null;
+      final LoginThrottleFactory loginThrottleFactory = configuration.getLoginThrottleFactory();
+      if (loginThrottleFactory.isEnabled()) {
+         loginThrottle = loginThrottleFactory.build(environment.metrics());
+         environment.jersey().register(new LoginThrottleFilter(loginThrottle,
+                                                               loginThrottleFactory.getClientAddressHeader()));
+      }
+
+      final PasswordRehasher passwordRehasher = accessControlContextFactory.buildPasswordRehasher(todoUserDao,
+                                                                                                  environment.metrics());
+
+      // accept either basic credentials (which pay for a full oacc authentication) or a session bearer token
+      final AuthFilter<?, OaccPrincipal> basicAuthFilter
+            = new BasicCredentialAuthFilter.Builder<OaccPrincipal>()
+                  .setAuthenticator(new OaccBasicAuthenticator(accessControlContextFactory,
+                                                               loginThrottle,
+                                                               passwordRehasher))
                   .setRealm("OACC Basic Authentication")
-                  .buildAuthFilter()));
+                  .buildAuthFilter();
+      final AuthFilter<?, OaccPrincipal> bearerAuthFilter
+            = new OAuthCredentialAuthFilter.Builder<OaccPrincipal>()
+                  .setAuthenticator(new OaccBearerAuthenticator(sessionStore))
+                  .setPrefix("Bearer")
+                  .setRealm("OACC Bearer Authentication")
+                  .buildAuthFilter();
+      environment.jersey().register(new AuthDynamicFeature(
+            new ChainedAuthFilter<>(Arrays.asList(basicAuthFilter, bearerAuthFilter))));
+      // to hand pooled oacc contexts of authenticated principals back at the end of the request
+      environment.jersey().register(new OaccPrincipalReleaseFilter());
       // to use @Auth to inject a custom Principal type into a resource:
       environment.jersey().register(new AuthValueFactoryProvider.Binder<>(OaccPrincipal.class));
 
@@ -117,6 +269,11 @@ public class SecureTodoApplication extends Application<SecureTodoConfiguration>
       environment.jersey().register(new IllegalArgumentExceptionMapper(environment.metrics()));
       environment.jersey().register(new InvalidCredentialsExceptionMapper(environment.metrics()));
       environment.jersey().register(new NotAuthenticatedExceptionMapper(environment.metrics()));
+      environment.jersey().register(new StaleTodoItemExceptionMapper(environment.metrics()));
+      environment.jersey().register(new RejectedExecutionExceptionMapper(environment.metrics(),
+                                                                         accessControlContextFactory
+                                                                               .getPasswordHashingExecutor()
+                                                                               .getRetryAfterSeconds()));
    }
 
    /*
@@ -16,6 +16,17 @@
 
 package com.acciente.securetodo;
 
+import com.acciente.securetodo.auth.LoginThrottleFactory;
+import com.acciente.securetodo.auth.OaccSessionStoreFactory;
+import com.acciente.securetodo.core.AccessibleTodoIdCacheFactory;
+import com.acciente.securetodo.core.PermissionLookupExecutorFactory;
+import com.acciente.securetodo.core.TodoChangeLogFactory;
+import com.acciente.securetodo.core.TodoEventBusFactory;
+import com.acciente.securetodo.core.TodoChangeVersionsFactory;
+import com.acciente.securetodo.db.TodoItemAccessIndexFactory;
+import com.acciente.securetodo.db.TodoItemCacheFactory;
+import com.acciente.securetodo.db.UnitOfWorkFactory;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dropwizard.Configuration;
 import io.dropwizard.db.DataSourceFactory;
@@ -32,10 +43,52 @@ public class SecureTodoConfiguration extends Configuration {
    @NotNull
    private DataSourceFactory tododb = new DataSourceFactory();
 
+   private boolean colocated = false;
+
    @Valid
    @NotNull
    private AccessControlContextFactory oaccFactory = new AccessControlContextFactory();
 
+   @Valid
+   @NotNull
+   private OaccSessionStoreFactory sessionStoreFactory = new OaccSessionStoreFactory();
+
+   @Valid
+   @NotNull
+   private LoginThrottleFactory loginThrottleFactory = new LoginThrottleFactory();
+
+   @Valid
+   @NotNull
+   private AccessibleTodoIdCacheFactory accessibleTodoIdCacheFactory = new AccessibleTodoIdCacheFactory();
+
+   @Valid
+   @NotNull
+   private TodoItemCacheFactory todoItemCacheFactory = new TodoItemCacheFactory();
+
+   @Valid
+   @NotNull
+   private TodoItemAccessIndexFactory todoItemAccessIndexFactory = new TodoItemAccessIndexFactory();
+
+   @Valid
+   @NotNull
+   private TodoChangeVersionsFactory todoChangeVersionsFactory = new TodoChangeVersionsFactory();
+
+   @Valid
+   @NotNull
+   private TodoChangeLogFactory todoChangeLogFactory = new TodoChangeLogFactory();
+
+   @Valid
+   @NotNull
+   private TodoEventBusFactory todoEventBusFactory = new TodoEventBusFactory();
+
+   @Valid
+   @NotNull
+   private UnitOfWorkFactory unitOfWorkFactory = new UnitOfWorkFactory();
+
+   @Valid
+   @NotNull
+   private PermissionLookupExecutorFactory permissionLookupExecutorFactory = new PermissionLookupExecutorFactory();
+
    @JsonProperty("oaccDb")
    public void setOaccDbDataSourceFactory(DataSourceFactory factory) {
       this.oaccdb = factory;
@@ -46,6 +99,24 @@ public class SecureTodoConfiguration extends Configuration {
       return oaccdb;
    }
 
+   @JsonProperty
+   public boolean isColocated() {
+      return colocated;
+   }
+
+   @JsonProperty
+   public void setColocated(boolean colocated) {
+      this.colocated = colocated;
+   }
+
+   /**
+    * Returns the factory for the database that holds the OACC schema, which is the todo database if co-located.
+    */
+   @JsonIgnore
+   public DataSourceFactory getOaccSchemaDataSourceFactory() {
+      return colocated ? tododb : oaccdb;
+   }
+
    @JsonProperty("todoDb")
    public void setTodoDbDataSourceFactory(DataSourceFactory factory) {
       this.tododb = factory;
@@ -65,4 +136,104 @@ public class SecureTodoConfiguration extends Configuration {
    public AccessControlContextFactory getAccessControlContextFactory() {
       return oaccFactory;
    }
+
+   @JsonProperty("sessions")
+   public void setSessionStoreFactory(OaccSessionStoreFactory factory) {
+      this.sessionStoreFactory = factory;
+   }
+
+   @JsonProperty("sessions")
+   public OaccSessionStoreFactory getSessionStoreFactory() {
+      return sessionStoreFactory;
+   }
+
+   @JsonProperty("loginThrottle")
+   public void setLoginThrottleFactory(LoginThrottleFactory factory) {
+      this.loginThrottleFactory = factory;
+   }
+
+   @JsonProperty("loginThrottle")
+   public LoginThrottleFactory getLoginThrottleFactory() {
+      return loginThrottleFactory;
+   }
+
+   @JsonProperty("accessibleTodoIdCache")
+   public void setAccessibleTodoIdCacheFactory(AccessibleTodoIdCacheFactory factory) {
+      this.accessibleTodoIdCacheFactory = factory;
+   }
+
+   @JsonProperty("accessibleTodoIdCache")
+   public AccessibleTodoIdCacheFactory getAccessibleTodoIdCacheFactory() {
+      return accessibleTodoIdCacheFactory;
+   }
+
+   @JsonProperty("todoItemCache")
+   public void setTodoItemCacheFactory(TodoItemCacheFactory factory) {
+      this.todoItemCacheFactory = factory;
+   }
+
+   @JsonProperty("todoItemCache")
+   public TodoItemCacheFactory getTodoItemCacheFactory() {
+      return todoItemCacheFactory;
+   }
+
+   @JsonProperty("todoItemAccessIndex")
+   public void setTodoItemAccessIndexFactory(TodoItemAccessIndexFactory factory) {
+      this.todoItemAccessIndexFactory = factory;
+   }
+
+   @JsonProperty("todoItemAccessIndex")
+   public TodoItemAccessIndexFactory getTodoItemAccessIndexFactory() {
+      return todoItemAccessIndexFactory;
+   }
+
+   @JsonProperty("todoChangeVersions")
+   public void setTodoChangeVersionsFactory(TodoChangeVersionsFactory factory) {
+      this.todoChangeVersionsFactory = factory;
+   }
+
+   @JsonProperty("todoChangeVersions")
+   public TodoChangeVersionsFactory getTodoChangeVersionsFactory() {
+      return todoChangeVersionsFactory;
+   }
+
+   @JsonProperty("todoChangeLog")
+   public void setTodoChangeLogFactory(TodoChangeLogFactory factory) {
+      this.todoChangeLogFactory = factory;
+   }
+
+   @JsonProperty("todoChangeLog")
+   public TodoChangeLogFactory getTodoChangeLogFactory() {
+      return todoChangeLogFactory;
+   }
+
+   @JsonProperty("todoEvents")
+   public void setTodoEventBusFactory(TodoEventBusFactory factory) {
+      this.todoEventBusFactory = factory;
+   }
+
+   @JsonProperty("todoEvents")
+   public TodoEventBusFactory getTodoEventBusFactory() {
+      return todoEventBusFactory;
+   }
+
+   @JsonProperty("unitOfWork")
+   public void setUnitOfWorkFactory(UnitOfWorkFactory factory) {
+      this.unitOfWorkFactory = factory;
+   }
+
+   @JsonProperty("unitOfWork")
+   public UnitOfWorkFactory getUnitOfWorkFactory() {
+      return unitOfWorkFactory;
+   }
+
+   @JsonProperty("permissionLookups")
+   public void setPermissionLookupExecutorFactory(PermissionLookupExecutorFactory factory) {
+      this.permissionLookupExecutorFactory = factory;
+   }
+
+   @JsonProperty("permissionLookups")
+   public PermissionLookupExecutorFactory getPermissionLookupExecutorFactory() {
+      return permissionLookupExecutorFactory;
+   }
 }
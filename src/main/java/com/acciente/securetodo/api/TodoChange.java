@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.api;
+
+/**
+ * An entry of the todo change log: the todo item was granted to the accessor (identified by email) by being created
+ * or shared, or, if there is no accessor, it was updated for everyone who can view it.
+ */
+public class TodoChange {
+   private final long   id;
+   private final long   todoItemId;
+   private final String accessor;
+
+   public TodoChange(long id, long todoItemId, String accessor) {
+      this.id = id;
+      this.todoItemId = todoItemId;
+      this.accessor = accessor;
+   }
+
+   /**
+    * Returns a new entry for the change log, which assigns its ID when it is appended.
+    */
+   public static TodoChange of(long todoItemId, String accessor) {
+      return new TodoChange(0, todoItemId, accessor);
+   }
+
+   public long getId() {
+      return id;
+   }
+
+   public long getTodoItemId() {
+      return todoItemId;
+   }
+
+   public String getAccessor() {
+      return accessor;
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if (this == o) {
+         return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+         return false;
+      }
+
+      TodoChange todoChange = (TodoChange) o;
+
+      if (id != todoChange.id) {
+         return false;
+      }
+      if (todoItemId != todoChange.todoItemId) {
+         return false;
+      }
+      return accessor != null ? accessor.equals(todoChange.accessor) : todoChange.accessor == null;
+   }
+
+   @Override
+   public int hashCode() {
+      int result = (int) (id ^ (id >>> 32));
+      result = 31 * result + (int) (todoItemId ^ (todoItemId >>> 32));
+      result = 31 * result + (accessor != null ? accessor.hashCode() : 0);
+      return result;
+   }
+
+   @Override
+   public String toString() {
+      return "TodoChange{id=" + id + ", todoItemId=" + todoItemId + ", accessor='" + accessor + "'}";
+   }
+}
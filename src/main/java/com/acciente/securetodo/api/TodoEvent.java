@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.api;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * An event pushed to the users a todo item changed for: the todo item was created by, or shared with, the accessor
+ * (identified by email), or it was updated for everyone who can view it, in which case there is no accessor.
+ */
+@JsonAutoDetect
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TodoEvent {
+   public static final String TYPE_CREATED = "created";
+   public static final String TYPE_UPDATED = "updated";
+   public static final String TYPE_SHARED  = "shared";
+
+   private final String type;
+   private final long   todoItemId;
+   private final Long   version;
+   private final String accessor;
+
+   private TodoEvent(String type, long todoItemId, Long version, String accessor) {
+      this.type = type;
+      this.todoItemId = todoItemId;
+      this.version = version;
+      this.accessor = accessor;
+   }
+
+   public static TodoEvent created(TodoItem todoItem, String accessor) {
+      return new TodoEvent(TYPE_CREATED, todoItem.getId(), todoItem.getVersion(), accessor);
+   }
+
+   public static TodoEvent updated(TodoItem todoItem) {
+      return new TodoEvent(TYPE_UPDATED, todoItem.getId(), todoItem.getVersion(), null);
+   }
+
+   public static TodoEvent shared(long todoItemId, String accessor) {
+      return new TodoEvent(TYPE_SHARED, todoItemId, null, accessor);
+   }
+
+   public String getType() {
+      return type;
+   }
+
+   public long getTodoItemId() {
+      return todoItemId;
+   }
+
+   // the version of the todo item the event is about, if known, so clients that already have it can skip reading it
+   public Long getVersion() {
+      return version;
+   }
+
+   // only used to route the event, the client it is pushed to is the accessor (or one of the viewers)
+   @JsonIgnore
+   public String getAccessor() {
+      return accessor;
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if (this == o) {
+         return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+         return false;
+      }
+
+      TodoEvent todoEvent = (TodoEvent) o;
+
+      if (todoItemId != todoEvent.todoItemId) {
+         return false;
+      }
+      if (!type.equals(todoEvent.type)) {
+         return false;
+      }
+      if (version != null ? !version.equals(todoEvent.version) : todoEvent.version != null) {
+         return false;
+      }
+      return accessor != null ? accessor.equals(todoEvent.accessor) : todoEvent.accessor == null;
+   }
+
+   @Override
+   public int hashCode() {
+      int result = type.hashCode();
+      result = 31 * result + (int) (todoItemId ^ (todoItemId >>> 32));
+      result = 31 * result + (version != null ? version.hashCode() : 0);
+      result = 31 * result + (accessor != null ? accessor.hashCode() : 0);
+      return result;
+   }
+
+   @Override
+   public String toString() {
+      return "TodoEvent{type='" + type + "', todoItemId=" + todoItemId + ", version=" + version
+            + ", accessor='" + accessor + "'}";
+   }
+}
@@ -24,24 +24,44 @@ import javax.ws.rs.core.UriBuilder;
 
 @JsonAutoDetect
 public class TodoItem {
+   // resolved once, since building it from the resource's @Path annotation on every instance is costly
+   private static final String URL_PREFIX = UriBuilder.fromResource(TodoItemResource.class).build().toString() + "/";
 
    private final long id;
    private final String title;
    private final Boolean completed;
    private final String url;
+   private final Long oaccResourceId;
+   private final Long version;
 
    private TodoItem() {
       id = -1;
       title = null;
       completed = null;
       url = null;
+      oaccResourceId = null;
+      version = null;
    }
 
    public TodoItem(long id, String title, Boolean completed) {
+      this(id, title, completed, null);
+   }
+
+   public TodoItem(long id, String title, Boolean completed, Long oaccResourceId) {
+      this(id, title, completed, oaccResourceId, null);
+   }
+
+   public TodoItem(long id, String title, Boolean completed, Long oaccResourceId, Long version) {
       this.id = id;
       this.title = title;
       this.completed = completed;
-      this.url = UriBuilder.fromResource(TodoItemResource.class).path("{todoId}").build(id).toString();
+      this.url = urlOf(id);
+      this.oaccResourceId = oaccResourceId;
+      this.version = version;
+   }
+
+   public static String urlOf(long id) {
+      return URL_PREFIX + id;
    }
 
    public long getId() {
@@ -60,10 +80,33 @@ public class TodoItem {
       return url;
    }
 
+   // the internal ID of the todo item's OACC resource, if known; it is never exposed to (or accepted from) clients
+   @JsonIgnore
+   public Long getOaccResourceId() {
+      return oaccResourceId;
+   }
+
+   public TodoItem withOaccResourceId(Long oaccResourceId) {
+      return new TodoItem(id, title, completed, oaccResourceId, version);
+   }
+
+   // the version of the stored todo item, which every write increments; clients see it as the ETag, not in the body
+   @JsonIgnore
+   public Long getVersion() {
+      return version;
+   }
+
+   public TodoItem withVersion(Long version) {
+      return new TodoItem(id, title, completed, oaccResourceId, version);
+   }
+
+   // the patched instance keeps the version it was patched from
    public TodoItem getPatchedInstance(TodoItem patchItem) {
       return new TodoItem(id,
                           patchItem.title == null ? title : patchItem.title,
-                          patchItem.completed == null ? completed : patchItem.completed);
+                          patchItem.completed == null ? completed : patchItem.completed,
+                          oaccResourceId,
+                          version);
    }
 
    // Method that must return true for the object to be valid in the context of patching
@@ -72,6 +115,8 @@ public class TodoItem {
       return !((title == null) && (completed == null));
    }
 
+   // the oacc resource ID and the version are bookkeeping rather than part of the todo item, so they are left out of
+   // equals and hashCode
    @Override
    public boolean equals(Object o) {
       if (this == o) {
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.api;
+
+import com.acciente.oacc.ResourcePermission;
+
+/**
+ * The permissions an accessor (identified by email) has on a todo item, as a bit set of the {@code PERMISSION_*} bits.
+ */
+public class TodoItemAccess {
+   public static final int PERMISSION_VIEW           = 1;
+   public static final int PERMISSION_EDIT           = 1 << 1;
+   public static final int PERMISSION_MARK_COMPLETED = 1 << 2;
+
+   private final String accessor;
+   private final long   todoItemId;
+   private final int    permissions;
+
+   public TodoItemAccess(String accessor, long todoItemId, int permissions) {
+      this.accessor = accessor;
+      this.todoItemId = todoItemId;
+      this.permissions = permissions;
+   }
+
+   public String getAccessor() {
+      return accessor;
+   }
+
+   public long getTodoItemId() {
+      return todoItemId;
+   }
+
+   public int getPermissions() {
+      return permissions;
+   }
+
+   /**
+    * Returns the bit for the specified todo permission name, or 0 if the permission is not one that is tracked.
+    */
+   public static int getPermissionBit(String permissionName) {
+      switch (permissionName) {
+         case "VIEW":
+            return PERMISSION_VIEW;
+         case "EDIT":
+            return PERMISSION_EDIT;
+         case "MARK-COMPLETED":
+            return PERMISSION_MARK_COMPLETED;
+         default:
+            return 0;
+      }
+   }
+
+   public static int getPermissionBits(ResourcePermission... resourcePermissions) {
+      int permissions = 0;
+      for (ResourcePermission resourcePermission : resourcePermissions) {
+         permissions |= getPermissionBit(resourcePermission.getPermissionName());
+      }
+      return permissions;
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if (this == o) {
+         return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+         return false;
+      }
+
+      TodoItemAccess todoItemAccess = (TodoItemAccess) o;
+
+      if (todoItemId != todoItemAccess.todoItemId) {
+         return false;
+      }
+      if (permissions != todoItemAccess.permissions) {
+         return false;
+      }
+      return accessor != null ? accessor.equals(todoItemAccess.accessor) : todoItemAccess.accessor == null;
+   }
+
+   @Override
+   public int hashCode() {
+      int result = accessor != null ? accessor.hashCode() : 0;
+      result = 31 * result + (int) (todoItemId ^ (todoItemId >>> 32));
+      result = 31 * result + permissions;
+      return result;
+   }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.api;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * The outcome of creating or updating one todo item of a batch: either the resulting todo item, or the status (and
+ * possibly the reason) it was not created or updated.
+ */
+@JsonAutoDetect
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TodoItemBatchResult {
+   public static final int STATUS_UPDATED     = 200;
+   public static final int STATUS_CREATED     = 201;
+   public static final int STATUS_FORBIDDEN   = 403;
+   public static final int STATUS_NOT_FOUND   = 404;
+   public static final int STATUS_CONFLICT    = 409;
+   public static final int STATUS_UNPROCESSED = 422;
+
+   private final int      status;
+   private final TodoItem todo;
+   private final String   error;
+
+   private TodoItemBatchResult() {
+      status = 0;
+      todo = null;
+      error = null;
+   }
+
+   private TodoItemBatchResult(int status, TodoItem todo, String error) {
+      this.status = status;
+      this.todo = todo;
+      this.error = error;
+   }
+
+   public static TodoItemBatchResult created(TodoItem todoItem) {
+      return new TodoItemBatchResult(STATUS_CREATED, todoItem, null);
+   }
+
+   public static TodoItemBatchResult updated(TodoItem todoItem) {
+      return new TodoItemBatchResult(STATUS_UPDATED, todoItem, null);
+   }
+
+   public static TodoItemBatchResult rejected(String error) {
+      return new TodoItemBatchResult(STATUS_UNPROCESSED, null, error);
+   }
+
+   public static TodoItemBatchResult forbidden() {
+      return new TodoItemBatchResult(STATUS_FORBIDDEN, null, null);
+   }
+
+   public static TodoItemBatchResult notFound(String error) {
+      return new TodoItemBatchResult(STATUS_NOT_FOUND, null, error);
+   }
+
+   public static TodoItemBatchResult conflict(String error) {
+      return new TodoItemBatchResult(STATUS_CONFLICT, null, error);
+   }
+
+   public int getStatus() {
+      return status;
+   }
+
+   public TodoItem getTodo() {
+      return todo;
+   }
+
+   public String getError() {
+      return error;
+   }
+
+   @JsonIgnore
+   public boolean isCreated() {
+      return status == STATUS_CREATED;
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if (this == o) {
+         return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+         return false;
+      }
+
+      TodoItemBatchResult todoItemBatchResult = (TodoItemBatchResult) o;
+
+      if (status != todoItemBatchResult.status) {
+         return false;
+      }
+      if (todo != null ? !todo.equals(todoItemBatchResult.todo) : todoItemBatchResult.todo != null) {
+         return false;
+      }
+      return error != null ? error.equals(todoItemBatchResult.error) : todoItemBatchResult.error == null;
+   }
+
+   @Override
+   public int hashCode() {
+      int result = status;
+      result = 31 * result + (todo != null ? todo.hashCode() : 0);
+      result = 31 * result + (error != null ? error.hashCode() : 0);
+      return result;
+   }
+}
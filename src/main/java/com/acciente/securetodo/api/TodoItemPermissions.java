@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.api;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * The permissions the authenticated user has on one todo item, as a bit set of the {@code TodoItemAccess.PERMISSION_*}
+ * bits, along with the todo item itself if it was asked for and the user can view it.
+ */
+@JsonAutoDetect
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TodoItemPermissions {
+   private final long     todoItemId;
+   private final int      permissions;
+   private final TodoItem todo;
+
+   private TodoItemPermissions() {
+      todoItemId = -1;
+      permissions = 0;
+      todo = null;
+   }
+
+   public TodoItemPermissions(long todoItemId, int permissions, TodoItem todo) {
+      this.todoItemId = todoItemId;
+      this.permissions = permissions;
+      this.todo = todo;
+   }
+
+   public long getTodoItemId() {
+      return todoItemId;
+   }
+
+   public int getPermissions() {
+      return permissions;
+   }
+
+   public TodoItem getTodo() {
+      return todo;
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if (this == o) {
+         return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+         return false;
+      }
+
+      TodoItemPermissions todoItemPermissions = (TodoItemPermissions) o;
+
+      if (todoItemId != todoItemPermissions.todoItemId) {
+         return false;
+      }
+      if (permissions != todoItemPermissions.permissions) {
+         return false;
+      }
+      return todo != null ? todo.equals(todoItemPermissions.todo) : todoItemPermissions.todo == null;
+   }
+
+   @Override
+   public int hashCode() {
+      int result = (int) (todoItemId ^ (todoItemId >>> 32));
+      result = 31 * result + permissions;
+      result = 31 * result + (todo != null ? todo.hashCode() : 0);
+      return result;
+   }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.api;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * The outcome of sharing one todo item with one user, as part of a bulk share.
+ */
+@JsonAutoDetect
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TodoItemShareResult {
+   public static final int STATUS_SHARED      = 204;
+   public static final int STATUS_FORBIDDEN   = 403;
+   public static final int STATUS_NOT_FOUND   = 404;
+   public static final int STATUS_UNPROCESSED = 422;
+
+   private final long   todoItemId;
+   private final String email;
+   private final int    status;
+   private final String error;
+
+   private TodoItemShareResult() {
+      todoItemId = -1;
+      email = null;
+      status = 0;
+      error = null;
+   }
+
+   private TodoItemShareResult(long todoItemId, String email, int status, String error) {
+      this.todoItemId = todoItemId;
+      this.email = email;
+      this.status = status;
+      this.error = error;
+   }
+
+   public static TodoItemShareResult shared(long todoItemId, String email) {
+      return new TodoItemShareResult(todoItemId, email, STATUS_SHARED, null);
+   }
+
+   public static TodoItemShareResult failed(long todoItemId, String email, int status, String error) {
+      return new TodoItemShareResult(todoItemId, email, status, error);
+   }
+
+   public long getTodoItemId() {
+      return todoItemId;
+   }
+
+   public String getEmail() {
+      return email;
+   }
+
+   public int getStatus() {
+      return status;
+   }
+
+   public String getError() {
+      return error;
+   }
+
+   @JsonIgnore
+   public boolean isShared() {
+      return status == STATUS_SHARED;
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if (this == o) {
+         return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+         return false;
+      }
+
+      TodoItemShareResult todoItemShareResult = (TodoItemShareResult) o;
+
+      if (todoItemId != todoItemShareResult.todoItemId) {
+         return false;
+      }
+      if (status != todoItemShareResult.status) {
+         return false;
+      }
+      if (email != null ? !email.equals(todoItemShareResult.email) : todoItemShareResult.email != null) {
+         return false;
+      }
+      return error != null ? error.equals(todoItemShareResult.error) : todoItemShareResult.error == null;
+   }
+
+   @Override
+   public int hashCode() {
+      int result = (int) (todoItemId ^ (todoItemId >>> 32));
+      result = 31 * result + (email != null ? email.hashCode() : 0);
+      result = 31 * result + status;
+      result = 31 * result + (error != null ? error.hashCode() : 0);
+      return result;
+   }
+}
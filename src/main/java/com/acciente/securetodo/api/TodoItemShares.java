@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.api;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+
+import java.util.List;
+
+/**
+ * A request to share each of the listed todo items with each of the listed users.
+ */
+@JsonAutoDetect
+public class TodoItemShares {
+   private final List<Long>   todoItemIds;
+   private final List<String> emails;
+
+   private TodoItemShares() {
+      todoItemIds = null;
+      emails = null;
+   }
+
+   public TodoItemShares(List<Long> todoItemIds, List<String> emails) {
+      this.todoItemIds = todoItemIds;
+      this.emails = emails;
+   }
+
+   public List<Long> getTodoItemIds() {
+      return todoItemIds;
+   }
+
+   public List<String> getEmails() {
+      return emails;
+   }
+}
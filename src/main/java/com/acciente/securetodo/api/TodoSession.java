@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.api;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+
+@JsonAutoDetect
+public class TodoSession {
+   private final String token;
+   private final String tokenType;
+   private final long   expiresIn;
+
+   private TodoSession() {
+      token = null;
+      tokenType = null;
+      expiresIn = 0;
+   }
+
+   public TodoSession(String token, long expiresIn) {
+      this.token = token;
+      this.tokenType = "Bearer";
+      this.expiresIn = expiresIn;
+   }
+
+   public String getToken() {
+      return token;
+   }
+
+   public String getTokenType() {
+      return tokenType;
+   }
+
+   public long getExpiresIn() {
+      return expiresIn;
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if (this == o) {
+         return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+         return false;
+      }
+
+      TodoSession todoSession = (TodoSession) o;
+
+      return token != null ? token.equals(todoSession.token) : todoSession.token == null;
+   }
+
+   @Override
+   public int hashCode() {
+      return token != null ? token.hashCode() : 0;
+   }
+}
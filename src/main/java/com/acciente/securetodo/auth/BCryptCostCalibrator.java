@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.acciente.oacc.encryptor.bcrypt.BCryptPasswordEncryptor;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long bcrypt hashing takes on the current host, to pick a cost factor that fits a latency budget.
+ */
+public class BCryptCostCalibrator {
+   public static final int MINIMUM_COST = 4;
+   public static final int MAXIMUM_COST = 31;
+
+   private static final char[] SAMPLE_PASSWORD = "calibration-sample-password".toCharArray();
+
+   private BCryptCostCalibrator() {
+   }
+
+   /**
+    * Returns the median time in milliseconds that hashing a password with the specified cost factor takes.
+    */
+   public static long measureMillis(int cost, int samples) {
+      final BCryptPasswordEncryptor passwordEncryptor = BCryptPasswordEncryptor.newInstance(cost);
+      final long[] elapsedNanos = new long[samples];
+      for (int i = 0; i < samples; i++) {
+         final long startNanos = System.nanoTime();
+         passwordEncryptor.encryptPassword(SAMPLE_PASSWORD);
+         elapsedNanos[i] = System.nanoTime() - startNanos;
+      }
+      Arrays.sort(elapsedNanos);
+      return TimeUnit.NANOSECONDS.toMillis(elapsedNanos[samples / 2]);
+   }
+
+   /**
+    * Returns the highest cost factor, starting at the specified minimum cost, whose hashing time stays within the
+    * target; if even the minimum cost exceeds the target, the minimum cost is returned.
+    */
+   public static int findHighestCost(int minimumCost, long targetMillis, int samples) {
+      int highestCost = minimumCost;
+      for (int cost = minimumCost; cost <= MAXIMUM_COST; cost++) {
+         if (measureMillis(cost, samples) > targetMillis) {
+            break;
+         }
+         highestCost = cost;
+      }
+      return highestCost;
+   }
+}
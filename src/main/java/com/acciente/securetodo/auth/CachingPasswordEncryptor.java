@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.acciente.oacc.encryptor.PasswordEncryptor;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Password encryptor that remembers recently verified credentials, so that a repeat login with the same
+ * password does not have to pay for another (deliberately slow) check by the wrapped encryptor.
+ * <p>
+ * Entries are keyed on a salted SHA-256 digest of the stored password hash and the submitted password; neither the
+ * plaintext password nor the stored hash is kept in memory. Because the stored hash is part of the key, changing a
+ * password implicitly invalidates any cached entry for the old one. Only successful checks are cached.
+ */
+public class CachingPasswordEncryptor implements PasswordEncryptor {
+   private static final int SALT_LENGTH = 32;
+
+   private final PasswordEncryptor        passwordEncryptor;
+   private final byte[]                   salt;
+   private final Cache<HashCode, Boolean> verifiedCredentials;
+   private final Meter                    hits;
+   private final Meter                    misses;
+   private final Meter                    evictions;
+
+   public CachingPasswordEncryptor(PasswordEncryptor passwordEncryptor,
+                                   long maximumSize,
+                                   long expireAfterWriteMillis,
+                                   MetricRegistry metrics) {
+      this.passwordEncryptor = passwordEncryptor;
+      this.salt = new byte[SALT_LENGTH];
+      new SecureRandom().nextBytes(salt);
+
+      hits = metrics.meter(getClass().getCanonicalName() + " hits");
+      misses = metrics.meter(getClass().getCanonicalName() + " misses");
+      evictions = metrics.meter(getClass().getCanonicalName() + " evictions");
+
+      verifiedCredentials = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS)
+            .removalListener(notification -> {
+               if (notification.wasEvicted()) {
+                  evictions.mark();
+               }
+            })
+            .build();
+   }
+
+   @Override
+   public String encryptPassword(char[] plainPassword) {
+      return passwordEncryptor.encryptPassword(plainPassword);
+   }
+
+   @Override
+   public boolean checkPassword(char[] plainPassword, String storedPassword) {
+      if (plainPassword == null || storedPassword == null) {
+         return passwordEncryptor.checkPassword(plainPassword, storedPassword);
+      }
+
+      final HashCode key = computeKey(plainPassword, storedPassword);
+      if (verifiedCredentials.getIfPresent(key) != null) {
+         hits.mark();
+         return true;
+      }
+
+      misses.mark();
+      final boolean isValid = passwordEncryptor.checkPassword(plainPassword, storedPassword);
+      if (isValid) {
+         verifiedCredentials.put(key, Boolean.TRUE);
+      }
+      return isValid;
+   }
+
+   public long size() {
+      return verifiedCredentials.size();
+   }
+
+   public void invalidateAll() {
+      verifiedCredentials.invalidateAll();
+   }
+
+   private HashCode computeKey(char[] plainPassword, String storedPassword) {
+      return Hashing.sha256().newHasher()
+            .putBytes(salt)
+            .putString(storedPassword, StandardCharsets.UTF_8)
+            .putInt(plainPassword.length)
+            .putUnencodedChars(CharBuffer.wrap(plainPassword))
+            .hash();
+   }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.acciente.oacc.encryptor.PasswordEncryptor;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+public class CredentialCacheFactory {
+   private boolean enabled = true;
+
+   @Min(1)
+   private long maximumSize = 10000;
+
+   @NotNull
+   private Duration expireAfterWrite = Duration.minutes(5);
+
+   @JsonProperty
+   public boolean isEnabled() {
+      return enabled;
+   }
+
+   @JsonProperty
+   public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+   }
+
+   @JsonProperty
+   public long getMaximumSize() {
+      return maximumSize;
+   }
+
+   @JsonProperty
+   public void setMaximumSize(long maximumSize) {
+      this.maximumSize = maximumSize;
+   }
+
+   @JsonProperty
+   public Duration getExpireAfterWrite() {
+      return expireAfterWrite;
+   }
+
+   @JsonProperty
+   public void setExpireAfterWrite(Duration expireAfterWrite) {
+      this.expireAfterWrite = expireAfterWrite;
+   }
+
+   public PasswordEncryptor build(MetricRegistry metrics, PasswordEncryptor passwordEncryptor) {
+      if (!enabled) {
+         return passwordEncryptor;
+      }
+      return new CachingPasswordEncryptor(passwordEncryptor,
+                                          maximumSize,
+                                          expireAfterWrite.toMilliseconds(),
+                                          metrics);
+   }
+}
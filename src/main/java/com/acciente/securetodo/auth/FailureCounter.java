@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded table of failure counters with exponential cool-down, one per key. Each counter packs the failure count
+ * (upper 16 bits) and the time of the last failure in milliseconds (lower 48 bits) into a single long, so it can be
+ * read and updated atomically.
+ * <p>
+ * Keys never share a counter, so that failures of one key can not cool down (or a success reset) another. Once the
+ * table is full, the least recently used counters are dropped; counters that saw no failure for the maximum cool-down
+ * period are dropped anyway, since their failures are forgotten by then.
+ */
+class FailureCounter {
+   private static final int  TIME_BITS     = 48;
+   private static final long TIME_MASK     = (1L << TIME_BITS) - 1;
+   private static final long MAX_COUNT     = 0xFFFF;
+   private static final int  MAX_DOUBLINGS = 30;
+
+   private final Cache<String, AtomicLong> counters;
+   private final int                       threshold;
+   private final long                      baseCooldownMillis;
+   private final long                      maxCooldownMillis;
+
+   FailureCounter(long maximumSize, int threshold, long baseCooldownMillis, long maxCooldownMillis) {
+      this.counters = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterAccess(maxCooldownMillis, TimeUnit.MILLISECONDS)
+            .build();
+      this.threshold = threshold;
+      this.baseCooldownMillis = baseCooldownMillis;
+      this.maxCooldownMillis = maxCooldownMillis;
+   }
+
+   /**
+    * Returns true if the key reached the failure threshold, and its last failure is more recent than the cool-down
+    * period, which doubles with each failure beyond the threshold.
+    */
+   boolean isCoolingDown(String key, long nowMillis) {
+      final AtomicLong counter = counters.getIfPresent(key);
+      if (counter == null) {
+         return false;
+      }
+      final long packedCounter = counter.get();
+      final long failureCount = getFailureCount(packedCounter, nowMillis);
+      if (failureCount < threshold) {
+         return false;
+      }
+      final long doublings = Math.min(failureCount - threshold, MAX_DOUBLINGS);
+      final long cooldownMillis = Math.min(maxCooldownMillis, baseCooldownMillis << doublings);
+      return nowMillis - (packedCounter & TIME_MASK) < cooldownMillis;
+   }
+
+   void recordFailure(String key, long nowMillis) {
+      final AtomicLong counter = counters.asMap().computeIfAbsent(key, k -> new AtomicLong());
+      long packedCounter;
+      long updatedCounter;
+      do {
+         packedCounter = counter.get();
+         final long failureCount = Math.min(getFailureCount(packedCounter, nowMillis) + 1, MAX_COUNT);
+         updatedCounter = (failureCount << TIME_BITS) | (nowMillis & TIME_MASK);
+      } while (!counter.compareAndSet(packedCounter, updatedCounter));
+   }
+
+   void reset(String key) {
+      counters.invalidate(key);
+   }
+
+   private long getFailureCount(long packedCounter, long nowMillis) {
+      // failures are forgotten once none was recorded for the maximum cool-down period
+      return nowMillis - (packedCounter & TIME_MASK) >= maxCooldownMillis ? 0 : packedCounter >>> TIME_BITS;
+   }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Rejects login attempts before any password hashing work is done, when the username or the client address has
+ * recently failed too often, or when the exact same username and password combination has just failed.
+ * <p>
+ * Once a username (or address) reaches its failure threshold, each further failure doubles the cool-down period
+ * during which its attempts are rejected, up to the maximum cool-down. Failures are counted per exact username (and
+ * address), and forgotten once no failure was recorded for the maximum cool-down period.
+ */
+public class LoginThrottle {
+   // same message as a plain missing or invalid credentials response, to not divulge that the login was throttled
+   public static final String REJECTED_MESSAGE = "Credentials are required to access this resource.";
+
+   private static final int SALT_LENGTH = 32;
+
+   private final LongSupplier             clock;
+   private final FailureCounter           usernameFailures;
+   private final FailureCounter           addressFailures;
+   private final byte[]                   salt;
+   private final Cache<HashCode, Boolean> failedCredentials;
+   private final Meter                    rejections;
+   private final Timer                    failedLogins;
+
+   public LoginThrottle(long failureCacheSize,
+                        int usernameThreshold,
+                        int addressThreshold,
+                        long baseCooldownMillis,
+                        long maxCooldownMillis,
+                        long negativeCacheSize,
+                        long negativeCacheTtlMillis,
+                        MetricRegistry metrics) {
+      this(failureCacheSize, usernameThreshold, addressThreshold, baseCooldownMillis, maxCooldownMillis,
+           negativeCacheSize, negativeCacheTtlMillis, metrics, System::currentTimeMillis);
+   }
+
+   LoginThrottle(long failureCacheSize,
+                 int usernameThreshold,
+                 int addressThreshold,
+                 long baseCooldownMillis,
+                 long maxCooldownMillis,
+                 long negativeCacheSize,
+                 long negativeCacheTtlMillis,
+                 MetricRegistry metrics,
+                 LongSupplier clock) {
+      this.clock = clock;
+      this.usernameFailures
+            = new FailureCounter(failureCacheSize, usernameThreshold, baseCooldownMillis, maxCooldownMillis);
+      this.addressFailures
+            = new FailureCounter(failureCacheSize, addressThreshold, baseCooldownMillis, maxCooldownMillis);
+      this.salt = new byte[SALT_LENGTH];
+      new SecureRandom().nextBytes(salt);
+      this.failedCredentials = CacheBuilder.newBuilder()
+            .maximumSize(negativeCacheSize)
+            .expireAfterWrite(negativeCacheTtlMillis, TimeUnit.MILLISECONDS)
+            .build();
+
+      rejections = metrics.meter(getClass().getCanonicalName() + " rejections");
+      failedLogins = metrics.timer(getClass().getCanonicalName() + " failed-logins");
+      // the password hashing time that the rejected attempts would have cost, based on the mean failed login time
+      metrics.register(getClass().getCanonicalName() + " estimated-cpu-saved-millis",
+                       (Gauge<Long>) () -> (long) (rejections.getCount()
+                             * failedLogins.getSnapshot().getMean() / TimeUnit.MILLISECONDS.toNanos(1)));
+   }
+
+   /**
+    * Returns true, and counts a rejection, if a login attempt with the specified credentials should be rejected
+    * without checking the password.
+    */
+   public boolean isRejected(String username, char[] password) {
+      if (usernameFailures.isCoolingDown(username, clock.getAsLong())
+            || failedCredentials.getIfPresent(computeKey(username, password)) != null) {
+         rejections.mark();
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Returns true, and counts a rejection, if a login attempt from the specified client address should be rejected.
+    */
+   public boolean isAddressRejected(String address) {
+      if (addressFailures.isCoolingDown(address, clock.getAsLong())) {
+         rejections.mark();
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Records a failed login that did not get as far as checking a password, e.g. for an unknown username.
+    */
+   public void recordFailure(String username) {
+      usernameFailures.recordFailure(username, clock.getAsLong());
+   }
+
+   /**
+    * Records a failed login due to a wrong password, and how long checking the password took.
+    */
+   public void recordFailure(String username, char[] password, long elapsedNanos) {
+      failedLogins.update(elapsedNanos, TimeUnit.NANOSECONDS);
+      usernameFailures.recordFailure(username, clock.getAsLong());
+      failedCredentials.put(computeKey(username, password), Boolean.TRUE);
+   }
+
+   public void recordSuccess(String username) {
+      usernameFailures.reset(username);
+   }
+
+   public void recordAddressFailure(String address) {
+      addressFailures.recordFailure(address, clock.getAsLong());
+   }
+
+   private HashCode computeKey(String username, char[] password) {
+      return Hashing.sha256().newHasher()
+            .putBytes(salt)
+            .putString(username, StandardCharsets.UTF_8)
+            .putInt(password.length)
+            .putUnencodedChars(CharBuffer.wrap(password))
+            .hash();
+   }
+}
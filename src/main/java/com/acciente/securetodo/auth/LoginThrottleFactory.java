@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+public class LoginThrottleFactory {
+   private boolean enabled = true;
+
+   @Min(1)
+   private long failureCacheSize = 100000;
+
+   @Min(1)
+   private int usernameThreshold = 5;
+
+   @Min(1)
+   private int addressThreshold = 20;
+
+   @NotNull
+   private Duration baseCooldown = Duration.seconds(1);
+
+   @NotNull
+   private Duration maxCooldown = Duration.minutes(15);
+
+   @Min(1)
+   private long negativeCacheSize = 10000;
+
+   @NotNull
+   private Duration negativeCacheTtl = Duration.seconds(30);
+
+   private String clientAddressHeader;
+
+   @JsonProperty
+   public boolean isEnabled() {
+      return enabled;
+   }
+
+   @JsonProperty
+   public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+   }
+
+   @JsonProperty
+   public long getFailureCacheSize() {
+      return failureCacheSize;
+   }
+
+   @JsonProperty
+   public void setFailureCacheSize(long failureCacheSize) {
+      this.failureCacheSize = failureCacheSize;
+   }
+
+   @JsonProperty
+   public int getUsernameThreshold() {
+      return usernameThreshold;
+   }
+
+   @JsonProperty
+   public void setUsernameThreshold(int usernameThreshold) {
+      this.usernameThreshold = usernameThreshold;
+   }
+
+   @JsonProperty
+   public int getAddressThreshold() {
+      return addressThreshold;
+   }
+
+   @JsonProperty
+   public void setAddressThreshold(int addressThreshold) {
+      this.addressThreshold = addressThreshold;
+   }
+
+   @JsonProperty
+   public Duration getBaseCooldown() {
+      return baseCooldown;
+   }
+
+   @JsonProperty
+   public void setBaseCooldown(Duration baseCooldown) {
+      this.baseCooldown = baseCooldown;
+   }
+
+   @JsonProperty
+   public Duration getMaxCooldown() {
+      return maxCooldown;
+   }
+
+   @JsonProperty
+   public void setMaxCooldown(Duration maxCooldown) {
+      this.maxCooldown = maxCooldown;
+   }
+
+   @JsonProperty
+   public long getNegativeCacheSize() {
+      return negativeCacheSize;
+   }
+
+   @JsonProperty
+   public void setNegativeCacheSize(long negativeCacheSize) {
+      this.negativeCacheSize = negativeCacheSize;
+   }
+
+   @JsonProperty
+   public Duration getNegativeCacheTtl() {
+      return negativeCacheTtl;
+   }
+
+   @JsonProperty
+   public void setNegativeCacheTtl(Duration negativeCacheTtl) {
+      this.negativeCacheTtl = negativeCacheTtl;
+   }
+
+   @JsonProperty
+   public String getClientAddressHeader() {
+      return clientAddressHeader;
+   }
+
+   @JsonProperty
+   public void setClientAddressHeader(String clientAddressHeader) {
+      this.clientAddressHeader = clientAddressHeader;
+   }
+
+   public LoginThrottle build(MetricRegistry metrics) {
+      return new LoginThrottle(failureCacheSize,
+                               usernameThreshold,
+                               addressThreshold,
+                               baseCooldown.toMilliseconds(),
+                               maxCooldown.toMilliseconds(),
+                               negativeCacheSize,
+                               negativeCacheTtl.toMilliseconds(),
+                               metrics);
+   }
+}
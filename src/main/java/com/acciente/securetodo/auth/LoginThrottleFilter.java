@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.acciente.oacc.NotAuthenticatedException;
+
+import javax.annotation.Priority;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+/**
+ * Rejects requests with Basic credentials from client addresses that recently failed to authenticate too often,
+ * before the credentials are checked, and records the failed authentications of the other such requests. Requests
+ * with other credentials, e.g. a session's bearer token, are neither rejected nor counted, since they do not check a
+ * password.
+ * <p>
+ * The client address is the one the request was received from, unless a header is specified that the proxy in front
+ * of the application appends the client's address to (e.g. X-Forwarded-For); the last address in it is then used,
+ * since any before it may have been forged by the client.
+ */
+@Priority(Priorities.AUTHENTICATION - 100)
+public class LoginThrottleFilter implements ContainerRequestFilter, ContainerResponseFilter {
+   private static final String REJECTED_PROPERTY = LoginThrottleFilter.class.getName() + ".rejected";
+   private static final String BASIC_PREFIX      = "Basic ";
+
+   private final LoginThrottle loginThrottle;
+   private final String        clientAddressHeader;
+
+   @Context
+   private HttpServletRequest httpServletRequest;
+
+   public LoginThrottleFilter(LoginThrottle loginThrottle, String clientAddressHeader) {
+      this.loginThrottle = loginThrottle;
+      this.clientAddressHeader = clientAddressHeader;
+   }
+
+   @Override
+   public void filter(ContainerRequestContext requestContext) {
+      if (hasBasicCredentials(requestContext)
+            && loginThrottle.isAddressRejected(getClientAddress(requestContext))) {
+         // don't count the rejection itself as another failure
+         requestContext.setProperty(REJECTED_PROPERTY, Boolean.TRUE);
+         throw new NotAuthenticatedException(LoginThrottle.REJECTED_MESSAGE);
+      }
+   }
+
+   @Override
+   public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+      if (responseContext.getStatus() == Response.Status.UNAUTHORIZED.getStatusCode()
+            && hasBasicCredentials(requestContext)
+            && requestContext.getProperty(REJECTED_PROPERTY) == null) {
+         loginThrottle.recordAddressFailure(getClientAddress(requestContext));
+      }
+   }
+
+   private static boolean hasBasicCredentials(ContainerRequestContext requestContext) {
+      final String authorization = requestContext.getHeaderString(HttpHeaders.AUTHORIZATION);
+      return authorization != null && authorization.regionMatches(true, 0, BASIC_PREFIX, 0, BASIC_PREFIX.length());
+   }
+
+   private String getClientAddress(ContainerRequestContext requestContext) {
+      if (clientAddressHeader != null) {
+         final String forwardedAddresses = requestContext.getHeaderString(clientAddressHeader);
+         if (forwardedAddresses != null) {
+            final String clientAddress
+                  = forwardedAddresses.substring(forwardedAddresses.lastIndexOf(',') + 1).trim();
+            if (!clientAddress.isEmpty()) {
+               return clientAddress;
+            }
+         }
+      }
+      return httpServletRequest.getRemoteAddr();
+   }
+}
@@ -17,6 +17,7 @@
 package com.acciente.securetodo.auth;
 
 import com.acciente.oacc.AccessControlContext;
+import com.acciente.oacc.NotAuthenticatedException;
 import com.acciente.oacc.PasswordCredentials;
 import com.acciente.oacc.Resources;
 import com.acciente.securetodo.AccessControlContextFactory;
@@ -28,9 +29,23 @@ import java.util.Optional;
 
 public class OaccBasicAuthenticator implements Authenticator<BasicCredentials, OaccPrincipal> {
    private final AccessControlContextFactory oaccFactory;
+   private final LoginThrottle               loginThrottle;
+   private final PasswordRehasher            passwordRehasher;
 
    public OaccBasicAuthenticator(AccessControlContextFactory accessControlContextFactory) {
+      this(accessControlContextFactory, null);
+   }
+
+   public OaccBasicAuthenticator(AccessControlContextFactory accessControlContextFactory, LoginThrottle loginThrottle) {
+      this(accessControlContextFactory, loginThrottle, null);
+   }
+
+   public OaccBasicAuthenticator(AccessControlContextFactory accessControlContextFactory,
+                                 LoginThrottle loginThrottle,
+                                 PasswordRehasher passwordRehasher) {
       this.oaccFactory = accessControlContextFactory;
+      this.loginThrottle = loginThrottle;
+      this.passwordRehasher = passwordRehasher;
    }
 
    @Override
@@ -40,19 +55,44 @@ public class OaccBasicAuthenticator implements Authenticator<BasicCredentials, O
       if (basicCredentials != null) {
          // the email from the basic auth username is the external id of the oacc user resource
          final String normalizedEmail = basicCredentials.getUsername().trim().toLowerCase();
+         final char[] password = basicCredentials.getPassword().toCharArray();
 
-         final AccessControlContext oacc = oaccFactory.build();
+         // reject logins for usernames that failed too often, before paying for any password hashing
+         if (loginThrottle != null && loginThrottle.isRejected(normalizedEmail, password)) {
+            throw new NotAuthenticatedException(LoginThrottle.REJECTED_MESSAGE);
+         }
+
+         final AccessControlContext oacc = oaccFactory.borrow();
+         final long startNanos = System.nanoTime();
          try {
-            // authenticate the oacc context and store it in a custom Principal
+            // authenticate the oacc context and store it in a custom Principal, which hands it back when closed
             oacc.authenticate(Resources.getInstance(normalizedEmail),
-                              PasswordCredentials.newInstance(basicCredentials.getPassword().toCharArray()));
-            oaccPrincipal = new OaccPrincipalImpl(oacc);
+                              PasswordCredentials.newInstance(password));
+            oaccPrincipal = new OaccPrincipalImpl(oacc, oaccFactory);
+            if (loginThrottle != null) {
+               loginThrottle.recordSuccess(normalizedEmail);
+            }
+            // bring the stored password hash up to the configured cost factor, while we have the plaintext
+            if (passwordRehasher != null) {
+               passwordRehasher.rehashIfNeeded(normalizedEmail, password);
+            }
          }
          catch (IllegalArgumentException e) {
             // swallow exception to not divulge any information
+            if (loginThrottle != null) {
+               loginThrottle.recordFailure(normalizedEmail);
+            }
          }
          catch (com.acciente.oacc.AuthenticationException e) {
             // swallow Auth exception to not divulge any information
+            if (loginThrottle != null) {
+               loginThrottle.recordFailure(normalizedEmail, password, System.nanoTime() - startNanos);
+            }
+         }
+         finally {
+            if (oaccPrincipal == null) {
+               oaccFactory.release(oacc);
+            }
          }
       }
 
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import io.dropwizard.auth.AuthenticationException;
+import io.dropwizard.auth.Authenticator;
+
+import java.util.Optional;
+
+public class OaccBearerAuthenticator implements Authenticator<String, OaccPrincipal> {
+   private final OaccSessionStore sessionStore;
+
+   public OaccBearerAuthenticator(OaccSessionStore sessionStore) {
+      this.sessionStore = sessionStore;
+   }
+
+   @Override
+   public Optional<OaccPrincipal> authenticate(String token) throws AuthenticationException {
+      if (token == null) {
+         return Optional.empty();
+      }
+
+      // the token resolves to a session that holds an already authenticated oacc context
+      return sessionStore.findSession(token);
+   }
+}
@@ -17,15 +17,30 @@
 package com.acciente.securetodo.auth;
 
 import com.acciente.oacc.AccessControlContext;
+import com.acciente.securetodo.AccessControlContextFactory;
 
 import javax.security.auth.Subject;
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class OaccPrincipalImpl implements OaccPrincipal {
+public class OaccPrincipalImpl implements OaccPrincipal, Closeable {
 
-   private final AccessControlContext accessControlContext;
+   private final AccessControlContext        accessControlContext;
+   private final AccessControlContextFactory oaccFactory;
+   private final AtomicBoolean               borrowed;
 
    public OaccPrincipalImpl(AccessControlContext oacc) {
+      this(oacc, null);
+   }
+
+   /**
+    * Creates a principal for an oacc context that was borrowed from the specified factory, and is
+    * handed back to it when the principal is closed at the end of the request.
+    */
+   public OaccPrincipalImpl(AccessControlContext oacc, AccessControlContextFactory accessControlContextFactory) {
       accessControlContext = oacc;
+      oaccFactory = accessControlContextFactory;
+      borrowed = new AtomicBoolean(accessControlContextFactory != null);
    }
 
    @Override
@@ -42,4 +57,20 @@ public class OaccPrincipalImpl implements OaccPrincipal {
    public boolean implies(Subject subject) {
       return false;
    }
+
+   /**
+    * Keeps the oacc context from being handed back to the factory, for when the principal outlives the request.
+    */
+   public void detach() {
+      if (borrowed.compareAndSet(true, false)) {
+         oaccFactory.detach(accessControlContext);
+      }
+   }
+
+   @Override
+   public void close() {
+      if (borrowed.compareAndSet(true, false)) {
+         oaccFactory.release(accessControlContext);
+      }
+   }
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import org.glassfish.jersey.server.CloseableService;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.Context;
+import java.io.Closeable;
+import java.security.Principal;
+
+/**
+ * Hands the authenticated principal's pooled oacc context back once the request is done, which includes writing
+ * out the response entity.
+ */
+@Priority(Priorities.AUTHORIZATION)
+public class OaccPrincipalReleaseFilter implements ContainerRequestFilter {
+   @Context
+   private CloseableService closeableService;
+
+   @Override
+   public void filter(ContainerRequestContext requestContext) {
+      final Principal principal = requestContext.getSecurityContext().getUserPrincipal();
+      if (principal instanceof Closeable) {
+         closeableService.add((Closeable) principal);
+      }
+   }
+}
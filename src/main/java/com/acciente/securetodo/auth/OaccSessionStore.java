@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-side store of authenticated sessions, each identified by an opaque bearer token.
+ * <p>
+ * A session holds the principal (and thus the already-authenticated OACC context) of the login that created it,
+ * so requests presenting the token do not have to authenticate against OACC again. Sessions expire after a period
+ * of inactivity, and unconditionally once they reach their maximum lifetime. Tokens are only kept as SHA-256 digests.
+ */
+public class OaccSessionStore {
+   private static final int TOKEN_LENGTH = 32;
+
+   private final SecureRandom                 secureRandom;
+   private final Ticker                       ticker;
+   private final long                         absoluteTimeoutNanos;
+   private final Cache<HashCode, OaccSession> sessions;
+   private final Timer                        lookups;
+
+   public OaccSessionStore(long maximumSize,
+                           long idleTimeoutMillis,
+                           long absoluteTimeoutMillis,
+                           MetricRegistry metrics) {
+      this(maximumSize, idleTimeoutMillis, absoluteTimeoutMillis, metrics, Ticker.systemTicker());
+   }
+
+   OaccSessionStore(long maximumSize,
+                    long idleTimeoutMillis,
+                    long absoluteTimeoutMillis,
+                    MetricRegistry metrics,
+                    Ticker ticker) {
+      this.secureRandom = new SecureRandom();
+      this.ticker = ticker;
+      this.absoluteTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(absoluteTimeoutMillis);
+      this.sessions = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterAccess(idleTimeoutMillis, TimeUnit.MILLISECONDS)
+            .ticker(ticker)
+            .build();
+
+      lookups = metrics.timer(getClass().getCanonicalName() + " lookups");
+      metrics.register(getClass().getCanonicalName() + " active",
+                       (Gauge<Long>) this::size);
+   }
+
+   public String createSession(OaccPrincipal oaccPrincipal) {
+      final byte[] tokenBytes = new byte[TOKEN_LENGTH];
+      secureRandom.nextBytes(tokenBytes);
+      final String token = Base64.getUrlEncoder().withoutPadding().encodeToString(tokenBytes);
+
+      // the session outlives the request that created it, so it has to keep the principal's oacc context for itself
+      if (oaccPrincipal instanceof OaccPrincipalImpl) {
+         ((OaccPrincipalImpl) oaccPrincipal).detach();
+      }
+      sessions.put(computeKey(token), new OaccSession(oaccPrincipal, ticker.read()));
+
+      return token;
+   }
+
+   public Optional<OaccPrincipal> findSession(String token) {
+      try (Timer.Context ignored = lookups.time()) {
+         final HashCode key = computeKey(token);
+         final OaccSession session = sessions.getIfPresent(key);
+         if (session == null) {
+            return Optional.empty();
+         }
+         if (ticker.read() - session.createdAtNanos >= absoluteTimeoutNanos) {
+            sessions.invalidate(key);
+            return Optional.empty();
+         }
+         return Optional.of(session.oaccPrincipal);
+      }
+   }
+
+   public boolean invalidateSession(String token) {
+      final HashCode key = computeKey(token);
+      final OaccSession session = sessions.getIfPresent(key);
+      if (session == null) {
+         return false;
+      }
+      sessions.invalidate(key);
+      return true;
+   }
+
+   public long getAbsoluteTimeoutSeconds() {
+      return TimeUnit.NANOSECONDS.toSeconds(absoluteTimeoutNanos);
+   }
+
+   public long size() {
+      sessions.cleanUp();
+      return sessions.size();
+   }
+
+   private static HashCode computeKey(String token) {
+      return Hashing.sha256().hashString(token, StandardCharsets.UTF_8);
+   }
+
+   private static class OaccSession {
+      private final OaccPrincipal oaccPrincipal;
+      private final long          createdAtNanos;
+
+      private OaccSession(OaccPrincipal oaccPrincipal, long createdAtNanos) {
+         this.oaccPrincipal = oaccPrincipal;
+         this.createdAtNanos = createdAtNanos;
+      }
+   }
+}
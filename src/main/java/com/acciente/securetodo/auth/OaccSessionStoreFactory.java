@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+public class OaccSessionStoreFactory {
+   @Min(1)
+   private long maximumSize = 100000;
+
+   @NotNull
+   private Duration idleTimeout = Duration.minutes(30);
+
+   @NotNull
+   private Duration absoluteTimeout = Duration.hours(12);
+
+   @JsonProperty
+   public long getMaximumSize() {
+      return maximumSize;
+   }
+
+   @JsonProperty
+   public void setMaximumSize(long maximumSize) {
+      this.maximumSize = maximumSize;
+   }
+
+   @JsonProperty
+   public Duration getIdleTimeout() {
+      return idleTimeout;
+   }
+
+   @JsonProperty
+   public void setIdleTimeout(Duration idleTimeout) {
+      this.idleTimeout = idleTimeout;
+   }
+
+   @JsonProperty
+   public Duration getAbsoluteTimeout() {
+      return absoluteTimeout;
+   }
+
+   @JsonProperty
+   public void setAbsoluteTimeout(Duration absoluteTimeout) {
+      this.absoluteTimeout = absoluteTimeout;
+   }
+
+   public OaccSessionStore build(MetricRegistry metrics) {
+      return new OaccSessionStore(maximumSize,
+                                  idleTimeout.toMilliseconds(),
+                                  absoluteTimeout.toMilliseconds(),
+                                  metrics);
+   }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.acciente.oacc.encryptor.PasswordEncryptor;
+
+/**
+ * Password encryptor that runs the wrapped encryptor within the bounds of the password hashing executor, i.e. only
+ * while the caller holds one of its hashing slots.
+ */
+public class OffloadedPasswordEncryptor implements PasswordEncryptor {
+   private final PasswordEncryptor       passwordEncryptor;
+   private final PasswordHashingExecutor hashingExecutor;
+
+   public OffloadedPasswordEncryptor(PasswordEncryptor passwordEncryptor, PasswordHashingExecutor hashingExecutor) {
+      this.passwordEncryptor = passwordEncryptor;
+      this.hashingExecutor = hashingExecutor;
+   }
+
+   @Override
+   public String encryptPassword(char[] plainPassword) {
+      return hashingExecutor.call(() -> passwordEncryptor.encryptPassword(plainPassword));
+   }
+
+   @Override
+   public boolean checkPassword(char[] plainPassword, String storedPassword) {
+      return hashingExecutor.call(() -> passwordEncryptor.checkPassword(plainPassword, storedPassword));
+   }
+}
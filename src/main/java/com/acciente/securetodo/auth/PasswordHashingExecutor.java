@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bounds the (deliberately slow) password hashing work to as many hashes at a time as the executor has threads, so
+ * that a burst of logins or signups can not tie up all CPUs, and rejects excess work right away instead of letting
+ * it pile up.
+ * <p>
+ * A caller that waits for the result anyway (e.g. a login) hashes on its own thread, once one of the hashing slots
+ * is free, instead of handing the work to another thread and blocking until it is done; at most as many callers as
+ * the executor's queue holds wait for a slot. Work nobody waits for (e.g. a rehash) is submitted to the executor,
+ * whose threads take the same slots. Only the hashing itself takes a slot, so I/O never holds one up.
+ * <p>
+ * Work that is already hashing runs inline, so it can hash passwords without waiting for a slot of its own.
+ */
+public class PasswordHashingExecutor {
+   private static final ThreadLocal<Boolean> IS_HASHING_THREAD = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+   private final ThreadPoolExecutor executor;
+   private final Semaphore          hashingSlots;
+   private final int                maximumWaitingCallers;
+   private final AtomicInteger      waitingCallers;
+   private final long               retryAfterSeconds;
+   private final Timer              queueWait;
+   private final Meter              rejections;
+
+   public PasswordHashingExecutor(ThreadPoolExecutor executor, long retryAfterSeconds, MetricRegistry metrics) {
+      this.executor = executor;
+      // the executor's size and queue capacity also bound the hashing done on the callers' own threads
+      this.hashingSlots = new Semaphore(executor.getMaximumPoolSize(), true);
+      this.maximumWaitingCallers = executor.getQueue().remainingCapacity();
+      this.waitingCallers = new AtomicInteger();
+      this.retryAfterSeconds = retryAfterSeconds;
+
+      queueWait = metrics.timer(getClass().getCanonicalName() + " queue-wait");
+      rejections = metrics.meter(getClass().getCanonicalName() + " rejections");
+      metrics.register(getClass().getCanonicalName() + " queue-depth",
+                       (Gauge<Integer>) () -> executor.getQueue().size() + waitingCallers.get());
+   }
+
+   /**
+    * Submits the task to run on a hashing thread, once a hashing slot is free.
+    *
+    * @throws RejectedExecutionException if the queue is full
+    */
+   public <T> CompletableFuture<T> submit(Supplier<T> task) {
+      final long submittedAt = System.nanoTime();
+      try {
+         return CompletableFuture.supplyAsync(() -> {
+            hashingSlots.acquireUninterruptibly();
+            try {
+               return runHashing(task, submittedAt);
+            }
+            finally {
+               hashingSlots.release();
+            }
+         }, executor);
+      }
+      catch (RejectedExecutionException e) {
+         rejections.mark();
+         throw e;
+      }
+   }
+
+   /**
+    * Runs the task on the calling thread, once a hashing slot is free, and returns its result.
+    *
+    * @throws RejectedExecutionException if too many callers are already waiting for a slot
+    */
+   public <T> T call(Supplier<T> task) {
+      if (IS_HASHING_THREAD.get()) {
+         return task.get();
+      }
+
+      final long submittedAt = System.nanoTime();
+      acquireHashingSlot();
+      try {
+         return runHashing(task, submittedAt);
+      }
+      finally {
+         hashingSlots.release();
+      }
+   }
+
+   public long getRetryAfterSeconds() {
+      return retryAfterSeconds;
+   }
+
+   private void acquireHashingSlot() {
+      if (hashingSlots.tryAcquire()) {
+         return;
+      }
+      if (waitingCallers.incrementAndGet() > maximumWaitingCallers) {
+         waitingCallers.decrementAndGet();
+         rejections.mark();
+         throw new RejectedExecutionException("Too many passwords are waiting to be hashed.");
+      }
+      try {
+         hashingSlots.acquire();
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RejectedExecutionException("Interrupted while waiting to hash a password.", e);
+      }
+      finally {
+         waitingCallers.decrementAndGet();
+      }
+   }
+
+   private <T> T runHashing(Supplier<T> task, long submittedAt) {
+      queueWait.update(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+      IS_HASHING_THREAD.set(Boolean.TRUE);
+      try {
+         return task.get();
+      }
+      finally {
+         IS_HASHING_THREAD.set(Boolean.FALSE);
+      }
+   }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+public class PasswordHashingExecutorFactory {
+   // zero means one thread per available processor
+   @Min(0)
+   private int threads = 0;
+
+   @Min(1)
+   private int queueSize = 128;
+
+   @NotNull
+   private Duration retryAfter = Duration.seconds(1);
+
+   @JsonProperty
+   public int getThreads() {
+      return threads;
+   }
+
+   @JsonProperty
+   public void setThreads(int threads) {
+      this.threads = threads;
+   }
+
+   @JsonProperty
+   public int getQueueSize() {
+      return queueSize;
+   }
+
+   @JsonProperty
+   public void setQueueSize(int queueSize) {
+      this.queueSize = queueSize;
+   }
+
+   @JsonProperty
+   public Duration getRetryAfter() {
+      return retryAfter;
+   }
+
+   @JsonProperty
+   public void setRetryAfter(Duration retryAfter) {
+      this.retryAfter = retryAfter;
+   }
+
+   public PasswordHashingExecutor build(Environment environment) {
+      final int threadCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+      final ThreadPoolExecutor executor
+            = (ThreadPoolExecutor) environment.lifecycle().executorService("password-hashing-%d")
+                  .minThreads(threadCount)
+                  .maxThreads(threadCount)
+                  .workQueue(new ArrayBlockingQueue<>(queueSize))
+                  .build();
+      return new PasswordHashingExecutor(executor, Math.max(1, retryAfter.toSeconds()), environment.metrics());
+   }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+public class PasswordHashingFactory {
+   private static final Logger LOGGER = LoggerFactory.getLogger(PasswordHashingFactory.class);
+
+   @Min(BCryptCostCalibrator.MINIMUM_COST)
+   @Max(BCryptCostCalibrator.MAXIMUM_COST)
+   private int cost = 12;
+
+   private boolean calibrate = false;
+
+   @NotNull
+   private Duration calibrationTarget = Duration.milliseconds(250);
+
+   @Min(BCryptCostCalibrator.MINIMUM_COST)
+   @Max(BCryptCostCalibrator.MAXIMUM_COST)
+   private int minimumCost = 10;
+
+   private boolean rehashOnLogin = true;
+
+   @JsonProperty
+   public int getCost() {
+      return cost;
+   }
+
+   @JsonProperty
+   public void setCost(int cost) {
+      this.cost = cost;
+   }
+
+   @JsonProperty
+   public boolean isCalibrate() {
+      return calibrate;
+   }
+
+   @JsonProperty
+   public void setCalibrate(boolean calibrate) {
+      this.calibrate = calibrate;
+   }
+
+   @JsonProperty
+   public Duration getCalibrationTarget() {
+      return calibrationTarget;
+   }
+
+   @JsonProperty
+   public void setCalibrationTarget(Duration calibrationTarget) {
+      this.calibrationTarget = calibrationTarget;
+   }
+
+   @JsonProperty
+   public int getMinimumCost() {
+      return minimumCost;
+   }
+
+   @JsonProperty
+   public void setMinimumCost(int minimumCost) {
+      this.minimumCost = minimumCost;
+   }
+
+   @JsonProperty
+   public boolean isRehashOnLogin() {
+      return rehashOnLogin;
+   }
+
+   @JsonProperty
+   public void setRehashOnLogin(boolean rehashOnLogin) {
+      this.rehashOnLogin = rehashOnLogin;
+   }
+
+   /**
+    * Returns the configured bcrypt cost factor or, in calibration mode, the highest cost factor (but no less than
+    * the minimum cost) whose hashing time on this host stays within the calibration target.
+    */
+   public int resolveCost() {
+      if (!calibrate) {
+         return cost;
+      }
+
+      final int calibratedCost = BCryptCostCalibrator.findHighestCost(minimumCost,
+                                                                      calibrationTarget.toMilliseconds(),
+                                                                      3);
+      LOGGER.info("Calibrated bcrypt cost factor to {} for a target of {}", calibratedCost, calibrationTarget);
+      return calibratedCost;
+   }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.acciente.oacc.AccessControlContext;
+import com.acciente.oacc.PasswordCredentials;
+import com.acciente.oacc.Resource;
+import com.acciente.oacc.Resources;
+import com.acciente.securetodo.AccessControlContextFactory;
+import com.acciente.securetodo.db.TodoUserDAO;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Re-hashes a user's stored password with the configured bcrypt cost factor after they successfully logged in, which
+ * is the only time the plaintext password is available. The work is done in the background on the password hashing
+ * executor, and skipped if that is saturated (the next login will try again).
+ * <p>
+ * The cost factor a password was hashed with is the one the application recorded with the todo user when it set the
+ * password, rather than read from oacc's storage of the password, whose format is oacc's own; a password whose cost
+ * was not recorded is rehashed (once) regardless.
+ */
+public class PasswordRehasher {
+   private static final Logger LOGGER = LoggerFactory.getLogger(PasswordRehasher.class);
+
+   private final TodoUserDAO                 todoUserDAO;
+   private final AccessControlContextFactory oaccFactory;
+   private final PasswordHashingExecutor     hashingExecutor;
+   private final int                         cost;
+   private final Cache<String, Boolean>      currentEmails;
+   private final Meter                       rehashes;
+   private final Meter                       skipped;
+
+   public PasswordRehasher(TodoUserDAO todoUserDAO,
+                           AccessControlContextFactory accessControlContextFactory,
+                           PasswordHashingExecutor passwordHashingExecutor,
+                           int cost,
+                           MetricRegistry metrics) {
+      this.todoUserDAO = todoUserDAO;
+      this.oaccFactory = accessControlContextFactory;
+      this.hashingExecutor = passwordHashingExecutor;
+      this.cost = cost;
+      // remembers the users whose stored password is known to already use the configured cost factor
+      this.currentEmails = CacheBuilder.newBuilder().maximumSize(100000).build();
+
+      rehashes = metrics.meter(getClass().getCanonicalName() + " rehashes");
+      skipped = metrics.meter(getClass().getCanonicalName() + " skipped");
+   }
+
+   /**
+    * Rehashes the password of the user with the specified (normalized) email, if it was not hashed with the configured
+    * cost factor.
+    */
+   public void rehashIfNeeded(String email, char[] password) {
+      if (currentEmails.getIfPresent(email) != null) {
+         return;
+      }
+
+      // the caller may clear its password, so hold on to a copy that is cleared once the rehash is done
+      final char[] passwordCopy = password.clone();
+      try {
+         hashingExecutor.submit(() -> rehash(email, passwordCopy));
+      }
+      catch (RejectedExecutionException e) {
+         Arrays.fill(passwordCopy, '\0');
+         skipped.mark();
+      }
+   }
+
+   private boolean rehash(String email, char[] password) {
+      try {
+         final Integer storedCost = todoUserDAO.findPasswordCost(email);
+         if (storedCost != null && storedCost == cost) {
+            currentEmails.put(email, Boolean.TRUE);
+            return false;
+         }
+
+         // setting credentials requires an authenticated context, and the request's own context may already be gone
+         final Resource resource = Resources.getInstance(email);
+         final AccessControlContext oacc = oaccFactory.build();
+         oacc.authenticate(resource, PasswordCredentials.newInstance(password));
+         oacc.setCredentials(resource, PasswordCredentials.newInstance(password));
+         oacc.unauthenticate();
+         todoUserDAO.updatePasswordCost(email, cost);
+
+         currentEmails.put(email, Boolean.TRUE);
+         rehashes.mark();
+         return true;
+      }
+      catch (RuntimeException e) {
+         LOGGER.warn("Could not rehash the password of {}", email, e);
+         return false;
+      }
+      finally {
+         Arrays.fill(password, '\0');
+      }
+   }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.acciente.oacc.AuthenticationProvider;
+import com.acciente.oacc.Credentials;
+import com.acciente.oacc.Resource;
+
+/**
+ * Authentication provider for short-lived oacc contexts that act on behalf of a resource another context already
+ * authenticated, e.g. to run that resource's oacc operations on a connection with an open transaction. It only
+ * lets that one resource authenticate, without credentials, and does not support managing credentials at all.
+ */
+public class PreAuthenticatedAuthenticationProvider implements AuthenticationProvider {
+   private final Resource authenticatedResource;
+
+   public PreAuthenticatedAuthenticationProvider(Resource authenticatedResource) {
+      this.authenticatedResource = authenticatedResource;
+   }
+
+   @Override
+   public void authenticate(Resource resource, Credentials credentials) {
+      throw new UnsupportedOperationException("Authentication with credentials is not supported.");
+   }
+
+   @Override
+   public void authenticate(Resource resource) {
+      // oacc hands over the resolved resource, so compare resource IDs rather than however the caller identified it
+      if (authenticatedResource.getId() == null || !authenticatedResource.getId().equals(resource.getId())) {
+         throw new IllegalArgumentException("Only the pre-authenticated resource can authenticate.");
+      }
+   }
+
+   @Override
+   public void validateCredentials(String resourceClassName, String domainName, Credentials credentials) {
+      throw new UnsupportedOperationException("Credentials are not supported.");
+   }
+
+   @Override
+   public void setCredentials(Resource resource, Credentials credentials) {
+      throw new UnsupportedOperationException("Credentials are not supported.");
+   }
+
+   @Override
+   public void deleteCredentials(Resource resource) {
+      throw new UnsupportedOperationException("Credentials are not supported.");
+   }
+}
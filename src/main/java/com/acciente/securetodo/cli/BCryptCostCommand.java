@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.cli;
+
+import com.acciente.securetodo.auth.BCryptCostCalibrator;
+import io.dropwizard.cli.Command;
+import io.dropwizard.setup.Bootstrap;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+/**
+ * Prints how long bcrypt hashing takes on this host for a range of cost factors, to help choose the
+ * {@code oacc.passwordHashing.cost} setting.
+ */
+public class BCryptCostCommand extends Command {
+   public BCryptCostCommand() {
+      super("bcrypt-cost", "Prints the bcrypt hashing time for a range of cost factors on this host");
+   }
+
+   @Override
+   public void configure(Subparser subparser) {
+      subparser.addArgument("--min")
+            .type(Integer.class)
+            .setDefault(8)
+            .help("lowest cost factor to measure");
+      subparser.addArgument("--max")
+            .type(Integer.class)
+            .setDefault(14)
+            .help("highest cost factor to measure");
+      subparser.addArgument("--samples")
+            .type(Integer.class)
+            .setDefault(3)
+            .help("number of hashes to time per cost factor (the median is printed)");
+   }
+
+   @Override
+   public void run(Bootstrap<?> bootstrap, Namespace namespace) throws Exception {
+      final int minimumCost = Math.max(BCryptCostCalibrator.MINIMUM_COST, namespace.getInt("min"));
+      final int maximumCost = Math.min(BCryptCostCalibrator.MAXIMUM_COST, namespace.getInt("max"));
+      final int samples = Math.max(1, namespace.getInt("samples"));
+
+      System.out.println("cost  millis");
+      for (int cost = minimumCost; cost <= maximumCost; cost++) {
+         System.out.printf("%4d  %6d%n", cost, BCryptCostCalibrator.measureMillis(cost, samples));
+      }
+   }
+}
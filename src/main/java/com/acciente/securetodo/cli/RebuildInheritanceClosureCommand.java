@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.cli;
+
+import com.acciente.securetodo.SecureTodoConfiguration;
+import com.acciente.securetodo.core.InheritanceClosure;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.cli.ConfiguredCommand;
+import io.dropwizard.db.ManagedDataSource;
+import io.dropwizard.setup.Bootstrap;
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.skife.jdbi.v2.DBI;
+
+/**
+ * Rebuilds the inheritance closure in oaccdb from the INHERIT grants in OACC, e.g. after grants were changed without
+ * going through the application.
+ */
+public class RebuildInheritanceClosureCommand extends ConfiguredCommand<SecureTodoConfiguration> {
+   public RebuildInheritanceClosureCommand() {
+      super("rebuild-inheritance-closure", "Rebuilds the inheritance closure from the INHERIT grants in OACC");
+   }
+
+   @Override
+   protected void run(Bootstrap<SecureTodoConfiguration> bootstrap,
+                      Namespace namespace,
+                      SecureTodoConfiguration configuration) throws Exception {
+      final MetricRegistry metrics = new MetricRegistry();
+      final ManagedDataSource oaccDataSource = configuration.getOaccSchemaDataSourceFactory().build(metrics, "oaccDb");
+      try {
+         final InheritanceClosure inheritanceClosure
+               = new InheritanceClosure(new DBI(oaccDataSource),
+                                        configuration.getAccessControlContextFactory().getSchemaName());
+         System.out.println(inheritanceClosure.rebuild() + " accessor/inherited resource pairs");
+      }
+      finally {
+         oaccDataSource.stop();
+      }
+   }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.cli;
+
+import com.acciente.securetodo.SecureTodoConfiguration;
+import com.acciente.securetodo.core.TodoItemAccessReconciler;
+import com.acciente.securetodo.db.TodoItemAccessDAO;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.cli.ConfiguredCommand;
+import io.dropwizard.db.ManagedDataSource;
+import io.dropwizard.setup.Bootstrap;
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.skife.jdbi.v2.DBI;
+
+/**
+ * Rebuilds the todo item access index in tododb from the todo permissions granted in OACC, e.g. after enabling the
+ * index on an existing database, or after grants were changed without going through the application.
+ */
+public class ReconcileTodoItemAccessCommand extends ConfiguredCommand<SecureTodoConfiguration> {
+   public ReconcileTodoItemAccessCommand() {
+      super("reconcile-todo-access", "Rebuilds the todo item access index from the todo permissions granted in OACC");
+   }
+
+   @Override
+   protected void run(Bootstrap<SecureTodoConfiguration> bootstrap,
+                      Namespace namespace,
+                      SecureTodoConfiguration configuration) throws Exception {
+      final MetricRegistry metrics = new MetricRegistry();
+      final ManagedDataSource oaccDataSource = configuration.getOaccSchemaDataSourceFactory().build(metrics, "oaccDb");
+      final ManagedDataSource todoDataSource = configuration.getTodoDbDataSourceFactory().build(metrics, "todoDb");
+      try {
+         final TodoItemAccessReconciler reconciler
+               = new TodoItemAccessReconciler(oaccDataSource,
+                                              configuration.getAccessControlContextFactory().getSchemaName(),
+                                              new DBI(todoDataSource).onDemand(TodoItemAccessDAO.class));
+         System.out.println(reconciler.reconcile());
+      }
+      finally {
+         todoDataSource.stop();
+         oaccDataSource.stop();
+      }
+   }
+}
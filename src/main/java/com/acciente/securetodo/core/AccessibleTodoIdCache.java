@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cache of the IDs of the todo items each accessor is authorized to view, keyed on the accessor's external ID
+ * (i.e. the user's email), so that listing todo items does not have to query OACC's permission tables every time.
+ * <p>
+ * Callers that change who can view a todo item have to {@link #invalidate} the affected accessors. A load that
+ * overlaps with any invalidation is returned to its caller but not cached, so a grant can never be masked by an
+ * ID set that was read just before it. Invalidation is local to this process; the expiry bounds how long changes
+ * made elsewhere (another node, or directly in the database) can go unnoticed.
+ */
+public class AccessibleTodoIdCache {
+   // approximate per-entry overhead of the cache's internal entry, the String key and the long[] value headers
+   private static final long ENTRY_OVERHEAD_BYTES = 128;
+
+   private final Cache<String, long[]> accessibleIds;
+   private final AtomicLong            generation;
+   private final Meter                 hits;
+   private final Meter                 misses;
+   private final Meter                 invalidations;
+
+   public AccessibleTodoIdCache(long maximumSize,
+                                long expireAfterWriteMillis,
+                                MetricRegistry metrics) {
+      this.accessibleIds = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS)
+            .build();
+      this.generation = new AtomicLong();
+
+      hits = metrics.meter(getClass().getCanonicalName() + " hits");
+      misses = metrics.meter(getClass().getCanonicalName() + " misses");
+      invalidations = metrics.meter(getClass().getCanonicalName() + " invalidations");
+      metrics.register(getClass().getCanonicalName() + " hit-ratio",
+                       new RatioGauge() {
+                          @Override
+                          protected Ratio getRatio() {
+                             return Ratio.of(hits.getCount(), hits.getCount() + misses.getCount());
+                          }
+                       });
+      metrics.register(getClass().getCanonicalName() + " size",
+                       (Gauge<Long>) this::size);
+      metrics.register(getClass().getCanonicalName() + " estimated-bytes",
+                       (Gauge<Long>) this::estimatedBytes);
+   }
+
+   /**
+    * Returns the sorted IDs of the todo items the specified accessor can view, calling the loader on a miss. The
+    * returned array is the caller's own copy, so that changing it cannot corrupt the cached IDs.
+    */
+   public long[] getIds(String accessorId, Supplier<long[]> loader) {
+      final long[] cachedIds = accessibleIds.getIfPresent(accessorId);
+      if (cachedIds != null) {
+         hits.mark();
+         return cachedIds.clone();
+      }
+
+      misses.mark();
+      final long loadGeneration = generation.get();
+      final long[] ids = loader.get();
+      Arrays.sort(ids);
+
+      if (generation.get() == loadGeneration) {
+         accessibleIds.put(accessorId, ids);
+         // an invalidation may have slipped in between the check and the put, in which case we drop our entry again
+         if (generation.get() != loadGeneration) {
+            accessibleIds.invalidate(accessorId);
+         }
+      }
+      return ids.clone();
+   }
+
+   /**
+    * Discards the cached IDs of the specified accessor; must be called <em>after</em> the change in OACC was made.
+    */
+   public void invalidate(String accessorId) {
+      generation.incrementAndGet();
+      accessibleIds.invalidate(accessorId);
+      invalidations.mark();
+   }
+
+   public void invalidateAll() {
+      generation.incrementAndGet();
+      accessibleIds.invalidateAll();
+      invalidations.mark();
+   }
+
+   public long size() {
+      accessibleIds.cleanUp();
+      return accessibleIds.size();
+   }
+
+   public long estimatedBytes() {
+      long bytes = 0;
+      for (Map.Entry<String, long[]> entry : accessibleIds.asMap().entrySet()) {
+         bytes += ENTRY_OVERHEAD_BYTES + 2L * entry.getKey().length() + 8L * entry.getValue().length;
+      }
+      return bytes;
+   }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.oacc.AccessControlContext;
+import com.acciente.oacc.Resource;
+import com.acciente.oacc.sql.SQLProfile;
+import com.acciente.securetodo.api.TodoItem;
+import com.acciente.securetodo.api.TodoItemBatchResult;
+import com.acciente.securetodo.db.TodoItemDAO;
+import com.google.common.base.Suppliers;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.exceptions.CallbackFailedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Todo item operations that rely on the OACC schema living in the same database as the todo items, so that they can
+ * share a connection (and thus a transaction) with OACC.
+ * <p>
+ * Todo items are created in the same transaction as their OACC resource, so a failure in either leaves nothing behind.
+ * The todo items a user can view are found with a single query that joins the VIEW grants of the user, and of the
+ * resources the user inherits from (as listed by the {@link InheritanceClosure}), with the todo item table, on the
+ * todo items' OACC resource IDs.
+ */
+public class ColocatedTodoItemStore {
+   private final DBI              todoJdbi;
+   private final String           oaccSchemaName;
+   private final SQLProfile       sqlProfile;
+   private final String           findViewPermissionIdsSql;
+   private final String           findTodoItemIdsSql;
+   private final Supplier<long[]> viewPermissionIds;
+
+   public ColocatedTodoItemStore(DBI todoJdbi, String oaccSchemaName, SQLProfile sqlProfile) {
+      this.todoJdbi = todoJdbi;
+      this.oaccSchemaName = oaccSchemaName;
+      this.sqlProfile = sqlProfile;
+      this.findViewPermissionIdsSql = "SELECT rc.ResourceClassID, p.PermissionID"
+            + " FROM " + oaccSchemaName + ".OAC_ResourceClass rc"
+            + " JOIN " + oaccSchemaName + ".OAC_ResourceClassPermission p ON p.ResourceClassID = rc.ResourceClassID"
+            + " WHERE rc.ResourceClassName = :resourceClass AND p.PermissionName = :permission";
+      // the grants are filtered by accessor, resource class and permission ID, and joined to the todo items by their
+      // oacc resource IDs, so the query does not have to go through (and parse) the external IDs at all; a todo item
+      // granted more than once (e.g. to the user and to a role the user inherits from) is only listed once
+      this.findTodoItemIdsSql = "SELECT DISTINCT t.id"
+            + " FROM " + oaccSchemaName + ".OAC_Grant_ResPerm g"
+            + " JOIN todo.todoItem t ON t.oaccResourceId = g.AccessedResourceID"
+            + " WHERE g.AccessorResourceID IN (SELECT c.InheritedResourceID"
+            + "                                FROM " + oaccSchemaName + ".InheritanceClosure c"
+            + "                                WHERE c.AccessorResourceID = :accessorId"
+            + "                                UNION VALUES (CAST(:accessorId AS BIGINT)))"
+            + "   AND g.ResourceClassID = :resourceClassId"
+            + "   AND g.PermissionID = :permissionId"
+            + "   AND t.id > :afterId"
+            + " ORDER BY t.id LIMIT :limit";
+      // the IDs of the todo resource class and its VIEW permission are fixed by the security model
+      this.viewPermissionIds = Suppliers.memoize(this::findViewPermissionIds);
+   }
+
+   /**
+    * Inserts the new todo item and registers it as a secured object in OACC on behalf of the specified (already
+    * authenticated) creator, all in one transaction.
+    */
+   public TodoItem createItem(Resource creatorResource, TodoItem newTodoItem) {
+      try {
+         return todoJdbi.inTransaction((handle, status) -> {
+            final TodoItemDAO todoItemDAO = handle.attach(TodoItemDAO.class);
+            final long newId = todoItemDAO.insert(newTodoItem);
+
+            final Resource todoItemResource
+                  = buildAccessControlContext(handle, creatorResource).createResource(SecurityModel.RESOURCECLASS_TODO,
+                                                                                      SecurityModel.DOMAIN_SECURE_TODO,
+                                                                                      String.valueOf(newId));
+            final TodoItem todoItem = todoItemDAO.findById(newId).withOaccResourceId(todoItemResource.getId());
+            todoItemDAO.updateOaccResourceId(todoItem);
+            return todoItem;
+         });
+      }
+      catch (CallbackFailedException e) {
+         throw OaccTransactionRunner.unwrap(e);
+      }
+   }
+
+   /**
+    * Registers the new (valid) todo items in OACC on behalf of the specified (already authenticated) creator and
+    * inserts them with a single batch, all in one transaction, and returns the outcome for each, in the same order.
+    * Todo items OACC rejects are not inserted; any other failure rolls back the whole batch.
+    */
+   public List<TodoItemBatchResult> createItems(Resource creatorResource, List<TodoItem> newTodoItems) {
+      try {
+         return todoJdbi.inTransaction((handle, status) -> {
+            final TodoItemDAO todoItemDAO = handle.attach(TodoItemDAO.class);
+            final List<TodoItem> todoItems = TodoItemBatch.assignIds(todoItemDAO, newTodoItems);
+
+            // within the transaction the order does not matter, so the todo items are registered first, which lets
+            // them be inserted along with the IDs of their oacc resources (and spares deleting the rejected ones)
+            final List<TodoItemBatchResult> results = new ArrayList<>(todoItems.size());
+            TodoItemBatch.register(buildAccessControlContext(handle, creatorResource), todoItems, results);
+
+            final List<TodoItem> createdTodoItems = TodoItemBatch.createdTodoItems(results);
+            if (!createdTodoItems.isEmpty()) {
+               todoItemDAO.insertAll(createdTodoItems);
+            }
+            return results;
+         });
+      }
+      catch (CallbackFailedException e) {
+         throw OaccTransactionRunner.unwrap(e);
+      }
+   }
+
+   /**
+    * Returns the IDs of up to {@code limit} of the todo items the specified accessor can view, in ascending order,
+    * starting after the item with the specified ID.
+    */
+   public List<Long> findTodoItemIds(Resource accessorResource, long afterId, int limit) {
+      final long[] resourceClassAndPermissionId = viewPermissionIds.get();
+      try (Handle handle = todoJdbi.open()) {
+         return handle.createQuery(findTodoItemIdsSql)
+               .bind("accessorId", accessorResource.getId())
+               .bind("resourceClassId", resourceClassAndPermissionId[0])
+               .bind("permissionId", resourceClassAndPermissionId[1])
+               .bind("afterId", afterId)
+               .bind("limit", limit)
+               .mapTo(Long.class)
+               .list();
+      }
+   }
+
+   private long[] findViewPermissionIds() {
+      try (Handle handle = todoJdbi.open()) {
+         final long[] resourceClassAndPermissionId
+               = handle.createQuery(findViewPermissionIdsSql)
+                     .bind("resourceClass", SecurityModel.RESOURCECLASS_TODO)
+                     .bind("permission", SecurityModel.PERM_VIEW.getPermissionName())
+                     .map((index, resultSet, context) -> new long[]{resultSet.getLong(1), resultSet.getLong(2)})
+                     .first();
+         if (resourceClassAndPermissionId == null) {
+            throw new IllegalStateException("The security model does not define the todo VIEW permission.");
+         }
+         return resourceClassAndPermissionId;
+      }
+   }
+
+   private AccessControlContext buildAccessControlContext(Handle handle, Resource authenticatedResource) {
+      return OaccTransactionRunner.buildAccessControlContext(handle.getConnection(),
+                                                             oaccSchemaName,
+                                                             sqlProfile,
+                                                             authenticatedResource);
+   }
+}
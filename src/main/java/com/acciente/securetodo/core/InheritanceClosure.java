@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.oacc.Resource;
+import com.acciente.securetodo.db.BindLongArray;
+import com.google.common.primitives.Longs;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.tweak.Argument;
+
+import java.util.List;
+
+/**
+ * Maintains the InheritanceClosure table in oaccdb, which lists every resource each accessor inherits from, directly
+ * or transitively, so that queries can resolve an accessor's inheritance with one indexed lookup.
+ * <p>
+ * The closure is derived from OACC's INHERIT grants. OACC does not know about the table, so it has to be refreshed
+ * whenever the application changes an INHERIT grant; grants changed without going through the application are only
+ * picked up by a rebuild. A refresh recomputes the rows of the accessor whose grants changed, and of all the
+ * accessors that inherit from it, in one transaction of its own.
+ * <p>
+ * Only the co-located todo list reads the table, so it is only maintained in co-located mode.
+ */
+public class InheritanceClosure {
+   // the ID under which OACC records *INHERIT grants
+   private static final long SYSPERMISSION_ID_INHERIT = SecurityModel.PERM_INHERIT.getSystemPermissionId();
+
+   private final DBI    oaccJdbi;
+   private final String findResourceIdSql;
+   private final String findInheritingIdsSql;
+   private final String deleteSql;
+   private final String deleteAllSql;
+   private final String insertSql;
+   private final String insertAllSql;
+
+   public InheritanceClosure(DBI oaccJdbi, String oaccSchemaName) {
+      this.oaccJdbi = oaccJdbi;
+      this.findResourceIdSql = "SELECT ResourceID FROM " + oaccSchemaName + ".OAC_ResourceExternalID"
+            + " WHERE ExternalID = :externalId";
+      this.findInheritingIdsSql = "SELECT AccessorResourceID FROM " + oaccSchemaName + ".InheritanceClosure"
+            + " WHERE InheritedResourceID = :resourceId";
+      this.deleteSql = "DELETE FROM " + oaccSchemaName + ".InheritanceClosure"
+            + " WHERE AccessorResourceID IN (UNNEST(:accessorIds))";
+      this.deleteAllSql = "DELETE FROM " + oaccSchemaName + ".InheritanceClosure";
+      this.insertSql = buildInsertSql(oaccSchemaName, " AND g.AccessorResourceID IN (UNNEST(:accessorIds))");
+      this.insertAllSql = buildInsertSql(oaccSchemaName, "");
+   }
+
+   private static String buildInsertSql(String oaccSchemaName, String accessorCondition) {
+      // the UNION (rather than UNION ALL) stops the recursion once no new pairs turn up
+      return "INSERT INTO " + oaccSchemaName + ".InheritanceClosure (AccessorResourceID, InheritedResourceID)"
+            + " WITH RECURSIVE Closure (AccessorResourceID, InheritedResourceID) AS ("
+            + "   SELECT g.AccessorResourceID, g.AccessedResourceID"
+            + "   FROM " + oaccSchemaName + ".OAC_Grant_ResPerm_Sys g"
+            + "   WHERE g.SysPermissionID = " + SYSPERMISSION_ID_INHERIT + accessorCondition
+            + "   UNION"
+            + "   SELECT c.AccessorResourceID, g.AccessedResourceID"
+            + "   FROM Closure c"
+            + "   JOIN " + oaccSchemaName + ".OAC_Grant_ResPerm_Sys g"
+            + "     ON g.AccessorResourceID = c.InheritedResourceID AND g.SysPermissionID = " + SYSPERMISSION_ID_INHERIT
+            + " )"
+            + " SELECT AccessorResourceID, InheritedResourceID FROM Closure"
+            + " WHERE AccessorResourceID <> InheritedResourceID";
+   }
+
+   /**
+    * Recomputes the closure of the specified accessor, and of every accessor that inherits from it, from the current
+    * INHERIT grants; to be called after an INHERIT grant of the accessor was added or revoked, or the accessor was
+    * deleted.
+    */
+   public void refresh(Resource accessorResource) {
+      oaccJdbi.inTransaction((handle, status) -> {
+         final Long accessorId = accessorResource.getId() != null
+                                 ? accessorResource.getId()
+                                 : findResourceId(handle, accessorResource.getExternalId());
+         if (accessorId == null) {
+            return null;
+         }
+
+         // the accessors that inherit from this one inherit whatever it gains or loses, too
+         final List<Long> accessorIds = handle.createQuery(findInheritingIdsSql)
+               .bind("resourceId", accessorId)
+               .mapTo(Long.class)
+               .list();
+         accessorIds.add(accessorId);
+
+         final Argument accessorIdArray = BindLongArray.LongArrayBinderFactory.toArgument(Longs.toArray(accessorIds));
+         handle.createStatement(deleteSql).bind("accessorIds", accessorIdArray).execute();
+         handle.createStatement(insertSql).bind("accessorIds", accessorIdArray).execute();
+         return null;
+      });
+   }
+
+   /**
+    * Recomputes the whole closure from the current INHERIT grants, and returns the number of rows it now has.
+    */
+   public int rebuild() {
+      return oaccJdbi.inTransaction((handle, status) -> {
+         handle.execute(deleteAllSql);
+         return handle.update(insertAllSql);
+      });
+   }
+
+   private Long findResourceId(Handle handle, String externalId) {
+      return handle.createQuery(findResourceIdSql)
+            .bind("externalId", externalId)
+            .mapTo(Long.class)
+            .first();
+   }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.oacc.Resource;
+import com.acciente.securetodo.api.TodoItem;
+import com.acciente.securetodo.db.TodoItemDAO;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fills in the OACC resource IDs of todo items that do not have theirs yet, i.e. ones created before the column
+ * existed, when the OACC schema lives in a database of its own (the migration fills them in if it is co-located).
+ * <p>
+ * The todo items are read in chunks, in ID order, and the external IDs of each chunk are resolved with a single query
+ * against OACC; todo items without an OACC resource are skipped, so they are not read again in the same run.
+ */
+public class OaccResourceIdBackfill {
+   static final int CHUNK_SIZE = 1000;
+
+   private final TodoItemDAO           todoItemDAO;
+   private final OaccTransactionRunner oaccTransactionRunner;
+
+   public OaccResourceIdBackfill(TodoItemDAO todoItemDAO,
+                                 OaccTransactionRunner oaccTransactionRunner) {
+      this.todoItemDAO = todoItemDAO;
+      this.oaccTransactionRunner = oaccTransactionRunner;
+   }
+
+   /**
+    * Returns the number of todo items whose OACC resource ID was filled in.
+    */
+   public int backfill() {
+      int backfilled = 0;
+      long afterId = Long.MIN_VALUE;
+      List<Long> todoItemIds;
+      do {
+         todoItemIds = todoItemDAO.findIdsWithoutOaccResourceId(afterId, CHUNK_SIZE);
+         if (todoItemIds.isEmpty()) {
+            break;
+         }
+         afterId = todoItemIds.get(todoItemIds.size() - 1);
+
+         final List<String> externalIds = new ArrayList<>(todoItemIds.size());
+         todoItemIds.forEach(todoItemId -> externalIds.add(String.valueOf(todoItemId)));
+         final Map<String, Resource> resources = oaccTransactionRunner.resolveResources(externalIds);
+
+         final List<TodoItem> todoItems = new ArrayList<>(resources.size());
+         for (Long todoItemId : todoItemIds) {
+            final Resource resource = resources.get(String.valueOf(todoItemId));
+            if (resource != null) {
+               // only the ID and the oacc resource ID are written
+               todoItems.add(new TodoItem(todoItemId, null, null, resource.getId()));
+            }
+         }
+         if (!todoItems.isEmpty()) {
+            for (int updateCount : todoItemDAO.updateOaccResourceIds(todoItems)) {
+               backfilled += updateCount;
+            }
+         }
+      } while (todoItemIds.size() == CHUNK_SIZE);
+      return backfilled;
+   }
+}
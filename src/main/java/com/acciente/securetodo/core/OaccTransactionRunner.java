@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.oacc.AccessControlContext;
+import com.acciente.oacc.Resource;
+import com.acciente.oacc.Resources;
+import com.acciente.oacc.sql.SQLAccessControlContextFactory;
+import com.acciente.oacc.sql.SQLProfile;
+import com.acciente.securetodo.auth.PreAuthenticatedAuthenticationProvider;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.exceptions.CallbackFailedException;
+
+import java.sql.Connection;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Runs a batch of OACC operations on behalf of an already authenticated resource on a single connection, in one
+ * transaction, instead of having every operation get (and commit on) a connection of its own.
+ */
+public class OaccTransactionRunner {
+   private final DBI        oaccJdbi;
+   private final String     oaccSchemaName;
+   private final SQLProfile sqlProfile;
+   private final String     resolveResourcesSql;
+
+   public OaccTransactionRunner(DBI oaccJdbi, String oaccSchemaName, SQLProfile sqlProfile) {
+      this.oaccJdbi = oaccJdbi;
+      this.oaccSchemaName = oaccSchemaName;
+      this.sqlProfile = sqlProfile;
+      this.resolveResourcesSql = "SELECT ResourceID, ExternalID"
+            + " FROM " + oaccSchemaName + ".OAC_ResourceExternalID"
+            + " WHERE ExternalID IN (UNNEST(:externalIds))";
+   }
+
+   /**
+    * Looks up the resources with the specified external IDs with a single query, and returns them by external ID, as
+    * resources that only carry their resource IDs; external IDs that do not belong to a resource are left out.
+    * <p>
+    * OACC still checks every resource it is handed, but by its resource ID, which is cheaper than by its external ID;
+    * a resource that also carries its external ID would have OACC resolve that, too, to check that the two match.
+    */
+   public Map<String, Resource> resolveResources(Collection<String> externalIds) {
+      final Map<String, Resource> resources = new HashMap<>();
+      try (Handle handle = oaccJdbi.open()) {
+         handle.createQuery(resolveResourcesSql)
+               .bind("externalIds", (position, statement, context) -> statement.setArray(
+                     position, statement.getConnection().createArrayOf("VARCHAR", externalIds.toArray())))
+               .map((index, resultSet, context) -> new SimpleImmutableEntry<>(resultSet.getString("ExternalID"),
+                                                                              resultSet.getLong("ResourceID")))
+               .forEach(entry -> resources.put(entry.getKey(), Resources.getInstance(entry.getValue())));
+      }
+      return resources;
+   }
+
+   /**
+    * Applies the work to an oacc context that acts as the specified (already authenticated) resource, and commits
+    * if the work returns normally; if it throws, everything it did is rolled back and the exception is passed on.
+    */
+   public <T> T inTransaction(Resource authenticatedResource, Function<AccessControlContext, T> work) {
+      try {
+         return oaccJdbi.inTransaction((handle, status) -> work.apply(
+               buildAccessControlContext(handle.getConnection(), oaccSchemaName, sqlProfile, authenticatedResource)));
+      }
+      catch (CallbackFailedException e) {
+         throw unwrap(e);
+      }
+   }
+
+   static AccessControlContext buildAccessControlContext(Connection connection,
+                                                         String oaccSchemaName,
+                                                         SQLProfile sqlProfile,
+                                                         Resource authenticatedResource) {
+      // a context bound to the transaction's connection, acting as the resource the request already authenticated
+      final AccessControlContext oacc
+            = SQLAccessControlContextFactory.getAccessControlContext(connection,
+                                                                     oaccSchemaName,
+                                                                     sqlProfile,
+                                                                     new PreAuthenticatedAuthenticationProvider(
+                                                                           authenticatedResource));
+      oacc.authenticate(authenticatedResource);
+      return oacc;
+   }
+
+   static RuntimeException unwrap(CallbackFailedException e) {
+      // the transaction was rolled back; surface oacc's own exception, so it maps to the right response
+      if (e.getCause() instanceof RuntimeException) {
+         return (RuntimeException) e.getCause();
+      }
+      return e;
+   }
+}
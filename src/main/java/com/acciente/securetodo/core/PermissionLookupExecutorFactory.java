@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.setup.Environment;
+
+import javax.validation.constraints.Min;
+import java.util.concurrent.ExecutorService;
+
+public class PermissionLookupExecutorFactory {
+   private boolean enabled = true;
+
+   // zero means one thread per available processor
+   @Min(0)
+   private int threads = 0;
+
+   @Min(1)
+   private int minimumBatchSize = 100;
+
+   @JsonProperty
+   public boolean isEnabled() {
+      return enabled;
+   }
+
+   @JsonProperty
+   public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+   }
+
+   @JsonProperty
+   public int getThreads() {
+      return threads;
+   }
+
+   @JsonProperty
+   public void setThreads(int threads) {
+      this.threads = threads;
+   }
+
+   @JsonProperty
+   public int getMinimumBatchSize() {
+      return minimumBatchSize;
+   }
+
+   @JsonProperty
+   public void setMinimumBatchSize(int minimumBatchSize) {
+      this.minimumBatchSize = minimumBatchSize;
+   }
+
+   /**
+    * Returns the executor that permission queries of at least the minimum batch size run their lookups on, or null if
+    * it is disabled.
+    */
+   public ExecutorService build(Environment environment) {
+      if (!enabled) {
+         return null;
+      }
+      final int threadCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+      return environment.lifecycle().executorService("permission-lookup-%d")
+            .minThreads(threadCount)
+            .maxThreads(threadCount)
+            .build();
+   }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+/**
+ * Thrown when a todo item is to be updated only if it is still at the version the client last saw, and it is not.
+ */
+public class StaleTodoItemException extends RuntimeException {
+   private final long todoItemId;
+
+   public StaleTodoItemException(long todoItemId) {
+      super("Todo item " + todoItemId + " was changed since it was read.");
+      this.todoItemId = todoItemId;
+   }
+
+   public long getTodoItemId() {
+      return todoItemId;
+   }
+}
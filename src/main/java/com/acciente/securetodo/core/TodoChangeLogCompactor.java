@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.securetodo.db.TodoChangeDAO;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Timestamp;
+
+/**
+ * Deletes the entries of the todo change log that are older than the retention, so that the log only grows with the
+ * rate of changes, not with their total. A client that last synced before the retention has to read all its todo
+ * items again, which {@link TodoItemService#findChanges} tells it.
+ */
+public class TodoChangeLogCompactor implements Runnable {
+   private static final Logger LOGGER = LoggerFactory.getLogger(TodoChangeLogCompactor.class);
+
+   private final TodoChangeDAO todoChangeDAO;
+   private final long          retentionMillis;
+   private final Meter         compactedEntries;
+
+   public TodoChangeLogCompactor(TodoChangeDAO todoChangeDAO,
+                                 long retentionMillis,
+                                 MetricRegistry metrics) {
+      this.todoChangeDAO = todoChangeDAO;
+      this.retentionMillis = retentionMillis;
+
+      compactedEntries = metrics.meter(getClass().getCanonicalName() + " compacted-entries");
+   }
+
+   /**
+    * Returns the number of entries that were deleted.
+    */
+   public int compact() {
+      final int deleteCount = todoChangeDAO.compact(new Timestamp(System.currentTimeMillis() - retentionMillis));
+      compactedEntries.mark(deleteCount);
+      return deleteCount;
+   }
+
+   @Override
+   public void run() {
+      try {
+         compact();
+      }
+      catch (RuntimeException e) {
+         // a scheduled task that throws is never run again, so we only log the failure and try again next time
+         LOGGER.warn("Compacting the todo change log failed", e);
+      }
+   }
+}
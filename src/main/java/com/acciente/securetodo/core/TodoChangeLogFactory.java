@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.securetodo.db.TodoChangeDAO;
+import com.acciente.securetodo.db.UnitOfWorkHandles;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+
+import javax.validation.constraints.NotNull;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class TodoChangeLogFactory {
+   private boolean enabled = true;
+
+   @NotNull
+   private Duration retention = Duration.days(7);
+
+   @NotNull
+   private Duration compactionInterval = Duration.hours(1);
+
+   @JsonProperty
+   public boolean isEnabled() {
+      return enabled;
+   }
+
+   @JsonProperty
+   public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+   }
+
+   @JsonProperty
+   public Duration getRetention() {
+      return retention;
+   }
+
+   @JsonProperty
+   public void setRetention(Duration retention) {
+      this.retention = retention;
+   }
+
+   @JsonProperty
+   public Duration getCompactionInterval() {
+      return compactionInterval;
+   }
+
+   @JsonProperty
+   public void setCompactionInterval(Duration compactionInterval) {
+      this.compactionInterval = compactionInterval;
+   }
+
+   /**
+    * Returns the DAO of the todo change log, and schedules its compaction, or returns null if it is disabled.
+    */
+   public TodoChangeDAO build(Environment environment, UnitOfWorkHandles todoHandles) {
+      if (!enabled) {
+         return null;
+      }
+      final TodoChangeDAO todoChangeDAO = todoHandles.onDemand(TodoChangeDAO.class);
+      final ScheduledExecutorService executor
+            = environment.lifecycle().scheduledExecutorService("todo-change-log-compaction").build();
+      executor.scheduleWithFixedDelay(new TodoChangeLogCompactor(todoChangeDAO,
+                                                                 retention.toMilliseconds(),
+                                                                 environment.metrics()),
+                                      compactionInterval.toMilliseconds(),
+                                      compactionInterval.toMilliseconds(),
+                                      TimeUnit.MILLISECONDS);
+      return todoChangeDAO;
+   }
+}
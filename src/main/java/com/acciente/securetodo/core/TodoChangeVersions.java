@@ -0,0 +1,219 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.securetodo.api.TodoItem;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+/**
+ * Per-user change versions, keyed on the user's external ID (i.e. the user's email), which let a client that polls
+ * its todo items be told "not modified" without any OACC or SQL reads.
+ * <p>
+ * A user's version changes whenever a todo item the user was handed changes, or the todo items the user can view
+ * change. To tell which users to change on a write, the users each todo item was handed to are recorded (before the
+ * todo item is read, so that a write can not slip in between unnoticed); a todo item that falls out of this record
+ * changes the versions of its users, just as a write would. Versions are drawn from one sequence, so a version that
+ * was changed, or that expired, is never handed out again. The sequence starts at a random point in each process, so
+ * that neither a restarted process nor another node hands out a version a client may still hold from before.
+ * <p>
+ * Callers that write todo items, or change who can view them, have to report it <em>after</em> the change was made.
+ * Changes are only seen in this process; the expiry bounds how long changes made elsewhere (another node, or directly
+ * in the database) can go unnoticed.
+ */
+public class TodoChangeVersions {
+   // the sequence starts below this, which leaves it more increments than a process can ever draw before it wraps
+   private static final long MAXIMUM_INITIAL_VERSION = Long.MAX_VALUE / 2;
+
+   private final AtomicLong                         sequence;
+   private final Cache<String, Long>                userVersions;
+   private final Cache<Long, HandedOutTodoItem>     handedOutTodoItems;
+   private final Cache<String, Long>                representationBytes;
+   private final Meter                              notModified;
+   private final Meter                              modified;
+   private final Meter                              bytesSaved;
+
+   public TodoChangeVersions(long maximumSize,
+                             long expireAfterWriteMillis,
+                             MetricRegistry metrics) {
+      this.sequence = new AtomicLong(ThreadLocalRandom.current().nextLong(MAXIMUM_INITIAL_VERSION));
+      this.userVersions = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS)
+            .build();
+      this.handedOutTodoItems = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS)
+            .removalListener((RemovalNotification<Long, HandedOutTodoItem> notification) -> {
+               // a todo item that is no longer recorded can not report its writes, so its users are changed now
+               if (notification.wasEvicted()) {
+                  notification.getValue().accessorIds.forEach(this::changed);
+               }
+            })
+            .build();
+      this.representationBytes = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS)
+            .build();
+
+      notModified = metrics.meter(getClass().getCanonicalName() + " not-modified");
+      modified = metrics.meter(getClass().getCanonicalName() + " modified");
+      bytesSaved = metrics.meter(getClass().getCanonicalName() + " bytes-saved");
+      metrics.register(getClass().getCanonicalName() + " not-modified-ratio",
+                       new RatioGauge() {
+                          @Override
+                          protected Ratio getRatio() {
+                             return Ratio.of(notModified.getCount(), notModified.getCount() + modified.getCount());
+                          }
+                       });
+      metrics.register(getClass().getCanonicalName() + " size",
+                       (Gauge<Long>) this::size);
+   }
+
+   /**
+    * Returns the current version of the specified user; must be called <em>before</em> the user's todo items are
+    * looked up, so that the version can only be older than what is handed out, never newer.
+    */
+   public long getVersion(String accessorId) {
+      try {
+         return userVersions.get(accessorId, sequence::incrementAndGet);
+      }
+      catch (ExecutionException e) {
+         throw new IllegalStateException(e.getCause());
+      }
+   }
+
+   public boolean isUnchanged(String accessorId, long version) {
+      final Long currentVersion = userVersions.getIfPresent(accessorId);
+      return currentVersion != null && currentVersion == version;
+   }
+
+   /**
+    * Returns true if the specified todo item was handed to the specified user at the specified (todo item) version,
+    * and has not changed since.
+    */
+   public boolean isTodoItemUnchanged(String accessorId, long todoItemId, long todoItemVersion) {
+      final HandedOutTodoItem handedOutTodoItem = handedOutTodoItems.getIfPresent(todoItemId);
+      return handedOutTodoItem != null
+            && handedOutTodoItem.version == todoItemVersion
+            && handedOutTodoItem.accessorIds.contains(accessorId);
+   }
+
+   /**
+    * Records that the specified todo items are handed to the specified user; must be called <em>before</em> they
+    * are read.
+    */
+   public void handOut(String accessorId, long[] todoItemIds) {
+      for (long todoItemId : todoItemIds) {
+         getHandedOutTodoItem(todoItemId).accessorIds.add(accessorId);
+      }
+   }
+
+   /**
+    * Records that the specified todo item is handed to the specified user, and returns it, as read by the loader
+    * (which returns null if there is no such todo item).
+    */
+   public TodoItem handOut(String accessorId, long todoItemId, LongFunction<TodoItem> loader) {
+      final HandedOutTodoItem handedOutTodoItem = getHandedOutTodoItem(todoItemId);
+      handedOutTodoItem.accessorIds.add(accessorId);
+
+      final TodoItem todoItem = loader.apply(todoItemId);
+      if (todoItem != null && todoItem.getVersion() != null) {
+         synchronized (handedOutTodoItem) {
+            // a version other than the one recorded means the todo item was written elsewhere, unnoticed
+            if (handedOutTodoItem.version != HandedOutTodoItem.NO_VERSION
+                  && handedOutTodoItem.version != todoItem.getVersion()) {
+               handedOutTodoItem.accessorIds.forEach(this::changed);
+            }
+            handedOutTodoItem.version = todoItem.getVersion();
+         }
+      }
+      return todoItem;
+   }
+
+   /**
+    * Changes the version of the specified user, e.g. because the todo items the user can view changed.
+    */
+   public void changed(String accessorId) {
+      userVersions.put(accessorId, sequence.incrementAndGet());
+   }
+
+   /**
+    * Changes the versions of all the users the specified todo items were handed to.
+    */
+   public void todoItemsChanged(long... todoItemIds) {
+      for (long todoItemId : todoItemIds) {
+         final HandedOutTodoItem handedOutTodoItem = handedOutTodoItems.asMap().remove(todoItemId);
+         if (handedOutTodoItem != null) {
+            handedOutTodoItem.accessorIds.forEach(this::changed);
+         }
+      }
+   }
+
+   /**
+    * Counts a response that was not modified, and the bytes it saved, as far as they are known.
+    */
+   public void notModified(String accessorId, String representationKey) {
+      notModified.mark();
+      final Long bytes = representationBytes.getIfPresent(accessorId + " " + representationKey);
+      if (bytes != null) {
+         bytesSaved.mark(bytes);
+      }
+   }
+
+   /**
+    * Counts a response that was modified, and remembers its size, for when it is not modified later.
+    */
+   public void modified(String accessorId, String representationKey, long bytes) {
+      modified.mark();
+      representationBytes.put(accessorId + " " + representationKey, bytes);
+   }
+
+   public long size() {
+      handedOutTodoItems.cleanUp();
+      return handedOutTodoItems.size();
+   }
+
+   private HandedOutTodoItem getHandedOutTodoItem(long todoItemId) {
+      try {
+         return handedOutTodoItems.get(todoItemId, HandedOutTodoItem::new);
+      }
+      catch (ExecutionException e) {
+         throw new IllegalStateException(e.getCause());
+      }
+   }
+
+   private static class HandedOutTodoItem {
+      private static final long NO_VERSION = -1;
+
+      private final Set<String> accessorIds = ConcurrentHashMap.newKeySet();
+      private volatile long     version     = NO_VERSION;
+   }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.securetodo.api.TodoEvent;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An in-process bus that pushes todo events to the connected clients of the users they concern: an event with an
+ * accessor goes to the accessor's connections, and an event without one to the connections of everyone who can view
+ * the todo item. Which todo items a connection's user can view is taken when it subscribes, and grows with every
+ * event that grants the user another todo item.
+ * <p>
+ * Publishing never blocks: each connection has a bounded queue, which is drained by one task at a time on the
+ * delivery executor, so a slow client only holds up its own events. A client whose queue is full is dropped instead
+ * of buffered for; it reconnects, and catches up through the todo change log. Events are only seen in this process.
+ */
+public class TodoEventBus {
+   // queued in place of an event to send a heartbeat
+   private static final Delivery HEARTBEAT = new Delivery(null, 0);
+
+   private final int                                      queueCapacity;
+   private final Executor                                 deliveryExecutor;
+   private final Set<Subscription>                        subscriptions;
+   private final ConcurrentMap<String, Set<Subscription>> subscriptionsByAccessor;
+   private final Meter                                    publishedEvents;
+   private final Meter                                    droppedConnections;
+   private final Timer                                    fanOutLatency;
+
+   public TodoEventBus(int queueCapacity,
+                       Executor deliveryExecutor,
+                       MetricRegistry metrics) {
+      this.queueCapacity = queueCapacity;
+      this.deliveryExecutor = deliveryExecutor;
+      this.subscriptions = ConcurrentHashMap.newKeySet();
+      this.subscriptionsByAccessor = new ConcurrentHashMap<>();
+
+      publishedEvents = metrics.meter(getClass().getCanonicalName() + " published-events");
+      droppedConnections = metrics.meter(getClass().getCanonicalName() + " dropped-connections");
+      // from publishing an event to having written it to a connection, once for each connection it is pushed to
+      fanOutLatency = metrics.timer(getClass().getCanonicalName() + " fan-out-latency");
+      metrics.register(getClass().getCanonicalName() + " connections",
+                       (Gauge<Integer>) this::getConnectionCount);
+   }
+
+   /**
+    * Subscribes the connection of the specified user to the events of the todo items the user can view, as listed by
+    * the sorted IDs; a user that is not known by email (i.e. without an accessor ID) only gets the update events.
+    */
+   public Subscription subscribe(String accessorId, long[] sortedViewableIds, TodoEventSink todoEventSink) {
+      final Subscription subscription = new Subscription(accessorId, sortedViewableIds, todoEventSink);
+      subscriptions.add(subscription);
+      if (accessorId != null) {
+         subscriptionsByAccessor.computeIfAbsent(accessorId, key -> ConcurrentHashMap.newKeySet()).add(subscription);
+      }
+      return subscription;
+   }
+
+   /**
+    * Pushes the event to the connections it concerns; must be called <em>after</em> the change was made.
+    */
+   public void publish(TodoEvent todoEvent) {
+      publishedEvents.mark();
+      final Delivery delivery = new Delivery(todoEvent, System.nanoTime());
+      if (todoEvent.getAccessor() != null) {
+         final Set<Subscription> accessorSubscriptions = subscriptionsByAccessor.get(todoEvent.getAccessor());
+         if (accessorSubscriptions != null) {
+            for (Subscription subscription : accessorSubscriptions) {
+               subscription.grant(todoEvent.getTodoItemId());
+               subscription.offer(delivery);
+            }
+         }
+      }
+      else {
+         for (Subscription subscription : subscriptions) {
+            if (subscription.canView(todoEvent.getTodoItemId())) {
+               subscription.offer(delivery);
+            }
+         }
+      }
+   }
+
+   public void publishAll(List<TodoEvent> todoEvents) {
+      todoEvents.forEach(this::publish);
+   }
+
+   /**
+    * Queues a heartbeat on every connection, which drops the clients that fell behind by more than a full queue, and
+    * closes the connections of clients that went away (which is otherwise only noticed at the next event).
+    */
+   public void heartbeat() {
+      subscriptions.forEach(subscription -> subscription.offer(HEARTBEAT));
+   }
+
+   public int getConnectionCount() {
+      return subscriptions.size();
+   }
+
+   /**
+    * Closes every connection, e.g. when the application stops.
+    */
+   public void closeAll() {
+      subscriptions.forEach(Subscription::close);
+   }
+
+   private void unsubscribe(Subscription subscription) {
+      subscriptions.remove(subscription);
+      if (subscription.accessorId != null) {
+         subscriptionsByAccessor.computeIfPresent(subscription.accessorId, (accessorId, accessorSubscriptions) -> {
+            accessorSubscriptions.remove(subscription);
+            return accessorSubscriptions.isEmpty() ? null : accessorSubscriptions;
+         });
+      }
+   }
+
+   private static class Delivery {
+      private final TodoEvent todoEvent;
+      private final long      publishedNanos;
+
+      private Delivery(TodoEvent todoEvent, long publishedNanos) {
+         this.todoEvent = todoEvent;
+         this.publishedNanos = publishedNanos;
+      }
+   }
+
+   /**
+    * The subscription of one connection, which lasts until the connection is closed.
+    */
+   public class Subscription {
+      private final String                  accessorId;
+      private final long[]                  sortedViewableIds;
+      private final Set<Long>               grantedIds;
+      private final BlockingQueue<Delivery> queue;
+      private final TodoEventSink           todoEventSink;
+      private final AtomicBoolean           closed;
+      // held by whoever writes to (or closes) the sink, so that the sink is only ever used by one thread at a time
+      private final AtomicBoolean           draining;
+
+      private Subscription(String accessorId, long[] sortedViewableIds, TodoEventSink todoEventSink) {
+         this.accessorId = accessorId;
+         this.sortedViewableIds = sortedViewableIds;
+         this.grantedIds = ConcurrentHashMap.newKeySet();
+         this.queue = new ArrayBlockingQueue<>(queueCapacity);
+         this.todoEventSink = todoEventSink;
+         this.closed = new AtomicBoolean();
+         this.draining = new AtomicBoolean();
+      }
+
+      public String getAccessorId() {
+         return accessorId;
+      }
+
+      public boolean isClosed() {
+         return closed.get();
+      }
+
+      /**
+       * Unsubscribes the connection, and closes it as soon as it is not written to.
+       */
+      public void close() {
+         if (closed.compareAndSet(false, true)) {
+            unsubscribe(this);
+            queue.clear();
+            closeSinkIfIdle();
+         }
+      }
+
+      private boolean canView(long todoItemId) {
+         return Arrays.binarySearch(sortedViewableIds, todoItemId) >= 0 || grantedIds.contains(todoItemId);
+      }
+
+      private void grant(long todoItemId) {
+         grantedIds.add(todoItemId);
+      }
+
+      private void offer(Delivery delivery) {
+         if (closed.get()) {
+            return;
+         }
+         if (!queue.offer(delivery)) {
+            // the client does not keep up, so it is dropped rather than buffered for without bound
+            droppedConnections.mark();
+            close();
+            return;
+         }
+         scheduleDrain();
+      }
+
+      private void scheduleDrain() {
+         if (draining.compareAndSet(false, true)) {
+            try {
+               deliveryExecutor.execute(this::drain);
+            }
+            catch (RejectedExecutionException e) {
+               draining.set(false);
+               close();
+            }
+         }
+      }
+
+      private void drain() {
+         try {
+            Delivery delivery;
+            while (!closed.get() && (delivery = queue.poll()) != null) {
+               deliver(delivery);
+            }
+         }
+         catch (IOException | RuntimeException e) {
+            // the client went away
+            close();
+         }
+         draining.set(false);
+         if (closed.get()) {
+            closeSinkIfIdle();
+         }
+         else if (!queue.isEmpty()) {
+            scheduleDrain();
+         }
+      }
+
+      private void deliver(Delivery delivery) throws IOException {
+         if (delivery == HEARTBEAT) {
+            todoEventSink.sendHeartbeat();
+         }
+         else {
+            todoEventSink.send(delivery.todoEvent);
+            fanOutLatency.update(System.nanoTime() - delivery.publishedNanos, TimeUnit.NANOSECONDS);
+         }
+      }
+
+      // the draining flag is never released again, so nothing is written to the sink after it was closed
+      private void closeSinkIfIdle() {
+         if (draining.compareAndSet(false, true)) {
+            todoEventSink.close();
+         }
+      }
+   }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class TodoEventBusFactory {
+   private boolean enabled = true;
+
+   @Min(1)
+   private int queueCapacity = 64;
+
+   @Min(1)
+   private int deliveryThreads = 4;
+
+   @NotNull
+   private Duration heartbeatInterval = Duration.seconds(15);
+
+   @JsonProperty
+   public boolean isEnabled() {
+      return enabled;
+   }
+
+   @JsonProperty
+   public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+   }
+
+   @JsonProperty
+   public int getQueueCapacity() {
+      return queueCapacity;
+   }
+
+   @JsonProperty
+   public void setQueueCapacity(int queueCapacity) {
+      this.queueCapacity = queueCapacity;
+   }
+
+   @JsonProperty
+   public int getDeliveryThreads() {
+      return deliveryThreads;
+   }
+
+   @JsonProperty
+   public void setDeliveryThreads(int deliveryThreads) {
+      this.deliveryThreads = deliveryThreads;
+   }
+
+   @JsonProperty
+   public Duration getHeartbeatInterval() {
+      return heartbeatInterval;
+   }
+
+   @JsonProperty
+   public void setHeartbeatInterval(Duration heartbeatInterval) {
+      this.heartbeatInterval = heartbeatInterval;
+   }
+
+   /**
+    * Returns the todo event bus, and schedules its heartbeats, or returns null if it is disabled.
+    */
+   public TodoEventBus build(Environment environment) {
+      if (!enabled) {
+         return null;
+      }
+      final ExecutorService deliveryExecutor = environment.lifecycle().executorService("todo-event-delivery-%d")
+            .minThreads(deliveryThreads)
+            .maxThreads(deliveryThreads)
+            .build();
+      final TodoEventBus todoEventBus = new TodoEventBus(queueCapacity, deliveryExecutor, environment.metrics());
+
+      final ScheduledExecutorService heartbeatExecutor
+            = environment.lifecycle().scheduledExecutorService("todo-event-heartbeat").build();
+      heartbeatExecutor.scheduleWithFixedDelay(todoEventBus::heartbeat,
+                                               heartbeatInterval.toMilliseconds(),
+                                               heartbeatInterval.toMilliseconds(),
+                                               TimeUnit.MILLISECONDS);
+
+      // connections are held open indefinitely, so they are closed before the server stops
+      environment.lifecycle().manage(new Managed() {
+         @Override
+         public void start() {
+         }
+
+         @Override
+         public void stop() {
+            todoEventBus.closeAll();
+         }
+      });
+      return todoEventBus;
+   }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.securetodo.api.TodoEvent;
+
+import java.io.IOException;
+
+/**
+ * The connection of one client that todo events are pushed to. Events are only ever sent from one thread at a time,
+ * and the sink is closed by that thread too, once the client is dropped or went away.
+ */
+public interface TodoEventSink {
+   void send(TodoEvent todoEvent) throws IOException;
+
+   // lets the client (and any proxy in between) know the connection is still alive, and finds clients that went away
+   void sendHeartbeat() throws IOException;
+
+   void close();
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.securetodo.api.TodoItemAccess;
+import com.acciente.securetodo.db.TodoItemAccessDAO;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Brings the todo.TodoItemAccess table in tododb back in line with the todo permissions granted in OACC.
+ * <p>
+ * The grants are read straight from OACC's grant tables, since no OACC session may query every user's permissions.
+ * Only direct grants are considered, which is how this application hands out todo permissions (to the creator on
+ * creation, and to other users when sharing). Missing permissions are added, and rows for accessors without any
+ * grant on a todo item are removed. The table is read before the grants, and permissions are only ever added, so a
+ * reconciliation running alongside new creates and shares can not remove access they just recorded.
+ */
+public class TodoItemAccessReconciler {
+   private final DataSource        oaccDataSource;
+   private final String            selectGrantsSql;
+   private final TodoItemAccessDAO todoItemAccessDAO;
+
+   public TodoItemAccessReconciler(DataSource oaccDataSource,
+                                   String oaccSchemaName,
+                                   TodoItemAccessDAO todoItemAccessDAO) {
+      this.oaccDataSource = oaccDataSource;
+      this.selectGrantsSql = "SELECT accessor.ExternalID, accessed.ExternalID, p.PermissionName"
+            + " FROM " + oaccSchemaName + ".OAC_Grant_ResPerm g"
+            + " JOIN " + oaccSchemaName + ".OAC_ResourceClass rc ON rc.ResourceClassID = g.ResourceClassID"
+            + " JOIN " + oaccSchemaName + ".OAC_ResourceClassPermission p"
+            + "   ON p.ResourceClassID = g.ResourceClassID AND p.PermissionID = g.PermissionID"
+            + " JOIN " + oaccSchemaName + ".OAC_ResourceExternalID accessor ON accessor.ResourceID = g.AccessorResourceID"
+            + " JOIN " + oaccSchemaName + ".OAC_ResourceExternalID accessed ON accessed.ResourceID = g.AccessedResourceID"
+            + " WHERE rc.ResourceClassName = ?";
+      this.todoItemAccessDAO = todoItemAccessDAO;
+   }
+
+   public Result reconcile() throws SQLException {
+      final Map<Map.Entry<String, Long>, Integer> recordedPermissions = new HashMap<>();
+      for (TodoItemAccess todoItemAccess : todoItemAccessDAO.findAll()) {
+         recordedPermissions.put(toKey(todoItemAccess.getAccessor(), todoItemAccess.getTodoItemId()),
+                                 todoItemAccess.getPermissions());
+      }
+      final Map<Map.Entry<String, Long>, Integer> grantedPermissions = readGrantedPermissions();
+
+      final List<TodoItemAccess> missingGrants = new ArrayList<>();
+      grantedPermissions.forEach((key, permissions) -> {
+         final Integer recorded = recordedPermissions.get(key);
+         if (recorded == null || (recorded | permissions) != recorded) {
+            missingGrants.add(new TodoItemAccess(key.getKey(), key.getValue(), permissions));
+         }
+      });
+
+      final List<TodoItemAccess> staleAccesses = new ArrayList<>();
+      recordedPermissions.forEach((key, permissions) -> {
+         if (!grantedPermissions.containsKey(key)) {
+            staleAccesses.add(new TodoItemAccess(key.getKey(), key.getValue(), permissions));
+         }
+      });
+
+      if (!missingGrants.isEmpty()) {
+         todoItemAccessDAO.grant(missingGrants);
+      }
+      if (!staleAccesses.isEmpty()) {
+         todoItemAccessDAO.delete(staleAccesses);
+      }
+      return new Result(grantedPermissions.size(), missingGrants.size(), staleAccesses.size());
+   }
+
+   private Map<Map.Entry<String, Long>, Integer> readGrantedPermissions() throws SQLException {
+      final Map<Map.Entry<String, Long>, Integer> grantedPermissions = new HashMap<>();
+      try (Connection connection = oaccDataSource.getConnection();
+           PreparedStatement statement = connection.prepareStatement(selectGrantsSql)) {
+         statement.setString(1, SecurityModel.RESOURCECLASS_TODO);
+         try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+               final int permissionBit = TodoItemAccess.getPermissionBit(resultSet.getString(3));
+               final Long todoItemId = parseTodoItemId(resultSet.getString(2));
+               if (permissionBit != 0 && todoItemId != null) {
+                  grantedPermissions.merge(toKey(resultSet.getString(1), todoItemId), permissionBit, (a, b) -> a | b);
+               }
+            }
+         }
+      }
+      return grantedPermissions;
+   }
+
+   private static Long parseTodoItemId(String externalId) {
+      try {
+         return Long.valueOf(externalId);
+      }
+      catch (NumberFormatException e) {
+         return null;
+      }
+   }
+
+   private static Map.Entry<String, Long> toKey(String accessor, long todoItemId) {
+      return new SimpleImmutableEntry<>(accessor, todoItemId);
+   }
+
+   public static class Result {
+      private final int granted;
+      private final int added;
+      private final int removed;
+
+      private Result(int granted, int added, int removed) {
+         this.granted = granted;
+         this.added = added;
+         this.removed = removed;
+      }
+
+      public int getGranted() {
+         return granted;
+      }
+
+      public int getAdded() {
+         return added;
+      }
+
+      public int getRemoved() {
+         return removed;
+      }
+
+      @Override
+      public String toString() {
+         return String.format("%d accessor/todo item pairs granted in OACC, %d added or extended, %d removed",
+                              granted, added, removed);
+      }
+   }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.oacc.AccessControlContext;
+import com.acciente.oacc.Resource;
+import com.acciente.securetodo.api.TodoItem;
+import com.acciente.securetodo.api.TodoItemBatchResult;
+import com.acciente.securetodo.db.TodoItemDAO;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The steps of creating a batch of todo items, shared by the todo item service and the co-located todo item store.
+ */
+final class TodoItemBatch {
+   private TodoItemBatch() {
+   }
+
+   /**
+    * Returns the complete todo items to insert for the specified new ones, with their IDs drawn in one round trip.
+    */
+   static List<TodoItem> assignIds(TodoItemDAO todoItemDAO, List<TodoItem> newTodoItems) {
+      final List<Long> newIds = todoItemDAO.nextIds(newTodoItems.size());
+      final List<TodoItem> todoItems = new ArrayList<>(newTodoItems.size());
+      for (int i = 0; i < newTodoItems.size(); i++) {
+         final TodoItem newTodoItem = newTodoItems.get(i);
+         // mirror the defaulting of the single insert statement (and of the version column)
+         todoItems.add(new TodoItem(newIds.get(i),
+                                    newTodoItem.getTitle(),
+                                    newTodoItem.getCompleted() == null ? Boolean.FALSE : newTodoItem.getCompleted(),
+                                    null,
+                                    TodoItemDAO.INITIAL_VERSION));
+      }
+      return todoItems;
+   }
+
+   /**
+    * Registers each of the todo items as a secured object in OACC, all on the one (authenticated) context, and adds
+    * the outcome for each to the results; a created todo item comes with the ID of its OACC resource. A todo item OACC
+    * rejects is reported as such; any other failure is passed on, leaving the results with the outcomes up to that
+    * point.
+    */
+   static void register(AccessControlContext oacc,
+                        List<TodoItem> todoItems,
+                        List<TodoItemBatchResult> results) {
+      for (TodoItem todoItem : todoItems) {
+         try {
+            final Resource todoItemResource = oacc.createResource(SecurityModel.RESOURCECLASS_TODO,
+                                                                  SecurityModel.DOMAIN_SECURE_TODO,
+                                                                  String.valueOf(todoItem.getId()));
+            results.add(TodoItemBatchResult.created(todoItem.withOaccResourceId(todoItemResource.getId())));
+         }
+         catch (IllegalArgumentException e) {
+            results.add(TodoItemBatchResult.rejected(e.getMessage()));
+         }
+      }
+   }
+
+   /**
+    * Returns the created todo items, along with the IDs of their OACC resources, according to the results.
+    */
+   static List<TodoItem> createdTodoItems(List<TodoItemBatchResult> results) {
+      final List<TodoItem> todoItems = new ArrayList<>(results.size());
+      for (TodoItemBatchResult result : results) {
+         if (result.isCreated()) {
+            todoItems.add(result.getTodo());
+         }
+      }
+      return todoItems;
+   }
+
+   /**
+    * Returns the IDs of the inserted todo items that have not been registered in OACC, according to the results.
+    */
+   static long[] unregisteredIds(List<TodoItem> todoItems, List<TodoItemBatchResult> results) {
+      final long[] ids = new long[todoItems.size()];
+      int count = 0;
+      for (int i = 0; i < todoItems.size(); i++) {
+         if (i >= results.size() || !results.get(i).isCreated()) {
+            ids[count++] = todoItems.get(i).getId();
+         }
+      }
+      return Arrays.copyOf(ids, count);
+   }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+/**
+ * The IDs of the todo items that changed for a user since a change ID, in ascending order, along with the change ID to continue after.
+ * If the changes since then are no longer in the change log, there are no IDs, and the user has to read all its todo
+ * items again instead, before it continues after the returned change ID.
+ */
+public class TodoItemChangePage {
+   private final long[]  todoItemIds;
+   private final long    nextSinceId;
+   private final boolean hasMore;
+   private final boolean resyncRequired;
+
+   public TodoItemChangePage(long[] todoItemIds, long nextSinceId, boolean hasMore) {
+      this(todoItemIds, nextSinceId, hasMore, false);
+   }
+
+   private TodoItemChangePage(long[] todoItemIds, long nextSinceId, boolean hasMore, boolean resyncRequired) {
+      this.todoItemIds = todoItemIds;
+      this.nextSinceId = nextSinceId;
+      this.hasMore = hasMore;
+      this.resyncRequired = resyncRequired;
+   }
+
+   public static TodoItemChangePage resyncRequired(long nextSinceId) {
+      return new TodoItemChangePage(new long[0], nextSinceId, false, true);
+   }
+
+   public long[] getTodoItemIds() {
+      return todoItemIds;
+   }
+
+   public long getNextSinceId() {
+      return nextSinceId;
+   }
+
+   public boolean hasMore() {
+      return hasMore;
+   }
+
+   public boolean isResyncRequired() {
+      return resyncRequired;
+   }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import java.util.OptionalLong;
+
+/**
+ * The IDs of one page of the todo items a user can view, in ascending order, along with the ID to continue after
+ * if there are more items. The todo items themselves are only loaded when the page is written out.
+ */
+public class TodoItemPage {
+   private final long[]       todoItemIds;
+   private final OptionalLong nextAfterId;
+   private final OptionalLong changeVersion;
+
+   public TodoItemPage(long[] todoItemIds, OptionalLong nextAfterId) {
+      this(todoItemIds, nextAfterId, OptionalLong.empty());
+   }
+
+   public TodoItemPage(long[] todoItemIds, OptionalLong nextAfterId, OptionalLong changeVersion) {
+      this.todoItemIds = todoItemIds;
+      this.nextAfterId = nextAfterId;
+      this.changeVersion = changeVersion;
+   }
+
+   public long[] getTodoItemIds() {
+      return todoItemIds;
+   }
+
+   public OptionalLong getNextAfterId() {
+      return nextAfterId;
+   }
+
+   /**
+    * Returns the version of all the todo items the user can view, as of before the page was looked up, if changes
+    * are tracked; see {@link TodoChangeVersions}.
+    */
+   public OptionalLong getChangeVersion() {
+      return changeVersion;
+   }
+}
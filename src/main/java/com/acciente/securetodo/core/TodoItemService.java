@@ -17,43 +17,135 @@
 package com.acciente.securetodo.core;
 
 import com.acciente.oacc.AccessControlContext;
+import com.acciente.oacc.AuthorizationException;
 import com.acciente.oacc.Resource;
+import com.acciente.oacc.ResourcePermission;
 import com.acciente.oacc.Resources;
+import com.acciente.securetodo.api.TodoChange;
+import com.acciente.securetodo.api.TodoEvent;
 import com.acciente.securetodo.api.TodoItem;
+import com.acciente.securetodo.api.TodoItemAccess;
+import com.acciente.securetodo.api.TodoItemBatchResult;
+import com.acciente.securetodo.api.TodoItemPermissions;
+import com.acciente.securetodo.api.TodoItemShareResult;
+import com.acciente.securetodo.api.TodoItemShares;
+import com.acciente.securetodo.db.TodoChangeDAO;
+import com.acciente.securetodo.db.TodoItemAccessDAO;
 import com.acciente.securetodo.db.TodoItemDAO;
+import com.acciente.securetodo.db.UnitOfWorkHandles;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.primitives.Longs;
 import org.hibernate.validator.internal.constraintvalidators.hv.EmailValidator;
+import org.skife.jdbi.v2.ResultIterator;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.OptionalLong;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 
 public class TodoItemService {
    public static final EmailValidator EMAIL_VALIDATOR = new EmailValidator();
 
-   private final TodoItemDAO todoItemDAO;
+   public static final int MAXIMUM_BATCH_SIZE = 1000;
+
+   private static final int CREATOR_PERMISSIONS = TodoItemAccess.getPermissionBits(SecurityModel.PERM_VIEW,
+                                                                                   SecurityModel.PERM_EDIT,
+                                                                                   SecurityModel.PERM_MARK_COMPLETED);
+   private static final int SHARED_PERMISSIONS  = TodoItemAccess.getPermissionBits(SecurityModel.PERM_VIEW,
+                                                                                   SecurityModel.PERM_MARK_COMPLETED);
+
+   private final TodoItemDAO            todoItemDAO;
+   private final AccessibleTodoIdCache  accessibleTodoIdCache;
+   private final TodoItemAccessDAO      todoItemAccessDAO;
+   private final ColocatedTodoItemStore colocatedTodoItemStore;
+   private final OaccTransactionRunner  oaccTransactionRunner;
+   private final TodoChangeVersions     todoChangeVersions;
+   private final TodoChangeDAO          todoChangeDAO;
+   private final TodoEventBus           todoEventBus;
+   private final Executor               permissionLookupExecutor;
+   private final int                    minimumParallelLookupBatchSize;
+   private final UnitOfWorkHandles      unitOfWorkHandles;
+   private final Meter                  externalIdResolutionsAvoided;
 
    public TodoItemService(TodoItemDAO todoItemDAO) {
-      this.todoItemDAO = todoItemDAO;
+      this(builder(todoItemDAO));
+   }
+
+   private TodoItemService(Builder builder) {
+      this.todoItemDAO = builder.todoItemDAO;
+      this.accessibleTodoIdCache = builder.accessibleTodoIdCache;
+      this.todoItemAccessDAO = builder.todoItemAccessDAO;
+      this.colocatedTodoItemStore = builder.colocatedTodoItemStore;
+      this.oaccTransactionRunner = builder.oaccTransactionRunner;
+      this.todoChangeVersions = builder.todoChangeVersions;
+      this.todoChangeDAO = builder.todoChangeDAO;
+      this.todoEventBus = builder.todoEventBus;
+      this.permissionLookupExecutor = builder.permissionLookupExecutor;
+      this.minimumParallelLookupBatchSize = builder.minimumParallelLookupBatchSize;
+      this.unitOfWorkHandles = builder.unitOfWorkHandles;
+
+      externalIdResolutionsAvoided
+            = builder.metrics.meter(getClass().getCanonicalName() + " external-id-resolutions-avoided");
+   }
+
+   /**
+    * Returns a builder for a service on top of the specified todo item DAO; each optional collaborator the builder is
+    * given turns on what its method describes.
+    */
+   public static Builder builder(TodoItemDAO todoItemDAO) {
+      return new Builder(todoItemDAO);
    }
 
    public TodoItem createItem(AccessControlContext oacc,
                               TodoItem newTodoItem) {
       assertTodoItemIsValidForCreation(newTodoItem);
 
+      if (colocatedTodoItemStore != null) {
+         // the todo item and its oacc resource are created in one transaction, so there is nothing to undo on failure
+         final TodoItem todoItem = colocatedTodoItemStore.createItem(oacc.getSessionResource(), newTodoItem);
+         if (todoItemAccessDAO != null) {
+            todoItemAccessDAO.grant(oacc.getSessionResource().getExternalId(), todoItem.getId(), CREATOR_PERMISSIONS);
+         }
+         invalidateAccessibleIds(oacc.getSessionResource());
+         appendGrant(todoItem.getId(), oacc.getSessionResource());
+         publishCreated(todoItem, oacc.getSessionResource());
+         return todoItem;
+      }
+
       // add the new todo item to our application domain table
       final long newId = todoItemDAO.insert(newTodoItem);
 
       final TodoItem todoItem;
       try {
          // look up the created todo item so we can return it
-         todoItem = todoItemDAO.findById(newId);
+         final TodoItem insertedTodoItem = todoItemDAO.findById(newId);
 
          // register the created todo item as a secured object in OACC
-         oacc.createResource(SecurityModel.RESOURCECLASS_TODO,
-                             SecurityModel.DOMAIN_SECURE_TODO,
-                             String.valueOf(todoItem.getId()));
+         final Resource todoItemResource = oacc.createResource(SecurityModel.RESOURCECLASS_TODO,
+                                                               SecurityModel.DOMAIN_SECURE_TODO,
+                                                               String.valueOf(insertedTodoItem.getId()));
+
+         // and remember the ID of its OACC resource, so it can be handed to OACC by ID from now on
+         todoItem = insertedTodoItem.withOaccResourceId(todoItemResource.getId());
+         todoItemDAO.updateOaccResourceId(todoItem);
+
+         // record the permissions the creator was just granted in OACC in the access index
+         if (todoItemAccessDAO != null) {
+            todoItemAccessDAO.grant(oacc.getSessionResource().getExternalId(), todoItem.getId(), CREATOR_PERMISSIONS);
+         }
       }
       catch (Exception e) {
          // something went wrong, so let's try to undo the todoItem creation
@@ -61,27 +153,332 @@ public class TodoItemService {
          throw e;
       }
 
+      // the creator was just granted permissions on the new todo item
+      invalidateAccessibleIds(oacc.getSessionResource());
+      appendGrant(todoItem.getId(), oacc.getSessionResource());
+      publishCreated(todoItem, oacc.getSessionResource());
+
       return todoItem;
    }
 
-   public List<TodoItem> findByAuthenticatedUser(AccessControlContext oacc) {
+   /**
+    * Creates the specified todo items and returns the outcome for each of them, in the same order. Invalid todo items
+    * are reported without affecting the others. The valid ones are inserted with a single batch, and then registered
+    * in OACC one after the other on the authenticated user's context, so the batch only pays for one authentication.
+    */
+   public List<TodoItemBatchResult> createItems(AccessControlContext oacc,
+                                                List<TodoItem> newTodoItems) {
+      Objects.requireNonNull(newTodoItems, "Todo items are required.");
+      if (newTodoItems.size() > MAXIMUM_BATCH_SIZE) {
+         throw new IllegalArgumentException("A batch can not have more than " + MAXIMUM_BATCH_SIZE + " todo items.");
+      }
+
+      final TodoItemBatchResult[] results = new TodoItemBatchResult[newTodoItems.size()];
+      final List<TodoItem> validTodoItems = new ArrayList<>(newTodoItems.size());
+      final int[] validIndexes = new int[newTodoItems.size()];
+      for (int i = 0; i < newTodoItems.size(); i++) {
+         try {
+            assertTodoItemIsValidForCreation(newTodoItems.get(i));
+            validIndexes[validTodoItems.size()] = i;
+            validTodoItems.add(newTodoItems.get(i));
+         }
+         catch (IllegalArgumentException | NullPointerException e) {
+            results[i] = TodoItemBatchResult.rejected(e.getMessage());
+         }
+      }
+
+      if (!validTodoItems.isEmpty()) {
+         final Resource sessionResource = oacc.getSessionResource();
+         final List<TodoItemBatchResult> validResults = colocatedTodoItemStore != null
+                                                       ? colocatedTodoItemStore.createItems(sessionResource,
+                                                                                            validTodoItems)
+                                                       : insertAndRegister(oacc, validTodoItems);
+
+         final List<TodoItemAccess> todoItemAccesses = new ArrayList<>(validResults.size());
+         final List<TodoChange> todoChanges = new ArrayList<>(validResults.size());
+         final List<TodoEvent> todoEvents = new ArrayList<>(validResults.size());
+         for (int i = 0; i < validResults.size(); i++) {
+            final TodoItemBatchResult result = validResults.get(i);
+            results[validIndexes[i]] = result;
+            if (result.isCreated() && todoItemAccessDAO != null) {
+               todoItemAccesses.add(new TodoItemAccess(sessionResource.getExternalId(),
+                                                       result.getTodo().getId(),
+                                                       CREATOR_PERMISSIONS));
+            }
+            if (result.isCreated() && todoChangeDAO != null) {
+               todoChanges.add(TodoChange.of(result.getTodo().getId(), sessionResource.getExternalId()));
+            }
+            if (result.isCreated() && todoEventBus != null) {
+               todoEvents.add(TodoEvent.created(result.getTodo(), sessionResource.getExternalId()));
+            }
+         }
+
+         // record the permissions the creator was just granted in OACC in the access index, all in one batch
+         if (!todoItemAccesses.isEmpty()) {
+            todoItemAccessDAO.grant(todoItemAccesses);
+         }
+         invalidateAccessibleIds(sessionResource);
+         appendChanges(todoChanges);
+         publishAll(todoEvents);
+      }
+
+      return Arrays.asList(results);
+   }
+
+   private List<TodoItemBatchResult> insertAndRegister(AccessControlContext oacc,
+                                                       List<TodoItem> newTodoItems) {
+      final List<TodoItem> todoItems = TodoItemBatch.assignIds(todoItemDAO, newTodoItems);
+      todoItemDAO.insertAll(todoItems);
+
+      final List<TodoItemBatchResult> results = new ArrayList<>(todoItems.size());
+      try {
+         TodoItemBatch.register(oacc, todoItems, results);
+      }
+      finally {
+         // undo the creation of the todo items that did not make it into oacc, including the rest of the batch when
+         // registering failed outright; the ones that made it stay, just as if they had been created one by one
+         final long[] unregisteredIds = TodoItemBatch.unregisteredIds(todoItems, results);
+         if (unregisteredIds.length > 0) {
+            todoItemDAO.deleteByIds(unregisteredIds);
+         }
+      }
+
+      // remember the IDs of the OACC resources of the registered todo items, with a single batch
+      final List<TodoItem> createdTodoItems = TodoItemBatch.createdTodoItems(results);
+      if (!createdTodoItems.isEmpty()) {
+         todoItemDAO.updateOaccResourceIds(createdTodoItems);
+      }
+      return results;
+   }
+
+   /**
+    * Returns the IDs of up to {@code limit} of the todo items the authenticated user can view, in ascending order,
+    * starting after the item with the specified ID (or from the first item, if {@code afterId} is null), along with
+    * the user's change version, if changes are tracked.
+    */
+   public TodoItemPage findByAuthenticatedUser(AccessControlContext oacc,
+                                               Long afterId,
+                                               int limit) {
+      if (limit < 1) {
+         throw new IllegalArgumentException("Limit must be at least 1.");
+      }
+
+      final Resource sessionResource = oacc.getSessionResource();
+      final String accessorId = sessionResource.getExternalId();
+      if (todoChangeVersions == null || accessorId == null) {
+         return findPage(oacc, sessionResource, afterId, limit);
+      }
+
+      // the version is read before the page, and the todo items are handed out before they are read, so whatever
+      // changes in between changes the version after the one returned here, instead of going unnoticed
+      final long changeVersion = todoChangeVersions.getVersion(accessorId);
+      final TodoItemPage todoItemPage = findPage(oacc, sessionResource, afterId, limit);
+      todoChangeVersions.handOut(accessorId, todoItemPage.getTodoItemIds());
+      return new TodoItemPage(todoItemPage.getTodoItemIds(),
+                              todoItemPage.getNextAfterId(),
+                              OptionalLong.of(changeVersion));
+   }
+
+   private TodoItemPage findPage(AccessControlContext oacc,
+                                 Resource sessionResource,
+                                 Long afterId,
+                                 int limit) {
+      if (colocatedTodoItemStore != null && sessionResource.getId() != null) {
+         return toTodoItemPage(colocatedTodoItemStore.findTodoItemIds(sessionResource,
+                                                                      afterId == null ? Long.MIN_VALUE : afterId,
+                                                                      limitPlusOne(limit)),
+                               limit);
+      }
+      if (todoItemAccessDAO != null && sessionResource.getExternalId() != null) {
+         return toTodoItemPage(todoItemAccessDAO.findTodoItemIds(sessionResource.getExternalId(),
+                                                                 TodoItemAccess.PERMISSION_VIEW,
+                                                                 afterId == null ? Long.MIN_VALUE : afterId,
+                                                                 limitPlusOne(limit)),
+                               limit);
+      }
+
+      final long[] todoItemIds = findSortedAccessibleIds(oacc, sessionResource);
+
+      // seek past the cursor in the sorted IDs, so that only the IDs of the requested page reach the database
+      int fromIndex = 0;
+      if (afterId != null) {
+         final int searchIndex = Arrays.binarySearch(todoItemIds, afterId);
+         fromIndex = searchIndex >= 0 ? searchIndex + 1 : -(searchIndex + 1);
+      }
+      final int toIndex = (int) Math.min((long) fromIndex + limit, todoItemIds.length);
+
+      if (fromIndex >= toIndex) {
+         return new TodoItemPage(new long[0], OptionalLong.empty());
+      }
+      else {
+         final long[] pageIds = Arrays.copyOfRange(todoItemIds, fromIndex, toIndex);
+         final OptionalLong nextAfterId = toIndex < todoItemIds.length
+                                          ? OptionalLong.of(todoItemIds[toIndex - 1])
+                                          : OptionalLong.empty();
+         return new TodoItemPage(pageIds, nextAfterId);
+      }
+   }
+
+   private static int limitPlusOne(int limit) {
+      return limit == Integer.MAX_VALUE ? limit : limit + 1;
+   }
+
+   private static TodoItemPage toTodoItemPage(List<Long> todoItemIds, int limit) {
+      // the IDs were queried in order, with one more than the limit to tell whether there is a next page
+      final int pageSize = Math.min(limit, todoItemIds.size());
+      final long[] pageIds = new long[pageSize];
+      for (int i = 0; i < pageSize; i++) {
+         pageIds[i] = todoItemIds.get(i);
+      }
+      final OptionalLong nextAfterId = todoItemIds.size() > pageSize
+                                       ? OptionalLong.of(pageIds[pageSize - 1])
+                                       : OptionalLong.empty();
+      return new TodoItemPage(pageIds, nextAfterId);
+   }
+
+   /**
+    * Passes the todo items of the specified page to the writer one at a time, as they are read from the
+    * application domain table, so that the page never has to be held in memory as a whole.
+    */
+   public void writeTodoItems(TodoItemPage todoItemPage,
+                              TodoItemWriter todoItemWriter) throws IOException {
+      final long[] todoItemIds = todoItemPage.getTodoItemIds();
+      // very large ID sets are looked up in chunks, just as findByIds does, since the iterator can not do it itself;
+      // the IDs are sorted, so writing the chunks one after the other keeps the items in ascending ID order
+      final int chunkSize = TodoItemDAO.ID_LOOKUP_CHUNK_SIZE;
+      for (int fromIndex = 0; fromIndex < todoItemIds.length; fromIndex += chunkSize) {
+         final long[] chunkIds = fromIndex == 0 && todoItemIds.length <= chunkSize
+                                 ? todoItemIds
+                                 : Arrays.copyOfRange(todoItemIds,
+                                                      fromIndex,
+                                                      Math.min(fromIndex + chunkSize, todoItemIds.length));
+         try (ResultIterator<TodoItem> todoItems = todoItemDAO.iterateByIds(chunkIds)) {
+            while (todoItems.hasNext()) {
+               todoItemWriter.write(todoItems.next());
+            }
+         }
+      }
+   }
+
+   private long[] findSortedAccessibleIds(AccessControlContext oacc, Resource sessionResource) {
+      if (accessibleTodoIdCache != null && sessionResource.getExternalId() != null) {
+         return accessibleTodoIdCache.getIds(sessionResource.getExternalId(),
+                                             () -> findAccessibleIds(oacc, sessionResource));
+      }
+      final long[] todoItemIds = findAccessibleIds(oacc, sessionResource);
+      Arrays.sort(todoItemIds);
+      return todoItemIds;
+   }
+
+   private static long[] findAccessibleIds(AccessControlContext oacc, Resource sessionResource) {
       // find all todoItem resources which the authenticated user is authorized to view
-      final Set<Resource> todoItemResources = oacc.getResourcesByResourcePermissions(oacc.getSessionResource(),
+      final Set<Resource> todoItemResources = oacc.getResourcesByResourcePermissions(sessionResource,
                                                                                      SecurityModel.RESOURCECLASS_TODO,
                                                                                      SecurityModel.PERM_VIEW);
-      // return the corresponding list of todoItems
-      if (todoItemResources.isEmpty()) {
-         return Collections.emptyList();
+      // convert set of oacc resources to the IDs from the application domain
+      return todoItemResources.stream()
+            .mapToLong(todoItemResource -> Long.parseLong(todoItemResource.getExternalId()))
+            .toArray();
+   }
+
+   /**
+    * Returns the IDs of up to {@code limit} of the todo items that were created by, shared with, or updated for the
+    * authenticated user since the specified change ID, in ascending order (to be written like a page of todo items),
+    * along with the change ID to continue after. The todo items are taken in the order of their latest changes. If no
+    * change ID is specified, or the changes since then were compacted away, the page only says that the user has to
+    * read all its todo items again; the same goes for every call if there is no change log.
+    */
+   public TodoItemChangePage findChanges(AccessControlContext oacc,
+                                         Long sinceId,
+                                         int limit) {
+      if (limit < 1) {
+         throw new IllegalArgumentException("Limit must be at least 1.");
       }
-      else {
-         // convert list of oacc resources to list of IDs from the application domain
-         final List<Long> todoItemIds = todoItemResources.stream()
-               .map(todoItemResource -> Long.valueOf(todoItemResource.getExternalId()))
-               .collect(Collectors.toList());
+      if (todoChangeDAO == null) {
+         return TodoItemChangePage.resyncRequired(0);
+      }
+
+      // read before the changes, so that a change appended in between is returned again next time, not skipped
+      final Long lastId = todoChangeDAO.findLastId();
+      final long lastChangeId = lastId == null ? 0 : lastId;
+      if (sinceId == null || sinceId > lastChangeId) {
+         // a change ID from before the log was emptied (e.g. the database was reset) is just as useless as none
+         return TodoItemChangePage.resyncRequired(lastChangeId);
+      }
+      final Long firstId = todoChangeDAO.findFirstId();
+      if (firstId != null && sinceId < firstId - 1) {
+         return TodoItemChangePage.resyncRequired(lastChangeId);
+      }
+
+      final Resource sessionResource = oacc.getSessionResource();
+      final List<TodoChange> todoChanges = todoChangeDAO.findChanges(sessionResource.getExternalId(),
+                                                                     sinceId,
+                                                                     limitPlusOne(limit));
+      final boolean hasMore = todoChanges.size() > limit;
+      final int pageSize = Math.min(limit, todoChanges.size());
+
+      // the updates are logged once for everyone, so only those of the todo items the user can view are returned;
+      // the todo items granted to the user (by creating or sharing them) need no such check
+      long[] accessibleIds = null;
+      final long[] todoItemIds = new long[pageSize];
+      int todoItemCount = 0;
+      for (int i = 0; i < pageSize; i++) {
+         final TodoChange todoChange = todoChanges.get(i);
+         if (todoChange.getAccessor() == null) {
+            if (accessibleIds == null) {
+               accessibleIds = findSortedAccessibleIds(oacc, sessionResource);
+            }
+            if (Arrays.binarySearch(accessibleIds, todoChange.getTodoItemId()) < 0) {
+               continue;
+            }
+         }
+         todoItemIds[todoItemCount++] = todoChange.getTodoItemId();
+      }
+
+      final long nextSinceId = hasMore
+                               ? todoChanges.get(pageSize - 1).getId()
+                               : Math.max(lastChangeId, pageSize > 0 ? todoChanges.get(pageSize - 1).getId() : 0);
+      final long[] sortedTodoItemIds = Arrays.copyOf(todoItemIds, todoItemCount);
+      Arrays.sort(sortedTodoItemIds);
+      return new TodoItemChangePage(sortedTodoItemIds, nextSinceId, hasMore);
+   }
+
+   /**
+    * Returns the todo item with the specified ID, if the authenticated user can view it, or null if there is no such
+    * todo item (any longer).
+    */
+   public TodoItem findItem(AccessControlContext oacc,
+                            long todoItemId) {
+      // load the todoItem (from the cache, if there is one), which tells us its OACC resource
+      final TodoItem currentTodoItem = todoItemDAO.findById(todoItemId);
+
+      // check permission (a todo item that could not be loaded fails this, just as if it was checked first)
+      oacc.assertResourcePermissions(oacc.getSessionResource(),
+                                     toResource(todoItemId, currentTodoItem),
+                                     SecurityModel.PERM_VIEW);
 
-         // look up the todo items in the application domain table and return them
-         return todoItemDAO.findByIds(todoItemIds);
+      final String accessorId = oacc.getSessionResource().getExternalId();
+      if (todoChangeVersions == null || accessorId == null) {
+         return currentTodoItem;
       }
+      // the todo item is read again once it is handed out, so that a change in between can not go unnoticed
+      return todoChangeVersions.handOut(accessorId, todoItemId, todoItemDAO::findById);
+   }
+
+   /**
+    * Subscribes the specified sink to the events of the todo items the authenticated user can view now, or is
+    * granted later, and returns the subscription, or null if there is no todo event bus. Changes made while the
+    * subscription is set up may be missed, so clients should sync through the change log once subscribed.
+    */
+   public TodoEventBus.Subscription subscribe(AccessControlContext oacc,
+                                              TodoEventSink todoEventSink) {
+      if (todoEventBus == null) {
+         return null;
+      }
+      final Resource sessionResource = oacc.getSessionResource();
+      return todoEventBus.subscribe(sessionResource.getExternalId(),
+                                    findSortedAccessibleIds(oacc, sessionResource),
+                                    todoEventSink);
    }
 
    public void shareItem(AccessControlContext oacc,
@@ -91,33 +488,515 @@ public class TodoItemService {
 
       // "share" todoItem with other user
       oacc.grantResourcePermissions(Resources.getInstance(email.toLowerCase()),
-                                    Resources.getInstance(String.valueOf(todoItemId)),
+                                    toResource(todoItemId, todoItemDAO.findById(todoItemId)),
                                     SecurityModel.PERM_VIEW, SecurityModel.PERM_MARK_COMPLETED);
+
+      // and record the grant in the access index
+      if (todoItemAccessDAO != null) {
+         todoItemAccessDAO.grant(email.toLowerCase(), todoItemId, SHARED_PERMISSIONS);
+      }
+
+      // the other user can now view the todo item
+      invalidateAccessibleIds(email.toLowerCase());
+      appendChange(TodoChange.of(todoItemId, email.toLowerCase()));
+      publish(TodoEvent.shared(todoItemId, email.toLowerCase()));
+   }
+
+   /**
+    * Shares each of the specified todo items with each of the specified users, and returns the outcome for each
+    * pair, ordered by todo item and then by user. All emails are validated before anything is shared. Each todo item
+    * and each user is resolved, with a single query, before anything is shared (todo items that know their OACC
+    * resource ID are not resolved at all), and all grants are applied in one go, on a single connection. Requires an
+    * oacc transaction runner.
+    */
+   public List<TodoItemShareResult> shareItems(AccessControlContext oacc,
+                                               TodoItemShares todoItemShares) {
+      Objects.requireNonNull(todoItemShares, "Shares are required.");
+      final Set<Long> todoItemIds = new LinkedHashSet<>(requireNonEmpty(todoItemShares.getTodoItemIds(),
+                                                                        "Todo item IDs are required."));
+      final Set<String> emails = new LinkedHashSet<>();
+      for (String email : requireNonEmpty(todoItemShares.getEmails(), "Emails are required.")) {
+         assertEmailIsValid(email);
+         emails.add(email.toLowerCase());
+      }
+      if (todoItemIds.contains(null)) {
+         throw new IllegalArgumentException("Todo item IDs can not be null.");
+      }
+      if ((long) todoItemIds.size() * emails.size() > MAXIMUM_BATCH_SIZE) {
+         throw new IllegalArgumentException("A batch can not have more than " + MAXIMUM_BATCH_SIZE + " shares.");
+      }
+
+      final Map<Long, Resource> knownTodoItemResources = new HashMap<>();
+      for (TodoItem todoItem : todoItemDAO.findByIds(Longs.toArray(todoItemIds))) {
+         if (todoItem.getOaccResourceId() != null) {
+            knownTodoItemResources.put(todoItem.getId(), toResource(todoItem.getId(), todoItem));
+         }
+      }
+
+      if (oaccTransactionRunner == null) {
+         throw new IllegalStateException("Sharing in bulk requires an oacc transaction runner.");
+      }
+
+      // look up all the other resources with one query, so that the ones that do not exist are known before any
+      // grant is made, and apply all the grants on one connection
+      final Set<String> externalIds = new HashSet<>(emails);
+      todoItemIds.stream()
+            .filter(todoItemId -> !knownTodoItemResources.containsKey(todoItemId))
+            .forEach(todoItemId -> externalIds.add(String.valueOf(todoItemId)));
+      final Map<String, Resource> resources = oaccTransactionRunner.resolveResources(externalIds);
+      final List<TodoItemShareResult> results
+            = oaccTransactionRunner.inTransaction(oacc.getSessionResource(),
+                                                  batchOacc -> grantShares(batchOacc,
+                                                                           todoItemIds,
+                                                                           emails,
+                                                                           knownTodoItemResources,
+                                                                           resources::get));
+
+      // record the grants in the access index, all in one batch, and drop the cached IDs of everyone who gained some
+      final List<TodoItemAccess> todoItemAccesses = new ArrayList<>(results.size());
+      final Set<String> sharedWithEmails = new HashSet<>();
+      final List<TodoChange> todoChanges = new ArrayList<>(results.size());
+      final List<TodoEvent> todoEvents = new ArrayList<>(results.size());
+      for (TodoItemShareResult result : results) {
+         if (result.isShared()) {
+            todoItemAccesses.add(new TodoItemAccess(result.getEmail(), result.getTodoItemId(), SHARED_PERMISSIONS));
+            sharedWithEmails.add(result.getEmail());
+            todoChanges.add(TodoChange.of(result.getTodoItemId(), result.getEmail()));
+            todoEvents.add(TodoEvent.shared(result.getTodoItemId(), result.getEmail()));
+         }
+      }
+      if (todoItemAccessDAO != null && !todoItemAccesses.isEmpty()) {
+         todoItemAccessDAO.grant(todoItemAccesses);
+      }
+      sharedWithEmails.forEach(this::invalidateAccessibleIds);
+      appendChanges(todoChanges);
+      publishAll(todoEvents);
+
+      return results;
+   }
+
+   /**
+    * Grants every pair of todo item and user the shared permissions, using the resolver to look up each resource only
+    * once (unless the todo item's resource is already known); a resource the resolver returns null for fails every
+    * pair it is part of as not found.
+    */
+   private static List<TodoItemShareResult> grantShares(AccessControlContext oacc,
+                                                        Set<Long> todoItemIds,
+                                                        Set<String> emails,
+                                                        Map<Long, Resource> knownTodoItemResources,
+                                                        Function<String, Resource> resolver) {
+      final Map<Long, Resource> todoItemResources = new HashMap<>(knownTodoItemResources);
+      todoItemIds.stream()
+            .filter(todoItemId -> !todoItemResources.containsKey(todoItemId))
+            .forEach(todoItemId -> todoItemResources.put(todoItemId, resolver.apply(String.valueOf(todoItemId))));
+      final Map<String, Resource> userResources = new HashMap<>();
+      emails.forEach(email -> userResources.put(email, resolver.apply(email)));
+
+      final List<TodoItemShareResult> results = new ArrayList<>(todoItemIds.size() * emails.size());
+      for (Long todoItemId : todoItemIds) {
+         final Resource todoItemResource = todoItemResources.get(todoItemId);
+         for (String email : emails) {
+            final Resource userResource = userResources.get(email);
+            if (todoItemResource == null) {
+               results.add(TodoItemShareResult.failed(todoItemId,
+                                                      email,
+                                                      TodoItemShareResult.STATUS_NOT_FOUND,
+                                                      "Todo item not found."));
+            }
+            else if (userResource == null) {
+               results.add(TodoItemShareResult.failed(todoItemId,
+                                                      email,
+                                                      TodoItemShareResult.STATUS_NOT_FOUND,
+                                                      "User not found."));
+            }
+            else {
+               results.add(grantShare(oacc, todoItemId, todoItemResource, email, userResource));
+            }
+         }
+      }
+      return results;
+   }
+
+   private static TodoItemShareResult grantShare(AccessControlContext oacc,
+                                                 long todoItemId,
+                                                 Resource todoItemResource,
+                                                 String email,
+                                                 Resource userResource) {
+      try {
+         oacc.grantResourcePermissions(userResource,
+                                       todoItemResource,
+                                       SecurityModel.PERM_VIEW, SecurityModel.PERM_MARK_COMPLETED);
+         return TodoItemShareResult.shared(todoItemId, email);
+      }
+      catch (AuthorizationException e) {
+         return TodoItemShareResult.failed(todoItemId, email, TodoItemShareResult.STATUS_FORBIDDEN, null);
+      }
+      catch (IllegalArgumentException e) {
+         // the resources were resolved up front, so this is a grant OACC rejects for some other reason
+         return TodoItemShareResult.failed(todoItemId, email, TodoItemShareResult.STATUS_UNPROCESSED, e.getMessage());
+      }
    }
 
    public TodoItem updateItem(AccessControlContext oacc,
                               long todoItemId,
                               TodoItem patchItem) {
+      return updateItem(oacc, todoItemId, patchItem, null);
+   }
+
+   /**
+    * Applies the patch to the todo item with a single conditional update, and returns the updated todo item. If an
+    * expected version is specified, the todo item is only updated if it is still at that version; otherwise a
+    * {@link StaleTodoItemException} is thrown.
+    */
+   public TodoItem updateItem(AccessControlContext oacc,
+                              long todoItemId,
+                              TodoItem patchItem,
+                              Long expectedVersion) {
       assertTodoItemIsValidForUpdate(patchItem);
 
-      // check permission
+      // load existing todoItem (from the cache, if there is one), which tells us its OACC resource
+      final TodoItem currentTodoItem = todoItemDAO.findById(todoItemId);
+
+      // check permission (a todo item that could not be loaded fails this, just as if it was checked first)
       oacc.assertResourcePermissions(oacc.getSessionResource(),
-                                     Resources.getInstance(String.valueOf(todoItemId)),
+                                     toResource(todoItemId, currentTodoItem),
                                      SecurityModel.PERM_VIEW,
                                      patchItem.getTitle() != null
                                      ? SecurityModel.PERM_EDIT
                                      : SecurityModel.PERM_MARK_COMPLETED);
 
-      // load existing todoItem
-      final TodoItem currentTodoItem = todoItemDAO.findById(todoItemId);
+      // apply the patch in the database, instead of writing back a patched copy of the todo item we loaded, so that
+      // concurrent patches of the same todo item neither undo each other nor have to be retried
+      final TodoItem todoItem = todoItemDAO.patch(todoItemId, patchItem, expectedVersion);
+      if (todoItem == null) {
+         if (expectedVersion != null) {
+            throw new StaleTodoItemException(todoItemId);
+         }
+         throw new IllegalArgumentException("Todo item not found.");
+      }
+      if (todoChangeVersions != null) {
+         afterCommit(() -> todoChangeVersions.todoItemsChanged(todoItemId));
+      }
+      appendChange(TodoChange.of(todoItemId, null));
+      publish(TodoEvent.updated(todoItem));
 
-      // get updated value object with new data
-      final TodoItem todoItem = currentTodoItem.getPatchedInstance(patchItem);
+      return todoItem;
+   }
 
-      // update database
-      todoItemDAO.update(todoItem);
+   /**
+    * Applies the specified patches, each of which identifies its todo item by ID, and returns the outcome for each of
+    * them, in the same order. Just as for a single update, patching the title requires the view and edit permissions,
+    * and patching only the completed flag requires the view and mark-completed permissions. Instead of being checked
+    * one by one, the todo items the authenticated user holds each of these permission sets on are looked up once;
+    * the permitted todo items are then read with one query and written with a single batch.
+    */
+   public List<TodoItemBatchResult> updateItems(AccessControlContext oacc,
+                                                List<TodoItem> patchItems) {
+      Objects.requireNonNull(patchItems, "Todo items are required.");
+      if (patchItems.size() > MAXIMUM_BATCH_SIZE) {
+         throw new IllegalArgumentException("A batch can not have more than " + MAXIMUM_BATCH_SIZE + " todo items.");
+      }
 
-      return todoItem;
+      final TodoItemBatchResult[] results = new TodoItemBatchResult[patchItems.size()];
+      final Set<Long> patchedIds = new HashSet<>();
+      boolean isEditRequired = false;
+      boolean isMarkCompletedRequired = false;
+      for (int i = 0; i < patchItems.size(); i++) {
+         final TodoItem patchItem = patchItems.get(i);
+         try {
+            assertTodoItemIsValidForUpdate(patchItem);
+            if (!patchedIds.add(patchItem.getId())) {
+               throw new IllegalArgumentException("A todo item can only be patched once per batch.");
+            }
+         }
+         catch (IllegalArgumentException | NullPointerException e) {
+            results[i] = TodoItemBatchResult.rejected(e.getMessage());
+            continue;
+         }
+         if (patchItem.getTitle() != null) {
+            isEditRequired = true;
+         }
+         else {
+            isMarkCompletedRequired = true;
+         }
+      }
+
+      // check permissions for the whole batch, with (at most) one set-based lookup per required permission set
+      final Resource sessionResource = oacc.getSessionResource();
+      final Set<Long> editableIds = isEditRequired
+                                    ? findPermittedIds(oacc, sessionResource, SecurityModel.PERM_EDIT)
+                                    : Collections.emptySet();
+      final Set<Long> completableIds = isMarkCompletedRequired
+                                       ? findPermittedIds(oacc, sessionResource, SecurityModel.PERM_MARK_COMPLETED)
+                                       : Collections.emptySet();
+      final List<Long> permittedIds = new ArrayList<>(patchItems.size());
+      for (int i = 0; i < patchItems.size(); i++) {
+         if (results[i] == null) {
+            final TodoItem patchItem = patchItems.get(i);
+            if ((patchItem.getTitle() != null ? editableIds : completableIds).contains(patchItem.getId())) {
+               permittedIds.add(patchItem.getId());
+            }
+            else {
+               results[i] = TodoItemBatchResult.forbidden();
+            }
+         }
+      }
+      if (permittedIds.isEmpty()) {
+         return Arrays.asList(results);
+      }
+
+      // load the existing todo items with one query, and write the patched ones with a single batch
+      final Map<Long, TodoItem> currentTodoItems = new HashMap<>();
+      todoItemDAO.findByIds(Longs.toArray(permittedIds))
+            .forEach(todoItem -> currentTodoItems.put(todoItem.getId(), todoItem));
+      final List<TodoItem> todoItems = new ArrayList<>(permittedIds.size());
+      final int[] todoItemIndexes = new int[permittedIds.size()];
+      for (int i = 0; i < patchItems.size(); i++) {
+         if (results[i] == null) {
+            final TodoItem currentTodoItem = currentTodoItems.get(patchItems.get(i).getId());
+            if (currentTodoItem == null) {
+               results[i] = TodoItemBatchResult.notFound("Todo item not found.");
+            }
+            else {
+               todoItemIndexes[todoItems.size()] = i;
+               todoItems.add(currentTodoItem.getPatchedInstance(patchItems.get(i)));
+            }
+         }
+      }
+      if (!todoItems.isEmpty()) {
+         final int[] updateCounts = todoItemDAO.updateAll(todoItems);
+         // each todo item is only written if it is still at the version it was read at, so a concurrent update in
+         // between is reported as a conflict, instead of being overwritten
+         for (int i = 0; i < todoItems.size(); i++) {
+            final TodoItem todoItem = todoItems.get(i);
+            results[todoItemIndexes[i]] = updateCounts[i] > 0
+                                          ? TodoItemBatchResult.updated(todoItem.withVersion(todoItem.getVersion() + 1))
+                                          : TodoItemBatchResult.conflict("Todo item was changed concurrently.");
+         }
+         if (todoChangeVersions != null) {
+            final long[] changedIds = todoItems.stream().mapToLong(TodoItem::getId).toArray();
+            afterCommit(() -> todoChangeVersions.todoItemsChanged(changedIds));
+         }
+         final List<TodoChange> todoChanges = new ArrayList<>(todoItems.size());
+         final List<TodoEvent> todoEvents = new ArrayList<>(todoItems.size());
+         for (int i = 0; i < todoItems.size(); i++) {
+            if (updateCounts[i] > 0) {
+               todoChanges.add(TodoChange.of(todoItems.get(i).getId(), null));
+               todoEvents.add(TodoEvent.updated(results[todoItemIndexes[i]].getTodo()));
+            }
+         }
+         appendChanges(todoChanges);
+         publishAll(todoEvents);
+      }
+
+      return Arrays.asList(results);
+   }
+
+   private static void addPermission(Map<Long, Integer> permissionsById,
+                                     Set<Long> permittedIds,
+                                     int permission) {
+      // only adds to the todo items asked for, no matter how many more the user holds the permission on
+      permissionsById.replaceAll((todoItemId, permissions) -> permittedIds.contains(todoItemId)
+                                                              ? permissions | permission
+                                                              : permissions);
+   }
+
+   /**
+    * Returns the IDs of the todo items the user holds the specified permission on: either looked up on the permission
+    * lookup executor, or right away, on the calling thread.
+    */
+   private CompletableFuture<Set<Long>> lookUpPermittedIds(AccessControlContext oacc,
+                                                           Resource sessionResource,
+                                                           ResourcePermission resourcePermission,
+                                                           boolean isLookedUpInParallel) {
+      if (!isLookedUpInParallel) {
+         return CompletableFuture.completedFuture(findPermittedIds(oacc, sessionResource, resourcePermission));
+      }
+      return CompletableFuture.supplyAsync(() -> findPermittedIds(oacc, sessionResource, resourcePermission),
+                                           permissionLookupExecutor);
+   }
+
+   private static Set<Long> getPermittedIds(CompletableFuture<Set<Long>> permittedIds) {
+      try {
+         return permittedIds.join();
+      }
+      catch (CompletionException e) {
+         // rethrown as is, so that e.g. an authorization exception is still mapped to its status
+         if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+         }
+         throw e;
+      }
+   }
+
+   // waits for a lookup that may still use the context, which is released (and may be reused) once the request ends
+   private static void awaitLookup(CompletableFuture<Set<Long>> permittedIds) {
+      if (permittedIds != null) {
+         permittedIds.handle((todoItemIds, e) -> null).join();
+      }
+   }
+
+   private static Set<Long> findPermittedIds(AccessControlContext oacc,
+                                             Resource sessionResource,
+                                             ResourcePermission resourcePermission) {
+      final Set<Long> todoItemIds = new HashSet<>();
+      for (Resource todoItemResource : oacc.getResourcesByResourcePermissions(sessionResource,
+                                                                             SecurityModel.RESOURCECLASS_TODO,
+                                                                             SecurityModel.PERM_VIEW,
+                                                                             resourcePermission)) {
+         todoItemIds.add(Long.parseLong(todoItemResource.getExternalId()));
+      }
+      return todoItemIds;
+   }
+
+   /**
+    * Returns the permissions the authenticated user has on each of the specified todo items, in the same order, along
+    * with the todo items the user can view, if they are to be included. Instead of being checked one by one, the todo
+    * items the user holds each permission on are looked up once, with one set-based query per permission (the
+    * viewable ones from the cache, if there is one); the included todo items are then read with a single query.
+    * Just as for updates, edit and mark-completed only count along with view, and are only looked up if the user can
+    * view any of the todo items. For large enough batches, if there is a permission lookup executor, the edit and
+    * mark-completed lookups run on it, while the todo items are read on the calling thread. The context is only read,
+    * and takes a connection per call, so the lookups can share it; they are always finished before this returns,
+    * since the context is released with the request.
+    */
+   public List<TodoItemPermissions> findPermissions(AccessControlContext oacc,
+                                                    List<Long> todoItemIds,
+                                                    boolean isTodoItemIncluded) {
+      Objects.requireNonNull(todoItemIds, "Todo item IDs are required.");
+      if (todoItemIds.size() > MAXIMUM_BATCH_SIZE) {
+         throw new IllegalArgumentException("A batch can not have more than " + MAXIMUM_BATCH_SIZE + " todo item IDs.");
+      }
+      if (todoItemIds.contains(null)) {
+         throw new IllegalArgumentException("Todo item IDs can not be null.");
+      }
+
+      final Resource sessionResource = oacc.getSessionResource();
+      final boolean isLookedUpInParallel
+            = permissionLookupExecutor != null && todoItemIds.size() >= minimumParallelLookupBatchSize;
+      final long[] accessibleIds = findSortedAccessibleIds(oacc, sessionResource);
+      final Map<Long, Integer> permissionsById = new HashMap<>();
+      for (Long todoItemId : todoItemIds) {
+         if (Arrays.binarySearch(accessibleIds, todoItemId) >= 0) {
+            permissionsById.put(todoItemId, TodoItemAccess.PERMISSION_VIEW);
+         }
+      }
+
+      final Map<Long, TodoItem> todoItems = new HashMap<>();
+      if (!permissionsById.isEmpty()) {
+         CompletableFuture<Set<Long>> editableIds = null;
+         CompletableFuture<Set<Long>> completableIds = null;
+         try {
+            editableIds = lookUpPermittedIds(oacc, sessionResource, SecurityModel.PERM_EDIT, isLookedUpInParallel);
+            completableIds
+                  = lookUpPermittedIds(oacc, sessionResource, SecurityModel.PERM_MARK_COMPLETED, isLookedUpInParallel);
+            if (isTodoItemIncluded) {
+               todoItemDAO.findByIds(Longs.toArray(permissionsById.keySet()))
+                     .forEach(todoItem -> todoItems.put(todoItem.getId(), todoItem));
+            }
+            addPermission(permissionsById, getPermittedIds(editableIds), TodoItemAccess.PERMISSION_EDIT);
+            addPermission(permissionsById, getPermittedIds(completableIds), TodoItemAccess.PERMISSION_MARK_COMPLETED);
+         }
+         finally {
+            awaitLookup(editableIds);
+            awaitLookup(completableIds);
+         }
+      }
+
+      final List<TodoItemPermissions> results = new ArrayList<>(todoItemIds.size());
+      for (Long todoItemId : todoItemIds) {
+         results.add(new TodoItemPermissions(todoItemId,
+                                             permissionsById.getOrDefault(todoItemId, 0),
+                                             todoItems.get(todoItemId)));
+      }
+      return results;
+   }
+
+   @FunctionalInterface
+   public interface TodoItemWriter {
+      void write(TodoItem todoItem) throws IOException;
+   }
+
+   /**
+    * Returns the OACC resource of the todo item with the specified ID: by its internal ID, if the todo item (if any)
+    * has it, so that OACC does not have to resolve the external ID; otherwise by its external ID.
+    */
+   private Resource toResource(long todoItemId, TodoItem todoItem) {
+      if (todoItem != null && todoItem.getOaccResourceId() != null) {
+         externalIdResolutionsAvoided.mark();
+         return Resources.getInstance(todoItem.getOaccResourceId());
+      }
+      return Resources.getInstance(String.valueOf(todoItemId));
+   }
+
+   // a todo item granted to an accessor that is not known by email is logged like an update, i.e. for its viewers
+   private void appendGrant(long todoItemId, Resource accessorResource) {
+      appendChange(TodoChange.of(todoItemId, accessorResource == null ? null : accessorResource.getExternalId()));
+   }
+
+   // the change log is only appended to once the changes are committed, so that its entries commit in ID order
+   private void appendChange(TodoChange todoChange) {
+      if (todoChangeDAO != null) {
+         afterCommit(() -> todoChangeDAO.append(todoChange));
+      }
+   }
+
+   private void appendChanges(List<TodoChange> todoChanges) {
+      if (todoChangeDAO != null && !todoChanges.isEmpty()) {
+         afterCommit(() -> todoChangeDAO.appendAll(todoChanges));
+      }
+   }
+
+   private void publishCreated(TodoItem todoItem, Resource creatorResource) {
+      publish(TodoEvent.created(todoItem, creatorResource == null ? null : creatorResource.getExternalId()));
+   }
+
+   private void publish(TodoEvent todoEvent) {
+      if (todoEventBus != null) {
+         afterCommit(() -> todoEventBus.publish(todoEvent));
+      }
+   }
+
+   private void publishAll(List<TodoEvent> todoEvents) {
+      if (todoEventBus != null && !todoEvents.isEmpty()) {
+         afterCommit(() -> todoEventBus.publishAll(todoEvents));
+      }
+   }
+
+   private void invalidateAccessibleIds(Resource accessorResource) {
+      if (accessorResource != null && accessorResource.getExternalId() != null) {
+         invalidateAccessibleIds(accessorResource.getExternalId());
+      }
+   }
+
+   // the todo items the specified accessor can view changed
+   private void invalidateAccessibleIds(String accessorId) {
+      afterCommit(() -> {
+         if (accessibleTodoIdCache != null) {
+            accessibleTodoIdCache.invalidate(accessorId);
+         }
+         if (todoChangeVersions != null) {
+            todoChangeVersions.changed(accessorId);
+         }
+      });
+   }
+
+   // what tells others about a write only happens once the write is visible to them, i.e. once the transaction of the
+   // request's unit of work (if it has one) is committed
+   private void afterCommit(Runnable action) {
+      if (unitOfWorkHandles != null) {
+         unitOfWorkHandles.afterCommit(action);
+      }
+      else {
+         action.run();
+      }
+   }
+
+   private static <T> List<T> requireNonEmpty(List<T> list, String message) {
+      if (list == null || list.isEmpty()) {
+         throw new IllegalArgumentException(message);
+      }
+      return list;
    }
 
    private static void assertEmailIsValid(String email) {
@@ -157,4 +1036,117 @@ public class TodoItemService {
          }
       }
    }
+   public static class Builder {
+      private final TodoItemDAO      todoItemDAO;
+      private AccessibleTodoIdCache  accessibleTodoIdCache;
+      private TodoItemAccessDAO      todoItemAccessDAO;
+      private ColocatedTodoItemStore colocatedTodoItemStore;
+      private OaccTransactionRunner  oaccTransactionRunner;
+      private MetricRegistry         metrics = new MetricRegistry();
+      private TodoChangeVersions     todoChangeVersions;
+      private TodoChangeDAO          todoChangeDAO;
+      private TodoEventBus           todoEventBus;
+      private Executor               permissionLookupExecutor;
+      private int                    minimumParallelLookupBatchSize;
+      private UnitOfWorkHandles      unitOfWorkHandles;
+
+      private Builder(TodoItemDAO todoItemDAO) {
+         this.todoItemDAO = Objects.requireNonNull(todoItemDAO, "A todo item DAO is required.");
+      }
+
+      /**
+       * Caches each user's accessible todo IDs across requests.
+       */
+      public Builder withAccessibleTodoIdCache(AccessibleTodoIdCache accessibleTodoIdCache) {
+         this.accessibleTodoIdCache = accessibleTodoIdCache;
+         return this;
+      }
+
+      /**
+       * Keeps the todo item access index up to date when todo items are created or shared, and lists the
+       * authenticated user's todo items from it instead of OACC.
+       */
+      public Builder withTodoItemAccessDAO(TodoItemAccessDAO todoItemAccessDAO) {
+         this.todoItemAccessDAO = todoItemAccessDAO;
+         return this;
+      }
+
+      /**
+       * Creates todo items in the same transaction as their OACC resource, and lists the authenticated user's todo
+       * items by joining their OACC grants directly.
+       */
+      public Builder withColocatedTodoItemStore(ColocatedTodoItemStore colocatedTodoItemStore) {
+         this.colocatedTodoItemStore = colocatedTodoItemStore;
+         return this;
+      }
+
+      /**
+       * Resolves the resources of a bulk share with one query, and applies its grants on a single connection, in one
+       * transaction; bulk shares are rejected without it.
+       */
+      public Builder withOaccTransactionRunner(OaccTransactionRunner oaccTransactionRunner) {
+         this.oaccTransactionRunner = oaccTransactionRunner;
+         return this;
+      }
+
+      /**
+       * Counts, in the specified metrics instead of a private registry, how often OACC is handed a todo item's
+       * resource by its internal ID, which spares OACC from resolving the todo item's external ID.
+       */
+      public Builder withMetrics(MetricRegistry metrics) {
+         this.metrics = Objects.requireNonNull(metrics, "Metrics are required.");
+         return this;
+      }
+
+      /**
+       * Reports which todo items are handed to which users, and every change to those todo items, or to the todo
+       * items a user can view.
+       */
+      public Builder withTodoChangeVersions(TodoChangeVersions todoChangeVersions) {
+         this.todoChangeVersions = todoChangeVersions;
+         return this;
+      }
+
+      /**
+       * Appends every creation, update and share of a todo item to the change log, so that clients can ask for only
+       * the todo items that changed since they last synced.
+       */
+      public Builder withTodoChangeDAO(TodoChangeDAO todoChangeDAO) {
+         this.todoChangeDAO = todoChangeDAO;
+         return this;
+      }
+
+      /**
+       * Publishes every creation, update and share of a todo item, so that it can be pushed to the connected clients
+       * of the users it concerns.
+       */
+      public Builder withTodoEventBus(TodoEventBus todoEventBus) {
+         this.todoEventBus = todoEventBus;
+         return this;
+      }
+
+      /**
+       * Runs the edit and mark-completed lookups of a permission query on the specified executor, alongside the
+       * lookup of the viewable todo items, when the query asks about at least the specified number of todo items.
+       */
+      public Builder withPermissionLookupExecutor(Executor permissionLookupExecutor,
+                                                  int minimumParallelLookupBatchSize) {
+         this.permissionLookupExecutor = permissionLookupExecutor;
+         this.minimumParallelLookupBatchSize = minimumParallelLookupBatchSize;
+         return this;
+      }
+
+      /**
+       * Defers updating the change versions and the accessible-ID cache, and publishing todo events, until the
+       * transaction of the calling thread's unit of work (if it has one) is committed.
+       */
+      public Builder withUnitOfWorkHandles(UnitOfWorkHandles unitOfWorkHandles) {
+         this.unitOfWorkHandles = unitOfWorkHandles;
+         return this;
+      }
+
+      public TodoItemService build() {
+         return new TodoItemService(this);
+      }
+   }
 }
\ No newline at end of file
@@ -22,19 +22,44 @@ import com.acciente.oacc.Resource;
 import com.acciente.securetodo.AccessControlContextFactory;
 import com.acciente.securetodo.api.TodoUser;
 import com.acciente.securetodo.db.TodoUserDAO;
+import com.google.common.base.Suppliers;
 import org.hibernate.validator.internal.constraintvalidators.hv.EmailValidator;
 
 import java.util.Objects;
+import java.util.function.Supplier;
 
 public class TodoUserService {
    public static final EmailValidator EMAIL_VALIDATOR = new EmailValidator();
 
    private final TodoUserDAO todoUserDAO;
    private final AccessControlContextFactory oaccFactory;
+   private final InheritanceClosure inheritanceClosure;
+   private final Supplier<AccessControlContext> roleHelperContext;
 
    public TodoUserService(TodoUserDAO todoUserDAO, AccessControlContextFactory accessControlContextFactory) {
+      this(todoUserDAO, accessControlContextFactory, null);
+   }
+
+   /**
+    * Creates a service that also keeps the specified inheritance closure up to date with the roles it assigns, if the
+    * closure is not null.
+    */
+   public TodoUserService(TodoUserDAO todoUserDAO,
+                          AccessControlContextFactory accessControlContextFactory,
+                          InheritanceClosure inheritanceClosure) {
       this.todoUserDAO = todoUserDAO;
       this.oaccFactory = accessControlContextFactory;
+      this.inheritanceClosure = inheritanceClosure;
+      // the role helper only ever grants roles, so it is authenticated once and its context shared by all signups
+      this.roleHelperContext = Suppliers.memoize(this::authenticateRoleHelper);
+   }
+
+   /**
+    * Authenticates the role helper up front, so that the first signup does not pay for it (and so that a broken
+    * security model surfaces at startup rather than on the first signup).
+    */
+   public void initialize() {
+      roleHelperContext.get();
    }
 
    public TodoUser createUser(TodoUser todoUser) {
@@ -45,20 +70,30 @@ public class TodoUserService {
                                                 todoUser.getPassword());
 
       // let's add the oacc resource first, which will implicitly check if email already exists and if password is valid
-      final AccessControlContext oacc = oaccFactory.build();
-      final Resource userResource = createUserResource(newTodoUser, oacc);
-
+      final AccessControlContext oacc = oaccFactory.borrow();
       try {
-         // assign role(s) to new user
-         assignUserRoles(userResource);
+         final Resource userResource = createUserResource(newTodoUser, oacc);
+
+         try {
+            // assign role(s) to new user
+            assignUserRoles(userResource);
 
-         // now let's add the new todoUser as an entity in the app model
-         todoUserDAO.insert(newTodoUser);
+            // record the role(s) the new user inherits from in the closure
+            if (inheritanceClosure != null) {
+               inheritanceClosure.refresh(userResource);
+            }
+
+            // now let's add the new todoUser as an entity in the app model, along with the cost its password was hashed with
+            todoUserDAO.insert(newTodoUser, oaccFactory.getPasswordCost());
+         }
+         catch (Exception e) {
+            // something went wrong, so let's try to undo the oacc resource creation
+            oacc.deleteResource(userResource);
+            throw e;
+         }
       }
-      catch (Exception e) {
-         // something went wrong, so let's try to undo the oacc resource creation
-         oacc.deleteResource(userResource);
-         throw e;
+      finally {
+         oaccFactory.release(oacc);
       }
 
       return new TodoUser(newTodoUser.getEmail());
@@ -86,12 +121,17 @@ public class TodoUserService {
 
    private void assignUserRoles(Resource userResource) {
       // assign role to new user so they can create todoItems
-      final AccessControlContext roleHelperContext = oaccFactory.build();
-      roleHelperContext.authenticate(SecurityModel.RESOURCE_ROLEHELPER_TODOCREATOR,
-                                     SecurityModel.CREDENTIALS_ROLEHELPER_TODOCREATOR);
-      roleHelperContext.grantResourcePermissions(userResource,
-                                                 SecurityModel.RESOURCE_ROLE_TODOCREATOR,
-                                                 SecurityModel.PERM_INHERIT);
+      roleHelperContext.get().grantResourcePermissions(userResource,
+                                                       SecurityModel.RESOURCE_ROLE_TODOCREATOR,
+                                                       SecurityModel.PERM_INHERIT);
+   }
+
+   private AccessControlContext authenticateRoleHelper() {
+      // use an unpooled context, because this one stays authenticated for the lifetime of the service
+      final AccessControlContext oacc = oaccFactory.build();
+      oacc.authenticate(SecurityModel.RESOURCE_ROLEHELPER_TODOCREATOR,
+                        SecurityModel.CREDENTIALS_ROLEHELPER_TODOCREATOR);
+      return oacc;
    }
 
    private static void assertTodoUserIsValid(TodoUser todoUser) {
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.db;
+
+import org.skife.jdbi.v2.sqlobject.Binder;
+import org.skife.jdbi.v2.sqlobject.BinderFactory;
+import org.skife.jdbi.v2.sqlobject.BindingAnnotation;
+import org.skife.jdbi.v2.tweak.Argument;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.sql.Array;
+
+/**
+ * Binds a {@code long[]} as a single SQL {@code BIGINT ARRAY} parameter, e.g. for {@code WHERE id IN (UNNEST(:ids))}.
+ * <p>
+ * Unlike {@code @BindIn}, the SQL text does not depend on the number of IDs, so every call uses the same statement
+ * and no template has to be rendered.
+ */
+@BindingAnnotation(BindLongArray.LongArrayBinderFactory.class)
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.PARAMETER})
+public @interface BindLongArray {
+   String value();
+
+   class LongArrayBinderFactory implements BinderFactory<BindLongArray> {
+      @Override
+      public Binder<BindLongArray, long[]> build(BindLongArray bindLongArray) {
+         return (statement, bind, ids) -> statement.bind(bind.value(), toArgument(ids));
+      }
+
+      /**
+       * Returns the specified IDs as an argument to bind the same way, for statements that are not SQL objects.
+       */
+      public static Argument toArgument(long[] ids) {
+         return (position, preparedStatement, context) -> {
+            // the JDBC driver only accepts object arrays, so this is the one place the IDs are boxed
+            final Long[] boxedIds = new Long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+               boxedIds[i] = ids[i];
+            }
+            final Array array = preparedStatement.getConnection().createArrayOf("BIGINT", boxedIds);
+            preparedStatement.setArray(position, array);
+         };
+      }
+   }
+}
@@ -0,0 +1,517 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.db;
+
+import com.acciente.securetodo.api.TodoItem;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.Striped;
+import org.skife.jdbi.v2.ResultIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Todo item DAO that keeps recently read and written todo items in a cache bounded by their estimated size in memory,
+ * and only queries the wrapped DAO for the IDs it does not have.
+ * <p>
+ * Writes go to the database first and are then written through to the cache; writes to the same todo item are
+ * serialized, so the cache always ends up with the last written row. A row read from the database is only cached if
+ * no write happened while it was being read, so a read can not put back a row that was just overwritten.
+ * Only writes made through this DAO are seen; the expiry bounds how long changes made elsewhere can go unnoticed.
+ * <p>
+ * Writes made in the transaction of a unit of work are only written through once the transaction is committed (and
+ * not at all if it is rolled back), so that no one reads them from the cache before they are visible in the database;
+ * since another write may have come in between, they then only replace cached todo items at an older version. Rows
+ * read in such a transaction are not cached, since they may include its own writes.
+ */
+public class CachingTodoItemDAO implements TodoItemDAO {
+   // approximate size of a cached entry apart from its strings: the cache entry, the Long key and the TodoItem
+   private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+   private final TodoItemDAO           todoItemDAO;
+   private final UnitOfWorkHandles     unitOfWorkHandles;
+   private final Cache<Long, TodoItem> todoItems;
+   private final Striped<Lock>         writeLocks;
+   private final AtomicLong            writeGeneration;
+   private final Meter                 hits;
+   private final Meter                 misses;
+   private final Meter                 evictions;
+
+   /**
+    * Creates a cache for the specified todo item DAO, which defers the write-through of writes made in a transaction
+    * until it is committed, if the unit of work handles (if any) the DAO belongs to are specified.
+    */
+   public CachingTodoItemDAO(TodoItemDAO todoItemDAO,
+                             UnitOfWorkHandles unitOfWorkHandles,
+                             long maximumWeightBytes,
+                             long expireAfterWriteMillis,
+                             MetricRegistry metrics) {
+      this.todoItemDAO = todoItemDAO;
+      this.unitOfWorkHandles = unitOfWorkHandles;
+      this.writeLocks = Striped.lock(64);
+      this.writeGeneration = new AtomicLong();
+
+      hits = metrics.meter(getClass().getCanonicalName() + " hits");
+      misses = metrics.meter(getClass().getCanonicalName() + " misses");
+      evictions = metrics.meter(getClass().getCanonicalName() + " evictions");
+
+      todoItems = CacheBuilder.newBuilder()
+            .maximumWeight(maximumWeightBytes)
+            .weigher((Long id, TodoItem todoItem) -> estimateBytes(todoItem))
+            .expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS)
+            .removalListener(notification -> {
+               if (notification.wasEvicted()) {
+                  evictions.mark();
+               }
+            })
+            .build();
+
+      metrics.register(getClass().getCanonicalName() + " hit-ratio",
+                       new RatioGauge() {
+                          @Override
+                          protected Ratio getRatio() {
+                             return Ratio.of(hits.getCount(), hits.getCount() + misses.getCount());
+                          }
+                       });
+      metrics.register(getClass().getCanonicalName() + " size",
+                       (Gauge<Long>) this::size);
+      metrics.register(getClass().getCanonicalName() + " estimated-bytes",
+                       (Gauge<Long>) this::estimatedBytes);
+   }
+
+   @Override
+   public long insert(TodoItem newTodoItem) {
+      final long newId = todoItemDAO.insert(newTodoItem);
+      writeGeneration.incrementAndGet();
+      // mirror the defaulting of the insert statement (and of the version column)
+      cacheWritten(newId, new TodoItem(newId,
+                                       newTodoItem.getTitle(),
+                                       newTodoItem.getCompleted() == null ? Boolean.FALSE : newTodoItem.getCompleted(),
+                                       null,
+                                       INITIAL_VERSION));
+      return newId;
+   }
+
+   @Override
+   public List<Long> nextIds(int count) {
+      return todoItemDAO.nextIds(count);
+   }
+
+   @Override
+   public void insertAll(List<TodoItem> newTodoItems) {
+      todoItemDAO.insertAll(newTodoItems);
+      writeGeneration.incrementAndGet();
+      final List<Long> idList = new ArrayList<>(newTodoItems.size());
+      newTodoItems.forEach(todoItem -> idList.add(todoItem.getId()));
+      cacheWritten(idList, newTodoItems);
+   }
+
+   @Override
+   public int patchById(long id, TodoItem patchItem, Long expectedVersion) {
+      final Lock writeLock = writeLocks.get(id);
+      writeLock.lock();
+      try {
+         final int updateCount = todoItemDAO.patchById(id, patchItem, expectedVersion);
+         writeGeneration.incrementAndGet();
+         // the patched row is not returned, so it has to be read again
+         cacheWritten(id, null);
+         return updateCount;
+      }
+      finally {
+         writeLock.unlock();
+      }
+   }
+
+   @Override
+   public TodoItem patch(long id, TodoItem patchItem, Long expectedVersion) {
+      final Lock writeLock = writeLocks.get(id);
+      writeLock.lock();
+      try {
+         final TodoItem todoItem;
+         final TodoItem cachedTodoItem = todoItems.getIfPresent(id);
+         if (cachedTodoItem != null
+               && cachedTodoItem.getVersion() != null
+               && (expectedVersion == null || expectedVersion.equals(cachedTodoItem.getVersion()))) {
+            // patching at the cached version means that, if the patch applies, the patched row is known without
+            // reading it back; if it does not apply, the cached todo item is stale, which only fails an expected
+            // version, otherwise the patch is retried without one
+            if (todoItemDAO.patchById(id, patchItem, cachedTodoItem.getVersion()) > 0) {
+               todoItem = cachedTodoItem.getPatchedInstance(patchItem).withVersion(cachedTodoItem.getVersion() + 1);
+            }
+            else {
+               todoItem = expectedVersion == null ? todoItemDAO.patch(id, patchItem, null) : null;
+            }
+         }
+         else {
+            todoItem = todoItemDAO.patch(id, patchItem, expectedVersion);
+         }
+         writeGeneration.incrementAndGet();
+         cacheWritten(id, todoItem);
+         return todoItem;
+      }
+      finally {
+         writeLock.unlock();
+      }
+   }
+
+   @Override
+   public int[] updateAll(List<TodoItem> changedTodoItems) {
+      // bulkGet returns the locks in a fixed order, so two bulk writes can not deadlock each other
+      final List<Long> idList = new ArrayList<>(changedTodoItems.size());
+      changedTodoItems.forEach(todoItem -> idList.add(todoItem.getId()));
+      final Iterable<Lock> writeLocks = this.writeLocks.bulkGet(idList);
+      writeLocks.forEach(Lock::lock);
+      try {
+         final int[] updateCounts = todoItemDAO.updateAll(changedTodoItems);
+         writeGeneration.incrementAndGet();
+         final List<TodoItem> updatedTodoItems = new ArrayList<>(updateCounts.length);
+         for (int i = 0; i < updateCounts.length; i++) {
+            final TodoItem changedTodoItem = changedTodoItems.get(i);
+            updatedTodoItems.add(updateCounts[i] > 0
+                                 ? changedTodoItem.withVersion(changedTodoItem.getVersion() + 1)
+                                 : null);
+         }
+         cacheWritten(idList, updatedTodoItems);
+         return updateCounts;
+      }
+      finally {
+         writeLocks.forEach(Lock::unlock);
+      }
+   }
+
+   @Override
+   public int updateOaccResourceId(TodoItem todoItem) {
+      return updateOaccResourceIds(Collections.singletonList(todoItem))[0];
+   }
+
+   @Override
+   public int[] updateOaccResourceIds(List<TodoItem> todoItemsWithOaccResourceIds) {
+      // bulkGet returns the locks in a fixed order, so two bulk writes can not deadlock each other
+      final List<Long> idList = new ArrayList<>(todoItemsWithOaccResourceIds.size());
+      todoItemsWithOaccResourceIds.forEach(todoItem -> idList.add(todoItem.getId()));
+      final Iterable<Lock> writeLocks = this.writeLocks.bulkGet(idList);
+      writeLocks.forEach(Lock::lock);
+      try {
+         final int[] updateCounts = todoItemDAO.updateOaccResourceIds(todoItemsWithOaccResourceIds);
+         writeGeneration.incrementAndGet();
+         // only the oacc resource ID was written, so a cached todo item is updated from its own (complete) values
+         final List<TodoItem> updatedTodoItems = new ArrayList<>(updateCounts.length);
+         for (int i = 0; i < updateCounts.length; i++) {
+            final TodoItem cachedTodoItem = todoItems.getIfPresent(idList.get(i));
+            final Long oaccResourceId = todoItemsWithOaccResourceIds.get(i).getOaccResourceId();
+            updatedTodoItems.add(updateCounts[i] > 0 && cachedTodoItem != null
+                                 ? cachedTodoItem.withOaccResourceId(oaccResourceId)
+                                 : null);
+         }
+         cacheWritten(idList, updatedTodoItems);
+         return updateCounts;
+      }
+      finally {
+         writeLocks.forEach(Lock::unlock);
+      }
+   }
+
+   @Override
+   public List<Long> findIdsWithoutOaccResourceId(long afterId, int limit) {
+      return todoItemDAO.findIdsWithoutOaccResourceId(afterId, limit);
+   }
+
+   @Override
+   public int delete(long id) {
+      final Lock writeLock = writeLocks.get(id);
+      writeLock.lock();
+      try {
+         final int deleteCount = todoItemDAO.delete(id);
+         writeGeneration.incrementAndGet();
+         cacheWritten(id, null);
+         return deleteCount;
+      }
+      finally {
+         writeLock.unlock();
+      }
+   }
+
+   @Override
+   public int deleteByIds(long[] ids) {
+      // bulkGet returns the locks in a fixed order, so two bulk writes can not deadlock each other
+      final List<Long> idList = Longs.asList(ids);
+      final Iterable<Lock> writeLocks = this.writeLocks.bulkGet(idList);
+      writeLocks.forEach(Lock::lock);
+      try {
+         final int deleteCount = todoItemDAO.deleteByIds(ids);
+         writeGeneration.incrementAndGet();
+         cacheWritten(idList, Collections.nCopies(idList.size(), null));
+         return deleteCount;
+      }
+      finally {
+         writeLocks.forEach(Lock::unlock);
+      }
+   }
+
+   @Override
+   public TodoItem findById(long id) {
+      final TodoItem cachedTodoItem = todoItems.getIfPresent(id);
+      if (cachedTodoItem != null) {
+         hits.mark();
+         return cachedTodoItem;
+      }
+
+      misses.mark();
+      final long loadGeneration = writeGeneration.get();
+      final TodoItem todoItem = todoItemDAO.findById(id);
+      if (todoItem != null) {
+         cacheLoaded(todoItem, loadGeneration);
+      }
+      return todoItem;
+   }
+
+   @Override
+   public List<TodoItem> findByIds(long[] ids) {
+      final List<TodoItem> foundTodoItems = new ArrayList<>(ids.length);
+      final long[] missingIds = new long[ids.length];
+      int missingCount = 0;
+      for (long id : ids) {
+         final TodoItem cachedTodoItem = todoItems.getIfPresent(id);
+         if (cachedTodoItem != null) {
+            foundTodoItems.add(cachedTodoItem);
+         }
+         else {
+            missingIds[missingCount++] = id;
+         }
+      }
+      hits.mark(ids.length - missingCount);
+
+      // fill in all the missing todo items with a single query (per chunk, for very many)
+      if (missingCount > 0) {
+         misses.mark(missingCount);
+         final long loadGeneration = writeGeneration.get();
+         for (TodoItem todoItem : todoItemDAO.findByIds(Arrays.copyOf(missingIds, missingCount))) {
+            foundTodoItems.add(todoItem);
+            cacheLoaded(todoItem, loadGeneration);
+         }
+         foundTodoItems.sort(Comparator.comparingLong(TodoItem::getId));
+      }
+      return foundTodoItems;
+   }
+
+   @Override
+   public List<TodoItem> findChunkByIds(long[] ids) {
+      return findByIds(ids);
+   }
+
+   @Override
+   public ResultIterator<TodoItem> iterateByIds(long[] ids) {
+      if (!isStrictlyAscending(ids)) {
+         // the cached and the loaded todo items can only be merged in order if the IDs are in order
+         return todoItemDAO.iterateByIds(ids);
+      }
+
+      final TodoItem[] cachedTodoItems = new TodoItem[ids.length];
+      final long[] missingIds = new long[ids.length];
+      int missingCount = 0;
+      for (int i = 0; i < ids.length; i++) {
+         cachedTodoItems[i] = todoItems.getIfPresent(ids[i]);
+         if (cachedTodoItems[i] == null) {
+            missingIds[missingCount++] = ids[i];
+         }
+      }
+      hits.mark(ids.length - missingCount);
+
+      if (missingCount == 0) {
+         return new MergingResultIterator(ids, cachedTodoItems, null, 0);
+      }
+      misses.mark(missingCount);
+      final long loadGeneration = writeGeneration.get();
+      return new MergingResultIterator(ids,
+                                       cachedTodoItems,
+                                       todoItemDAO.iterateByIds(Arrays.copyOf(missingIds, missingCount)),
+                                       loadGeneration);
+   }
+
+   public long size() {
+      todoItems.cleanUp();
+      return todoItems.size();
+   }
+
+   public long estimatedBytes() {
+      long bytes = 0;
+      for (TodoItem todoItem : todoItems.asMap().values()) {
+         bytes += estimateBytes(todoItem);
+      }
+      return bytes;
+   }
+
+   public void invalidateAll() {
+      writeGeneration.incrementAndGet();
+      todoItems.invalidateAll();
+   }
+
+   private void cacheWritten(long id, TodoItem writtenTodoItem) {
+      cacheWritten(Collections.singletonList(id), Collections.singletonList(writtenTodoItem));
+   }
+
+   /**
+    * Writes the written todo items through to the cache, and invalidates the IDs of those that are null (i.e. that
+    * were not written, or only partially); deferred until the commit, if the calling thread has a transaction open.
+    */
+   private void cacheWritten(List<Long> ids, List<TodoItem> writtenTodoItems) {
+      if (unitOfWorkHandles == null || !unitOfWorkHandles.isInTransaction()) {
+         for (int i = 0; i < ids.size(); i++) {
+            if (writtenTodoItems.get(i) != null) {
+               todoItems.put(ids.get(i), writtenTodoItems.get(i));
+            }
+            else {
+               todoItems.invalidate(ids.get(i));
+            }
+         }
+         return;
+      }
+      unitOfWorkHandles.afterCommit(() -> {
+         final Iterable<Lock> writeLocks = this.writeLocks.bulkGet(ids);
+         writeLocks.forEach(Lock::lock);
+         try {
+            // rows read while the transaction was open must not be cached, as they may predate its commit
+            writeGeneration.incrementAndGet();
+            for (int i = 0; i < ids.size(); i++) {
+               final TodoItem writtenTodoItem = writtenTodoItems.get(i);
+               if (writtenTodoItem != null && writtenTodoItem.getVersion() != null) {
+                  // a todo item that is not cached (any more) may have been overwritten since, so it is left out
+                  todoItems.asMap().computeIfPresent(ids.get(i), (id, cachedTodoItem) -> {
+                     if (cachedTodoItem.getVersion() == null) {
+                        return null;
+                     }
+                     return cachedTodoItem.getVersion() <= writtenTodoItem.getVersion()
+                            ? writtenTodoItem
+                            : cachedTodoItem;
+                  });
+               }
+               else {
+                  todoItems.invalidate(ids.get(i));
+               }
+            }
+         }
+         finally {
+            writeLocks.forEach(Lock::unlock);
+         }
+      });
+   }
+
+   private void cacheLoaded(TodoItem todoItem, long loadGeneration) {
+      if (unitOfWorkHandles != null && unitOfWorkHandles.isInTransaction()) {
+         return;
+      }
+      if (writeGeneration.get() == loadGeneration) {
+         todoItems.put(todoItem.getId(), todoItem);
+         // a write may have slipped in between the check and the put, in which case we drop our entry again
+         if (writeGeneration.get() != loadGeneration) {
+            todoItems.invalidate(todoItem.getId());
+         }
+      }
+   }
+
+   private static int estimateBytes(TodoItem todoItem) {
+      final int titleLength = todoItem.getTitle() == null ? 0 : todoItem.getTitle().length();
+      final int urlLength = todoItem.getUrl() == null ? 0 : todoItem.getUrl().length();
+      return ENTRY_OVERHEAD_BYTES + 2 * (titleLength + urlLength);
+   }
+
+   private static boolean isStrictlyAscending(long[] ids) {
+      for (int i = 1; i < ids.length; i++) {
+         if (ids[i - 1] >= ids[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Returns the todo items for the requested IDs in ascending order, taking each one either from the cache or from
+    * the database query for the missing IDs, which returns them in the same order.
+    */
+   private class MergingResultIterator implements ResultIterator<TodoItem> {
+      private final long[]                   ids;
+      private final TodoItem[]               cachedTodoItems;
+      private final ResultIterator<TodoItem> loadedTodoItems;
+      private final long                     loadGeneration;
+      private       int                      index;
+      private       TodoItem                 nextLoadedTodoItem;
+      private       TodoItem                 nextTodoItem;
+
+      private MergingResultIterator(long[] ids,
+                                    TodoItem[] cachedTodoItems,
+                                    ResultIterator<TodoItem> loadedTodoItems,
+                                    long loadGeneration) {
+         this.ids = ids;
+         this.cachedTodoItems = cachedTodoItems;
+         this.loadedTodoItems = loadedTodoItems;
+         this.loadGeneration = loadGeneration;
+      }
+
+      @Override
+      public boolean hasNext() {
+         while (nextTodoItem == null && index < ids.length) {
+            final int currentIndex = index++;
+            if (cachedTodoItems[currentIndex] != null) {
+               nextTodoItem = cachedTodoItems[currentIndex];
+               cachedTodoItems[currentIndex] = null;
+            }
+            else {
+               if (nextLoadedTodoItem == null && loadedTodoItems.hasNext()) {
+                  nextLoadedTodoItem = loadedTodoItems.next();
+               }
+               // if the loaded todo item is not the one for this ID, the row for this ID no longer exists
+               if (nextLoadedTodoItem != null && nextLoadedTodoItem.getId() == ids[currentIndex]) {
+                  nextTodoItem = nextLoadedTodoItem;
+                  nextLoadedTodoItem = null;
+                  cacheLoaded(nextTodoItem, loadGeneration);
+               }
+            }
+         }
+         return nextTodoItem != null;
+      }
+
+      @Override
+      public TodoItem next() {
+         if (!hasNext()) {
+            throw new NoSuchElementException();
+         }
+         final TodoItem todoItem = nextTodoItem;
+         nextTodoItem = null;
+         return todoItem;
+      }
+
+      @Override
+      public void close() {
+         if (loadedTodoItems != null) {
+            loadedTodoItems.close();
+         }
+      }
+   }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.db;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.db.ManagedDataSource;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+
+/**
+ * Managed data source that counts the connections checked out of the wrapped pool, in total and per thread, so that
+ * the checkouts of a request can be told from the difference between its start and its end.
+ */
+public class CountingDataSource implements ManagedDataSource {
+   private final ManagedDataSource   dataSource;
+   private final ThreadLocal<long[]> threadCheckouts;
+   private final Meter               checkouts;
+
+   public CountingDataSource(ManagedDataSource dataSource, String name, MetricRegistry metrics) {
+      this.dataSource = dataSource;
+      this.threadCheckouts = ThreadLocal.withInitial(() -> new long[1]);
+
+      checkouts = metrics.meter(getClass().getCanonicalName() + " " + name + " checkouts");
+   }
+
+   /**
+    * Returns the number of connections the calling thread checked out so far.
+    */
+   public long getThreadCheckouts() {
+      return threadCheckouts.get()[0];
+   }
+
+   @Override
+   public Connection getConnection() throws SQLException {
+      final Connection connection = dataSource.getConnection();
+      countCheckout();
+      return connection;
+   }
+
+   @Override
+   public Connection getConnection(String username, String password) throws SQLException {
+      final Connection connection = dataSource.getConnection(username, password);
+      countCheckout();
+      return connection;
+   }
+
+   private void countCheckout() {
+      threadCheckouts.get()[0]++;
+      checkouts.mark();
+   }
+
+   @Override
+   public void start() throws Exception {
+      dataSource.start();
+   }
+
+   @Override
+   public void stop() throws Exception {
+      dataSource.stop();
+   }
+
+   @Override
+   public <T> T unwrap(Class<T> iface) throws SQLException {
+      return iface.isInstance(this) ? iface.cast(this) : dataSource.unwrap(iface);
+   }
+
+   @Override
+   public boolean isWrapperFor(Class<?> iface) throws SQLException {
+      return iface.isInstance(this) || dataSource.isWrapperFor(iface);
+   }
+
+   @Override
+   public PrintWriter getLogWriter() throws SQLException {
+      return dataSource.getLogWriter();
+   }
+
+   @Override
+   public void setLogWriter(PrintWriter out) throws SQLException {
+      dataSource.setLogWriter(out);
+   }
+
+   @Override
+   public void setLoginTimeout(int seconds) throws SQLException {
+      dataSource.setLoginTimeout(seconds);
+   }
+
+   @Override
+   public int getLoginTimeout() throws SQLException {
+      return dataSource.getLoginTimeout();
+   }
+
+   @Override
+   public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+      return dataSource.getParentLogger();
+   }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.db;
+
+import com.acciente.securetodo.api.TodoChange;
+import com.acciente.securetodo.db.mappers.TodoChangeMapper;
+import org.skife.jdbi.v2.sqlobject.Bind;
+import org.skife.jdbi.v2.sqlobject.BindBean;
+import org.skife.jdbi.v2.sqlobject.SqlBatch;
+import org.skife.jdbi.v2.sqlobject.SqlQuery;
+import org.skife.jdbi.v2.sqlobject.SqlUpdate;
+import org.skife.jdbi.v2.sqlobject.customizers.RegisterMapper;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+@RegisterMapper(TodoChangeMapper.class)
+public interface TodoChangeDAO {
+   // each entry is appended in its own statement (i.e. committed right away, and never in a request's transaction,
+   // which only appends once it is committed), so that, with HSQLDB's default locking, the entries become visible in
+   // the order of their IDs, and a reader never skips one that commits late
+   @SqlUpdate("INSERT INTO todo.todoChange(todoItemId, accessor) VALUES (:todoItemId, :accessor)")
+   void append(@BindBean TodoChange todoChange);
+
+   @SqlBatch("INSERT INTO todo.todoChange(todoItemId, accessor) VALUES (:todoItemId, :accessor)")
+   void appendAll(@BindBean Iterable<TodoChange> todoChanges);
+
+   // the latest change of each todo item granted to the accessor, or updated, since the specified change ID, in the
+   // order of those changes; the accessor of a todo item that was both granted and updated is the granted one
+   @SqlQuery("SELECT MAX(id) AS id, todoItemId, MAX(accessor) AS accessor FROM todo.todoChange"
+             + " WHERE id > :sinceId AND (accessor = :accessor OR accessor IS NULL)"
+             + " GROUP BY todoItemId ORDER BY 1 LIMIT :limit")
+   List<TodoChange> findChanges(@Bind("accessor") String accessor,
+                                @Bind("sinceId") long sinceId,
+                                @Bind("limit") int limit);
+
+   // null if the log is empty
+   @SqlQuery("SELECT MIN(id) FROM todo.todoChange")
+   Long findFirstId();
+
+   // null if the log is empty
+   @SqlQuery("SELECT MAX(id) FROM todo.todoChange")
+   Long findLastId();
+
+   // deletes the entries before the last one made before the cutoff, which stays behind to mark where the log starts
+   @SqlUpdate("DELETE FROM todo.todoChange"
+              + " WHERE id < (SELECT MAX(id) FROM todo.todoChange WHERE changedAt < :cutoff)")
+   int compact(@Bind("cutoff") Timestamp cutoff);
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.db;
+
+import com.acciente.securetodo.api.TodoItemAccess;
+import com.acciente.securetodo.db.mappers.TodoItemAccessMapper;
+import org.skife.jdbi.v2.sqlobject.Bind;
+import org.skife.jdbi.v2.sqlobject.BindBean;
+import org.skife.jdbi.v2.sqlobject.SqlBatch;
+import org.skife.jdbi.v2.sqlobject.SqlQuery;
+import org.skife.jdbi.v2.sqlobject.SqlUpdate;
+import org.skife.jdbi.v2.sqlobject.customizers.RegisterMapper;
+
+import java.util.List;
+
+@RegisterMapper(TodoItemAccessMapper.class)
+public interface TodoItemAccessDAO {
+   // adds the permissions to any the accessor already has on the todo item; todo items that do not exist are skipped
+   String GRANT_SQL = "MERGE INTO todo.todoItemAccess a"
+         + " USING (SELECT CAST(:accessor AS VARCHAR(128)) AS accessor, id AS todoItemId, CAST(:permissions AS INTEGER) AS permissions"
+         + "        FROM todo.todoItem WHERE id = :todoItemId) AS g"
+         + " ON a.accessor = g.accessor AND a.todoItemId = g.todoItemId"
+         + " WHEN MATCHED THEN UPDATE SET a.permissions = BITOR(a.permissions, g.permissions)"
+         + " WHEN NOT MATCHED THEN INSERT (accessor, todoItemId, permissions) VALUES (g.accessor, g.todoItemId, g.permissions)";
+
+   @SqlUpdate(GRANT_SQL)
+   int grant(@Bind("accessor") String accessor,
+             @Bind("todoItemId") long todoItemId,
+             @Bind("permissions") int permissions);
+
+   @SqlBatch(GRANT_SQL)
+   void grant(@BindBean Iterable<TodoItemAccess> todoItemAccesses);
+
+   // an index range scan over the primary key: the page's IDs, without touching the todo items themselves
+   @SqlQuery("SELECT todoItemId FROM todo.todoItemAccess"
+                   + " WHERE accessor = :accessor AND todoItemId > :afterId AND BITAND(permissions, :permission) <> 0"
+                   + " ORDER BY todoItemId LIMIT :limit")
+   List<Long> findTodoItemIds(@Bind("accessor") String accessor,
+                              @Bind("permission") int permission,
+                              @Bind("afterId") long afterId,
+                              @Bind("limit") int limit);
+
+   @SqlQuery("SELECT * FROM todo.todoItemAccess")
+   List<TodoItemAccess> findAll();
+
+   @SqlBatch("DELETE FROM todo.todoItemAccess WHERE accessor = :accessor AND todoItemId = :todoItemId")
+   void delete(@BindBean Iterable<TodoItemAccess> todoItemAccesses);
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.db;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class TodoItemAccessIndexFactory {
+   private boolean enabled = false;
+
+   private boolean reconcileOnStartup = true;
+
+   @JsonProperty
+   public boolean isEnabled() {
+      return enabled;
+   }
+
+   @JsonProperty
+   public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+   }
+
+   @JsonProperty
+   public boolean isReconcileOnStartup() {
+      return reconcileOnStartup;
+   }
+
+   @JsonProperty
+   public void setReconcileOnStartup(boolean reconcileOnStartup) {
+      this.reconcileOnStartup = reconcileOnStartup;
+   }
+
+   public TodoItemAccessDAO build(UnitOfWorkHandles todoHandles) {
+      if (!enabled) {
+         return null;
+      }
+      return todoHandles.onDemand(TodoItemAccessDAO.class);
+   }
+}
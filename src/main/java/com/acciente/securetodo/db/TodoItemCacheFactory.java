@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.db;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+
+import javax.validation.constraints.NotNull;
+
+public class TodoItemCacheFactory {
+   private boolean enabled = true;
+
+   @NotNull
+   private Size maximumMemory = Size.megabytes(16);
+
+   @NotNull
+   private Duration expireAfterWrite = Duration.minutes(10);
+
+   @JsonProperty
+   public boolean isEnabled() {
+      return enabled;
+   }
+
+   @JsonProperty
+   public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+   }
+
+   @JsonProperty
+   public Size getMaximumMemory() {
+      return maximumMemory;
+   }
+
+   @JsonProperty
+   public void setMaximumMemory(Size maximumMemory) {
+      this.maximumMemory = maximumMemory;
+   }
+
+   @JsonProperty
+   public Duration getExpireAfterWrite() {
+      return expireAfterWrite;
+   }
+
+   @JsonProperty
+   public void setExpireAfterWrite(Duration expireAfterWrite) {
+      this.expireAfterWrite = expireAfterWrite;
+   }
+
+   /**
+    * Returns the todo item DAO of the specified unit of work handles, behind the cache if it is enabled.
+    */
+   public TodoItemDAO build(MetricRegistry metrics, UnitOfWorkHandles todoHandles) {
+      final TodoItemDAO todoItemDAO = todoHandles.onDemand(TodoItemDAO.class);
+      if (!enabled) {
+         return todoItemDAO;
+      }
+      return new CachingTodoItemDAO(todoItemDAO,
+                                    todoHandles,
+                                    maximumMemory.toBytes(),
+                                    expireAfterWrite.toMilliseconds(),
+                                    metrics);
+   }
+}
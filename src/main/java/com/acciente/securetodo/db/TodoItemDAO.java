@@ -18,34 +18,114 @@ package com.acciente.securetodo.db;
 
 import com.acciente.securetodo.api.TodoItem;
 import com.acciente.securetodo.db.mappers.TodoItemMapper;
+import org.skife.jdbi.v2.ResultIterator;
 import org.skife.jdbi.v2.sqlobject.Bind;
 import org.skife.jdbi.v2.sqlobject.BindBean;
 import org.skife.jdbi.v2.sqlobject.GetGeneratedKeys;
+import org.skife.jdbi.v2.sqlobject.SqlBatch;
 import org.skife.jdbi.v2.sqlobject.SqlQuery;
 import org.skife.jdbi.v2.sqlobject.SqlUpdate;
+import org.skife.jdbi.v2.sqlobject.Transaction;
 import org.skife.jdbi.v2.sqlobject.customizers.RegisterMapper;
-import org.skife.jdbi.v2.sqlobject.stringtemplate.UseStringTemplate3StatementLocator;
-import org.skife.jdbi.v2.unstable.BindIn;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-@UseStringTemplate3StatementLocator
 @RegisterMapper(TodoItemMapper.class)
 public interface TodoItemDAO {
+   // the version the todo item table starts new rows at
+   long INITIAL_VERSION = 1;
+
+   // the most IDs a single lookup binds, which keeps each bound array (and each result set) bounded
+   int ID_LOOKUP_CHUNK_SIZE = 10000;
+
    @SqlUpdate("INSERT INTO todo.todoItem(title, completed) VALUES (:title, CASE WHEN :completed IS NULL THEN FALSE ELSE :completed END )")
    @GetGeneratedKeys
    long insert(@BindBean TodoItem newTodoItem);
 
-   @SqlUpdate("UPDATE todo.todoItem SET title = :title, completed = :completed WHERE id = :id")
-   int update(@BindBean TodoItem todoItem);
+   // draws the IDs for a batch of new todo items from the sequence that the ID column otherwise defaults from
+   @SqlQuery("SELECT NEXT VALUE FOR todo.todoItemId FROM UNNEST(SEQUENCE_ARRAY(1, :count, 1))")
+   List<Long> nextIds(@Bind("count") int count);
+
+   // inserts complete todo items, i.e. ones that already have their ID and completed flag (and maybe their oacc resource ID)
+   @SqlBatch("INSERT INTO todo.todoItem(id, title, completed, oaccResourceId) VALUES (:id, :title, :completed, :oaccResourceId)")
+   void insertAll(@BindBean List<TodoItem> newTodoItems);
+
+   // applies whichever of the patch's title and completed flag are set, and increments the version, all in one
+   // statement, so concurrent patches can not undo each other; if an expected version is specified, the todo item is
+   // only updated if it is still at that version
+   @SqlUpdate("UPDATE todo.todoItem"
+              + " SET title = COALESCE(:patch.title, title),"
+              + "     completed = COALESCE(:patch.completed, completed),"
+              + "     version = version + 1"
+              + " WHERE id = :id AND (CAST(:expectedVersion AS BIGINT) IS NULL OR version = :expectedVersion)")
+   int patchById(@Bind("id") long id,
+                 @BindBean("patch") TodoItem patchItem,
+                 @Bind("expectedVersion") Long expectedVersion);
+
+   /**
+    * Applies the patch like {@link #patchById} does, and returns the updated todo item, or null if there was no todo
+    * item (at the expected version) to update. HSQLDB does not return the updated row of an UPDATE as generated keys,
+    * so it is read back instead, in the same transaction.
+    */
+   @Transaction
+   default TodoItem patch(long id, TodoItem patchItem, Long expectedVersion) {
+      return patchById(id, patchItem, expectedVersion) > 0 ? findById(id) : null;
+   }
+
+   // writes each of the todo items only if it is still at the version it carries, and increments that version;
+   // returns the update count of each todo item, in the same order
+   @SqlBatch("UPDATE todo.todoItem SET title = :title, completed = :completed, version = version + 1"
+             + " WHERE id = :id AND version = :version")
+   int[] updateAll(@BindBean List<TodoItem> todoItems);
+
+   // records the internal ID of the todo item's oacc resource
+   @SqlUpdate("UPDATE todo.todoItem SET oaccResourceId = :oaccResourceId WHERE id = :id")
+   int updateOaccResourceId(@BindBean TodoItem todoItem);
+
+   // returns the update count of each todo item, in the same order
+   @SqlBatch("UPDATE todo.todoItem SET oaccResourceId = :oaccResourceId WHERE id = :id")
+   int[] updateOaccResourceIds(@BindBean List<TodoItem> todoItems);
+
+   @SqlQuery("SELECT id FROM todo.todoItem WHERE oaccResourceId IS NULL AND id > :afterId ORDER BY id LIMIT :limit")
+   List<Long> findIdsWithoutOaccResourceId(@Bind("afterId") long afterId, @Bind("limit") int limit);
 
    @SqlUpdate("DELETE FROM todo.todoItem WHERE id = :id")
    int delete(@Bind("id") long id);
 
+   @SqlUpdate("DELETE FROM todo.todoItem WHERE id IN (UNNEST(:ids))")
+   int deleteByIds(@BindLongArray("ids") long[] ids);
+
    @SqlQuery("SELECT * FROM todo.todoItem WHERE id = :id")
    TodoItem findById(@Bind("id") long id);
 
-   @SqlQuery("SELECT * FROM todo.todoItem WHERE id IN (<ids>)")
-   List<TodoItem> findByIds(@BindIn("ids") Collection<Long> ids);
+   // looks up all the IDs with one query, no matter how many there are; see findByIds
+   @SqlQuery("SELECT * FROM todo.todoItem WHERE id IN (UNNEST(:ids)) ORDER BY id")
+   List<TodoItem> findChunkByIds(@BindLongArray("ids") long[] ids);
+
+   /**
+    * Returns the todo items with the specified IDs, in ascending ID order. More than {@link #ID_LOOKUP_CHUNK_SIZE}
+    * IDs are sorted and looked up in chunks of that size, so the chunks' results add up in ascending ID order, too.
+    */
+   default List<TodoItem> findByIds(long[] ids) {
+      if (ids.length <= ID_LOOKUP_CHUNK_SIZE) {
+         return findChunkByIds(ids);
+      }
+      final long[] sortedIds = ids.clone();
+      Arrays.sort(sortedIds);
+      final List<TodoItem> todoItems = new ArrayList<>(sortedIds.length);
+      for (int fromIndex = 0; fromIndex < sortedIds.length; fromIndex += ID_LOOKUP_CHUNK_SIZE) {
+         todoItems.addAll(findChunkByIds(Arrays.copyOfRange(sortedIds,
+                                                            fromIndex,
+                                                            Math.min(fromIndex + ID_LOOKUP_CHUNK_SIZE,
+                                                                     sortedIds.length))));
+      }
+      return todoItems;
+   }
+
+   // the returned iterator holds on to its database connection until it is closed; as it streams, it does not chunk
+   // the IDs itself, so callers with very large ID sets look them up in chunks of ID_LOOKUP_CHUNK_SIZE
+   @SqlQuery("SELECT * FROM todo.todoItem WHERE id IN (UNNEST(:ids)) ORDER BY id")
+   ResultIterator<TodoItem> iterateByIds(@BindLongArray("ids") long[] ids);
 }
@@ -28,8 +28,16 @@ import java.util.List;
 
 @RegisterMapper(TodoUserMapper.class)
 public interface TodoUserDAO {
-   @SqlUpdate("INSERT INTO todo.todoUser(email) VALUES (:email)")
-   int insert(@BindBean TodoUser todoUser);
+   // the password cost is the bcrypt cost factor the user's password was hashed with
+   @SqlUpdate("INSERT INTO todo.todoUser(email, passwordCost) VALUES (:email, :passwordCost)")
+   int insert(@BindBean TodoUser todoUser, @Bind("passwordCost") int passwordCost);
+
+   @SqlUpdate("UPDATE todo.todoUser SET passwordCost=:passwordCost WHERE email=:email")
+   int updatePasswordCost(@Bind("email") String email, @Bind("passwordCost") int passwordCost);
+
+   // null if the user does not exist, or if the cost is not known
+   @SqlQuery("SELECT passwordCost FROM todo.todoUser WHERE email=:email")
+   Integer findPasswordCost(@Bind("email") String email);
 
    @SqlQuery("SELECT * FROM todo.todoUser WHERE email=:email")
    TodoUser findByEmail(@Bind("email") String email);
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.db;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a (synchronous) resource method, or all methods of a resource, whose DAO calls share one handle, i.e. one
+ * pooled connection, for the whole request, including the writing of the response entity, if the unit of work is
+ * transactional or the shared handles are enabled (see {@link UnitOfWorkFactory}). See {@link UnitOfWorkHandles}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface UnitOfWork {
+   /**
+    * Whether the DAO calls of the resource method also share one transaction, which is committed once the resource
+    * method returns (before the response is written), and rolled back if it throws. Only for resource methods that
+    * call no DAO method that runs in a transaction of its own (JDBI does not nest them), and that make no OACC calls
+    * after their first DAO call, since the transaction holds its locks until the resource method returns.
+    */
+   boolean transactional() default false;
+}
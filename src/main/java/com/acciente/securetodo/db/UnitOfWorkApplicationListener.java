@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.db;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import org.glassfish.jersey.server.internal.process.MappableException;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import java.lang.reflect.Method;
+
+/**
+ * Binds a unit of work to each request whose resource method is marked with {@link UnitOfWork} (or, if the shared
+ * handles are disabled, only with a transactional one), from the start of the resource method until the request is
+ * finished, i.e. until the response entity was written; any other request drops any unit of work the thread may still
+ * be bound to. The transaction of a transactional unit of work is
+ * rolled back if the request fails, and otherwise committed before the response filters run, so that the response
+ * does not reach the client before the writes are visible to others. Also records, for every request, how many
+ * connections it checked out of the pool (which is only known for requests that finish on the thread they started on).
+ */
+public class UnitOfWorkApplicationListener implements ApplicationEventListener {
+   private final UnitOfWorkHandles  unitOfWorkHandles;
+   private final boolean            sharedHandles;
+   private final CountingDataSource dataSource;
+   private final Histogram          checkoutsPerRequest;
+
+   /**
+    * Creates a listener that binds a unit of work only to the requests of transactional resource methods if the shared
+    * handles are disabled, so that the other requests borrow a connection for each DAO call.
+    */
+   public UnitOfWorkApplicationListener(UnitOfWorkHandles unitOfWorkHandles,
+                                        boolean sharedHandles,
+                                        CountingDataSource dataSource,
+                                        MetricRegistry metrics) {
+      this.unitOfWorkHandles = unitOfWorkHandles;
+      this.sharedHandles = sharedHandles;
+      this.dataSource = dataSource;
+
+      checkoutsPerRequest = metrics.histogram(getClass().getCanonicalName() + " checkouts-per-request");
+   }
+
+   @Override
+   public void onEvent(ApplicationEvent event) {
+   }
+
+   @Override
+   public RequestEventListener onRequest(RequestEvent requestEvent) {
+      return new UnitOfWorkEventListener();
+   }
+
+   private static UnitOfWork findUnitOfWork(ResourceMethod resourceMethod) {
+      if (resourceMethod == null) {
+         return null;
+      }
+      final Method method = resourceMethod.getInvocable().getDefinitionMethod();
+      return method.isAnnotationPresent(UnitOfWork.class)
+             ? method.getAnnotation(UnitOfWork.class)
+             : method.getDeclaringClass().getAnnotation(UnitOfWork.class);
+   }
+
+   private class UnitOfWorkEventListener implements RequestEventListener {
+      private final Thread thread;
+      private final long   threadCheckouts;
+
+      private UnitOfWorkHandles.Scope scope;
+
+      private UnitOfWorkEventListener() {
+         this.thread = Thread.currentThread();
+         this.threadCheckouts = dataSource.getThreadCheckouts();
+      }
+
+      @Override
+      public void onEvent(RequestEvent event) {
+         switch (event.getType()) {
+            case RESOURCE_METHOD_START:
+               final UnitOfWork unitOfWork = findUnitOfWork(event.getUriInfo().getMatchedResourceMethod());
+               if (unitOfWork != null && (sharedHandles || unitOfWork.transactional())) {
+                  scope = unitOfWorkHandles.open(unitOfWork.transactional());
+               }
+               else {
+                  unitOfWorkHandles.unbind();
+               }
+               break;
+            case ON_EXCEPTION:
+               if (scope != null) {
+                  scope.rollback();
+               }
+               break;
+            case RESP_FILTERS_START:
+               if (scope != null) {
+                  try {
+                     scope.commit();
+                  }
+                  catch (RuntimeException e) {
+                     // just like an exception of the resource method, so that the client is not told it worked
+                     throw new MappableException(e);
+                  }
+               }
+               break;
+            case FINISHED:
+               if (scope != null) {
+                  scope.close();
+               }
+               if (Thread.currentThread() == thread) {
+                  checkoutsPerRequest.update(dataSource.getThreadCheckouts() - threadCheckouts);
+               }
+               break;
+            default:
+               break;
+         }
+      }
+   }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.db;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.setup.Environment;
+import org.skife.jdbi.v2.DBI;
+
+public class UnitOfWorkFactory {
+   private boolean enabled = false;
+
+   @JsonProperty
+   public boolean isEnabled() {
+      return enabled;
+   }
+
+   @JsonProperty
+   public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+   }
+
+   /**
+    * Returns the unit of work handles to take the DAOs from, and registers the listener that binds a unit of work to
+    * each request marked with {@link UnitOfWork}; if disabled, only the requests marked with a transactional one are
+    * bound to a unit of work, the DAO calls of all other requests borrow a connection for each call.
+    */
+   public UnitOfWorkHandles build(Environment environment, DBI jdbi, CountingDataSource dataSource) {
+      final UnitOfWorkHandles unitOfWorkHandles = new UnitOfWorkHandles(jdbi);
+      environment.jersey().register(new UnitOfWorkApplicationListener(unitOfWorkHandles,
+                                                                       enabled,
+                                                                       dataSource,
+                                                                       environment.metrics()));
+      return unitOfWorkHandles;
+   }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.db;
+
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands out DAOs whose calls go through the handle of the unit of work bound to the calling thread, if there is one,
+ * and otherwise borrow a connection of their own for each call, just like {@link DBI#onDemand} DAOs.
+ * <p>
+ * A unit of work opens its handle with the first DAO call (so one that makes none does not take a connection at all)
+ * and keeps it until it is closed, so all its DAO calls share one pooled connection. Each statement still commits on
+ * its own, and DAO methods that run in a transaction still do so, on the shared handle; unless the unit of work is
+ * transactional, in which case the handle begins a transaction when it is opened, which lasts until the unit of work
+ * is committed or rolled back. Whatever is to happen only once the writes are visible to everyone else, e.g. telling
+ * clients about them, is deferred until then with {@link #afterCommit}.
+ */
+public class UnitOfWorkHandles {
+   private final DBI                jdbi;
+   private final ThreadLocal<Scope> currentScope;
+
+   public UnitOfWorkHandles(DBI jdbi) {
+      this.jdbi = jdbi;
+      this.currentScope = new ThreadLocal<>();
+   }
+
+   /**
+    * Returns a DAO of the specified type that uses the handle of the calling thread's unit of work, if any.
+    */
+   public <T> T onDemand(Class<T> sqlObjectType) {
+      final T onDemandSqlObject = jdbi.onDemand(sqlObjectType);
+      final InvocationHandler invocationHandler = (proxy, method, args) -> {
+         if (method.getDeclaringClass() == Object.class) {
+            // the DAOs are only ever compared by identity
+            switch (method.getName()) {
+               case "equals":
+                  return proxy == args[0];
+               case "hashCode":
+                  return System.identityHashCode(proxy);
+               default:
+                  return "UnitOfWork(" + sqlObjectType.getName() + ")";
+            }
+         }
+         final Scope scope = getCurrentScope();
+         try {
+            return method.invoke(scope == null ? onDemandSqlObject : scope.attach(sqlObjectType), args);
+         }
+         catch (InvocationTargetException e) {
+            throw e.getCause();
+         }
+      };
+      return sqlObjectType.cast(Proxy.newProxyInstance(sqlObjectType.getClassLoader(),
+                                                       new Class<?>[]{sqlObjectType},
+                                                       invocationHandler));
+   }
+
+   /**
+    * Begins a unit of work on the calling thread, which lasts until the returned scope is closed.
+    */
+   public Scope open() {
+      return open(false);
+   }
+
+   /**
+    * Begins a unit of work on the calling thread, which lasts until the returned scope is closed, and whose DAO calls
+    * share one transaction, if it is transactional.
+    */
+   public Scope open(boolean isTransactional) {
+      final Scope scope = new Scope(isTransactional);
+      currentScope.set(scope);
+      return scope;
+   }
+
+   /**
+    * Runs the specified action once the transaction of the calling thread's unit of work is committed, and drops it if
+    * the transaction is rolled back instead; runs it right away if the calling thread has no transaction open.
+    */
+   public void afterCommit(Runnable action) {
+      final Scope scope = getCurrentScope();
+      if (scope != null && scope.isInTransaction()) {
+         scope.afterCommitActions.add(action);
+      }
+      else {
+         action.run();
+      }
+   }
+
+   /**
+    * Returns true if the calling thread's unit of work has its transaction open, i.e. if what the calling thread writes
+    * (and reads back) may not be committed yet.
+    */
+   public boolean isInTransaction() {
+      final Scope scope = getCurrentScope();
+      return scope != null && scope.isInTransaction();
+   }
+
+   /**
+    * Ends any unit of work the calling thread is still bound to, without closing it.
+    */
+   public void unbind() {
+      currentScope.remove();
+   }
+
+   private Scope getCurrentScope() {
+      final Scope scope = currentScope.get();
+      if (scope != null && scope.closed) {
+         // the scope was closed by another thread
+         currentScope.remove();
+         return null;
+      }
+      return scope;
+   }
+
+   public class Scope implements Closeable {
+      private final Map<Class<?>, Object> sqlObjects;
+      private final List<Runnable>        afterCommitActions;
+      private Handle                      handle;
+      // a transactional unit of work is in its transaction from the start, even before its handle is opened
+      private boolean                     inTransaction;
+      private volatile boolean            closed;
+
+      private Scope(boolean isTransactional) {
+         this.inTransaction = isTransactional;
+         this.sqlObjects = new HashMap<>();
+         this.afterCommitActions = new ArrayList<>();
+      }
+
+      public boolean isHandleOpen() {
+         return handle != null && !closed;
+      }
+
+      public boolean isInTransaction() {
+         return inTransaction && !closed;
+      }
+
+      private Object attach(Class<?> sqlObjectType) {
+         if (handle == null) {
+            handle = jdbi.open();
+            if (inTransaction) {
+               handle.begin();
+            }
+         }
+         return sqlObjects.computeIfAbsent(sqlObjectType, handle::attach);
+      }
+
+      /**
+       * Commits the transaction (if the unit of work is transactional), and then runs the actions deferred until
+       * then; the handle is back in autocommit mode for the rest of the unit of work.
+       */
+      public void commit() {
+         if (!isInTransaction()) {
+            return;
+         }
+         inTransaction = false;
+         if (handle != null) {
+            try {
+               handle.commit();
+            }
+            catch (RuntimeException e) {
+               afterCommitActions.clear();
+               throw e;
+            }
+         }
+         for (Runnable action : afterCommitActions) {
+            action.run();
+         }
+         afterCommitActions.clear();
+      }
+
+      /**
+       * Rolls back the transaction (if the unit of work is transactional), and drops the actions deferred until its
+       * commit; the handle is back in autocommit mode for the rest of the unit of work.
+       */
+      public void rollback() {
+         if (!isInTransaction()) {
+            return;
+         }
+         inTransaction = false;
+         afterCommitActions.clear();
+         if (handle != null) {
+            handle.rollback();
+         }
+      }
+
+      /**
+       * Rolls back a transaction that was neither committed nor rolled back, closes the handle (if it was opened), and
+       * unbinds the unit of work from the calling thread.
+       */
+      @Override
+      public void close() {
+         rollback();
+         closed = true;
+         if (currentScope.get() == this) {
+            currentScope.remove();
+         }
+         if (handle != null) {
+            handle.close();
+         }
+      }
+   }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.db.mappers;
+
+import com.acciente.securetodo.api.TodoChange;
+import org.skife.jdbi.v2.StatementContext;
+import org.skife.jdbi.v2.tweak.ResultSetMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class TodoChangeMapper implements ResultSetMapper<TodoChange> {
+   @Override
+   public TodoChange map(int rowIndex, ResultSet resultSet, StatementContext statementContext) throws SQLException {
+      return new TodoChange(resultSet.getLong("id"),
+                            resultSet.getLong("todoItemId"),
+                            resultSet.getString("accessor"));
+   }
+}
@@ -26,8 +26,12 @@ import java.sql.SQLException;
 public class TodoItemMapper implements ResultSetMapper<TodoItem> {
    @Override
    public TodoItem map(int rowIndex, ResultSet resultSet, StatementContext statementContext) throws SQLException {
+      final long oaccResourceId = resultSet.getLong("oaccResourceId");
+      final boolean isOaccResourceIdNull = resultSet.wasNull();
       return new TodoItem(resultSet.getLong("id"),
                           resultSet.getString("title"),
-                          resultSet.getBoolean("completed"));
+                          resultSet.getBoolean("completed"),
+                          isOaccResourceIdNull ? null : oaccResourceId,
+                          resultSet.getLong("version"));
    }
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.resources;
+
+import com.acciente.securetodo.api.TodoEvent;
+import com.acciente.securetodo.core.TodoEventSink;
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+
+/**
+ * Pushes todo events to a client as server-sent events, named by their type, with the event as JSON data.
+ */
+class EventOutputTodoEventSink implements TodoEventSink {
+   private final EventOutput eventOutput;
+
+   EventOutputTodoEventSink(EventOutput eventOutput) {
+      this.eventOutput = eventOutput;
+   }
+
+   @Override
+   public void send(TodoEvent todoEvent) throws IOException {
+      eventOutput.write(new OutboundEvent.Builder()
+                              .name(todoEvent.getType())
+                              .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                              .data(TodoEvent.class, todoEvent)
+                              .build());
+   }
+
+   @Override
+   public void sendHeartbeat() throws IOException {
+      eventOutput.write(new OutboundEvent.Builder().comment("heartbeat").build());
+   }
+
+   @Override
+   public void close() {
+      try {
+         eventOutput.close();
+      }
+      catch (IOException e) {
+         // the client is gone either way
+      }
+   }
+}
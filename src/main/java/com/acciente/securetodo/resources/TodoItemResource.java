@@ -17,48 +17,274 @@
 package com.acciente.securetodo.resources;
 
 import com.acciente.securetodo.api.TodoItem;
+import com.acciente.securetodo.api.TodoItemBatchResult;
+import com.acciente.securetodo.api.TodoItemPermissions;
+import com.acciente.securetodo.api.TodoItemShareResult;
+import com.acciente.securetodo.api.TodoItemShares;
 import com.acciente.securetodo.auth.OaccPrincipal;
+import com.acciente.securetodo.core.TodoChangeVersions;
+import com.acciente.securetodo.core.TodoItemChangePage;
+import com.acciente.securetodo.core.TodoItemPage;
 import com.acciente.securetodo.core.TodoItemService;
+import com.acciente.securetodo.db.UnitOfWork;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.io.CountingOutputStream;
 import io.dropwizard.auth.Auth;
+import io.dropwizard.jackson.Jackson;
 import io.dropwizard.jersey.PATCH;
+import io.dropwizard.jersey.params.BooleanParam;
+import io.dropwizard.jersey.params.IntParam;
 import io.dropwizard.jersey.params.LongParam;
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.SseFeature;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.NotFoundException;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
+import java.util.OptionalLong;
+import java.util.function.LongPredicate;
 
 @Path("/todos")
 @Consumes(MediaType.APPLICATION_JSON)
 @Produces(MediaType.APPLICATION_JSON)
 public class TodoItemResource {
-   private final TodoItemService todoItemService;
+   public static final int DEFAULT_PAGE_SIZE = 100;
+   public static final int MAXIMUM_PAGE_SIZE = 1000;
+
+   private static final String CURSOR_PREFIX = "after:";
+   private static final String SINCE_PREFIX  = "since:";
+   // versions start at 1, so no todo item is ever at this one
+   private static final Long   NO_VERSION    = 0L;
+
+   private final TodoItemService    todoItemService;
+   private final TodoChangeVersions todoChangeVersions;
+   private final JsonFactory        jsonFactory;
+   private final ObjectWriter       todoItemWriter;
 
    public TodoItemResource(TodoItemService todoItemService) {
+      this(todoItemService, null, Jackson.newObjectMapper());
+   }
+
+   /**
+    * Creates a resource that, if todo change versions are specified, answers a conditional GET whose entity tag is
+    * still current with 304, before the service (and thus OACC or the database) is asked for anything. The todo items
+    * that are streamed are written with the specified object mapper, i.e. just like the todo items of the other
+    * responses.
+    */
+   public TodoItemResource(TodoItemService todoItemService,
+                           TodoChangeVersions todoChangeVersions,
+                           ObjectMapper objectMapper) {
       this.todoItemService = todoItemService;
+      this.todoChangeVersions = todoChangeVersions;
+      this.jsonFactory = objectMapper.getFactory();
+      // flushing after each todo item would send each one in a chunk of its own
+      this.todoItemWriter = objectMapper.writerFor(TodoItem.class)
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
    }
 
    @POST
+   @UnitOfWork
    public TodoItem createItem(@Auth OaccPrincipal oaccPrincipal,
                               TodoItem newTodoItem) {
 
       return todoItemService.createItem(oaccPrincipal.getAccessControlContext(), newTodoItem);
    }
 
+   @Path("/batch")
+   @POST
+   @UnitOfWork
+   public List<TodoItemBatchResult> createItems(@Auth OaccPrincipal oaccPrincipal,
+                                                List<TodoItem> newTodoItems) {
+
+      return todoItemService.createItems(oaccPrincipal.getAccessControlContext(), newTodoItems);
+   }
+
+   @Path("/batch")
+   @PATCH
+   // the permissions are all checked before the first write, and the writes are committed together
+   @UnitOfWork(transactional = true)
+   public List<TodoItemBatchResult> updateItems(@Auth OaccPrincipal oaccPrincipal,
+                                                List<TodoItem> patchItems) {
+
+      return todoItemService.updateItems(oaccPrincipal.getAccessControlContext(), patchItems);
+   }
+
+   @GET
+   @UnitOfWork
+   public Response findByAuthenticatedUser(@Auth OaccPrincipal oaccPrincipal,
+                                           @QueryParam("limit") IntParam limit,
+                                           @QueryParam("cursor") String cursor,
+                                           @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+                                           @Context UriInfo uriInfo) {
+      // the entity tag of any page is the user's change version, which changes with any of the user's todo items
+      final String accessorId = oaccPrincipal.getName();
+      final Response notModifiedResponse
+            = evaluateIfNoneMatch(accessorId,
+                                  uriInfo,
+                                  ifNoneMatch,
+                                  version -> todoChangeVersions.isUnchanged(accessorId, version));
+      if (notModifiedResponse != null) {
+         return notModifiedResponse;
+      }
+
+      final int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.min(limit.get(), MAXIMUM_PAGE_SIZE);
+      final TodoItemPage todoItemPage = todoItemService.findByAuthenticatedUser(oaccPrincipal.getAccessControlContext(),
+                                                                                decodeCursor(cursor),
+                                                                                pageSize);
+
+      // write each todo item as soon as it is read, instead of collecting the page into a list first
+      final StreamingOutput todoItems = output -> {
+         // the size of the page is only known once it was written, which is when it is remembered
+         final CountingOutputStream countingOutput = new CountingOutputStream(output);
+         try (JsonGenerator jsonGenerator = createGenerator(countingOutput)) {
+            jsonGenerator.writeStartArray();
+            todoItemService.writeTodoItems(todoItemPage, todoItem -> todoItemWriter.writeValue(jsonGenerator, todoItem));
+            jsonGenerator.writeEndArray();
+         }
+         if (todoChangeVersions != null && todoItemPage.getChangeVersion().isPresent()) {
+            todoChangeVersions.modified(accessorId, representationKey(uriInfo), countingOutput.getCount());
+         }
+      };
+
+      final Response.ResponseBuilder responseBuilder = Response.ok(todoItems, MediaType.APPLICATION_JSON_TYPE);
+      if (todoItemPage.getChangeVersion().isPresent()) {
+         responseBuilder.tag(encodeEntityTag(todoItemPage.getChangeVersion().getAsLong()));
+      }
+      if (todoItemPage.getNextAfterId().isPresent()) {
+         responseBuilder.link(uriInfo.getRequestUriBuilder()
+                                    .replaceQueryParam("limit", pageSize)
+                                    .replaceQueryParam("cursor", encodeCursor(todoItemPage.getNextAfterId().getAsLong()))
+                                    .build(),
+                              "next");
+      }
+      return responseBuilder.build();
+   }
+
+   @Path("/changes")
    @GET
-   public List<TodoItem> findByAuthenticatedUser(@Auth OaccPrincipal oaccPrincipal) {
+   @UnitOfWork
+   public Response findChanges(@Auth OaccPrincipal oaccPrincipal,
+                               @QueryParam("since") String since,
+                               @QueryParam("limit") IntParam limit) {
+      final int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.min(limit.get(), MAXIMUM_PAGE_SIZE);
+      final TodoItemChangePage todoItemChangePage
+            = todoItemService.findChanges(oaccPrincipal.getAccessControlContext(), decodeSince(since), pageSize);
+
+      // the token comes first, so that it is known before the todo items are streamed
+      final TodoItemPage todoItemPage = new TodoItemPage(todoItemChangePage.getTodoItemIds(), OptionalLong.empty());
+      final StreamingOutput todoItemChanges = output -> {
+         try (JsonGenerator jsonGenerator = createGenerator(output)) {
+            jsonGenerator.writeStartObject();
+            jsonGenerator.writeStringField("since", encodeSince(todoItemChangePage.getNextSinceId()));
+            jsonGenerator.writeBooleanField("hasMore", todoItemChangePage.hasMore());
+            jsonGenerator.writeBooleanField("resyncRequired", todoItemChangePage.isResyncRequired());
+            jsonGenerator.writeArrayFieldStart("todos");
+            todoItemService.writeTodoItems(todoItemPage, todoItem -> todoItemWriter.writeValue(jsonGenerator, todoItem));
+            jsonGenerator.writeEndArray();
+            jsonGenerator.writeEndObject();
+         }
+      };
+      return Response.ok(todoItemChanges, MediaType.APPLICATION_JSON_TYPE).build();
+   }
 
-      return todoItemService.findByAuthenticatedUser(oaccPrincipal.getAccessControlContext());
+   /**
+    * Pushes the creations, updates and shares of the authenticated user's todo items as server-sent events, for as
+    * long as the client keeps up; a client that falls behind is disconnected, and should catch up through the
+    * changes before it reconnects. Not a unit of work, since the request only finishes once the stream is closed.
+    */
+   @Path("/events")
+   @GET
+   @Produces(SseFeature.SERVER_SENT_EVENTS)
+   public EventOutput subscribe(@Auth OaccPrincipal oaccPrincipal) {
+      final EventOutput eventOutput = new EventOutput();
+      if (todoItemService.subscribe(oaccPrincipal.getAccessControlContext(),
+                                    new EventOutputTodoEventSink(eventOutput)) == null) {
+         throw new NotFoundException("Todo events are not enabled.");
+      }
+      return eventOutput;
+   }
+
+   @Path("/{id}")
+   @GET
+   @UnitOfWork
+   public Response findItem(@Auth OaccPrincipal oaccPrincipal,
+                            @PathParam("id") LongParam todoItemId,
+                            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+                            @Context UriInfo uriInfo) throws IOException {
+      // the entity tag of a todo item is its version, the same one PATCH takes as If-Match
+      final String accessorId = oaccPrincipal.getName();
+      final Response notModifiedResponse
+            = evaluateIfNoneMatch(accessorId,
+                                  uriInfo,
+                                  ifNoneMatch,
+                                  version -> todoChangeVersions.isTodoItemUnchanged(accessorId,
+                                                                                    todoItemId.get(),
+                                                                                    version));
+      if (notModifiedResponse != null) {
+         return notModifiedResponse;
+      }
+
+      final TodoItem todoItem = todoItemService.findItem(oaccPrincipal.getAccessControlContext(), todoItemId.get());
+      if (todoItem == null) {
+         throw new NotFoundException("Todo item not found.");
+      }
+
+      // written just like an item of the list, and up front, so that its size is known
+      final ByteArrayOutputStream output = new ByteArrayOutputStream();
+      try (JsonGenerator jsonGenerator = createGenerator(output)) {
+         todoItemWriter.writeValue(jsonGenerator, todoItem);
+      }
+      final Response.ResponseBuilder responseBuilder = Response.ok(output.toByteArray(),
+                                                                   MediaType.APPLICATION_JSON_TYPE);
+      if (todoItem.getVersion() != null) {
+         responseBuilder.tag(encodeEntityTag(todoItem.getVersion()));
+         if (todoChangeVersions != null && accessorId != null) {
+            todoChangeVersions.modified(accessorId, representationKey(uriInfo), output.size());
+         }
+      }
+      return responseBuilder.build();
+   }
+
+   @Path("/permissions")
+   @POST
+   @UnitOfWork
+   public List<TodoItemPermissions> findPermissions(@Auth OaccPrincipal oaccPrincipal,
+                                                    @QueryParam("include_todos") BooleanParam includeTodos,
+                                                    List<Long> todoItemIds) {
+
+      return todoItemService.findPermissions(oaccPrincipal.getAccessControlContext(),
+                                             todoItemIds,
+                                             includeTodos != null && includeTodos.get());
    }
 
    @Path("/{id}/")
    @PUT
+   @UnitOfWork
    public void shareItem(@Auth OaccPrincipal oaccPrincipal,
                          @PathParam("id") LongParam todoItemId,
                          @QueryParam("share_with") String email) {
@@ -66,13 +292,144 @@ public class TodoItemResource {
       todoItemService.shareItem(oaccPrincipal.getAccessControlContext(), todoItemId.get(), email);
    }
 
+   @Path("/shares")
+   @POST
+   @UnitOfWork
+   public List<TodoItemShareResult> shareItems(@Auth OaccPrincipal oaccPrincipal,
+                                               TodoItemShares todoItemShares) {
+
+      return todoItemService.shareItems(oaccPrincipal.getAccessControlContext(), todoItemShares);
+   }
+
    @Path("/{id}")
    @PATCH
+   @UnitOfWork
    // @Consumes(MediaType.APPLICATION_MERGE_PATCH_JSON)
-   public TodoItem updateItem(@Auth OaccPrincipal oaccPrincipal,
+   public Response updateItem(@Auth OaccPrincipal oaccPrincipal,
                               @PathParam("id") LongParam todoItemId,
+                              @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
                               TodoItem patchItem) {
 
-      return todoItemService.updateItem(oaccPrincipal.getAccessControlContext(), todoItemId.get(), patchItem);
+      final TodoItem todoItem = todoItemService.updateItem(oaccPrincipal.getAccessControlContext(),
+                                                           todoItemId.get(),
+                                                           patchItem,
+                                                           decodeIfMatch(ifMatch));
+      final Response.ResponseBuilder responseBuilder = Response.ok(todoItem);
+      if (todoItem.getVersion() != null) {
+         responseBuilder.tag(encodeEntityTag(todoItem.getVersion()));
+      }
+      return responseBuilder.build();
+   }
+
+   // returns a 304 response if one of the entity tags is a version that is still current, otherwise null
+   private Response evaluateIfNoneMatch(String accessorId,
+                                        UriInfo uriInfo,
+                                        String ifNoneMatch,
+                                        LongPredicate isUnchanged) {
+      if (todoChangeVersions == null || accessorId == null) {
+         return null;
+      }
+      for (long version : decodeIfNoneMatch(ifNoneMatch)) {
+         if (isUnchanged.test(version)) {
+            todoChangeVersions.notModified(accessorId, representationKey(uriInfo));
+            return Response.notModified(encodeEntityTag(version)).build();
+         }
+      }
+      return null;
+   }
+
+   // the representations of the same URI differ by user, so the users keep their sizes apart by themselves
+   private static String representationKey(UriInfo uriInfo) {
+      return uriInfo.getRequestUri().getRawPath() + "?" + uriInfo.getRequestUri().getRawQuery();
+   }
+
+   // the output streams are closed by the container, or by their owner
+   private JsonGenerator createGenerator(OutputStream output) throws IOException {
+      return jsonFactory.createGenerator(output).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+   }
+
+   // the cursor is opaque to clients, so that its encoding can change without breaking them
+   static String encodeCursor(long afterId) {
+      return encodeToken(CURSOR_PREFIX, afterId);
+   }
+
+   // so is the token of the change log
+   static String encodeSince(long sinceId) {
+      return encodeToken(SINCE_PREFIX, sinceId);
+   }
+
+   private static String encodeToken(String prefix, long id) {
+      return Base64.getUrlEncoder().withoutPadding()
+            .encodeToString((prefix + id).getBytes(StandardCharsets.UTF_8));
+   }
+
+   // the version of a todo item is its (strong) entity tag
+   static EntityTag encodeEntityTag(long version) {
+      return new EntityTag(String.valueOf(version));
+   }
+
+   // returns the version the todo item is expected to be at, or null if it may be at any version
+   static Long decodeIfMatch(String ifMatch) {
+      if (ifMatch == null || ifMatch.trim().equals("*")) {
+         return null;
+      }
+      try {
+         final EntityTag entityTag = EntityTag.valueOf(ifMatch.trim());
+         // a weak entity tag never matches, since If-Match compares strongly
+         if (!entityTag.isWeak()) {
+            return Long.valueOf(entityTag.getValue());
+         }
+      }
+      catch (IllegalArgumentException e) {
+         // fall through, NumberFormatException is an IllegalArgumentException, too
+      }
+      // an entity tag we did not issue (or a list of them) can not match, but it is still only checked after the
+      // permissions, just like a version that does not match
+      return NO_VERSION;
+   }
+
+   // returns the versions of the entity tags, weak or strong, since If-None-Match compares weakly; entity tags we
+   // did not issue, and "*", are skipped, which at worst costs a full response
+   static long[] decodeIfNoneMatch(String ifNoneMatch) {
+      if (ifNoneMatch == null) {
+         return new long[0];
+      }
+      final String[] entityTags = ifNoneMatch.split(",");
+      final long[] versions = new long[entityTags.length];
+      int versionCount = 0;
+      for (String entityTag : entityTags) {
+         try {
+            versions[versionCount] = Long.parseLong(EntityTag.valueOf(entityTag.trim()).getValue());
+            versionCount++;
+         }
+         catch (IllegalArgumentException e) {
+            // skip it, NumberFormatException is an IllegalArgumentException, too
+         }
+      }
+      return Arrays.copyOf(versions, versionCount);
+   }
+
+   static Long decodeCursor(String cursor) {
+      return decodeToken(CURSOR_PREFIX, cursor, "Cursor is invalid.");
+   }
+
+   static Long decodeSince(String since) {
+      return decodeToken(SINCE_PREFIX, since, "Since is invalid.");
+   }
+
+   private static Long decodeToken(String prefix, String token, String message) {
+      if (token == null) {
+         return null;
+      }
+      try {
+         final String decodedToken = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+         if (decodedToken.startsWith(prefix)) {
+            return Long.valueOf(decodedToken.substring(prefix.length()));
+         }
+      }
+      catch (IllegalArgumentException e) {
+         // fall through, NumberFormatException is an IllegalArgumentException, too
+      }
+      throw new IllegalArgumentException(message);
    }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.resources;
+
+import com.acciente.oacc.NotAuthenticatedException;
+import com.acciente.securetodo.api.TodoSession;
+import com.acciente.securetodo.auth.OaccPrincipal;
+import com.acciente.securetodo.auth.OaccSessionStore;
+import io.dropwizard.auth.Auth;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+@Path("/sessions")
+@Consumes(MediaType.APPLICATION_JSON)
+@Produces(MediaType.APPLICATION_JSON)
+public class TodoSessionResource {
+   private static final String BEARER_PREFIX = "Bearer ";
+
+   private final OaccSessionStore sessionStore;
+
+   public TodoSessionResource(OaccSessionStore sessionStore) {
+      this.sessionStore = sessionStore;
+   }
+
+   @POST
+   public TodoSession createSession(@Auth OaccPrincipal oaccPrincipal,
+                                    @HeaderParam(HttpHeaders.AUTHORIZATION) String authorization) {
+      // a session may only be started with the user's actual credentials, not extended with an existing token
+      if (getBearerToken(authorization) != null) {
+         throw new NotAuthenticatedException("Basic credentials are required to create a session");
+      }
+
+      return new TodoSession(sessionStore.createSession(oaccPrincipal), sessionStore.getAbsoluteTimeoutSeconds());
+   }
+
+   @DELETE
+   public Response deleteSession(@Auth OaccPrincipal oaccPrincipal,
+                                 @HeaderParam(HttpHeaders.AUTHORIZATION) String authorization) {
+      final String token = getBearerToken(authorization);
+      if (token != null) {
+         sessionStore.invalidateSession(token);
+      }
+
+      return Response.noContent().build();
+   }
+
+   private static String getBearerToken(String authorization) {
+      if (authorization == null || !authorization.regionMatches(true, 0, BEARER_PREFIX, 0, BEARER_PREFIX.length())) {
+         return null;
+      }
+      return authorization.substring(BEARER_PREFIX.length()).trim();
+   }
+}
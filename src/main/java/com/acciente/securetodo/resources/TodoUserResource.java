@@ -18,11 +18,14 @@ package com.acciente.securetodo.resources;
 
 import com.acciente.securetodo.api.TodoUser;
 import com.acciente.securetodo.core.TodoUserService;
+import org.glassfish.jersey.server.ManagedAsync;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 
 @Path("/users")
@@ -36,7 +39,16 @@ public class TodoUserResource {
    }
 
    @POST
-   public TodoUser createUser(TodoUser todoUser) {
-      return todoUserService.createUser(todoUser);
+   @ManagedAsync
+   public void createUser(TodoUser todoUser, @Suspended AsyncResponse asyncResponse) {
+      // creating a user runs on jersey's async executor instead of holding on to the request thread; only the
+      // password hashing in it takes one of the (CPU-sized) hashing slots, so waiting on oacc and the database does
+      // not, and it fails fast (and is mapped to a 429 response) if too many passwords are already waiting to be hashed
+      try {
+         asyncResponse.resume(todoUserService.createUser(todoUser));
+      }
+      catch (RuntimeException e) {
+         asyncResponse.resume(e);
+      }
    }
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.resources.exceptions;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.jersey.errors.ErrorMessage;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import java.util.concurrent.RejectedExecutionException;
+
+public class RejectedExecutionExceptionMapper implements ExceptionMapper<RejectedExecutionException> {
+   private static final int TOO_MANY_REQUESTS = 429;
+
+   private final Meter exceptions;
+   private final long  retryAfterSeconds;
+
+   public RejectedExecutionExceptionMapper(MetricRegistry metrics, long retryAfterSeconds) {
+      exceptions = metrics.meter(getClass().getCanonicalName() + " exceptions");
+      this.retryAfterSeconds = retryAfterSeconds;
+   }
+
+   @Override
+   public Response toResponse(RejectedExecutionException e) {
+      exceptions.mark();
+      return Response
+            .status(TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds)
+            .type(MediaType.APPLICATION_JSON_TYPE)
+            .entity(new ErrorMessage(TOO_MANY_REQUESTS, "The server is too busy, please try again later."))
+            .build();
+   }
+}
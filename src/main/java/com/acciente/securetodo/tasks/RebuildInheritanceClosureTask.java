@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.tasks;
+
+import com.acciente.securetodo.core.InheritanceClosure;
+import com.google.common.collect.ImmutableMultimap;
+import io.dropwizard.servlets.tasks.Task;
+
+import java.io.PrintWriter;
+
+/**
+ * Admin task that rebuilds the inheritance closure of the running application from the INHERIT grants in OACC, for
+ * databases the rebuild-inheritance-closure command can not reach (such as in-memory ones).
+ */
+public class RebuildInheritanceClosureTask extends Task {
+   private final InheritanceClosure inheritanceClosure;
+
+   public RebuildInheritanceClosureTask(InheritanceClosure inheritanceClosure) {
+      super("rebuild-inheritance-closure");
+      this.inheritanceClosure = inheritanceClosure;
+   }
+
+   @Override
+   public void execute(ImmutableMultimap<String, String> parameters, PrintWriter output) throws Exception {
+      output.println(inheritanceClosure.rebuild() + " accessor/inherited resource pairs");
+   }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.tasks;
+
+import com.acciente.securetodo.core.TodoItemAccessReconciler;
+import com.google.common.collect.ImmutableMultimap;
+import io.dropwizard.servlets.tasks.Task;
+
+import java.io.PrintWriter;
+
+/**
+ * Admin task that rebuilds the todo item access index of the running application from the todo permissions
+ * granted in OACC, for databases the reconcile-todo-access command can not reach (such as in-memory ones).
+ */
+public class ReconcileTodoItemAccessTask extends Task {
+   private final TodoItemAccessReconciler reconciler;
+
+   public ReconcileTodoItemAccessTask(TodoItemAccessReconciler reconciler) {
+      super("reconcile-todo-access");
+      this.reconciler = reconciler;
+   }
+
+   @Override
+   public void execute(ImmutableMultimap<String, String> parameters, PrintWriter output) throws Exception {
+      output.println(reconciler.reconcile());
+   }
+}
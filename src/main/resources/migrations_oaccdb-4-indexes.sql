@@ -0,0 +1,30 @@
+--liquibase formatted sql
+
+--changeset oacc-db:oaccdb-4.1 stripComments:true
+
+--------------------------------------------------------
+-- Copyright 2009-2017, Acciente LLC
+--
+-- Acciente LLC licenses this file to you under the
+-- Apache License, Version 2.0 (the "License"); you
+-- may not use this file except in compliance with the
+-- License. You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in
+-- writing, software distributed under the License is
+-- distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+-- OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing
+-- permissions and limitations under the License.
+--------------------------------------------------------
+
+-- ----------------------------------------------------------------------
+-- Indexes
+-- ----------------------------------------------------------------------
+
+-- every todo item grants its creator a post-create system permission, so a user's system permission grants grow
+-- with their todo items; OACC looks up a user's INHERIT grants on every call that checks permissions (such as
+-- creating a resource), which this index keeps from scanning all of them
+CREATE INDEX IX_GrRPSys_AccessorSysPermID ON OACC.OAC_Grant_ResPerm_Sys (AccessorResourceID, SysPermissionID);
@@ -0,0 +1,56 @@
+--liquibase formatted sql
+
+--changeset oacc-db:oaccdb-5.1 stripComments:true
+
+--------------------------------------------------------
+-- Copyright 2009-2017, Acciente LLC
+--
+-- Acciente LLC licenses this file to you under the
+-- Apache License, Version 2.0 (the "License"); you
+-- may not use this file except in compliance with the
+-- License. You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in
+-- writing, software distributed under the License is
+-- distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+-- OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing
+-- permissions and limitations under the License.
+--------------------------------------------------------
+
+-- ----------------------------------------------------------------------
+-- Tables
+-- ----------------------------------------------------------------------
+
+-- transitive closure of the INHERIT grants in OAC_Grant_ResPerm_Sys: one row for every resource an accessor inherits
+-- from, directly or through any number of intermediate resources; maintained by the application, so that queries can
+-- resolve an accessor's inherited resources with a single index lookup, instead of one lookup per level
+CREATE TABLE OACC.InheritanceClosure (
+    AccessorResourceID BIGINT  NOT NULL,
+    InheritedResourceID BIGINT  NOT NULL,
+    CONSTRAINT PK_InheritanceClosure PRIMARY KEY (AccessorResourceID, InheritedResourceID)
+);
+
+-- to find the accessors that inherit from a resource, whose rows change along with that resource's grants
+CREATE INDEX IX_InheritanceClosure_InheritedResourceID ON OACC.InheritanceClosure (InheritedResourceID);
+
+--changeset oacc-db:oaccdb-5.2 stripComments:true
+
+-- ----------------------------------------------------------------------
+-- Data
+-- ----------------------------------------------------------------------
+
+-- the INHERIT grants made before the table existed (-101 is the ID of OACC's *INHERIT system permission)
+INSERT INTO OACC.InheritanceClosure (AccessorResourceID, InheritedResourceID)
+WITH RECURSIVE Closure (AccessorResourceID, InheritedResourceID) AS (
+    SELECT g.AccessorResourceID, g.AccessedResourceID
+      FROM OACC.OAC_Grant_ResPerm_Sys g
+     WHERE g.SysPermissionID = -101
+    UNION
+    SELECT c.AccessorResourceID, g.AccessedResourceID
+      FROM Closure c
+      JOIN OACC.OAC_Grant_ResPerm_Sys g ON g.AccessorResourceID = c.InheritedResourceID AND g.SysPermissionID = -101
+)
+SELECT AccessorResourceID, InheritedResourceID FROM Closure WHERE AccessorResourceID <> InheritedResourceID;
@@ -0,0 +1,37 @@
+--liquibase formatted sql
+
+--changeset todo-db:tododb-2.1 stripComments:true
+
+--------------------------------------------------------
+-- Copyright 2009-2017, Acciente LLC
+--
+-- Acciente LLC licenses this file to you under the
+-- Apache License, Version 2.0 (the "License"); you
+-- may not use this file except in compliance with the
+-- License. You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in
+-- writing, software distributed under the License is
+-- distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+-- OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing
+-- permissions and limitations under the License.
+--------------------------------------------------------
+
+-- ----------------------------------------------------------------------
+-- Tables
+-- ----------------------------------------------------------------------
+
+-- denormalized copy of the todo permissions granted in OACC, so todo lists can be read from tododb alone;
+-- OACC remains the source of truth, and this table can be rebuilt from it at any time
+CREATE TABLE TODO.TodoItemAccess (
+    Accessor VARCHAR(128)  NOT NULL,
+    TodoItemId BIGINT  NOT NULL,
+    Permissions INTEGER  NOT NULL,
+    CONSTRAINT PK_TodoItemAccess PRIMARY KEY (Accessor, TodoItemId),
+    CONSTRAINT FK_TodoItemAccess_TodoItem FOREIGN KEY (TodoItemId) REFERENCES TODO.TodoItem (Id) ON DELETE CASCADE
+);
+
+CREATE INDEX IX_TodoItemAccess_TodoItemId ON TODO.TodoItemAccess (TodoItemId);
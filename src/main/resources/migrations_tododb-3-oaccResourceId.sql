@@ -0,0 +1,47 @@
+--liquibase formatted sql
+
+--changeset todo-db:tododb-3.1 stripComments:true
+
+--------------------------------------------------------
+-- Copyright 2009-2017, Acciente LLC
+--
+-- Acciente LLC licenses this file to you under the
+-- Apache License, Version 2.0 (the "License"); you
+-- may not use this file except in compliance with the
+-- License. You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in
+-- writing, software distributed under the License is
+-- distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+-- OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing
+-- permissions and limitations under the License.
+--------------------------------------------------------
+
+-- ----------------------------------------------------------------------
+-- Columns
+-- ----------------------------------------------------------------------
+
+-- the internal ID of the todo item's OACC resource, so the application can hand OACC the resource by ID, instead of
+-- having OACC resolve the todo item's external ID; null until known, in which case the external ID is used instead
+ALTER TABLE TODO.TodoItem ADD COLUMN OaccResourceId BIGINT;
+
+CREATE INDEX IX_TodoItem_OaccResourceId ON TODO.TodoItem (OaccResourceId);
+
+--changeset todo-db:tododb-3.2 stripComments:true
+--preconditions onFail:MARK_RAN
+--precondition-sql-check expectedResult:1 SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = 'OACC' AND TABLE_NAME = 'OAC_RESOURCEEXTERNALID'
+
+-- ----------------------------------------------------------------------
+-- Data
+-- ----------------------------------------------------------------------
+
+-- the todo items created before the column existed, if the OACC schema lives in the same database; otherwise the
+-- application fills them in from the OACC database on startup
+UPDATE TODO.TodoItem t
+   SET OaccResourceId = (SELECT e.ResourceID
+                           FROM OACC.OAC_ResourceExternalID e
+                          WHERE e.ExternalID = CAST(t.Id AS VARCHAR(255)))
+ WHERE t.OaccResourceId IS NULL;
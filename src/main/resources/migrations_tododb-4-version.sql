@@ -0,0 +1,29 @@
+--liquibase formatted sql
+
+--changeset todo-db:tododb-4.1 stripComments:true
+
+--------------------------------------------------------
+-- Copyright 2009-2017, Acciente LLC
+--
+-- Acciente LLC licenses this file to you under the
+-- Apache License, Version 2.0 (the "License"); you
+-- may not use this file except in compliance with the
+-- License. You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in
+-- writing, software distributed under the License is
+-- distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+-- OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing
+-- permissions and limitations under the License.
+--------------------------------------------------------
+
+-- ----------------------------------------------------------------------
+-- Columns
+-- ----------------------------------------------------------------------
+
+-- incremented by every write, so that a client can tell whether a todo item changed since it read it (its ETag), and
+-- a write can be made conditional on the todo item not having changed in the meantime
+ALTER TABLE TODO.TodoItem ADD COLUMN Version BIGINT DEFAULT 1 NOT NULL;
@@ -0,0 +1,43 @@
+--liquibase formatted sql
+
+--changeset todo-db:tododb-5.1 stripComments:true
+
+--------------------------------------------------------
+-- Copyright 2009-2017, Acciente LLC
+--
+-- Acciente LLC licenses this file to you under the
+-- Apache License, Version 2.0 (the "License"); you
+-- may not use this file except in compliance with the
+-- License. You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in
+-- writing, software distributed under the License is
+-- distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+-- OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing
+-- permissions and limitations under the License.
+--------------------------------------------------------
+
+
+-- ----------------------------------------------------------------------
+-- Tables
+-- ----------------------------------------------------------------------
+
+-- append-only log of the changes to todo items, so that a client can ask for only what changed since it last synced:
+-- a change with an accessor granted that accessor the todo item (by creating or sharing it), a change without one
+-- concerns everyone who can view the todo item (an update); old entries are compacted away by the application
+CREATE TABLE TODO.TodoChange (
+    Id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1) NOT NULL,
+    TodoItemId BIGINT  NOT NULL,
+    Accessor VARCHAR(128),
+    ChangedAt TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL,
+    CONSTRAINT PK_TodoChange PRIMARY KEY (Id)
+);
+
+-- to find an accessor's changes (and, with a NULL accessor, the updates) since a change ID with a range scan
+CREATE INDEX IX_TodoChange_Accessor_Id ON TODO.TodoChange (Accessor, Id);
+
+-- to find the entries that are old enough to be compacted
+CREATE INDEX IX_TodoChange_ChangedAt ON TODO.TodoChange (ChangedAt);
@@ -0,0 +1,29 @@
+--liquibase formatted sql
+
+--changeset todo-db:tododb-6.1 stripComments:true
+
+--------------------------------------------------------
+-- Copyright 2009-2017, Acciente LLC
+--
+-- Acciente LLC licenses this file to you under the
+-- Apache License, Version 2.0 (the "License"); you
+-- may not use this file except in compliance with the
+-- License. You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in
+-- writing, software distributed under the License is
+-- distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+-- OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing
+-- permissions and limitations under the License.
+--------------------------------------------------------
+
+-- ----------------------------------------------------------------------
+-- Columns
+-- ----------------------------------------------------------------------
+
+-- the bcrypt cost factor the user's password was last hashed with by the application, so that it can tell whether
+-- to rehash the password without reading oacc's own storage of it; NULL if not known (i.e. hashed before it was kept)
+ALTER TABLE TODO.TodoUser ADD COLUMN PasswordCost INTEGER;
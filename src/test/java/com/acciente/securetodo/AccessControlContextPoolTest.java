@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo;
+
+import com.acciente.oacc.AccessControlContext;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AccessControlContextPoolTest {
+   private Supplier<AccessControlContext> contextSupplier;
+   private MetricRegistry                 metrics;
+   private AccessControlContextPool       pool;
+
+   @Before
+   @SuppressWarnings("unchecked")
+   public void setUp() throws Exception {
+      contextSupplier = mock(Supplier.class);
+      when(contextSupplier.get()).thenAnswer(invocation -> mock(AccessControlContext.class));
+      metrics = new MetricRegistry();
+      pool = new AccessControlContextPool(contextSupplier, 2, 1, metrics);
+   }
+
+   @Test
+   public void releasedContextIsReused() throws Exception {
+      final AccessControlContext oacc = pool.borrow();
+      pool.release(oacc);
+
+      assertThat(pool.borrow()).isSameAs(oacc);
+      verify(contextSupplier, times(1)).get();
+   }
+
+   @Test
+   public void releasedContextIsUnauthenticated() throws Exception {
+      final AccessControlContext oacc = pool.borrow();
+      pool.release(oacc);
+
+      verify(oacc).unauthenticate();
+   }
+
+   @Test
+   public void exhaustedPoolHandsOutOverflowContext() throws Exception {
+      final AccessControlContext first = pool.borrow();
+      final AccessControlContext second = pool.borrow();
+      final AccessControlContext overflow = pool.borrow();
+
+      assertThat(overflow).isNotSameAs(first).isNotSameAs(second);
+      assertThat(pool.getAllocatedCount()).isEqualTo(2);
+      assertThat(metrics.meter(AccessControlContextPool.class.getCanonicalName() + " overflows").getCount())
+            .isEqualTo(1);
+
+      // overflow contexts are discarded on release, so the pool never holds more than its maximum size
+      pool.release(overflow);
+      assertThat(pool.getIdleCount()).isZero();
+      pool.release(first);
+      pool.release(second);
+      assertThat(pool.getIdleCount()).isEqualTo(2);
+   }
+
+   @Test
+   public void detachedContextIsNotReturnedToPool() throws Exception {
+      final AccessControlContext oacc = pool.borrow();
+      pool.detach(oacc);
+      assertThat(pool.getAllocatedCount()).isZero();
+
+      pool.release(oacc);
+      assertThat(pool.getIdleCount()).isZero();
+      assertThat(pool.borrow()).isNotSameAs(oacc);
+   }
+}
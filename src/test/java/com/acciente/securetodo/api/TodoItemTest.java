@@ -69,6 +69,15 @@ public class TodoItemTest {
       assertThat(deserializedTodoItem).isEqualTo(expectedTodoItem);
    }
 
+   @Test
+   public void oaccResourceIdIsNeitherSerializedNorDeserialized() throws Exception {
+      final TodoItem todoItem = new TodoItem(ID_VALUE, TITLE_VALUE, COMPLETED_VALUE, 101L);
+
+      assertThat(MAPPER.writeValueAsString(todoItem)).doesNotContain("oaccResourceId").doesNotContain("101");
+      assertThat(MAPPER.readValue("{\"id\":1,\"title\":\"write tests\",\"oaccResourceId\":101}", TodoItem.class)
+                       .getOaccResourceId()).isNull();
+   }
+
    @Test
    public void patchWithAnotherTodoItem() throws Exception {
       final TodoItem todoItemA = new TodoItem(ID_VALUE, TITLE_VALUE, COMPLETED_VALUE);
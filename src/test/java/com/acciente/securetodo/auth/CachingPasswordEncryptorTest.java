@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.acciente.oacc.encryptor.PasswordEncryptor;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CachingPasswordEncryptorTest {
+   private static final String STORED_PASSWORD       = "bcrypt:$2a$12$siJOKyP4oBHDBvWGTm3b9.IIWl6R2yt/asHfyQNkdKD3WDXNH4myG";
+   private static final String OTHER_STORED_PASSWORD = "bcrypt:$2a$12$kkqO2KrXBIKxn2gl8YDIz.SNpdNxPaNVPvYNA/.Ibo57VvbNPsFSC";
+   private static final char[] PASSWORD              = "secret".toCharArray();
+   private static final char[] WRONG_PASSWORD        = "wrong".toCharArray();
+
+   private PasswordEncryptor        delegate;
+   private MetricRegistry           metrics;
+   private CachingPasswordEncryptor cachingPasswordEncryptor;
+
+   @Before
+   public void setUp() throws Exception {
+      delegate = mock(PasswordEncryptor.class);
+      metrics = new MetricRegistry();
+      cachingPasswordEncryptor = new CachingPasswordEncryptor(delegate, 100, 60000, metrics);
+   }
+
+   @Test
+   public void checkPasswordTwiceOnlyChecksDelegateOnce() throws Exception {
+      when(delegate.checkPassword(PASSWORD, STORED_PASSWORD)).thenReturn(true);
+
+      assertThat(cachingPasswordEncryptor.checkPassword(PASSWORD, STORED_PASSWORD)).isTrue();
+      assertThat(cachingPasswordEncryptor.checkPassword(PASSWORD, STORED_PASSWORD)).isTrue();
+
+      verify(delegate, times(1)).checkPassword(PASSWORD, STORED_PASSWORD);
+      assertThat(metrics.meter(CachingPasswordEncryptor.class.getCanonicalName() + " hits").getCount()).isEqualTo(1);
+      assertThat(metrics.meter(CachingPasswordEncryptor.class.getCanonicalName() + " misses").getCount()).isEqualTo(1);
+   }
+
+   @Test
+   public void checkWrongPasswordIsNotCached() throws Exception {
+      when(delegate.checkPassword(WRONG_PASSWORD, STORED_PASSWORD)).thenReturn(false);
+
+      assertThat(cachingPasswordEncryptor.checkPassword(WRONG_PASSWORD, STORED_PASSWORD)).isFalse();
+      assertThat(cachingPasswordEncryptor.checkPassword(WRONG_PASSWORD, STORED_PASSWORD)).isFalse();
+
+      verify(delegate, times(2)).checkPassword(WRONG_PASSWORD, STORED_PASSWORD);
+      assertThat(cachingPasswordEncryptor.size()).isZero();
+   }
+
+   @Test
+   public void checkPasswordAgainstChangedStoredPasswordMisses() throws Exception {
+      when(delegate.checkPassword(PASSWORD, STORED_PASSWORD)).thenReturn(true);
+      when(delegate.checkPassword(PASSWORD, OTHER_STORED_PASSWORD)).thenReturn(false);
+
+      assertThat(cachingPasswordEncryptor.checkPassword(PASSWORD, STORED_PASSWORD)).isTrue();
+      assertThat(cachingPasswordEncryptor.checkPassword(PASSWORD, OTHER_STORED_PASSWORD)).isFalse();
+
+      verify(delegate).checkPassword(PASSWORD, OTHER_STORED_PASSWORD);
+   }
+
+   @Test
+   public void encryptPasswordIsNotCached() throws Exception {
+      cachingPasswordEncryptor.encryptPassword(PASSWORD);
+      cachingPasswordEncryptor.encryptPassword(PASSWORD);
+
+      verify(delegate, times(2)).encryptPassword(PASSWORD);
+   }
+}
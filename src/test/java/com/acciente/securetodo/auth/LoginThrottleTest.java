@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LoginThrottleTest {
+   private static final String USERNAME       = "tester@oaccframework.org";
+   private static final String ADDRESS        = "192.0.2.1";
+   private static final char[] WRONG_PASSWORD = "wrong".toCharArray();
+   private static final char[] PASSWORD       = "secret".toCharArray();
+   private static final int    THRESHOLD      = 3;
+   private static final long   BASE_COOLDOWN  = TimeUnit.SECONDS.toMillis(1);
+   private static final long   MAX_COOLDOWN   = TimeUnit.SECONDS.toMillis(8);
+   private static final long   ELAPSED_NANOS  = TimeUnit.MILLISECONDS.toNanos(250);
+
+   private long           nowMillis;
+   private MetricRegistry metrics;
+   private LoginThrottle  loginThrottle;
+
+   @Before
+   public void setUp() throws Exception {
+      nowMillis = System.currentTimeMillis();
+      metrics = new MetricRegistry();
+      loginThrottle = new LoginThrottle(64, THRESHOLD, THRESHOLD, BASE_COOLDOWN, MAX_COOLDOWN, 100, 60000, metrics,
+                                        () -> nowMillis);
+   }
+
+   @Test
+   public void usernameBelowThresholdIsNotRejected() throws Exception {
+      for (int i = 0; i < THRESHOLD - 1; i++) {
+         loginThrottle.recordFailure(USERNAME);
+      }
+
+      assertThat(loginThrottle.isRejected(USERNAME, PASSWORD)).isFalse();
+   }
+
+   @Test
+   public void usernameAtThresholdIsRejectedDuringCooldown() throws Exception {
+      for (int i = 0; i < THRESHOLD; i++) {
+         loginThrottle.recordFailure(USERNAME);
+      }
+
+      assertThat(loginThrottle.isRejected(USERNAME, PASSWORD)).isTrue();
+      nowMillis += BASE_COOLDOWN;
+      assertThat(loginThrottle.isRejected(USERNAME, PASSWORD)).isFalse();
+   }
+
+   @Test
+   public void cooldownDoublesWithEachFailureUpToMaximum() throws Exception {
+      for (int i = 0; i < THRESHOLD + 2; i++) {
+         loginThrottle.recordFailure(USERNAME);
+      }
+
+      // two failures beyond the threshold, so the cool-down is four times the base cool-down
+      nowMillis += 4 * BASE_COOLDOWN - 1;
+      assertThat(loginThrottle.isRejected(USERNAME, PASSWORD)).isTrue();
+      nowMillis += 1;
+      assertThat(loginThrottle.isRejected(USERNAME, PASSWORD)).isFalse();
+
+      for (int i = 0; i < 10; i++) {
+         loginThrottle.recordFailure(USERNAME);
+      }
+      nowMillis += MAX_COOLDOWN - 1;
+      assertThat(loginThrottle.isRejected(USERNAME, PASSWORD)).isTrue();
+      nowMillis += 1;
+      assertThat(loginThrottle.isRejected(USERNAME, PASSWORD)).isFalse();
+   }
+
+   @Test
+   public void failuresAreForgottenAfterMaximumCooldown() throws Exception {
+      for (int i = 0; i < THRESHOLD - 1; i++) {
+         loginThrottle.recordFailure(USERNAME);
+      }
+      nowMillis += MAX_COOLDOWN;
+      loginThrottle.recordFailure(USERNAME);
+
+      assertThat(loginThrottle.isRejected(USERNAME, PASSWORD)).isFalse();
+   }
+
+   @Test
+   public void successResetsUsernameFailures() throws Exception {
+      for (int i = 0; i < THRESHOLD - 1; i++) {
+         loginThrottle.recordFailure(USERNAME);
+      }
+      loginThrottle.recordSuccess(USERNAME);
+      loginThrottle.recordFailure(USERNAME);
+
+      assertThat(loginThrottle.isRejected(USERNAME, PASSWORD)).isFalse();
+   }
+
+   @Test
+   public void failuresOfOtherUsernamesDoNotCoolDownAUsername() throws Exception {
+      // far more usernames than the failure cache holds, each failing just as often as it takes to be rejected
+      for (int i = 0; i < 1000; i++) {
+         for (int j = 0; j < THRESHOLD; j++) {
+            loginThrottle.recordFailure("user" + i + "@oaccframework.org");
+         }
+      }
+
+      assertThat(loginThrottle.isRejected(USERNAME, PASSWORD)).isFalse();
+   }
+
+   @Test
+   public void successDoesNotResetTheFailuresOfOtherUsernames() throws Exception {
+      final String otherUsername = "other@oaccframework.org";
+      for (int i = 0; i < THRESHOLD; i++) {
+         loginThrottle.recordFailure(otherUsername);
+      }
+      loginThrottle.recordSuccess(USERNAME);
+
+      assertThat(loginThrottle.isRejected(otherUsername, PASSWORD)).isTrue();
+   }
+
+   @Test
+   public void repeatedWrongPasswordIsRejected() throws Exception {
+      loginThrottle.recordFailure(USERNAME, WRONG_PASSWORD, ELAPSED_NANOS);
+
+      assertThat(loginThrottle.isRejected(USERNAME, WRONG_PASSWORD)).isTrue();
+      assertThat(loginThrottle.isRejected(USERNAME, PASSWORD)).isFalse();
+      assertThat(metrics.meter(LoginThrottle.class.getCanonicalName() + " rejections").getCount()).isEqualTo(1);
+      assertThat(metrics.getGauges().get(LoginThrottle.class.getCanonicalName() + " estimated-cpu-saved-millis")
+                       .getValue()).isEqualTo(250L);
+   }
+
+   @Test
+   public void addressAtThresholdIsRejectedDuringCooldown() throws Exception {
+      for (int i = 0; i < THRESHOLD; i++) {
+         loginThrottle.recordAddressFailure(ADDRESS);
+      }
+
+      assertThat(loginThrottle.isAddressRejected(ADDRESS)).isTrue();
+      assertThat(loginThrottle.isRejected(USERNAME, PASSWORD)).isFalse();
+      nowMillis += BASE_COOLDOWN;
+      assertThat(loginThrottle.isAddressRejected(ADDRESS)).isFalse();
+   }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class OaccSessionStoreTest {
+   private static final long IDLE_TIMEOUT_MILLIS     = TimeUnit.MINUTES.toMillis(30);
+   private static final long ABSOLUTE_TIMEOUT_MILLIS = TimeUnit.HOURS.toMillis(12);
+
+   private FakeTicker       ticker;
+   private OaccPrincipal    oaccPrincipal;
+   private OaccSessionStore sessionStore;
+
+   @Before
+   public void setUp() throws Exception {
+      ticker = new FakeTicker();
+      oaccPrincipal = mock(OaccPrincipal.class);
+      sessionStore = new OaccSessionStore(100,
+                                          IDLE_TIMEOUT_MILLIS,
+                                          ABSOLUTE_TIMEOUT_MILLIS,
+                                          new MetricRegistry(),
+                                          ticker);
+   }
+
+   @Test
+   public void findCreatedSession() throws Exception {
+      final String token = sessionStore.createSession(oaccPrincipal);
+
+      assertThat(sessionStore.findSession(token)).contains(oaccPrincipal);
+      assertThat(sessionStore.size()).isEqualTo(1);
+   }
+
+   @Test
+   public void findUnknownSession() throws Exception {
+      sessionStore.createSession(oaccPrincipal);
+
+      assertThat(sessionStore.findSession("unknown")).isEmpty();
+   }
+
+   @Test
+   public void createdTokensAreUnique() throws Exception {
+      final String token = sessionStore.createSession(oaccPrincipal);
+      final String otherToken = sessionStore.createSession(oaccPrincipal);
+
+      assertThat(token).isNotEqualTo(otherToken);
+   }
+
+   @Test
+   public void idleSessionExpires() throws Exception {
+      final String token = sessionStore.createSession(oaccPrincipal);
+
+      ticker.advance(IDLE_TIMEOUT_MILLIS - 1);
+      assertThat(sessionStore.findSession(token)).contains(oaccPrincipal);
+
+      ticker.advance(IDLE_TIMEOUT_MILLIS);
+      assertThat(sessionStore.findSession(token)).isEmpty();
+   }
+
+   @Test
+   public void activeSessionExpiresAfterAbsoluteTimeout() throws Exception {
+      final String token = sessionStore.createSession(oaccPrincipal);
+
+      // keep the session active, so only the absolute timeout applies
+      for (long elapsed = 0; elapsed < ABSOLUTE_TIMEOUT_MILLIS - 1; elapsed += IDLE_TIMEOUT_MILLIS / 2) {
+         assertThat(sessionStore.findSession(token)).contains(oaccPrincipal);
+         ticker.advance(Math.min(IDLE_TIMEOUT_MILLIS / 2, ABSOLUTE_TIMEOUT_MILLIS - 1 - elapsed));
+      }
+      assertThat(sessionStore.findSession(token)).contains(oaccPrincipal);
+
+      ticker.advance(1);
+      assertThat(sessionStore.findSession(token)).isEmpty();
+   }
+
+   @Test
+   public void invalidatedSessionIsNotFound() throws Exception {
+      final String token = sessionStore.createSession(oaccPrincipal);
+
+      assertThat(sessionStore.invalidateSession(token)).isTrue();
+      assertThat(sessionStore.findSession(token)).isEmpty();
+      assertThat(sessionStore.invalidateSession(token)).isFalse();
+   }
+
+   private static class FakeTicker extends Ticker {
+      private long nanos;
+
+      @Override
+      public long read() {
+         return nanos;
+      }
+
+      private void advance(long millis) {
+         nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+      }
+   }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class PasswordHashingExecutorTest {
+   private ThreadPoolExecutor      threadPoolExecutor;
+   private MetricRegistry          metrics;
+   private PasswordHashingExecutor hashingExecutor;
+
+   @Before
+   public void setUp() throws Exception {
+      threadPoolExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1));
+      metrics = new MetricRegistry();
+      hashingExecutor = new PasswordHashingExecutor(threadPoolExecutor, 1, metrics);
+   }
+
+   @After
+   public void tearDown() throws Exception {
+      threadPoolExecutor.shutdownNow();
+   }
+
+   @Test
+   public void callRunsOnCallingThread() throws Exception {
+      final Thread callingThread = Thread.currentThread();
+
+      final Thread hashingThread = hashingExecutor.call(Thread::currentThread);
+
+      assertThat(hashingThread).isSameAs(callingThread);
+   }
+
+   @Test
+   public void callWaitsForAHashingSlotAndIsRejectedWhenTooManyCallersWait() throws Exception {
+      final CountDownLatch latch = new CountDownLatch(1);
+      final ExecutorService callers = Executors.newSingleThreadExecutor();
+      try {
+         // occupy the only hashing slot, then have one caller wait for it, which is all the queue holds
+         hashingExecutor.submit(() -> awaitQuietly(latch));
+         final Future<Boolean> waitingCall = callers.submit(() -> hashingExecutor.call(() -> true));
+         final Gauge<?> queueDepth
+               = metrics.getGauges().get(PasswordHashingExecutor.class.getCanonicalName() + " queue-depth");
+         while (!Integer.valueOf(1).equals(queueDepth.getValue())) {
+            Thread.sleep(1);
+         }
+
+         try {
+            hashingExecutor.call(() -> true);
+            fail("calling while too many callers wait for a hashing slot should have been rejected");
+         }
+         catch (RejectedExecutionException e) {
+            // expected
+         }
+         assertThat(metrics.meter(PasswordHashingExecutor.class.getCanonicalName() + " rejections").getCount())
+               .isEqualTo(1);
+
+         latch.countDown();
+         assertThat(waitingCall.get(5, TimeUnit.SECONDS)).isTrue();
+      }
+      finally {
+         latch.countDown();
+         callers.shutdownNow();
+      }
+   }
+
+   @Test
+   public void callFromHashingThreadRunsInline() throws Exception {
+      final boolean isInline = hashingExecutor.submit(() -> {
+         final Thread hashingThread = Thread.currentThread();
+         return hashingExecutor.call(Thread::currentThread) == hashingThread;
+      }).get(5, TimeUnit.SECONDS);
+
+      assertThat(isInline).isTrue();
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void callRethrowsTaskException() throws Exception {
+      hashingExecutor.call(() -> {
+         throw new IllegalArgumentException();
+      });
+   }
+
+   @Test
+   public void submitToSaturatedExecutorIsRejected() throws Exception {
+      final CountDownLatch latch = new CountDownLatch(1);
+      try {
+         // occupy the only thread, and the only queue slot
+         hashingExecutor.submit(() -> awaitQuietly(latch));
+         hashingExecutor.submit(() -> awaitQuietly(latch));
+
+         try {
+            hashingExecutor.submit(() -> awaitQuietly(latch));
+            fail("submitting to a saturated executor should have been rejected");
+         }
+         catch (RejectedExecutionException e) {
+            // expected
+         }
+         assertThat(metrics.meter(PasswordHashingExecutor.class.getCanonicalName() + " rejections").getCount())
+               .isEqualTo(1);
+      }
+      finally {
+         latch.countDown();
+      }
+   }
+
+   private static boolean awaitQuietly(CountDownLatch latch) {
+      try {
+         return latch.await(5, TimeUnit.SECONDS);
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         return false;
+      }
+   }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.auth;
+
+import com.acciente.oacc.AccessControlContext;
+import com.acciente.oacc.PasswordCredentials;
+import com.acciente.oacc.Resource;
+import com.acciente.oacc.Resources;
+import com.acciente.securetodo.AccessControlContextFactory;
+import com.acciente.securetodo.db.TodoUserDAO;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PasswordRehasherTest {
+   private static final String   EMAIL    = "tester@oaccframework.org";
+   private static final char[]   PASSWORD = "secret".toCharArray();
+   private static final Resource USER     = Resources.getInstance(EMAIL);
+
+   private TodoUserDAO                 todoUserDAO;
+   private AccessControlContextFactory accessControlContextFactory;
+   private AccessControlContext        oacc;
+   private ThreadPoolExecutor          threadPoolExecutor;
+   private MetricRegistry              metrics;
+   private PasswordRehasher            passwordRehasher;
+
+   @Before
+   public void setUp() throws Exception {
+      todoUserDAO = mock(TodoUserDAO.class);
+
+      accessControlContextFactory = mock(AccessControlContextFactory.class);
+      oacc = mock(AccessControlContext.class);
+      when(accessControlContextFactory.build()).thenReturn(oacc);
+
+      threadPoolExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(10));
+      metrics = new MetricRegistry();
+      passwordRehasher = new PasswordRehasher(todoUserDAO,
+                                              accessControlContextFactory,
+                                              new PasswordHashingExecutor(threadPoolExecutor, 1, metrics),
+                                              12,
+                                              metrics);
+   }
+
+   @Test
+   public void rehashPasswordWithOtherCost() throws Exception {
+      when(todoUserDAO.findPasswordCost(EMAIL)).thenReturn(10);
+
+      passwordRehasher.rehashIfNeeded(EMAIL, PASSWORD);
+      awaitRehash();
+
+      verify(oacc).authenticate(eq(USER), any(PasswordCredentials.class));
+      verify(oacc).setCredentials(eq(USER), any(PasswordCredentials.class));
+      verify(todoUserDAO).updatePasswordCost(EMAIL, 12);
+      assertThat(PASSWORD).isEqualTo("secret".toCharArray());
+      assertThat(metrics.meter(PasswordRehasher.class.getCanonicalName() + " rehashes").getCount()).isEqualTo(1);
+   }
+
+   @Test
+   public void rehashPasswordWithUnknownCost() throws Exception {
+      when(todoUserDAO.findPasswordCost(EMAIL)).thenReturn(null);
+
+      passwordRehasher.rehashIfNeeded(EMAIL, PASSWORD);
+      awaitRehash();
+
+      verify(oacc).setCredentials(eq(USER), any(PasswordCredentials.class));
+      verify(todoUserDAO).updatePasswordCost(EMAIL, 12);
+   }
+
+   @Test
+   public void passwordWithConfiguredCostIsNotRehashedAndNotCheckedAgain() throws Exception {
+      when(todoUserDAO.findPasswordCost(EMAIL)).thenReturn(12);
+
+      passwordRehasher.rehashIfNeeded(EMAIL, PASSWORD);
+      while (threadPoolExecutor.getCompletedTaskCount() < 1) {
+         Thread.sleep(10);
+      }
+      passwordRehasher.rehashIfNeeded(EMAIL, PASSWORD);
+      awaitRehash();
+
+      verify(accessControlContextFactory, never()).build();
+      verify(todoUserDAO, times(1)).findPasswordCost(EMAIL);
+      verify(todoUserDAO, never()).updatePasswordCost(anyString(), anyInt());
+   }
+
+   private void awaitRehash() throws InterruptedException {
+      threadPoolExecutor.shutdown();
+      assertThat(threadPoolExecutor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+   }
+}
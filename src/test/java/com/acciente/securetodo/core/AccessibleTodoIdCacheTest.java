@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AccessibleTodoIdCacheTest {
+   private static final String ALICE = "alice@oaccframework.org";
+   private static final String BOB   = "bob@oaccframework.org";
+
+   private MetricRegistry        metrics;
+   private AccessibleTodoIdCache accessibleTodoIdCache;
+   private AtomicInteger         loads;
+
+   @Before
+   public void setUp() throws Exception {
+      metrics = new MetricRegistry();
+      accessibleTodoIdCache = new AccessibleTodoIdCache(100, 60000, metrics);
+      loads = new AtomicInteger();
+   }
+
+   @Test
+   public void getIdsTwiceOnlyLoadsOnce() throws Exception {
+      assertThat(accessibleTodoIdCache.getIds(ALICE, () -> load(3, 1, 2))).containsExactly(1, 2, 3);
+      assertThat(accessibleTodoIdCache.getIds(ALICE, () -> load(4))).containsExactly(1, 2, 3);
+
+      assertThat(loads.get()).isEqualTo(1);
+      assertThat(metrics.meter(AccessibleTodoIdCache.class.getCanonicalName() + " hits").getCount()).isEqualTo(1);
+      assertThat(metrics.meter(AccessibleTodoIdCache.class.getCanonicalName() + " misses").getCount()).isEqualTo(1);
+      assertThat(metrics.getGauges().get(AccessibleTodoIdCache.class.getCanonicalName() + " hit-ratio").getValue())
+            .isEqualTo(0.5);
+   }
+
+   @Test
+   public void invalidateOnlyAffectsSpecifiedAccessor() throws Exception {
+      accessibleTodoIdCache.getIds(ALICE, () -> load(1));
+      accessibleTodoIdCache.getIds(BOB, () -> load(2));
+
+      accessibleTodoIdCache.invalidate(BOB);
+
+      assertThat(accessibleTodoIdCache.getIds(ALICE, () -> load(3))).containsExactly(1);
+      assertThat(accessibleTodoIdCache.getIds(BOB, () -> load(2, 3))).containsExactly(2, 3);
+      assertThat(loads.get()).isEqualTo(3);
+      assertThat(metrics.meter(AccessibleTodoIdCache.class.getCanonicalName() + " invalidations").getCount())
+            .isEqualTo(1);
+   }
+
+   @Test
+   public void loadOverlappingInvalidationIsNotCached() throws Exception {
+      final long[] staleIds = accessibleTodoIdCache.getIds(BOB, () -> {
+         // simulates a share to bob that completes while bob's IDs are being read
+         accessibleTodoIdCache.invalidate(BOB);
+         return load(1);
+      });
+
+      assertThat(staleIds).containsExactly(1);
+      assertThat(accessibleTodoIdCache.size()).isZero();
+      assertThat(accessibleTodoIdCache.getIds(BOB, () -> load(1, 2))).containsExactly(1, 2);
+   }
+
+   @Test
+   public void changingReturnedIdsDoesNotChangeCachedIds() throws Exception {
+      accessibleTodoIdCache.getIds(ALICE, () -> load(1, 2))[0] = 5;
+      accessibleTodoIdCache.getIds(ALICE, () -> load(3))[1] = 6;
+
+      assertThat(accessibleTodoIdCache.getIds(ALICE, () -> load(4))).containsExactly(1, 2);
+      assertThat(loads.get()).isEqualTo(1);
+   }
+
+   @Test
+   @SuppressWarnings("unchecked")
+   public void estimatedBytesGrowsWithCachedIds() throws Exception {
+      final Gauge<Long> estimatedBytes
+            = metrics.getGauges().get(AccessibleTodoIdCache.class.getCanonicalName() + " estimated-bytes");
+      accessibleTodoIdCache.getIds(ALICE, () -> load(1));
+      final long bytesForOneId = estimatedBytes.getValue();
+
+      accessibleTodoIdCache.getIds(BOB, () -> new long[1000]);
+
+      assertThat(estimatedBytes.getValue() - bytesForOneId).isGreaterThanOrEqualTo(8000);
+   }
+
+   private long[] load(long... ids) {
+      loads.incrementAndGet();
+      return ids;
+   }
+}
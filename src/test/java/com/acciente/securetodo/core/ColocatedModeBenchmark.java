@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.oacc.AccessControlContext;
+import com.acciente.oacc.PasswordCredentials;
+import com.acciente.oacc.Resource;
+import com.acciente.oacc.encryptor.bcrypt.BCryptPasswordEncryptor;
+import com.acciente.oacc.sql.SQLAccessControlContextFactory;
+import com.acciente.oacc.sql.SQLProfile;
+import com.acciente.securetodo.api.TodoItem;
+import com.acciente.securetodo.db.TestDatabases;
+import com.acciente.securetodo.db.TodoItemDAO;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+
+
+/**
+ * Compares creating and listing todo items with separate OACC and todo databases against the co-located mode, in
+ * which both schemas share one database. Both setups use in-memory HSQLDB databases behind connection pools, and
+ * neither uses any of the caches, so only the database access paths are compared.
+ * <p>
+ * Not a test; run its main method with the test classpath, e.g. from the IDE.
+ */
+public class ColocatedModeBenchmark {
+   private static final SQLProfile SQL_PROFILE    = SQLProfile.HSQLDB_2_3_NON_RECURSIVE;
+   private static final char[]     PASSWORD       = "secret".toCharArray();
+   private static final int        TODO_ITEMS     = 1000;
+   private static final int        LIST_SAMPLES   = 200;
+   private static final int        WARM_UP_ROUNDS = 2;
+
+   public static void main(String[] args) throws Exception {
+      System.out.println("mode         create us/op  list 100 us/op  list 1000 us/op");
+      for (int round = 0; round <= WARM_UP_ROUNDS; round++) {
+         final boolean isWarmUp = round < WARM_UP_ROUNDS;
+         run("separate", false, isWarmUp);
+         run("co-located", true, isWarmUp);
+      }
+   }
+
+   private static void run(String mode, boolean isColocated, boolean isWarmUp) throws Exception {
+      final DataSource todoDataSource = newDataSource();
+      final DataSource oaccDataSource = isColocated ? todoDataSource : newDataSource();
+      try {
+         TestDatabases.migrate(oaccDataSource, "migrations_oaccdb.xml");
+         TestDatabases.migrate(todoDataSource, "migrations_tododb.xml");
+
+         final DBI todoJdbi = new DBI(todoDataSource);
+         final TodoItemService todoItemService
+               = TodoItemService.builder(todoJdbi.onDemand(TodoItemDAO.class))
+                     .withColocatedTodoItemStore(isColocated
+                                                 ? new ColocatedTodoItemStore(todoJdbi, "OACC", SQL_PROFILE)
+                                                 : null)
+                     .build();
+         final AccessControlContext oacc = authenticateNewTodoCreator(oaccDataSource);
+
+         long startNanos = System.nanoTime();
+         for (int i = 0; i < TODO_ITEMS; i++) {
+            todoItemService.createItem(oacc, new TodoItem(0, "todo number " + i, false));
+         }
+         final long createMicros = (System.nanoTime() - startNanos) / 1000 / TODO_ITEMS;
+
+         final long list100Micros = timeList(todoItemService, oacc, 100);
+         final long list1000Micros = timeList(todoItemService, oacc, 1000);
+
+         if (!isWarmUp) {
+            System.out.printf("%-12s %12d  %14d  %15d%n", mode, createMicros, list100Micros, list1000Micros);
+         }
+      }
+      finally {
+         try (Handle handle = new DBI(todoDataSource).open()) {
+            handle.execute("SHUTDOWN");
+         }
+         todoDataSource.close();
+         if (!isColocated) {
+            try (Handle handle = new DBI(oaccDataSource).open()) {
+               handle.execute("SHUTDOWN");
+            }
+            oaccDataSource.close();
+         }
+      }
+   }
+
+   private static long timeList(TodoItemService todoItemService, AccessControlContext oacc, int limit) throws Exception {
+      final long startNanos = System.nanoTime();
+      for (int i = 0; i < LIST_SAMPLES; i++) {
+         todoItemService.writeTodoItems(todoItemService.findByAuthenticatedUser(oacc, null, limit), todoItem -> {
+         });
+      }
+      return (System.nanoTime() - startNanos) / 1000 / LIST_SAMPLES;
+   }
+
+   private static DataSource newDataSource() {
+      final DataSource dataSource = new DataSource();
+      dataSource.setDriverClassName("org.hsqldb.jdbc.JDBCDriver");
+      dataSource.setUrl(TestDatabases.newUrl());
+      dataSource.setUsername("sa");
+      dataSource.setPassword("");
+      dataSource.setInitialSize(1);
+      dataSource.setMinIdle(1);
+      dataSource.setMaxIdle(8);
+      dataSource.setMaxActive(8);
+      return dataSource;
+   }
+
+   private static AccessControlContext authenticateNewTodoCreator(DataSource oaccDataSource) {
+      final AccessControlContext oacc
+            = SQLAccessControlContextFactory.getAccessControlContext(oaccDataSource,
+                                                                     "OACC",
+                                                                     SQL_PROFILE,
+                                                                     BCryptPasswordEncryptor.newInstance(4));
+      final Resource user = oacc.createResource(SecurityModel.RESOURCECLASS_USER,
+                                                SecurityModel.DOMAIN_SECURE_TODO,
+                                                "benchmark@oaccframework.org",
+                                                PasswordCredentials.newInstance(PASSWORD));
+
+      oacc.authenticate(SecurityModel.RESOURCE_ROLEHELPER_TODOCREATOR,
+                        SecurityModel.CREDENTIALS_ROLEHELPER_TODOCREATOR);
+      oacc.grantResourcePermissions(user, SecurityModel.RESOURCE_ROLE_TODOCREATOR, SecurityModel.PERM_INHERIT);
+
+      oacc.authenticate(user, PasswordCredentials.newInstance(PASSWORD));
+      return oacc;
+   }
+}
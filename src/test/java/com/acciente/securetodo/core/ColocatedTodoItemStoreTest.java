@@ -0,0 +1,255 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.oacc.AccessControlContext;
+import com.acciente.oacc.NotAuthorizedException;
+import com.acciente.oacc.PasswordCredentials;
+import com.acciente.oacc.Resource;
+import com.acciente.oacc.Resources;
+import com.acciente.oacc.encryptor.bcrypt.BCryptPasswordEncryptor;
+import com.acciente.oacc.sql.SQLAccessControlContextFactory;
+import com.acciente.oacc.sql.SQLProfile;
+import com.acciente.securetodo.api.TodoItem;
+import com.acciente.securetodo.api.TodoItemBatchResult;
+import com.acciente.securetodo.db.TestDatabases;
+import com.acciente.securetodo.db.TodoItemDAO;
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class ColocatedTodoItemStoreTest {
+   private static final SQLProfile SQL_PROFILE = SQLProfile.HSQLDB_2_3_NON_RECURSIVE;
+   private static final char[]     PASSWORD    = "secret".toCharArray();
+
+   private static JDBCDataSource       dataSource;
+   private static DBI                  dbi;
+   private static AccessControlContext roleHelperOacc;
+
+   private ColocatedTodoItemStore colocatedTodoItemStore;
+
+   @BeforeClass
+   public static void setUpDatabase() throws Exception {
+      // both schemas in one database, as in the co-located mode
+      dataSource = TestDatabases.migrated("migrations_oaccdb.xml", "migrations_tododb.xml");
+      dbi = new DBI(dataSource);
+
+      roleHelperOacc = newAccessControlContext();
+      roleHelperOacc.authenticate(SecurityModel.RESOURCE_ROLEHELPER_TODOCREATOR,
+                                  SecurityModel.CREDENTIALS_ROLEHELPER_TODOCREATOR);
+   }
+
+   @AfterClass
+   public static void tearDownDatabase() throws Exception {
+      try (Handle handle = dbi.open()) {
+         handle.execute("SHUTDOWN");
+      }
+   }
+
+   @Before
+   public void setUp() throws Exception {
+      colocatedTodoItemStore = new ColocatedTodoItemStore(dbi, "OACC", SQL_PROFILE);
+   }
+
+   @Test
+   public void createItemCreatesTodoItemAndOaccResource() throws Exception {
+      final Resource creator = createUser(true);
+
+      final TodoItem todoItem = colocatedTodoItemStore.createItem(creator, new TodoItem(0, "wash car", null));
+
+      assertThat(todoItem.getTitle()).isEqualTo("wash car");
+      assertThat(todoItem.getCompleted()).isFalse();
+      final AccessControlContext creatorOacc = authenticate(creator);
+      assertThat(creatorOacc.hasResourcePermissions(creator,
+                                                    Resources.getInstance(String.valueOf(todoItem.getId())),
+                                                    SecurityModel.PERM_VIEW,
+                                                    SecurityModel.PERM_EDIT,
+                                                    SecurityModel.PERM_MARK_COMPLETED)).isTrue();
+   }
+
+   @Test
+   public void createItemRecordsTheOaccResourceId() throws Exception {
+      final Resource creator = createUser(true);
+
+      final TodoItem todoItem = colocatedTodoItemStore.createItem(creator, new TodoItem(0, "wash car", null));
+
+      assertThat(todoItem.getOaccResourceId()).isEqualTo(findResourceId(String.valueOf(todoItem.getId())));
+      try (Handle handle = dbi.open()) {
+         assertThat(handle.attach(TodoItemDAO.class).findById(todoItem.getId()).getOaccResourceId())
+               .isEqualTo(todoItem.getOaccResourceId());
+      }
+   }
+
+   @Test
+   public void createItemWhenUnauthorizedLeavesNoTodoItemBehind() throws Exception {
+      final Resource creator = createUser(false);
+      final long todoItemCount = countTodoItems();
+
+      try {
+         colocatedTodoItemStore.createItem(creator, new TodoItem(0, "wash car", false));
+      }
+      catch (NotAuthorizedException e) {
+         assertThat(countTodoItems()).isEqualTo(todoItemCount);
+         return;
+      }
+      fail("expected NotAuthorizedException");
+   }
+
+   @Test
+   public void createItemsCreatesTodoItemsAndOaccResources() throws Exception {
+      final Resource creator = createUser(true);
+
+      final List<TodoItemBatchResult> results
+            = colocatedTodoItemStore.createItems(creator, Arrays.asList(new TodoItem(0, "one", null),
+                                                                        new TodoItem(0, "two", true)));
+
+      assertThat(results).extracting(TodoItemBatchResult::isCreated).containsExactly(true, true);
+      final TodoItem todoItem1 = results.get(0).getTodo();
+      final TodoItem todoItem2 = results.get(1).getTodo();
+      assertThat(todoItem1.getTitle()).isEqualTo("one");
+      assertThat(todoItem1.getCompleted()).isFalse();
+      assertThat(todoItem2.getTitle()).isEqualTo("two");
+      assertThat(todoItem2.getCompleted()).isTrue();
+      assertThat(colocatedTodoItemStore.findTodoItemIds(creator, Long.MIN_VALUE, 10))
+            .containsExactly(todoItem1.getId(), todoItem2.getId());
+      try (Handle handle = dbi.open()) {
+         assertThat(handle.attach(TodoItemDAO.class).findByIds(new long[]{todoItem1.getId(), todoItem2.getId()}))
+               .containsExactly(todoItem1, todoItem2);
+      }
+      assertThat(todoItem1.getOaccResourceId()).isEqualTo(findResourceId(String.valueOf(todoItem1.getId())));
+      assertThat(todoItem2.getOaccResourceId()).isEqualTo(findResourceId(String.valueOf(todoItem2.getId())));
+   }
+
+   @Test
+   public void createItemsWhenUnauthorizedLeavesNoTodoItemsBehind() throws Exception {
+      final Resource creator = createUser(false);
+      final long todoItemCount = countTodoItems();
+
+      try {
+         colocatedTodoItemStore.createItems(creator, Arrays.asList(new TodoItem(0, "one", false),
+                                                                   new TodoItem(0, "two", false)));
+      }
+      catch (NotAuthorizedException e) {
+         assertThat(countTodoItems()).isEqualTo(todoItemCount);
+         return;
+      }
+      fail("expected NotAuthorizedException");
+   }
+
+   @Test
+   public void findTodoItemIdsPagesByAscendingId() throws Exception {
+      final Resource creator = createUser(true);
+      final long id1 = colocatedTodoItemStore.createItem(creator, new TodoItem(0, "one", false)).getId();
+      final long id2 = colocatedTodoItemStore.createItem(creator, new TodoItem(0, "two", false)).getId();
+      final long id3 = colocatedTodoItemStore.createItem(creator, new TodoItem(0, "three", false)).getId();
+
+      assertThat(colocatedTodoItemStore.findTodoItemIds(creator, Long.MIN_VALUE, 2)).containsExactly(id1, id2);
+      assertThat(colocatedTodoItemStore.findTodoItemIds(creator, id2, 2)).containsExactly(id3);
+   }
+
+   @Test
+   public void findTodoItemIdsOnlyFindsViewableTodoItems() throws Exception {
+      final Resource creator = createUser(true);
+      final Resource otherUser = createUser(true);
+      final long sharedId = colocatedTodoItemStore.createItem(creator, new TodoItem(0, "shared", false)).getId();
+      final long ownId = colocatedTodoItemStore.createItem(creator, new TodoItem(0, "own", false)).getId();
+      authenticate(creator).grantResourcePermissions(otherUser,
+                                                     Resources.getInstance(String.valueOf(sharedId)),
+                                                     SecurityModel.PERM_VIEW);
+
+      assertThat(colocatedTodoItemStore.findTodoItemIds(creator, Long.MIN_VALUE, 10)).containsExactly(sharedId, ownId);
+      assertThat(colocatedTodoItemStore.findTodoItemIds(otherUser, Long.MIN_VALUE, 10)).containsExactly(sharedId);
+   }
+
+   @Test
+   public void findTodoItemIdsFindsTodoItemsViewableThroughInheritance() throws Exception {
+      final Resource creator = createUser(true);
+      final Resource otherUser = createUser(true);
+      final Resource inheritingUser = createUser(false);
+      final long sharedId = colocatedTodoItemStore.createItem(creator, new TodoItem(0, "shared", false)).getId();
+      authenticate(creator).grantResourcePermissions(otherUser,
+                                                     Resources.getInstance(String.valueOf(sharedId)),
+                                                     SecurityModel.PERM_VIEW);
+      try (Handle handle = dbi.open()) {
+         // straight into OACC's grant table, since no test user may grant INHERIT on another user
+         handle.execute("INSERT INTO OACC.OAC_Grant_ResPerm_Sys"
+                              + " (AccessorResourceID, AccessedResourceID, ResourceClassID, SysPermissionID,"
+                              + "  IsWithGrant, GrantorResourceID)"
+                              + " SELECT ?, ResourceID, ResourceClassID, ?, 0, 0"
+                              + " FROM OACC.OAC_Resource WHERE ResourceID = ?",
+                        inheritingUser.getId(), SecurityModel.PERM_INHERIT.getSystemPermissionId(), otherUser.getId());
+      }
+      new InheritanceClosure(dbi, "OACC").refresh(inheritingUser);
+
+      assertThat(colocatedTodoItemStore.findTodoItemIds(inheritingUser, Long.MIN_VALUE, 10)).containsExactly(sharedId);
+      assertThat(authenticate(inheritingUser).hasResourcePermissions(inheritingUser,
+                                                                     Resources.getInstance(String.valueOf(sharedId)),
+                                                                     SecurityModel.PERM_VIEW)).isTrue();
+   }
+
+   private static AccessControlContext newAccessControlContext() {
+      return SQLAccessControlContextFactory.getAccessControlContext(dataSource,
+                                                                    "OACC",
+                                                                    SQL_PROFILE,
+                                                                    BCryptPasswordEncryptor.newInstance(4));
+   }
+
+   private static Resource createUser(boolean isTodoCreator) {
+      final Resource user = newAccessControlContext().createResource(SecurityModel.RESOURCECLASS_USER,
+                                                                     SecurityModel.DOMAIN_SECURE_TODO,
+                                                                     UUID.randomUUID() + "@oaccframework.org",
+                                                                     PasswordCredentials.newInstance(PASSWORD));
+      if (isTodoCreator) {
+         roleHelperOacc.grantResourcePermissions(user,
+                                                 SecurityModel.RESOURCE_ROLE_TODOCREATOR,
+                                                 SecurityModel.PERM_INHERIT);
+      }
+      return user;
+   }
+
+   private static AccessControlContext authenticate(Resource user) {
+      final AccessControlContext oacc = newAccessControlContext();
+      oacc.authenticate(user, PasswordCredentials.newInstance(PASSWORD));
+      return oacc;
+   }
+
+   private static long countTodoItems() {
+      try (Handle handle = dbi.open()) {
+         return handle.createQuery("SELECT COUNT(*) FROM todo.todoItem").mapTo(Long.class).first();
+      }
+   }
+
+   private static Long findResourceId(String externalId) {
+      try (Handle handle = dbi.open()) {
+         return handle.createQuery("SELECT ResourceID FROM OACC.OAC_ResourceExternalID WHERE ExternalID = :externalId")
+               .bind("externalId", externalId)
+               .mapTo(Long.class)
+               .first();
+      }
+   }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.oacc.PasswordCredentials;
+import com.acciente.oacc.Resource;
+import com.acciente.oacc.Resources;
+import com.acciente.oacc.encryptor.bcrypt.BCryptPasswordEncryptor;
+import com.acciente.oacc.sql.SQLAccessControlContextFactory;
+import com.acciente.oacc.sql.SQLProfile;
+import com.acciente.securetodo.db.TestDatabases;
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InheritanceClosureTest {
+   private static final SQLProfile SQL_PROFILE = SQLProfile.HSQLDB_2_3_NON_RECURSIVE;
+
+   private static JDBCDataSource dataSource;
+   private static DBI            dbi;
+
+   private InheritanceClosure inheritanceClosure;
+
+   @BeforeClass
+   public static void setUpDatabase() throws Exception {
+      dataSource = TestDatabases.migrated("migrations_oaccdb.xml");
+      dbi = new DBI(dataSource);
+   }
+
+   @AfterClass
+   public static void tearDownDatabase() throws Exception {
+      try (Handle handle = dbi.open()) {
+         handle.execute("SHUTDOWN");
+      }
+   }
+
+   @Before
+   public void setUp() throws Exception {
+      inheritanceClosure = new InheritanceClosure(dbi, "OACC");
+   }
+
+   @Test
+   public void closureIsConsistentWithARebuild() throws Exception {
+      final List<String> pairs = findAllPairs();
+
+      inheritanceClosure.rebuild();
+
+      assertThat(findAllPairs()).isEqualTo(pairs);
+   }
+
+   @Test
+   public void refreshRecordsEveryLevelOfInheritance() throws Exception {
+      final Resource user = createResource();
+      final Resource role1 = createResource();
+      final Resource role2 = createResource();
+      final Resource role3 = createResource();
+      grantInherit(role2, role3);
+      grantInherit(role1, role2);
+      grantInherit(user, role1);
+
+      inheritanceClosure.refresh(user);
+
+      assertThat(findInheritedIds(user.getId())).containsExactlyInAnyOrder(role1.getId(), role2.getId(), role3.getId());
+   }
+
+   @Test
+   public void refreshOfAnInheritedResourceUpdatesItsInheritors() throws Exception {
+      final Resource user = createResource();
+      final Resource role1 = createResource();
+      final Resource role2 = createResource();
+      grantInherit(user, role1);
+      inheritanceClosure.refresh(user);
+
+      grantInherit(role1, role2);
+      inheritanceClosure.refresh(role1);
+
+      assertThat(findInheritedIds(user.getId())).containsExactlyInAnyOrder(role1.getId(), role2.getId());
+      assertThat(findInheritedIds(role1.getId())).containsExactly(role2.getId());
+
+      revokeInherit(role1, role2);
+      inheritanceClosure.refresh(role1);
+
+      assertThat(findInheritedIds(user.getId())).containsExactly(role1.getId());
+      assertThat(findInheritedIds(role1.getId())).isEmpty();
+   }
+
+   @Test
+   public void refreshResolvesTheResourceIdByExternalId() throws Exception {
+      final Resource user = createResource();
+      final Resource role = createResource();
+      grantInherit(user, role);
+
+      inheritanceClosure.refresh(Resources.getInstance(user.getExternalId()));
+
+      assertThat(findInheritedIds(user.getId())).containsExactly(role.getId());
+   }
+
+   @Test
+   public void rebuildRecomputesTheWholeClosure() throws Exception {
+      final Resource user = createResource();
+      final Resource role1 = createResource();
+      final Resource role2 = createResource();
+      grantInherit(user, role1);
+      grantInherit(role1, role2);
+      try (Handle handle = dbi.open()) {
+         handle.execute("INSERT INTO OACC.InheritanceClosure VALUES (?, ?)", role2.getId(), user.getId());
+      }
+
+      inheritanceClosure.rebuild();
+
+      assertThat(findInheritedIds(user.getId())).containsExactlyInAnyOrder(role1.getId(), role2.getId());
+      assertThat(findInheritedIds(role2.getId())).isEmpty();
+   }
+
+   private static Resource createResource() {
+      final Resource resource
+            = SQLAccessControlContextFactory.getAccessControlContext(dataSource,
+                                                                     "OACC",
+                                                                     SQL_PROFILE,
+                                                                     BCryptPasswordEncryptor.newInstance(4))
+                  .createResource(SecurityModel.RESOURCECLASS_USER,
+                                  SecurityModel.DOMAIN_SECURE_TODO,
+                                  UUID.randomUUID() + "@oaccframework.org",
+                                  PasswordCredentials.newInstance("secret".toCharArray()));
+      return Resources.getInstance(findResourceId(resource.getExternalId()), resource.getExternalId());
+   }
+
+   private static void grantInherit(Resource accessor, Resource accessed) {
+      // straight into OACC's grant table, since no test user may grant INHERIT on another user
+      try (Handle handle = dbi.open()) {
+         handle.execute("INSERT INTO OACC.OAC_Grant_ResPerm_Sys"
+                              + " (AccessorResourceID, AccessedResourceID, ResourceClassID, SysPermissionID,"
+                              + "  IsWithGrant, GrantorResourceID)"
+                              + " SELECT ?, ?, ResourceClassID, ?, 0, 0 FROM OACC.OAC_Resource WHERE ResourceID = ?",
+                        accessor.getId(),
+                        accessed.getId(),
+                        SecurityModel.PERM_INHERIT.getSystemPermissionId(),
+                        accessed.getId());
+      }
+   }
+
+   private static void revokeInherit(Resource accessor, Resource accessed) {
+      try (Handle handle = dbi.open()) {
+         handle.execute("DELETE FROM OACC.OAC_Grant_ResPerm_Sys"
+                              + " WHERE AccessorResourceID = ? AND AccessedResourceID = ? AND SysPermissionID = ?",
+                        accessor.getId(), accessed.getId(), SecurityModel.PERM_INHERIT.getSystemPermissionId());
+      }
+   }
+
+   private static long findResourceId(String externalId) {
+      try (Handle handle = dbi.open()) {
+         return handle.createQuery("SELECT ResourceID FROM OACC.OAC_ResourceExternalID WHERE ExternalID = :externalId")
+               .bind("externalId", externalId)
+               .mapTo(Long.class)
+               .first();
+      }
+   }
+
+   private static List<String> findAllPairs() {
+      try (Handle handle = dbi.open()) {
+         return handle.createQuery("SELECT AccessorResourceID, InheritedResourceID FROM OACC.InheritanceClosure"
+                                         + " ORDER BY AccessorResourceID, InheritedResourceID")
+               .map((index, resultSet, context) -> resultSet.getLong(1) + "->" + resultSet.getLong(2))
+               .list();
+      }
+   }
+
+   private static List<Long> findInheritedIds(long accessorId) {
+      try (Handle handle = dbi.open()) {
+         return handle.createQuery("SELECT InheritedResourceID FROM OACC.InheritanceClosure"
+                                         + " WHERE AccessorResourceID = :accessorId")
+               .bind("accessorId", accessorId)
+               .mapTo(Long.class)
+               .list();
+      }
+   }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.oacc.AccessControlContext;
+import com.acciente.oacc.PasswordCredentials;
+import com.acciente.oacc.Resource;
+import com.acciente.oacc.Resources;
+import com.acciente.oacc.encryptor.bcrypt.BCryptPasswordEncryptor;
+import com.acciente.oacc.sql.SQLAccessControlContextFactory;
+import com.acciente.oacc.sql.SQLProfile;
+import com.acciente.securetodo.api.TodoItem;
+import com.acciente.securetodo.db.TestDatabases;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compares, for users whose todo items are all granted to the far end of an inheritance chain of increasing depth,
+ * OACC's lookup of the viewable todo items against the co-located list query through the inheritance closure, along
+ * with the closure refresh a signup pays for in co-located mode. All chains live in one in-memory HSQLDB database, so
+ * every depth is measured against the same tables; the depths are visited in the opposite order on every other round,
+ * and only the rounds after the warm-up ones are reported, as the median of their per-round medians.
+ * <p>
+ * Not a test; run its main method with the test classpath, e.g. from the IDE.
+ */
+public class InheritanceDepthBenchmark {
+   private static final SQLProfile SQL_PROFILE     = SQLProfile.HSQLDB_2_3_NON_RECURSIVE;
+   private static final char[]     PASSWORD        = "secret".toCharArray();
+   private static final int[]      DEPTHS          = {1, 2, 4, 8, 16};
+   private static final int        TODO_ITEMS      = 200;
+   private static final int        SAMPLES         = 50;
+   private static final int        WARM_UP_ROUNDS  = 3;
+   private static final int        MEASURED_ROUNDS = 7;
+
+   private static DataSource dataSource;
+   private static DBI        dbi;
+
+   public static void main(String[] args) throws Exception {
+      dataSource = newDataSource();
+      dbi = new DBI(dataSource);
+      try {
+         TestDatabases.migrate(dataSource, "migrations_oaccdb.xml", "migrations_tododb.xml");
+         final ColocatedTodoItemStore colocatedTodoItemStore = new ColocatedTodoItemStore(dbi, "OACC", SQL_PROFILE);
+         final InheritanceClosure inheritanceClosure = new InheritanceClosure(dbi, "OACC");
+         final AccessControlContext creatorOacc = authenticateNewTodoCreator();
+
+         final Map<Integer, Chain> chains = new LinkedHashMap<>();
+         for (int depth : DEPTHS) {
+            chains.put(depth, createChain(depth, creatorOacc, colocatedTodoItemStore));
+         }
+         inheritanceClosure.rebuild();
+
+         final Map<Integer, List<long[]>> micros = new LinkedHashMap<>();
+         for (int depth : DEPTHS) {
+            micros.put(depth, new ArrayList<>());
+         }
+         final List<Integer> depths = new ArrayList<>(chains.keySet());
+         for (int round = 0; round < WARM_UP_ROUNDS + MEASURED_ROUNDS; round++) {
+            for (int depth : depths) {
+               final long[] roundMicros = measure(chains.get(depth), colocatedTodoItemStore, inheritanceClosure);
+               if (round >= WARM_UP_ROUNDS) {
+                  micros.get(depth).add(roundMicros);
+               }
+            }
+            Collections.reverse(depths);
+         }
+
+         System.out.println("depth  oacc lookup us/op  closure query us/op  closure refresh us/op");
+         for (int depth : DEPTHS) {
+            System.out.printf("%5d  %17d  %19d  %21d%n",
+                              depth,
+                              median(micros.get(depth), 0),
+                              median(micros.get(depth), 1),
+                              median(micros.get(depth), 2));
+         }
+      }
+      finally {
+         try (Handle handle = dbi.open()) {
+            handle.execute("SHUTDOWN");
+         }
+         dataSource.close();
+      }
+   }
+
+   // the median time, over SAMPLES runs, of the oacc lookup, of the closure query, and of the closure refresh
+   private static long[] measure(Chain chain,
+                                 ColocatedTodoItemStore colocatedTodoItemStore,
+                                 InheritanceClosure inheritanceClosure) {
+      final long[] oaccNanos = new long[SAMPLES];
+      final long[] closureNanos = new long[SAMPLES];
+      final long[] refreshNanos = new long[SAMPLES];
+      for (int i = 0; i < SAMPLES; i++) {
+         long startNanos = System.nanoTime();
+         final int viewableCount = chain.userOacc.getResourcesByResourcePermissions(chain.user,
+                                                                                    SecurityModel.RESOURCECLASS_TODO,
+                                                                                    SecurityModel.PERM_VIEW).size();
+         oaccNanos[i] = System.nanoTime() - startNanos;
+
+         startNanos = System.nanoTime();
+         final int listedCount = colocatedTodoItemStore.findTodoItemIds(chain.user, Long.MIN_VALUE, TODO_ITEMS).size();
+         closureNanos[i] = System.nanoTime() - startNanos;
+
+         startNanos = System.nanoTime();
+         inheritanceClosure.refresh(chain.user);
+         refreshNanos[i] = System.nanoTime() - startNanos;
+
+         if (viewableCount != TODO_ITEMS || listedCount != TODO_ITEMS) {
+            throw new IllegalStateException("Expected " + TODO_ITEMS + " todo items, but OACC found " + viewableCount
+                                                  + " and the closure query " + listedCount + ".");
+         }
+      }
+      return new long[]{median(oaccNanos) / 1000, median(closureNanos) / 1000, median(refreshNanos) / 1000};
+   }
+
+   private static Chain createChain(int depth,
+                                    AccessControlContext creatorOacc,
+                                    ColocatedTodoItemStore colocatedTodoItemStore) {
+      final Resource user = createUser();
+      Resource accessor = user;
+      for (int level = 0; level < depth; level++) {
+         final Resource role = createUser();
+         grantInherit(accessor, role);
+         accessor = role;
+      }
+      for (int i = 0; i < TODO_ITEMS; i++) {
+         final TodoItem todoItem = colocatedTodoItemStore.createItem(creatorOacc.getSessionResource(),
+                                                                     new TodoItem(0, "todo number " + i, false));
+         creatorOacc.grantResourcePermissions(accessor,
+                                              Resources.getInstance(String.valueOf(todoItem.getId())),
+                                              SecurityModel.PERM_VIEW);
+      }
+      final AccessControlContext userOacc = newAccessControlContext();
+      userOacc.authenticate(user, PasswordCredentials.newInstance(PASSWORD));
+      return new Chain(user, userOacc);
+   }
+
+   private static Resource createUser() {
+      final Resource user = newAccessControlContext().createResource(SecurityModel.RESOURCECLASS_USER,
+                                                                     SecurityModel.DOMAIN_SECURE_TODO,
+                                                                     UUID.randomUUID() + "@oaccframework.org",
+                                                                     PasswordCredentials.newInstance(PASSWORD));
+      try (Handle handle = dbi.open()) {
+         final long resourceId
+               = handle.createQuery("SELECT ResourceID FROM OACC.OAC_ResourceExternalID WHERE ExternalID = :externalId")
+                     .bind("externalId", user.getExternalId())
+                     .mapTo(Long.class)
+                     .first();
+         return Resources.getInstance(resourceId, user.getExternalId());
+      }
+   }
+
+   private static void grantInherit(Resource accessor, Resource accessed) {
+      // straight into OACC's grant table, since no user here may grant INHERIT on another user
+      try (Handle handle = dbi.open()) {
+         handle.execute("INSERT INTO OACC.OAC_Grant_ResPerm_Sys"
+                              + " (AccessorResourceID, AccessedResourceID, ResourceClassID, SysPermissionID,"
+                              + "  IsWithGrant, GrantorResourceID)"
+                              + " SELECT ?, ?, ResourceClassID, ?, 0, 0 FROM OACC.OAC_Resource WHERE ResourceID = ?",
+                        accessor.getId(),
+                        accessed.getId(),
+                        SecurityModel.PERM_INHERIT.getSystemPermissionId(),
+                        accessed.getId());
+      }
+   }
+
+   private static AccessControlContext authenticateNewTodoCreator() {
+      final AccessControlContext oacc = newAccessControlContext();
+      final Resource user = oacc.createResource(SecurityModel.RESOURCECLASS_USER,
+                                                SecurityModel.DOMAIN_SECURE_TODO,
+                                                "benchmark@oaccframework.org",
+                                                PasswordCredentials.newInstance(PASSWORD));
+
+      oacc.authenticate(SecurityModel.RESOURCE_ROLEHELPER_TODOCREATOR,
+                        SecurityModel.CREDENTIALS_ROLEHELPER_TODOCREATOR);
+      oacc.grantResourcePermissions(user, SecurityModel.RESOURCE_ROLE_TODOCREATOR, SecurityModel.PERM_INHERIT);
+
+      oacc.authenticate(user, PasswordCredentials.newInstance(PASSWORD));
+      return oacc;
+   }
+
+   private static AccessControlContext newAccessControlContext() {
+      return SQLAccessControlContextFactory.getAccessControlContext(dataSource,
+                                                                    "OACC",
+                                                                    SQL_PROFILE,
+                                                                    BCryptPasswordEncryptor.newInstance(4));
+   }
+
+   private static long median(long[] values) {
+      final long[] sortedValues = values.clone();
+      Arrays.sort(sortedValues);
+      return sortedValues[sortedValues.length / 2];
+   }
+
+   private static long median(List<long[]> rounds, int index) {
+      return median(rounds.stream().mapToLong(values -> values[index]).toArray());
+   }
+
+   private static DataSource newDataSource() {
+      final DataSource dataSource = new DataSource();
+      dataSource.setDriverClassName("org.hsqldb.jdbc.JDBCDriver");
+      dataSource.setUrl(TestDatabases.newUrl());
+      dataSource.setUsername("sa");
+      dataSource.setPassword("");
+      dataSource.setInitialSize(1);
+      dataSource.setMinIdle(1);
+      dataSource.setMaxIdle(8);
+      dataSource.setMaxActive(8);
+      return dataSource;
+   }
+
+   private static class Chain {
+      private final Resource             user;
+      private final AccessControlContext userOacc;
+
+      private Chain(Resource user, AccessControlContext userOacc) {
+         this.user = user;
+         this.userOacc = userOacc;
+      }
+   }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.oacc.Resources;
+import com.acciente.securetodo.api.TodoItem;
+import com.acciente.securetodo.db.TodoItemDAO;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OaccResourceIdBackfillTest {
+   private TodoItemDAO            todoItemDAO;
+   private OaccTransactionRunner  oaccTransactionRunner;
+   private OaccResourceIdBackfill backfill;
+
+   @Before
+   public void setUp() throws Exception {
+      todoItemDAO = mock(TodoItemDAO.class);
+      oaccTransactionRunner = mock(OaccTransactionRunner.class);
+      backfill = new OaccResourceIdBackfill(todoItemDAO, oaccTransactionRunner);
+   }
+
+   @Test
+   public void backfillWithNothingMissingOnlyQueriesTodoItems() throws Exception {
+      when(todoItemDAO.findIdsWithoutOaccResourceId(Long.MIN_VALUE, OaccResourceIdBackfill.CHUNK_SIZE))
+            .thenReturn(Collections.emptyList());
+
+      assertThat(backfill.backfill()).isZero();
+      verify(oaccTransactionRunner, never()).resolveResources(any());
+      verify(todoItemDAO, never()).updateOaccResourceIds(any());
+   }
+
+   @Test
+   public void backfillRecordsResolvedResourceIdsAndSkipsUnknownTodoItems() throws Exception {
+      when(todoItemDAO.findIdsWithoutOaccResourceId(Long.MIN_VALUE, OaccResourceIdBackfill.CHUNK_SIZE))
+            .thenReturn(Arrays.asList(1L, 2L, 3L));
+      when(oaccTransactionRunner.resolveResources(Arrays.asList("1", "2", "3")))
+            .thenReturn(ImmutableMap.of("1", Resources.getInstance(101L), "3", Resources.getInstance(103L)));
+      when(todoItemDAO.updateOaccResourceIds(any())).thenReturn(new int[]{1, 1});
+
+      assertThat(backfill.backfill()).isEqualTo(2);
+      @SuppressWarnings("unchecked")
+      final ArgumentCaptor<List<TodoItem>> todoItemsCaptor = ArgumentCaptor.forClass(List.class);
+      verify(todoItemDAO).updateOaccResourceIds(todoItemsCaptor.capture());
+      assertThat(todoItemsCaptor.getValue()).extracting(TodoItem::getId, TodoItem::getOaccResourceId)
+            .containsExactly(tuple(1L, 101L), tuple(3L, 103L));
+   }
+
+   @Test
+   public void backfillContinuesAfterTheLastIdOfAFullChunk() throws Exception {
+      final List<Long> firstChunk = LongStream.rangeClosed(1, OaccResourceIdBackfill.CHUNK_SIZE)
+            .boxed()
+            .collect(Collectors.toList());
+      final long lastId = OaccResourceIdBackfill.CHUNK_SIZE;
+      when(todoItemDAO.findIdsWithoutOaccResourceId(Long.MIN_VALUE, OaccResourceIdBackfill.CHUNK_SIZE))
+            .thenReturn(firstChunk);
+      when(todoItemDAO.findIdsWithoutOaccResourceId(lastId, OaccResourceIdBackfill.CHUNK_SIZE))
+            .thenReturn(Collections.singletonList(lastId + 1));
+      when(oaccTransactionRunner.resolveResources(any())).thenReturn(Collections.emptyMap());
+
+      assertThat(backfill.backfill()).isZero();
+      verify(todoItemDAO).findIdsWithoutOaccResourceId(lastId, OaccResourceIdBackfill.CHUNK_SIZE);
+      verify(oaccTransactionRunner).resolveResources(Collections.singletonList(String.valueOf(lastId + 1)));
+   }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.oacc.AccessControlContext;
+import com.acciente.oacc.PasswordCredentials;
+import com.acciente.oacc.Resource;
+import com.acciente.oacc.Resources;
+import com.acciente.oacc.encryptor.bcrypt.BCryptPasswordEncryptor;
+import com.acciente.oacc.sql.SQLAccessControlContextFactory;
+import com.acciente.oacc.sql.SQLProfile;
+import com.acciente.securetodo.api.TodoItem;
+import com.acciente.securetodo.api.TodoItemShareResult;
+import com.acciente.securetodo.api.TodoItemShares;
+import com.acciente.securetodo.db.TestDatabases;
+import com.acciente.securetodo.db.TodoItemDAO;
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Mockito.mock;
+
+public class OaccTransactionRunnerTest {
+   private static final SQLProfile SQL_PROFILE = SQLProfile.HSQLDB_2_3_NON_RECURSIVE;
+   private static final char[]     PASSWORD    = "secret".toCharArray();
+
+   private static JDBCDataSource       dataSource;
+   private static DBI                  dbi;
+   private static AccessControlContext roleHelperOacc;
+
+   private OaccTransactionRunner  oaccTransactionRunner;
+   private ColocatedTodoItemStore colocatedTodoItemStore;
+
+   @BeforeClass
+   public static void setUpDatabase() throws Exception {
+      dataSource = TestDatabases.migrated("migrations_oaccdb.xml", "migrations_tododb.xml");
+      dbi = new DBI(dataSource);
+
+      roleHelperOacc = newAccessControlContext();
+      roleHelperOacc.authenticate(SecurityModel.RESOURCE_ROLEHELPER_TODOCREATOR,
+                                  SecurityModel.CREDENTIALS_ROLEHELPER_TODOCREATOR);
+   }
+
+   @AfterClass
+   public static void tearDownDatabase() throws Exception {
+      try (Handle handle = dbi.open()) {
+         handle.execute("SHUTDOWN");
+      }
+   }
+
+   @Before
+   public void setUp() throws Exception {
+      oaccTransactionRunner = new OaccTransactionRunner(dbi, "OACC", SQL_PROFILE);
+      colocatedTodoItemStore = new ColocatedTodoItemStore(dbi, "OACC", SQL_PROFILE);
+   }
+
+   @Test
+   public void resolveResourcesLeavesOutUnknownExternalIds() throws Exception {
+      final Resource user = createUser();
+      final String unknownEmail = UUID.randomUUID() + "@oaccframework.org";
+
+      final Map<String, Resource> resources
+            = oaccTransactionRunner.resolveResources(Arrays.asList(user.getExternalId(), unknownEmail));
+
+      assertThat(resources).containsOnlyKeys(user.getExternalId());
+      assertThat(resources.get(user.getExternalId()).getId()).isNotNull();
+      // so that oacc does not resolve the external ID after all
+      assertThat(resources.get(user.getExternalId()).getExternalId()).isNull();
+   }
+
+   @Test
+   public void inTransactionCommitsWhenTheWorkReturns() throws Exception {
+      final Resource creator = createUser();
+      final Resource otherUser = createUser();
+      final Resource todo = createTodo(creator);
+
+      oaccTransactionRunner.inTransaction(creator, oacc -> {
+         oacc.grantResourcePermissions(otherUser, todo, SecurityModel.PERM_VIEW);
+         return null;
+      });
+
+      assertThat(authenticate(otherUser).hasResourcePermissions(otherUser, todo, SecurityModel.PERM_VIEW)).isTrue();
+   }
+
+   @Test
+   public void inTransactionRollsBackWhenTheWorkThrows() throws Exception {
+      final Resource creator = createUser();
+      final Resource otherUser = createUser();
+      final Resource todo = createTodo(creator);
+
+      try {
+         oaccTransactionRunner.inTransaction(creator, oacc -> {
+            oacc.grantResourcePermissions(otherUser, todo, SecurityModel.PERM_VIEW);
+            throw new IllegalStateException("failed");
+         });
+      }
+      catch (IllegalStateException e) {
+         assertThat(authenticate(otherUser).hasResourcePermissions(otherUser, todo, SecurityModel.PERM_VIEW))
+               .isFalse();
+         return;
+      }
+      fail("expected IllegalStateException");
+   }
+
+   @Test
+   public void shareItemsReportsEveryPair() throws Exception {
+      final Resource creator = createUser();
+      final Resource otherUser = createUser();
+      final Resource ownTodo = createTodo(creator);
+      final Resource foreignTodo = createTodo(otherUser);
+      final long ownId = Long.parseLong(ownTodo.getExternalId());
+      final long foreignId = Long.parseLong(foreignTodo.getExternalId());
+      final String unknownEmail = UUID.randomUUID() + "@oaccframework.org";
+      final TodoItemService todoItemService
+            = TodoItemService.builder(mock(TodoItemDAO.class))
+                  .withOaccTransactionRunner(oaccTransactionRunner)
+                  .build();
+
+      final List<TodoItemShareResult> results
+            = todoItemService.shareItems(authenticate(creator),
+                                         new TodoItemShares(Arrays.asList(ownId, foreignId, -1L),
+                                                            Arrays.asList(otherUser.getExternalId(), unknownEmail)));
+
+      assertThat(results).containsExactly(TodoItemShareResult.shared(ownId, otherUser.getExternalId()),
+                                          TodoItemShareResult.failed(ownId, unknownEmail, 404, "User not found."),
+                                          TodoItemShareResult.failed(foreignId, otherUser.getExternalId(), 403, null),
+                                          TodoItemShareResult.failed(foreignId, unknownEmail, 404, "User not found."),
+                                          TodoItemShareResult.failed(-1L,
+                                                                     otherUser.getExternalId(),
+                                                                     404,
+                                                                     "Todo item not found."),
+                                          TodoItemShareResult.failed(-1L, unknownEmail, 404, "Todo item not found."));
+      assertThat(authenticate(otherUser).hasResourcePermissions(otherUser,
+                                                                ownTodo,
+                                                                SecurityModel.PERM_VIEW,
+                                                                SecurityModel.PERM_MARK_COMPLETED)).isTrue();
+   }
+
+   private static AccessControlContext newAccessControlContext() {
+      return SQLAccessControlContextFactory.getAccessControlContext(dataSource,
+                                                                    "OACC",
+                                                                    SQL_PROFILE,
+                                                                    BCryptPasswordEncryptor.newInstance(4));
+   }
+
+   private static Resource createUser() {
+      final Resource user = newAccessControlContext().createResource(SecurityModel.RESOURCECLASS_USER,
+                                                                     SecurityModel.DOMAIN_SECURE_TODO,
+                                                                     UUID.randomUUID() + "@oaccframework.org",
+                                                                     PasswordCredentials.newInstance(PASSWORD));
+      roleHelperOacc.grantResourcePermissions(user, SecurityModel.RESOURCE_ROLE_TODOCREATOR, SecurityModel.PERM_INHERIT);
+      return user;
+   }
+
+   private Resource createTodo(Resource creator) {
+      final TodoItem todoItem = colocatedTodoItemStore.createItem(creator, new TodoItem(0, "wash car", false));
+      return Resources.getInstance(String.valueOf(todoItem.getId()));
+   }
+
+   private static AccessControlContext authenticate(Resource user) {
+      final AccessControlContext oacc = newAccessControlContext();
+      oacc.authenticate(user, PasswordCredentials.newInstance(PASSWORD));
+      return oacc;
+   }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.securetodo.api.TodoItem;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TodoChangeVersionsTest {
+   private static final String ALICE = "alice@oaccframework.org";
+   private static final String BOB   = "bob@oaccframework.org";
+
+   private MetricRegistry     metrics;
+   private TodoChangeVersions todoChangeVersions;
+
+   @Before
+   public void setUp() throws Exception {
+      metrics = new MetricRegistry();
+      todoChangeVersions = new TodoChangeVersions(100, 60000, metrics);
+   }
+
+   @Test
+   public void getVersionIsUnchangedUntilChanged() throws Exception {
+      final long version = todoChangeVersions.getVersion(ALICE);
+
+      assertThat(todoChangeVersions.getVersion(ALICE)).isEqualTo(version);
+      assertThat(todoChangeVersions.isUnchanged(ALICE, version)).isTrue();
+
+      todoChangeVersions.changed(ALICE);
+
+      assertThat(todoChangeVersions.isUnchanged(ALICE, version)).isFalse();
+      assertThat(todoChangeVersions.getVersion(ALICE)).isNotEqualTo(version);
+   }
+
+   @Test
+   public void versionsAreNeverReused() throws Exception {
+      final long aliceVersion = todoChangeVersions.getVersion(ALICE);
+      final long bobVersion = todoChangeVersions.getVersion(BOB);
+
+      assertThat(bobVersion).isNotEqualTo(aliceVersion);
+      assertThat(todoChangeVersions.isUnchanged(BOB, aliceVersion)).isFalse();
+      assertThat(todoChangeVersions.isUnchanged("carol@oaccframework.org", aliceVersion)).isFalse();
+   }
+
+   @Test
+   public void versionsAreNotReusedAfterARestart() throws Exception {
+      final long versionBeforeRestart = todoChangeVersions.getVersion(ALICE);
+
+      final TodoChangeVersions restartedTodoChangeVersions = new TodoChangeVersions(100, 60000, new MetricRegistry());
+
+      assertThat(restartedTodoChangeVersions.isUnchanged(ALICE, versionBeforeRestart)).isFalse();
+      assertThat(restartedTodoChangeVersions.getVersion(ALICE)).isNotEqualTo(versionBeforeRestart);
+      assertThat(restartedTodoChangeVersions.isUnchanged(ALICE, versionBeforeRestart)).isFalse();
+   }
+
+   @Test
+   public void todoItemsChangedOnlyChangesTheUsersTheyWereHandedTo() throws Exception {
+      final long aliceVersion = todoChangeVersions.getVersion(ALICE);
+      final long bobVersion = todoChangeVersions.getVersion(BOB);
+      todoChangeVersions.handOut(ALICE, new long[]{1, 2});
+      todoChangeVersions.handOut(BOB, new long[]{3});
+
+      todoChangeVersions.todoItemsChanged(2);
+
+      assertThat(todoChangeVersions.isUnchanged(ALICE, aliceVersion)).isFalse();
+      assertThat(todoChangeVersions.isUnchanged(BOB, bobVersion)).isTrue();
+   }
+
+   @Test
+   public void isTodoItemUnchangedUntilTheTodoItemChanges() throws Exception {
+      final TodoItem todoItem
+            = todoChangeVersions.handOut(ALICE, 1, id -> new TodoItem(id, "wash car", false, null, 7L));
+
+      assertThat(todoItem.getTitle()).isEqualTo("wash car");
+      assertThat(todoChangeVersions.isTodoItemUnchanged(ALICE, 1, 7)).isTrue();
+      assertThat(todoChangeVersions.isTodoItemUnchanged(ALICE, 1, 6)).isFalse();
+      // the todo item was never handed to bob, who thus can not be told it did not change
+      assertThat(todoChangeVersions.isTodoItemUnchanged(BOB, 1, 7)).isFalse();
+
+      todoChangeVersions.todoItemsChanged(1);
+
+      assertThat(todoChangeVersions.isTodoItemUnchanged(ALICE, 1, 7)).isFalse();
+   }
+
+   @Test
+   public void handOutAtOtherVersionChangesTheUsersOfTheTodoItem() throws Exception {
+      todoChangeVersions.handOut(ALICE, 1, id -> new TodoItem(id, "wash car", false, null, 7L));
+      final long aliceVersion = todoChangeVersions.getVersion(ALICE);
+
+      // the todo item was written without being reported, e.g. by another node
+      todoChangeVersions.handOut(BOB, 1, id -> new TodoItem(id, "wash bike", false, null, 8L));
+
+      assertThat(todoChangeVersions.isUnchanged(ALICE, aliceVersion)).isFalse();
+      assertThat(todoChangeVersions.isTodoItemUnchanged(ALICE, 1, 8)).isTrue();
+   }
+
+   @Test
+   public void evictedTodoItemChangesItsUsers() throws Exception {
+      todoChangeVersions = new TodoChangeVersions(1, 60000, new MetricRegistry());
+      final long aliceVersion = todoChangeVersions.getVersion(ALICE);
+      todoChangeVersions.handOut(ALICE, new long[]{1});
+
+      todoChangeVersions.handOut(BOB, new long[]{2});
+
+      assertThat(todoChangeVersions.isUnchanged(ALICE, aliceVersion)).isFalse();
+   }
+
+   @Test
+   public void notModifiedCountsTheBytesOfTheLastModifiedResponse() throws Exception {
+      todoChangeVersions.modified(ALICE, "/todos?null", 120);
+      todoChangeVersions.notModified(ALICE, "/todos?null");
+      todoChangeVersions.notModified(ALICE, "/todos?null");
+      // bob's response was never sent in full, so there is no telling what it saved
+      todoChangeVersions.notModified(BOB, "/todos?null");
+
+      assertThat(metrics.meter(TodoChangeVersions.class.getCanonicalName() + " bytes-saved").getCount())
+            .isEqualTo(240);
+      assertThat(metrics.getGauges().get(TodoChangeVersions.class.getCanonicalName() + " not-modified-ratio")
+                       .getValue())
+            .isEqualTo(0.75);
+   }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.securetodo.api.TodoEvent;
+import com.acciente.securetodo.api.TodoItem;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TodoEventBusTest {
+   private static final String ALICE = "alice@oaccframework.org";
+   private static final String BOB   = "bob@oaccframework.org";
+
+   private MetricRegistry metrics;
+   private List<Runnable> pendingDeliveries;
+   private TodoEventBus   todoEventBus;
+
+   @Before
+   public void setUp() throws Exception {
+      metrics = new MetricRegistry();
+      pendingDeliveries = new ArrayList<>();
+      // deliveries only run when the test runs them, so the test decides how fast each client is
+      todoEventBus = new TodoEventBus(2, pendingDeliveries::add, metrics);
+   }
+
+   @Test
+   public void grantEventsOnlyGoToTheAccessor() throws Exception {
+      final RecordingTodoEventSink aliceSink = new RecordingTodoEventSink();
+      final RecordingTodoEventSink bobSink = new RecordingTodoEventSink();
+      todoEventBus.subscribe(ALICE, new long[0], aliceSink);
+      todoEventBus.subscribe(BOB, new long[0], bobSink);
+
+      todoEventBus.publish(TodoEvent.shared(1, BOB));
+      runPendingDeliveries();
+
+      assertThat(aliceSink.todoEvents).isEmpty();
+      assertThat(bobSink.todoEvents).containsExactly(TodoEvent.shared(1, BOB));
+   }
+
+   @Test
+   public void updateEventsGoToEveryoneWhoCanViewTheTodoItem() throws Exception {
+      final RecordingTodoEventSink aliceSink = new RecordingTodoEventSink();
+      final RecordingTodoEventSink bobSink = new RecordingTodoEventSink();
+      final RecordingTodoEventSink carolSink = new RecordingTodoEventSink();
+      todoEventBus.subscribe(ALICE, new long[]{1, 2}, aliceSink);
+      todoEventBus.subscribe(BOB, new long[]{2}, bobSink);
+      todoEventBus.subscribe(null, new long[]{3}, carolSink);
+
+      todoEventBus.publishAll(Arrays.asList(TodoEvent.updated(todoItem(1)), TodoEvent.updated(todoItem(2))));
+      runPendingDeliveries();
+
+      assertThat(aliceSink.todoEvents).containsExactly(TodoEvent.updated(todoItem(1)),
+                                                       TodoEvent.updated(todoItem(2)));
+      assertThat(bobSink.todoEvents).containsExactly(TodoEvent.updated(todoItem(2)));
+      assertThat(carolSink.todoEvents).isEmpty();
+      assertThat(metrics.timer(TodoEventBus.class.getCanonicalName() + " fan-out-latency").getCount()).isEqualTo(3);
+   }
+
+   @Test
+   public void updateEventsGoToUsersTheTodoItemWasGrantedToAfterTheySubscribed() throws Exception {
+      final RecordingTodoEventSink bobSink = new RecordingTodoEventSink();
+      todoEventBus.subscribe(BOB, new long[0], bobSink);
+
+      todoEventBus.publish(TodoEvent.shared(1, BOB));
+      todoEventBus.publish(TodoEvent.updated(todoItem(1)));
+      runPendingDeliveries();
+
+      assertThat(bobSink.todoEvents).containsExactly(TodoEvent.shared(1, BOB), TodoEvent.updated(todoItem(1)));
+   }
+
+   @Test
+   public void slowConsumerIsDropped() throws Exception {
+      final RecordingTodoEventSink aliceSink = new RecordingTodoEventSink();
+      final RecordingTodoEventSink bobSink = new RecordingTodoEventSink();
+      final TodoEventBus.Subscription aliceSubscription = todoEventBus.subscribe(ALICE, new long[]{1}, aliceSink);
+      todoEventBus.subscribe(BOB, new long[]{1}, bobSink);
+      assertThat(todoEventBus.getConnectionCount()).isEqualTo(2);
+
+      // the deliveries are held back, so the third event does not fit into the queues any more
+      todoEventBus.publish(TodoEvent.updated(todoItem(1)));
+      todoEventBus.publish(TodoEvent.updated(todoItem(1)));
+      todoEventBus.publish(TodoEvent.updated(todoItem(1)));
+
+      assertThat(aliceSubscription.isClosed()).isTrue();
+      assertThat(todoEventBus.getConnectionCount()).isEqualTo(0);
+      assertThat(metrics.meter(TodoEventBus.class.getCanonicalName() + " dropped-connections").getCount())
+            .isEqualTo(2);
+
+      // the sinks are closed by the held back deliveries, which never write to them
+      runPendingDeliveries();
+
+      assertThat(aliceSink.todoEvents).isEmpty();
+      assertThat(aliceSink.closed).isTrue();
+      assertThat(bobSink.closed).isTrue();
+   }
+
+   @Test
+   public void failedSendClosesTheConnection() throws Exception {
+      final RecordingTodoEventSink aliceSink = new RecordingTodoEventSink();
+      aliceSink.failing = true;
+      final TodoEventBus.Subscription aliceSubscription = todoEventBus.subscribe(ALICE, new long[]{1}, aliceSink);
+
+      todoEventBus.publish(TodoEvent.updated(todoItem(1)));
+      runPendingDeliveries();
+
+      assertThat(aliceSubscription.isClosed()).isTrue();
+      assertThat(aliceSink.closed).isTrue();
+      assertThat(todoEventBus.getConnectionCount()).isEqualTo(0);
+   }
+
+   @Test
+   public void heartbeatIsSentToEveryConnection() throws Exception {
+      final RecordingTodoEventSink aliceSink = new RecordingTodoEventSink();
+      final RecordingTodoEventSink bobSink = new RecordingTodoEventSink();
+      todoEventBus.subscribe(ALICE, new long[0], aliceSink);
+      todoEventBus.subscribe(BOB, new long[0], bobSink);
+
+      todoEventBus.heartbeat();
+      runPendingDeliveries();
+
+      assertThat(aliceSink.heartbeats).isEqualTo(1);
+      assertThat(bobSink.heartbeats).isEqualTo(1);
+      assertThat(aliceSink.todoEvents).isEmpty();
+   }
+
+   @Test
+   public void closedSubscriptionGetsNoMoreEvents() throws Exception {
+      final RecordingTodoEventSink aliceSink = new RecordingTodoEventSink();
+      final TodoEventBus.Subscription aliceSubscription = todoEventBus.subscribe(ALICE, new long[]{1}, aliceSink);
+
+      aliceSubscription.close();
+      todoEventBus.publish(TodoEvent.updated(todoItem(1)));
+      todoEventBus.publish(TodoEvent.shared(2, ALICE));
+      runPendingDeliveries();
+
+      assertThat(aliceSink.closed).isTrue();
+      assertThat(aliceSink.todoEvents).isEmpty();
+      assertThat(todoEventBus.getConnectionCount()).isEqualTo(0);
+   }
+
+   private void runPendingDeliveries() {
+      while (!pendingDeliveries.isEmpty()) {
+         pendingDeliveries.remove(0).run();
+      }
+   }
+
+   private static TodoItem todoItem(long id) {
+      return new TodoItem(id, "wash car", false, null, 2L);
+   }
+
+   private static class RecordingTodoEventSink implements TodoEventSink {
+      private final List<TodoEvent> todoEvents = new ArrayList<>();
+      private int     heartbeats;
+      private boolean failing;
+      private boolean closed;
+
+      @Override
+      public void send(TodoEvent todoEvent) throws IOException {
+         if (failing) {
+            throw new IOException("client went away");
+         }
+         todoEvents.add(todoEvent);
+      }
+
+      @Override
+      public void sendHeartbeat() {
+         heartbeats++;
+      }
+
+      @Override
+      public void close() {
+         assertThat(closed).isFalse();
+         closed = true;
+      }
+   }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.core;
+
+import com.acciente.securetodo.api.TodoItemAccess;
+import com.acciente.securetodo.db.TestDatabases;
+import com.acciente.securetodo.db.TodoItemAccessDAO;
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TodoItemAccessReconcilerTest {
+   private static final String EMAIL1 = "alice@oaccframework.org";
+   private static final String EMAIL2 = "bob@oaccframework.org";
+
+   private Handle                   handle;
+   private TodoItemAccessDAO        todoItemAccessDAO;
+   private TodoItemAccessReconciler reconciler;
+
+   @Before
+   public void setUp() throws Exception {
+      final JDBCDataSource dataSource = TestDatabases.migrated("migrations_tododb.xml");
+      final DBI dbi = new DBI(dataSource);
+      handle = dbi.open();
+
+      // just the parts of the oacc schema that hold direct resource permission grants
+      handle.execute("CREATE SCHEMA OACC");
+      handle.execute("CREATE TABLE OACC.OAC_ResourceClass (ResourceClassID BIGINT, ResourceClassName VARCHAR(128))");
+      handle.execute("CREATE TABLE OACC.OAC_ResourceClassPermission (ResourceClassID BIGINT, PermissionID BIGINT, PermissionName VARCHAR(64))");
+      handle.execute("CREATE TABLE OACC.OAC_ResourceExternalID (ResourceID BIGINT, ExternalID VARCHAR(255))");
+      handle.execute("CREATE TABLE OACC.OAC_Grant_ResPerm (AccessorResourceID BIGINT, AccessedResourceID BIGINT, ResourceClassID BIGINT, PermissionID BIGINT)");
+      handle.execute("INSERT INTO OACC.OAC_ResourceClass VALUES (1, 'user'), (2, 'todo')");
+      handle.execute("INSERT INTO OACC.OAC_ResourceClassPermission VALUES (2, 1, 'VIEW'), (2, 2, 'EDIT'), (2, 3, 'MARK-COMPLETED')");
+      handle.execute("INSERT INTO OACC.OAC_ResourceExternalID VALUES (10, ?), (11, ?), (20, '1'), (21, '2')", EMAIL1, EMAIL2);
+
+      handle.execute("INSERT INTO TODO.TodoItem (Id, Title, Completed) VALUES (1, 'wash car', FALSE), (2, 'mow lawn', FALSE)");
+
+      todoItemAccessDAO = dbi.onDemand(TodoItemAccessDAO.class);
+      reconciler = new TodoItemAccessReconciler(dataSource, "OACC", todoItemAccessDAO);
+   }
+
+   @After
+   public void tearDown() throws Exception {
+      handle.execute("SHUTDOWN");
+      handle.close();
+   }
+
+   @Test
+   public void reconcileAddsGrantedAccess() throws Exception {
+      grant(10, 20, 1, 2, 3);
+      grant(11, 20, 1, 3);
+
+      final TodoItemAccessReconciler.Result result = reconciler.reconcile();
+
+      assertThat(todoItemAccessDAO.findAll())
+            .containsOnly(new TodoItemAccess(EMAIL1, 1, TodoItemAccess.PERMISSION_VIEW
+                                                        | TodoItemAccess.PERMISSION_EDIT
+                                                        | TodoItemAccess.PERMISSION_MARK_COMPLETED),
+                          new TodoItemAccess(EMAIL2, 1, TodoItemAccess.PERMISSION_VIEW
+                                                        | TodoItemAccess.PERMISSION_MARK_COMPLETED));
+      assertThat(result.getGranted()).isEqualTo(2);
+      assertThat(result.getAdded()).isEqualTo(2);
+      assertThat(result.getRemoved()).isZero();
+   }
+
+   @Test
+   public void reconcileExtendsAccessAndRemovesUngrantedAccess() throws Exception {
+      grant(10, 20, 1, 2);
+      todoItemAccessDAO.grant(EMAIL1, 1, TodoItemAccess.PERMISSION_VIEW);
+      todoItemAccessDAO.grant(EMAIL2, 2, TodoItemAccess.PERMISSION_VIEW);
+
+      final TodoItemAccessReconciler.Result result = reconciler.reconcile();
+
+      assertThat(todoItemAccessDAO.findAll())
+            .containsOnly(new TodoItemAccess(EMAIL1, 1, TodoItemAccess.PERMISSION_VIEW | TodoItemAccess.PERMISSION_EDIT));
+      assertThat(result.getAdded()).isEqualTo(1);
+      assertThat(result.getRemoved()).isEqualTo(1);
+   }
+
+   @Test
+   public void reconcileSkipsGrantsOnMissingTodoItems() throws Exception {
+      handle.execute("INSERT INTO OACC.OAC_ResourceExternalID VALUES (22, '3')");
+      grant(10, 22, 1);
+
+      reconciler.reconcile();
+
+      assertThat(todoItemAccessDAO.findAll()).isEmpty();
+   }
+
+   @Test
+   public void reconcileTwiceChangesNothingTheSecondTime() throws Exception {
+      grant(10, 20, 1, 2, 3);
+      grant(10, 21, 1);
+
+      reconciler.reconcile();
+      final TodoItemAccessReconciler.Result result = reconciler.reconcile();
+
+      assertThat(result.getGranted()).isEqualTo(2);
+      assertThat(result.getAdded()).isZero();
+      assertThat(result.getRemoved()).isZero();
+   }
+
+   @Test
+   public void findTodoItemIdsPagesByAscendingId() throws Exception {
+      todoItemAccessDAO.grant(EMAIL1, 2, TodoItemAccess.PERMISSION_VIEW);
+      todoItemAccessDAO.grant(EMAIL1, 1, TodoItemAccess.PERMISSION_VIEW);
+      todoItemAccessDAO.grant(EMAIL2, 1, TodoItemAccess.PERMISSION_MARK_COMPLETED);
+
+      assertThat(todoItemAccessDAO.findTodoItemIds(EMAIL1, TodoItemAccess.PERMISSION_VIEW, Long.MIN_VALUE, 1))
+            .containsExactly(1L);
+      assertThat(todoItemAccessDAO.findTodoItemIds(EMAIL1, TodoItemAccess.PERMISSION_VIEW, 1, 10))
+            .containsExactly(2L);
+      assertThat(todoItemAccessDAO.findTodoItemIds(EMAIL2, TodoItemAccess.PERMISSION_VIEW, Long.MIN_VALUE, 10))
+            .isEmpty();
+   }
+
+   private void grant(long accessorResourceId, long accessedResourceId, long... permissionIds) {
+      for (long permissionId : permissionIds) {
+         handle.execute("INSERT INTO OACC.OAC_Grant_ResPerm VALUES (?, ?, 2, ?)",
+                        accessorResourceId, accessedResourceId, permissionId);
+      }
+   }
+}
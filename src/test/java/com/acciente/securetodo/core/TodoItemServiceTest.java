@@ -21,27 +21,59 @@ import com.acciente.oacc.NotAuthorizedException;
 import com.acciente.oacc.Resource;
 import com.acciente.oacc.ResourcePermission;
 import com.acciente.oacc.Resources;
+import com.acciente.securetodo.api.TodoChange;
+import com.acciente.securetodo.api.TodoEvent;
 import com.acciente.securetodo.api.TodoItem;
+import com.acciente.securetodo.api.TodoItemAccess;
+import com.acciente.securetodo.api.TodoItemBatchResult;
+import com.acciente.securetodo.api.TodoItemPermissions;
+import com.acciente.securetodo.api.TodoItemShareResult;
+import com.acciente.securetodo.api.TodoItemShares;
+import com.acciente.securetodo.db.TodoChangeDAO;
+import com.acciente.securetodo.db.TodoItemAccessDAO;
 import com.acciente.securetodo.db.TodoItemDAO;
+import com.acciente.securetodo.db.UnitOfWorkHandles;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.skife.jdbi.v2.ResultIterator;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.OptionalLong;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
@@ -53,6 +85,8 @@ public class TodoItemServiceTest {
    private static final String BLANK    = " \t";
    private static final String EMAIL    = "tester@oaccframework.org";
 
+   private static final long OACC_ID_OFFSET = 1000L;
+
    private TodoItemDAO          todoItemDAO;
    private AccessControlContext oacc;
    private TodoItemService      todoItemService;
@@ -61,6 +95,10 @@ public class TodoItemServiceTest {
    public void setUp() throws Exception {
       todoItemDAO = mock(TodoItemDAO.class);
       oacc = mock(AccessControlContext.class);
+      // oacc hands back the created resource, with an internal ID that differs from the todo item's ID
+      when(oacc.createResource(any(String.class), any(String.class), any(String.class)))
+            .thenAnswer(invocation -> Resources.getInstance(OACC_ID_OFFSET + Long.parseLong(invocation.getArgument(2)),
+                                                            invocation.getArgument(2)));
 
       todoItemService = new TodoItemService(todoItemDAO);
    }
@@ -85,6 +123,18 @@ public class TodoItemServiceTest {
                                   String.valueOf(ITEM_ID1));
    }
 
+   @Test
+   public void createItemRecordsTheOaccResourceId() throws Exception {
+      final TodoItem todoItem = new TodoItem(ITEM_ID1 - 100, TITLE1, false);
+      when(todoItemDAO.insert(any(TodoItem.class))).thenReturn(ITEM_ID1);
+      when(todoItemDAO.findById(ITEM_ID1)).thenReturn(new TodoItem(ITEM_ID1, TITLE1, false));
+
+      final TodoItem returnedTodoItem = todoItemService.createItem(oacc, todoItem);
+
+      assertThat(returnedTodoItem.getOaccResourceId()).isEqualTo(OACC_ID_OFFSET + ITEM_ID1);
+      verify(todoItemDAO).updateOaccResourceId(returnedTodoItem);
+   }
+
    @Test(expected = NullPointerException.class)
    public void createItemWithNull() throws Exception {
       todoItemService.createItem(oacc, null);
@@ -156,22 +206,17 @@ public class TodoItemServiceTest {
       final Resource authenticatedResource = Resources.getInstance(22L);
       final Set<Resource> itemResources = Stream.of(Resources.getInstance(33L, String.valueOf(ITEM_ID1)),
                                                     Resources.getInstance(44L, String.valueOf(ITEM_ID2))).collect(Collectors.toSet());
-      final List<Long> foundItemIds = Stream.of(ITEM_ID1, ITEM_ID2).collect(Collectors.toList());
-      final TodoItem expectedTodoItem1 = new TodoItem(ITEM_ID1, TITLE1, true);
-      final TodoItem expectedTodoItem2 = new TodoItem(ITEM_ID2, TITLE2, false);
-      List<TodoItem> expectedTodoItems = Stream.of(expectedTodoItem1, expectedTodoItem2).collect(Collectors.toList());
       when(oacc.getSessionResource()).thenReturn(authenticatedResource);
       when(oacc.getResourcesByResourcePermissions(authenticatedResource, SecurityModel.RESOURCECLASS_TODO, SecurityModel.PERM_VIEW))
             .thenReturn(itemResources);
-      when(todoItemDAO.findByIds(foundItemIds)).thenReturn(expectedTodoItems);
 
-      final List<TodoItem> foundTodoItems = todoItemService.findByAuthenticatedUser(oacc);
+      final TodoItemPage foundTodoItemPage = todoItemService.findByAuthenticatedUser(oacc, null, 10);
 
-      assertThat(foundTodoItems).containsExactlyInAnyOrder(expectedTodoItem1, expectedTodoItem2);
+      assertThat(foundTodoItemPage.getTodoItemIds()).containsExactly(ITEM_ID1, ITEM_ID2);
+      assertThat(foundTodoItemPage.getNextAfterId().isPresent()).isFalse();
       verify(oacc).getSessionResource();
       verify(oacc).getResourcesByResourcePermissions(authenticatedResource, SecurityModel.RESOURCECLASS_TODO, SecurityModel.PERM_VIEW);
-      verify(todoItemDAO).findByIds(foundItemIds);
-      verify(todoItemDAO, never()).findById(anyLong());
+      verifyZeroInteractions(todoItemDAO);
    }
 
    @Test
@@ -182,13 +227,116 @@ public class TodoItemServiceTest {
       when(oacc.getResourcesByResourcePermissions(authenticatedResource, SecurityModel.RESOURCECLASS_TODO, SecurityModel.PERM_VIEW))
             .thenReturn(noItemResources);
 
-      final List<TodoItem> foundTodoItems = todoItemService.findByAuthenticatedUser(oacc);
+      final TodoItemPage foundTodoItemPage = todoItemService.findByAuthenticatedUser(oacc, null, 10);
 
-      assertThat(foundTodoItems).isEmpty();
+      assertThat(foundTodoItemPage.getTodoItemIds()).isEmpty();
+      assertThat(foundTodoItemPage.getNextAfterId().isPresent()).isFalse();
       verify(oacc).getSessionResource();
       verify(oacc).getResourcesByResourcePermissions(authenticatedResource, SecurityModel.RESOURCECLASS_TODO, SecurityModel.PERM_VIEW);
-      verify(todoItemDAO, never()).findByIds(any());
-      verify(todoItemDAO, never()).findById(anyLong());
+      verifyZeroInteractions(todoItemDAO);
+   }
+
+   @Test
+   public void findByAuthenticatedUserPagesByAscendingId() throws Exception {
+      final Resource authenticatedResource = Resources.getInstance(22L);
+      final Set<Resource> itemResources = Stream.of(5L, 3L, 9L, 1L, 7L)
+            .map(itemId -> Resources.getInstance(100L + itemId, String.valueOf(itemId)))
+            .collect(Collectors.toSet());
+      when(oacc.getSessionResource()).thenReturn(authenticatedResource);
+      when(oacc.getResourcesByResourcePermissions(authenticatedResource, SecurityModel.RESOURCECLASS_TODO, SecurityModel.PERM_VIEW))
+            .thenReturn(itemResources);
+
+      final TodoItemPage firstPage = todoItemService.findByAuthenticatedUser(oacc, null, 2);
+      final TodoItemPage secondPage = todoItemService.findByAuthenticatedUser(oacc, firstPage.getNextAfterId().getAsLong(), 2);
+      // a cursor whose item is no longer visible still continues with the next higher ID
+      final TodoItemPage lastPage = todoItemService.findByAuthenticatedUser(oacc, 6L, 2);
+
+      assertThat(firstPage.getTodoItemIds()).containsExactly(1L, 3L);
+      assertThat(firstPage.getNextAfterId().getAsLong()).isEqualTo(3L);
+      assertThat(secondPage.getTodoItemIds()).containsExactly(5L, 7L);
+      assertThat(secondPage.getNextAfterId().getAsLong()).isEqualTo(7L);
+      assertThat(lastPage.getTodoItemIds()).containsExactly(7L, 9L);
+      assertThat(lastPage.getNextAfterId().isPresent()).isFalse();
+   }
+
+   @Test
+   public void findByAuthenticatedUserAfterLastItem() throws Exception {
+      final Resource authenticatedResource = Resources.getInstance(22L);
+      final Set<Resource> itemResources = Collections.singleton(Resources.getInstance(33L, String.valueOf(ITEM_ID1)));
+      when(oacc.getSessionResource()).thenReturn(authenticatedResource);
+      when(oacc.getResourcesByResourcePermissions(authenticatedResource, SecurityModel.RESOURCECLASS_TODO, SecurityModel.PERM_VIEW))
+            .thenReturn(itemResources);
+
+      final TodoItemPage foundTodoItemPage = todoItemService.findByAuthenticatedUser(oacc, ITEM_ID1, 10);
+
+      assertThat(foundTodoItemPage.getTodoItemIds()).isEmpty();
+      assertThat(foundTodoItemPage.getNextAfterId().isPresent()).isFalse();
+   }
+
+   @Test
+   @SuppressWarnings("unchecked")
+   public void writeTodoItems() throws Exception {
+      final long[] pageIds = {ITEM_ID1, ITEM_ID2};
+      final TodoItem todoItem1 = new TodoItem(ITEM_ID1, TITLE1, true);
+      final TodoItem todoItem2 = new TodoItem(ITEM_ID2, TITLE2, false);
+      final ResultIterator<TodoItem> resultIterator = mock(ResultIterator.class);
+      when(resultIterator.hasNext()).thenReturn(true, true, false);
+      when(resultIterator.next()).thenReturn(todoItem1, todoItem2);
+      when(todoItemDAO.iterateByIds(aryEq(pageIds))).thenReturn(resultIterator);
+      final List<TodoItem> writtenTodoItems = new ArrayList<>();
+
+      todoItemService.writeTodoItems(new TodoItemPage(pageIds, OptionalLong.empty()), writtenTodoItems::add);
+
+      assertThat(writtenTodoItems).containsExactly(todoItem1, todoItem2);
+      verify(resultIterator).close();
+   }
+
+   @Test
+   @SuppressWarnings("unchecked")
+   public void writeTodoItemsClosesIteratorWhenWriterFails() throws Exception {
+      final long[] pageIds = {ITEM_ID1};
+      final ResultIterator<TodoItem> resultIterator = mock(ResultIterator.class);
+      when(resultIterator.hasNext()).thenReturn(true);
+      when(resultIterator.next()).thenReturn(new TodoItem(ITEM_ID1, TITLE1, true));
+      when(todoItemDAO.iterateByIds(aryEq(pageIds))).thenReturn(resultIterator);
+
+      try {
+         todoItemService.writeTodoItems(new TodoItemPage(pageIds, OptionalLong.empty()), todoItem -> {
+            throw new IOException("client went away");
+         });
+         fail("expected IOException");
+      }
+      catch (IOException e) {
+         verify(resultIterator).close();
+      }
+   }
+
+   @Test
+   @SuppressWarnings("unchecked")
+   public void writeTodoItemsLooksUpLargePagesInChunks() throws Exception {
+      final long[] pageIds = LongStream.rangeClosed(1, TodoItemDAO.ID_LOOKUP_CHUNK_SIZE + 1).toArray();
+      final ResultIterator<TodoItem> resultIterator = mock(ResultIterator.class);
+      when(todoItemDAO.iterateByIds(any(long[].class))).thenReturn(resultIterator);
+
+      todoItemService.writeTodoItems(new TodoItemPage(pageIds, OptionalLong.empty()), todoItem -> {});
+
+      final InOrder inOrder = inOrder(todoItemDAO);
+      inOrder.verify(todoItemDAO).iterateByIds(aryEq(Arrays.copyOf(pageIds, TodoItemDAO.ID_LOOKUP_CHUNK_SIZE)));
+      inOrder.verify(todoItemDAO).iterateByIds(aryEq(new long[]{TodoItemDAO.ID_LOOKUP_CHUNK_SIZE + 1}));
+      verify(resultIterator, times(2)).close();
+   }
+
+   @Test
+   public void writeTodoItemsWithEmptyPage() throws Exception {
+      todoItemService.writeTodoItems(new TodoItemPage(new long[0], OptionalLong.empty()),
+                                     todoItem -> fail("no todo item expected"));
+
+      verifyZeroInteractions(todoItemDAO);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void findByAuthenticatedUserWithoutPositiveLimit() throws Exception {
+      todoItemService.findByAuthenticatedUser(oacc, null, 0);
    }
 
    @Test
@@ -200,6 +348,7 @@ public class TodoItemServiceTest {
       final Resource authenticatedResource = Resources.getInstance(22L);
       when(oacc.getSessionResource()).thenReturn(authenticatedResource);
       when(todoItemDAO.findById(pathParam_itemId)).thenReturn(initial);
+      when(todoItemDAO.patch(pathParam_itemId, patch, null)).thenReturn(expectedTodoItem);
 
       final TodoItem updatedTodoItem = todoItemService.updateItem(oacc,
                                                                   pathParam_itemId,
@@ -215,7 +364,64 @@ public class TodoItemServiceTest {
       final List<ResourcePermission> permissions = permissionVarargsCaptor.getAllValues();
       permissions.add(permissionCaptor.getValue());
       assertThat(permissions).containsExactlyInAnyOrder(SecurityModel.PERM_EDIT, SecurityModel.PERM_VIEW);
-      verify(todoItemDAO).update(expectedTodoItem);
+      verify(todoItemDAO).patch(pathParam_itemId, patch, null);
+   }
+
+   @Test
+   public void updateItemHandsOaccTheTodoItemResourceById() throws Exception {
+      final MetricRegistry metrics = new MetricRegistry();
+      todoItemService = TodoItemService.builder(todoItemDAO).withMetrics(metrics).build();
+      final Resource authenticatedResource = Resources.getInstance(22L);
+      when(oacc.getSessionResource()).thenReturn(authenticatedResource);
+      when(todoItemDAO.findById(ITEM_ID1)).thenReturn(new TodoItem(ITEM_ID1, TITLE1, false, OACC_ID_OFFSET + ITEM_ID1));
+      when(todoItemDAO.patch(eq(ITEM_ID1), any(TodoItem.class), isNull()))
+            .thenReturn(new TodoItem(ITEM_ID1, TITLE1, true, OACC_ID_OFFSET + ITEM_ID1));
+
+      final TodoItem updatedTodoItem = todoItemService.updateItem(oacc, ITEM_ID1, new TodoItem(ITEM_ID1, null, true));
+
+      assertThat(updatedTodoItem).isEqualTo(new TodoItem(ITEM_ID1, TITLE1, true));
+      assertThat(updatedTodoItem.getOaccResourceId()).isEqualTo(OACC_ID_OFFSET + ITEM_ID1);
+      verify(oacc).assertResourcePermissions(authenticatedResource,
+                                             Resources.getInstance(OACC_ID_OFFSET + ITEM_ID1),
+                                             SecurityModel.PERM_VIEW,
+                                             SecurityModel.PERM_MARK_COMPLETED);
+      assertThat(metrics.meter(TodoItemService.class.getCanonicalName() + " external-id-resolutions-avoided")
+                       .getCount()).isEqualTo(1);
+   }
+
+   @Test
+   public void updateItemAtExpectedVersion() throws Exception {
+      final TodoItem patch = new TodoItem(ITEM_ID1, null, true);
+      when(oacc.getSessionResource()).thenReturn(Resources.getInstance(22L));
+      when(todoItemDAO.findById(ITEM_ID1)).thenReturn(new TodoItem(ITEM_ID1, TITLE1, false, null, 2L));
+      when(todoItemDAO.patch(ITEM_ID1, patch, 2L)).thenReturn(new TodoItem(ITEM_ID1, TITLE1, true, null, 3L));
+
+      final TodoItem updatedTodoItem = todoItemService.updateItem(oacc, ITEM_ID1, patch, 2L);
+
+      assertThat(updatedTodoItem).isEqualTo(new TodoItem(ITEM_ID1, TITLE1, true));
+      assertThat(updatedTodoItem.getVersion()).isEqualTo(3L);
+      verify(todoItemDAO).patch(ITEM_ID1, patch, 2L);
+   }
+
+   @Test(expected = StaleTodoItemException.class)
+   public void updateItemAtStaleVersion() throws Exception {
+      final TodoItem patch = new TodoItem(ITEM_ID1, null, true);
+      when(oacc.getSessionResource()).thenReturn(Resources.getInstance(22L));
+      when(todoItemDAO.findById(ITEM_ID1)).thenReturn(new TodoItem(ITEM_ID1, TITLE1, false, null, 3L));
+      // the DAO does not find the todo item at the expected version
+      when(todoItemDAO.patch(ITEM_ID1, patch, 2L)).thenReturn(null);
+
+      todoItemService.updateItem(oacc, ITEM_ID1, patch, 2L);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void updateItemDeletedConcurrently() throws Exception {
+      final TodoItem patch = new TodoItem(ITEM_ID1, null, true);
+      when(oacc.getSessionResource()).thenReturn(Resources.getInstance(22L));
+      when(todoItemDAO.findById(ITEM_ID1)).thenReturn(new TodoItem(ITEM_ID1, TITLE1, false, null, 1L));
+      when(todoItemDAO.patch(ITEM_ID1, patch, null)).thenReturn(null);
+
+      todoItemService.updateItem(oacc, ITEM_ID1, patch);
    }
 
    @Test(expected = IllegalArgumentException.class)
@@ -261,6 +467,7 @@ public class TodoItemServiceTest {
       final Resource authenticatedResource = Resources.getInstance(22L);
       when(oacc.getSessionResource()).thenReturn(authenticatedResource);
       when(todoItemDAO.findById(pathParam_itemId)).thenReturn(initial);
+      when(todoItemDAO.patch(pathParam_itemId, patch, null)).thenReturn(expectedTodoItem);
 
       final TodoItem updatedTodoItem = todoItemService.updateItem(oacc,
                                                                   pathParam_itemId,
@@ -276,7 +483,7 @@ public class TodoItemServiceTest {
       final List<ResourcePermission> permissions = permissionVarargsCaptor.getAllValues();
       permissions.add(permissionCaptor.getValue());
       assertThat(permissions).containsExactlyInAnyOrder(SecurityModel.PERM_EDIT, SecurityModel.PERM_VIEW);
-      verify(todoItemDAO).update(expectedTodoItem);
+      verify(todoItemDAO).patch(pathParam_itemId, patch, null);
    }
 
    @Test
@@ -288,6 +495,7 @@ public class TodoItemServiceTest {
       final Resource authenticatedResource = Resources.getInstance(22L);
       when(oacc.getSessionResource()).thenReturn(authenticatedResource);
       when(todoItemDAO.findById(pathParam_itemId)).thenReturn(initial);
+      when(todoItemDAO.patch(pathParam_itemId, patch, null)).thenReturn(expectedTodoItem);
 
       final TodoItem updatedTodoItem = todoItemService.updateItem(oacc,
                                                                   pathParam_itemId,
@@ -303,7 +511,7 @@ public class TodoItemServiceTest {
       final List<ResourcePermission> permissions = permissionVarargsCaptor.getAllValues();
       permissions.add(permissionCaptor.getValue());
       assertThat(permissions).containsExactlyInAnyOrder(SecurityModel.PERM_MARK_COMPLETED, SecurityModel.PERM_VIEW);
-      verify(todoItemDAO).update(expectedTodoItem);
+      verify(todoItemDAO).patch(pathParam_itemId, patch, null);
    }
 
    @Test(expected = NullPointerException.class)
@@ -346,7 +554,25 @@ public class TodoItemServiceTest {
       verify(oacc, never()).assertResourcePermissions(any(Resource.class),
                                                       any(Resource.class),
                                                       any());
-      verifyZeroInteractions(todoItemDAO);
+      // the todo item is only read for its oacc resource ID, which it does not have, so its external ID is used
+      verify(todoItemDAO).findById(pathParam_itemId);
+      verifyNoMoreInteractions(todoItemDAO);
+   }
+
+   @Test
+   public void shareItemHandsOaccTheTodoItemResourceById() throws Exception {
+      final MetricRegistry metrics = new MetricRegistry();
+      todoItemService = TodoItemService.builder(todoItemDAO).withMetrics(metrics).build();
+      when(todoItemDAO.findById(ITEM_ID1)).thenReturn(new TodoItem(ITEM_ID1, TITLE1, false, OACC_ID_OFFSET + ITEM_ID1));
+
+      todoItemService.shareItem(oacc, ITEM_ID1, EMAIL);
+
+      verify(oacc).grantResourcePermissions(Resources.getInstance(EMAIL),
+                                            Resources.getInstance(OACC_ID_OFFSET + ITEM_ID1),
+                                            SecurityModel.PERM_VIEW,
+                                            SecurityModel.PERM_MARK_COMPLETED);
+      assertThat(metrics.meter(TodoItemService.class.getCanonicalName() + " external-id-resolutions-avoided")
+                       .getCount()).isEqualTo(1);
    }
 
    @Test(expected = NotAuthorizedException.class)
@@ -395,4 +621,1222 @@ public class TodoItemServiceTest {
                                 pathParam_itemId,
                                 "nobodys@ema.il");
   }
-}
\ No newline at end of file
+
+   @Test
+   public void findByAuthenticatedUserTwiceWithCacheOnlyQueriesOaccOnce() throws Exception {
+      final Resource authenticatedResource = Resources.getInstance(22L, EMAIL);
+      final Set<Resource> itemResources = Stream.of(Resources.getInstance(33L, String.valueOf(ITEM_ID2)),
+                                                    Resources.getInstance(44L, String.valueOf(ITEM_ID1))).collect(Collectors.toSet());
+      final TodoItemService cachingTodoItemService = TodoItemService.builder(todoItemDAO)
+            .withAccessibleTodoIdCache(newAccessibleTodoIdCache())
+            .build();
+      when(oacc.getSessionResource()).thenReturn(authenticatedResource);
+      when(oacc.getResourcesByResourcePermissions(authenticatedResource, SecurityModel.RESOURCECLASS_TODO, SecurityModel.PERM_VIEW))
+            .thenReturn(itemResources);
+
+      final TodoItemPage firstTodoItemPage = cachingTodoItemService.findByAuthenticatedUser(oacc, null, 10);
+      final TodoItemPage secondTodoItemPage = cachingTodoItemService.findByAuthenticatedUser(oacc, null, 10);
+
+      assertThat(firstTodoItemPage.getTodoItemIds()).containsExactly(ITEM_ID1, ITEM_ID2);
+      assertThat(secondTodoItemPage.getTodoItemIds()).containsExactly(ITEM_ID1, ITEM_ID2);
+      verify(oacc, times(1)).getResourcesByResourcePermissions(authenticatedResource, SecurityModel.RESOURCECLASS_TODO, SecurityModel.PERM_VIEW);
+   }
+
+   @Test
+   public void createItemInvalidatesCreatorsCachedIds() throws Exception {
+      final Resource authenticatedResource = Resources.getInstance(22L, EMAIL);
+      final AccessibleTodoIdCache accessibleTodoIdCache = newAccessibleTodoIdCache();
+      final TodoItemService cachingTodoItemService = TodoItemService.builder(todoItemDAO)
+            .withAccessibleTodoIdCache(accessibleTodoIdCache)
+            .build();
+      accessibleTodoIdCache.getIds(EMAIL, () -> new long[]{ITEM_ID2});
+      when(oacc.getSessionResource()).thenReturn(authenticatedResource);
+      when(todoItemDAO.insert(any(TodoItem.class))).thenReturn(ITEM_ID1);
+      when(todoItemDAO.findById(ITEM_ID1)).thenReturn(new TodoItem(ITEM_ID1, TITLE1, false));
+
+      cachingTodoItemService.createItem(oacc, new TodoItem(ITEM_ID1 - 100, TITLE1, false));
+
+      assertThat(accessibleTodoIdCache.size()).isZero();
+   }
+
+   @Test
+   public void createItemWhenUnauthorizedKeepsCachedIds() throws Exception {
+      final Resource authenticatedResource = Resources.getInstance(22L, EMAIL);
+      final AccessibleTodoIdCache accessibleTodoIdCache = newAccessibleTodoIdCache();
+      final TodoItemService cachingTodoItemService = TodoItemService.builder(todoItemDAO)
+            .withAccessibleTodoIdCache(accessibleTodoIdCache)
+            .build();
+      accessibleTodoIdCache.getIds(EMAIL, () -> new long[]{ITEM_ID2});
+      when(oacc.getSessionResource()).thenReturn(authenticatedResource);
+      when(todoItemDAO.insert(any(TodoItem.class))).thenReturn(ITEM_ID1);
+      when(todoItemDAO.findById(ITEM_ID1)).thenReturn(new TodoItem(ITEM_ID1, TITLE1, false));
+      doThrow(new NotAuthorizedException(""))
+            .when(oacc).createResource(SecurityModel.RESOURCECLASS_TODO,
+                                       SecurityModel.DOMAIN_SECURE_TODO,
+                                       String.valueOf(ITEM_ID1));
+
+      try {
+         cachingTodoItemService.createItem(oacc, new TodoItem(ITEM_ID1 - 100, TITLE1, false));
+      }
+      catch (NotAuthorizedException e) {
+         assertThat(accessibleTodoIdCache.size()).isEqualTo(1);
+         return;
+      }
+      fail("expected NotAuthorizedException");
+   }
+
+   @Test
+   public void shareItemInvalidatesOtherUsersCachedIds() throws Exception {
+      final String otherEmail = "other@oaccframework.org";
+      final AccessibleTodoIdCache accessibleTodoIdCache = newAccessibleTodoIdCache();
+      final TodoItemService cachingTodoItemService = TodoItemService.builder(todoItemDAO)
+            .withAccessibleTodoIdCache(accessibleTodoIdCache)
+            .build();
+      accessibleTodoIdCache.getIds(otherEmail, () -> new long[]{ITEM_ID2});
+      accessibleTodoIdCache.getIds(EMAIL, () -> new long[]{ITEM_ID1, ITEM_ID2});
+
+      cachingTodoItemService.shareItem(oacc, ITEM_ID1, otherEmail.toUpperCase());
+
+      assertThat(accessibleTodoIdCache.getIds(otherEmail, () -> new long[]{ITEM_ID1, ITEM_ID2})).containsExactly(ITEM_ID1, ITEM_ID2);
+      assertThat(accessibleTodoIdCache.getIds(EMAIL, () -> new long[0])).containsExactly(ITEM_ID1, ITEM_ID2);
+   }
+
+   @Test
+   public void findByAuthenticatedUserWithChangeVersionsReturnsUsersVersion() throws Exception {
+      final Resource authenticatedResource = Resources.getInstance(22L, EMAIL);
+      final TodoChangeVersions todoChangeVersions = newTodoChangeVersions();
+      final TodoItemService trackingTodoItemService = newTrackingTodoItemService(todoChangeVersions);
+      when(oacc.getSessionResource()).thenReturn(authenticatedResource);
+      when(oacc.getResourcesByResourcePermissions(authenticatedResource, SecurityModel.RESOURCECLASS_TODO, SecurityModel.PERM_VIEW))
+            .thenReturn(Collections.singleton(Resources.getInstance(33L, String.valueOf(ITEM_ID1))));
+
+      final TodoItemPage todoItemPage = trackingTodoItemService.findByAuthenticatedUser(oacc, null, 10);
+
+      assertThat(todoItemPage.getChangeVersion()).isEqualTo(OptionalLong.of(todoChangeVersions.getVersion(EMAIL)));
+      // the todo item was handed out, so changing it changes the user's version
+      todoChangeVersions.todoItemsChanged(ITEM_ID1);
+      assertThat(todoChangeVersions.isUnchanged(EMAIL, todoItemPage.getChangeVersion().getAsLong())).isFalse();
+   }
+
+   @Test
+   public void findItemChecksViewPermissionAndHandsOutTodoItem() throws Exception {
+      final Resource authenticatedResource = Resources.getInstance(22L, EMAIL);
+      final TodoChangeVersions todoChangeVersions = newTodoChangeVersions();
+      final TodoItemService trackingTodoItemService = newTrackingTodoItemService(todoChangeVersions);
+      when(oacc.getSessionResource()).thenReturn(authenticatedResource);
+      when(todoItemDAO.findById(ITEM_ID1))
+            .thenReturn(new TodoItem(ITEM_ID1, TITLE1, false, OACC_ID_OFFSET + ITEM_ID1, 3L));
+
+      final TodoItem todoItem = trackingTodoItemService.findItem(oacc, ITEM_ID1);
+
+      assertThat(todoItem).isEqualTo(new TodoItem(ITEM_ID1, TITLE1, false));
+      verify(oacc).assertResourcePermissions(authenticatedResource,
+                                             Resources.getInstance(OACC_ID_OFFSET + ITEM_ID1),
+                                             SecurityModel.PERM_VIEW);
+      assertThat(todoChangeVersions.isTodoItemUnchanged(EMAIL, ITEM_ID1, 3)).isTrue();
+   }
+
+   @Test
+   public void findItemWhenUnauthorizedDoesNotHandOutTodoItem() throws Exception {
+      final Resource authenticatedResource = Resources.getInstance(22L, EMAIL);
+      final TodoChangeVersions todoChangeVersions = newTodoChangeVersions();
+      final TodoItemService trackingTodoItemService = newTrackingTodoItemService(todoChangeVersions);
+      when(oacc.getSessionResource()).thenReturn(authenticatedResource);
+      when(todoItemDAO.findById(ITEM_ID1)).thenReturn(new TodoItem(ITEM_ID1, TITLE1, false, null, 3L));
+      doThrow(new NotAuthorizedException(""))
+            .when(oacc).assertResourcePermissions(authenticatedResource,
+                                                  Resources.getInstance(String.valueOf(ITEM_ID1)),
+                                                  SecurityModel.PERM_VIEW);
+
+      try {
+         trackingTodoItemService.findItem(oacc, ITEM_ID1);
+      }
+      catch (NotAuthorizedException e) {
+         assertThat(todoChangeVersions.isTodoItemUnchanged(EMAIL, ITEM_ID1, 3)).isFalse();
+         assertThat(todoChangeVersions.size()).isZero();
+         return;
+      }
+      fail("expected NotAuthorizedException");
+   }
+
+   @Test
+   public void updateItemChangesVersionsOfUsersTheTodoItemWasHandedTo() throws Exception {
+      final String otherEmail = "other@oaccframework.org";
+      final TodoChangeVersions todoChangeVersions = newTodoChangeVersions();
+      final TodoItemService trackingTodoItemService = newTrackingTodoItemService(todoChangeVersions);
+      final long otherVersion = todoChangeVersions.getVersion(otherEmail);
+      todoChangeVersions.handOut(otherEmail, ITEM_ID1, id -> new TodoItem(id, TITLE1, false, null, 3L));
+      final TodoItem patch = new TodoItem(ITEM_ID1, null, true);
+      when(oacc.getSessionResource()).thenReturn(Resources.getInstance(22L, EMAIL));
+      when(todoItemDAO.findById(ITEM_ID1)).thenReturn(new TodoItem(ITEM_ID1, TITLE1, false, null, 3L));
+      when(todoItemDAO.patch(ITEM_ID1, patch, null)).thenReturn(new TodoItem(ITEM_ID1, TITLE1, true, null, 4L));
+
+      trackingTodoItemService.updateItem(oacc, ITEM_ID1, patch);
+
+      assertThat(todoChangeVersions.isUnchanged(otherEmail, otherVersion)).isFalse();
+      assertThat(todoChangeVersions.isTodoItemUnchanged(otherEmail, ITEM_ID1, 3)).isFalse();
+   }
+
+   @Test
+   public void shareItemChangesOtherUsersVersion() throws Exception {
+      final String otherEmail = "other@oaccframework.org";
+      final TodoChangeVersions todoChangeVersions = newTodoChangeVersions();
+      final TodoItemService trackingTodoItemService = newTrackingTodoItemService(todoChangeVersions);
+      final long otherVersion = todoChangeVersions.getVersion(otherEmail);
+      final long version = todoChangeVersions.getVersion(EMAIL);
+
+      trackingTodoItemService.shareItem(oacc, ITEM_ID1, otherEmail.toUpperCase());
+
+      assertThat(todoChangeVersions.isUnchanged(otherEmail, otherVersion)).isFalse();
+      assertThat(todoChangeVersions.isUnchanged(EMAIL, version)).isTrue();
+   }
+
+   @Test
+   public void findChangesWithoutSinceIdRequiresResync() throws Exception {
+      final TodoChangeDAO todoChangeDAO = mock(TodoChangeDAO.class);
+      final TodoItemService loggingTodoItemService = newLoggingTodoItemService(todoChangeDAO);
+      when(todoChangeDAO.findLastId()).thenReturn(42L);
+
+      final TodoItemChangePage todoItemChangePage = loggingTodoItemService.findChanges(oacc, null, 10);
+
+      assertThat(todoItemChangePage.isResyncRequired()).isTrue();
+      assertThat(todoItemChangePage.getNextSinceId()).isEqualTo(42L);
+      assertThat(todoItemChangePage.getTodoItemIds()).isEmpty();
+      verify(todoChangeDAO, never()).findChanges(any(), anyLong(), anyInt());
+   }
+
+   @Test
+   public void findChangesSinceCompactedIdRequiresResync() throws Exception {
+      final TodoChangeDAO todoChangeDAO = mock(TodoChangeDAO.class);
+      final TodoItemService loggingTodoItemService = newLoggingTodoItemService(todoChangeDAO);
+      when(todoChangeDAO.findFirstId()).thenReturn(10L);
+      when(todoChangeDAO.findLastId()).thenReturn(42L);
+
+      final TodoItemChangePage stalePage = loggingTodoItemService.findChanges(oacc, 8L, 10);
+      // the change log still starts right after this one, so nothing was compacted away since
+      when(oacc.getSessionResource()).thenReturn(Resources.getInstance(22L, EMAIL));
+      final TodoItemChangePage currentPage = loggingTodoItemService.findChanges(oacc, 9L, 10);
+
+      assertThat(stalePage.isResyncRequired()).isTrue();
+      assertThat(stalePage.getNextSinceId()).isEqualTo(42L);
+      assertThat(currentPage.isResyncRequired()).isFalse();
+   }
+
+   @Test
+   public void findChangesWithoutChangeLogRequiresResync() throws Exception {
+      final TodoItemChangePage todoItemChangePage = todoItemService.findChanges(oacc, 5L, 10);
+
+      assertThat(todoItemChangePage.isResyncRequired()).isTrue();
+      assertThat(todoItemChangePage.getNextSinceId()).isZero();
+   }
+
+   @Test
+   public void findChangesReturnsGrantedAndViewableUpdatedTodoItems() throws Exception {
+      final Resource authenticatedResource = Resources.getInstance(22L, EMAIL);
+      final TodoChangeDAO todoChangeDAO = mock(TodoChangeDAO.class);
+      final TodoItemService loggingTodoItemService = newLoggingTodoItemService(todoChangeDAO);
+      when(oacc.getSessionResource()).thenReturn(authenticatedResource);
+      when(oacc.getResourcesByResourcePermissions(authenticatedResource, SecurityModel.RESOURCECLASS_TODO, SecurityModel.PERM_VIEW))
+            .thenReturn(Collections.singleton(Resources.getInstance(33L, "5")));
+      when(todoChangeDAO.findFirstId()).thenReturn(1L);
+      when(todoChangeDAO.findLastId()).thenReturn(20L);
+      when(todoChangeDAO.findChanges(EMAIL, 10L, 11))
+            .thenReturn(Arrays.asList(new TodoChange(11, 5, null),
+                                      new TodoChange(12, 3, EMAIL),
+                                      new TodoChange(13, 7, null)));
+
+      final TodoItemChangePage todoItemChangePage = loggingTodoItemService.findChanges(oacc, 10L, 10);
+
+      // todo item 7 was updated, but the user can not view it
+      assertThat(todoItemChangePage.getTodoItemIds()).containsExactly(3L, 5L);
+      assertThat(todoItemChangePage.hasMore()).isFalse();
+      assertThat(todoItemChangePage.getNextSinceId()).isEqualTo(20L);
+      assertThat(todoItemChangePage.isResyncRequired()).isFalse();
+   }
+
+   @Test
+   public void findChangesWithMoreChangesContinuesAfterLastReturnedChange() throws Exception {
+      final TodoChangeDAO todoChangeDAO = mock(TodoChangeDAO.class);
+      final TodoItemService loggingTodoItemService = newLoggingTodoItemService(todoChangeDAO);
+      when(oacc.getSessionResource()).thenReturn(Resources.getInstance(22L, EMAIL));
+      when(todoChangeDAO.findLastId()).thenReturn(20L);
+      when(todoChangeDAO.findChanges(EMAIL, 0L, 2))
+            .thenReturn(Arrays.asList(new TodoChange(12, 3, EMAIL),
+                                      new TodoChange(14, 4, EMAIL)));
+
+      final TodoItemChangePage todoItemChangePage = loggingTodoItemService.findChanges(oacc, 0L, 1);
+
+      assertThat(todoItemChangePage.getTodoItemIds()).containsExactly(3L);
+      assertThat(todoItemChangePage.hasMore()).isTrue();
+      assertThat(todoItemChangePage.getNextSinceId()).isEqualTo(12L);
+      verify(oacc, never()).getResourcesByResourcePermissions(any(Resource.class), any(String.class), any(ResourcePermission.class));
+   }
+
+   @Test
+   public void createUpdateAndShareItemAppendChanges() throws Exception {
+      final TodoChangeDAO todoChangeDAO = mock(TodoChangeDAO.class);
+      final TodoItemService loggingTodoItemService = newLoggingTodoItemService(todoChangeDAO);
+      final TodoItem patch = new TodoItem(ITEM_ID1, null, true);
+      when(oacc.getSessionResource()).thenReturn(Resources.getInstance(22L, EMAIL));
+      when(todoItemDAO.insert(any(TodoItem.class))).thenReturn(ITEM_ID1);
+      when(todoItemDAO.findById(ITEM_ID1)).thenReturn(new TodoItem(ITEM_ID1, TITLE1, false));
+      when(todoItemDAO.patch(ITEM_ID1, patch, null)).thenReturn(new TodoItem(ITEM_ID1, TITLE1, true));
+
+      loggingTodoItemService.createItem(oacc, new TodoItem(ITEM_ID1 - 100, TITLE1, false));
+      loggingTodoItemService.updateItem(oacc, ITEM_ID1, patch);
+      loggingTodoItemService.shareItem(oacc, ITEM_ID1, "Other@oaccframework.org");
+
+      final InOrder inOrder = inOrder(todoChangeDAO);
+      inOrder.verify(todoChangeDAO).append(TodoChange.of(ITEM_ID1, EMAIL));
+      inOrder.verify(todoChangeDAO).append(TodoChange.of(ITEM_ID1, null));
+      inOrder.verify(todoChangeDAO).append(TodoChange.of(ITEM_ID1, "other@oaccframework.org"));
+   }
+
+   @Test
+   public void updateItemThatIsStaleAppendsNoChange() throws Exception {
+      final TodoChangeDAO todoChangeDAO = mock(TodoChangeDAO.class);
+      final TodoItemService loggingTodoItemService = newLoggingTodoItemService(todoChangeDAO);
+      when(oacc.getSessionResource()).thenReturn(Resources.getInstance(22L, EMAIL));
+      when(todoItemDAO.findById(ITEM_ID1)).thenReturn(new TodoItem(ITEM_ID1, TITLE1, false));
+
+      try {
+         loggingTodoItemService.updateItem(oacc, ITEM_ID1, new TodoItem(ITEM_ID1, null, true), 3L);
+      }
+      catch (StaleTodoItemException e) {
+         verifyZeroInteractions(todoChangeDAO);
+         return;
+      }
+      fail("expected StaleTodoItemException");
+   }
+
+   @Test
+   public void createUpdateAndShareItemPublishEvents() throws Exception {
+      final TodoEventBus todoEventBus = mock(TodoEventBus.class);
+      final TodoItemService publishingTodoItemService = newPublishingTodoItemService(todoEventBus);
+      final TodoItem patch = new TodoItem(ITEM_ID1, null, true);
+      final TodoItem patchedTodoItem = new TodoItem(ITEM_ID1, TITLE1, true, null, 2L);
+      when(oacc.getSessionResource()).thenReturn(Resources.getInstance(22L, EMAIL));
+      when(todoItemDAO.insert(any(TodoItem.class))).thenReturn(ITEM_ID1);
+      when(todoItemDAO.findById(ITEM_ID1)).thenReturn(new TodoItem(ITEM_ID1, TITLE1, false, null, 1L));
+      when(todoItemDAO.patch(ITEM_ID1, patch, null)).thenReturn(patchedTodoItem);
+
+      final TodoItem todoItem = publishingTodoItemService.createItem(oacc, new TodoItem(ITEM_ID1 - 100, TITLE1, false));
+      publishingTodoItemService.updateItem(oacc, ITEM_ID1, patch);
+      publishingTodoItemService.shareItem(oacc, ITEM_ID1, "Other@oaccframework.org");
+
+      final InOrder inOrder = inOrder(todoEventBus);
+      inOrder.verify(todoEventBus).publish(TodoEvent.created(todoItem, EMAIL));
+      inOrder.verify(todoEventBus).publish(TodoEvent.updated(patchedTodoItem));
+      inOrder.verify(todoEventBus).publish(TodoEvent.shared(ITEM_ID1, "other@oaccframework.org"));
+   }
+
+   @Test
+   public void updateItemThatIsStalePublishesNoEvent() throws Exception {
+      final TodoEventBus todoEventBus = mock(TodoEventBus.class);
+      final TodoItemService publishingTodoItemService = newPublishingTodoItemService(todoEventBus);
+      when(oacc.getSessionResource()).thenReturn(Resources.getInstance(22L, EMAIL));
+      when(todoItemDAO.findById(ITEM_ID1)).thenReturn(new TodoItem(ITEM_ID1, TITLE1, false));
+
+      try {
+         publishingTodoItemService.updateItem(oacc, ITEM_ID1, new TodoItem(ITEM_ID1, null, true), 3L);
+      }
+      catch (StaleTodoItemException e) {
+         verifyZeroInteractions(todoEventBus);
+         return;
+      }
+      fail("expected StaleTodoItemException");
+   }
+
+   @Test
+   public void subscribeDeliversUpdatesOfTheViewableTodoItems() throws Exception {
+      final TodoEventBus todoEventBus = new TodoEventBus(10, Runnable::run, new MetricRegistry());
+      final TodoItemService publishingTodoItemService = newPublishingTodoItemService(todoEventBus);
+      final Resource sessionResource = Resources.getInstance(22L, EMAIL);
+      when(oacc.getSessionResource()).thenReturn(sessionResource);
+      when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                  SecurityModel.RESOURCECLASS_TODO,
+                                                  SecurityModel.PERM_VIEW))
+            .thenReturn(Collections.singleton(Resources.getInstance(String.valueOf(ITEM_ID1))));
+      final TodoEventSink todoEventSink = mock(TodoEventSink.class);
+
+      final TodoEventBus.Subscription subscription = publishingTodoItemService.subscribe(oacc, todoEventSink);
+      final TodoItem todoItem1 = new TodoItem(ITEM_ID1, TITLE1, true, null, 2L);
+      todoEventBus.publish(TodoEvent.updated(todoItem1));
+      todoEventBus.publish(TodoEvent.updated(new TodoItem(ITEM_ID2, TITLE2, true, null, 2L)));
+
+      assertThat(subscription.getAccessorId()).isEqualTo(EMAIL);
+      verify(todoEventSink).send(TodoEvent.updated(todoItem1));
+      verifyNoMoreInteractions(todoEventSink);
+   }
+
+   @Test
+   public void subscribeWithoutTodoEventBus() throws Exception {
+      assertThat(todoItemService.subscribe(oacc, mock(TodoEventSink.class))).isNull();
+      verifyZeroInteractions(oacc);
+   }
+
+   @Test
+   public void createItemRecordsCreatorsAccess() throws Exception {
+      final TodoItemAccessDAO todoItemAccessDAO = mock(TodoItemAccessDAO.class);
+      final TodoItemService indexingTodoItemService = TodoItemService.builder(todoItemDAO)
+            .withTodoItemAccessDAO(todoItemAccessDAO)
+            .build();
+      when(oacc.getSessionResource()).thenReturn(Resources.getInstance(22L, EMAIL));
+      when(todoItemDAO.insert(any(TodoItem.class))).thenReturn(ITEM_ID1);
+      when(todoItemDAO.findById(ITEM_ID1)).thenReturn(new TodoItem(ITEM_ID1, TITLE1, false));
+
+      indexingTodoItemService.createItem(oacc, new TodoItem(ITEM_ID1 - 100, TITLE1, false));
+
+      verify(todoItemAccessDAO).grant(EMAIL,
+                                      ITEM_ID1,
+                                      TodoItemAccess.PERMISSION_VIEW
+                                            | TodoItemAccess.PERMISSION_EDIT
+                                            | TodoItemAccess.PERMISSION_MARK_COMPLETED);
+   }
+
+   @Test
+   public void createItemWhenUnauthorizedDoesNotRecordAccess() throws Exception {
+      final TodoItemAccessDAO todoItemAccessDAO = mock(TodoItemAccessDAO.class);
+      final TodoItemService indexingTodoItemService = TodoItemService.builder(todoItemDAO)
+            .withTodoItemAccessDAO(todoItemAccessDAO)
+            .build();
+      when(oacc.getSessionResource()).thenReturn(Resources.getInstance(22L, EMAIL));
+      when(todoItemDAO.insert(any(TodoItem.class))).thenReturn(ITEM_ID1);
+      when(todoItemDAO.findById(ITEM_ID1)).thenReturn(new TodoItem(ITEM_ID1, TITLE1, false));
+      doThrow(new NotAuthorizedException(""))
+            .when(oacc).createResource(SecurityModel.RESOURCECLASS_TODO,
+                                       SecurityModel.DOMAIN_SECURE_TODO,
+                                       String.valueOf(ITEM_ID1));
+
+      try {
+         indexingTodoItemService.createItem(oacc, new TodoItem(ITEM_ID1 - 100, TITLE1, false));
+      }
+      catch (NotAuthorizedException e) {
+         verifyZeroInteractions(todoItemAccessDAO);
+         verify(todoItemDAO).delete(ITEM_ID1);
+         return;
+      }
+      fail("expected NotAuthorizedException");
+   }
+
+   @Test
+   public void shareItemRecordsOtherUsersAccess() throws Exception {
+      final TodoItemAccessDAO todoItemAccessDAO = mock(TodoItemAccessDAO.class);
+      final TodoItemService indexingTodoItemService = TodoItemService.builder(todoItemDAO)
+            .withTodoItemAccessDAO(todoItemAccessDAO)
+            .build();
+
+      indexingTodoItemService.shareItem(oacc, ITEM_ID1, "Other@oaccframework.org");
+
+      verify(todoItemAccessDAO).grant("other@oaccframework.org",
+                                      ITEM_ID1,
+                                      TodoItemAccess.PERMISSION_VIEW | TodoItemAccess.PERMISSION_MARK_COMPLETED);
+   }
+
+   @Test
+   public void findByAuthenticatedUserWithAccessIndexDoesNotQueryOacc() throws Exception {
+      final TodoItemAccessDAO todoItemAccessDAO = mock(TodoItemAccessDAO.class);
+      final TodoItemService indexingTodoItemService = TodoItemService.builder(todoItemDAO)
+            .withTodoItemAccessDAO(todoItemAccessDAO)
+            .build();
+      when(oacc.getSessionResource()).thenReturn(Resources.getInstance(22L, EMAIL));
+      when(todoItemAccessDAO.findTodoItemIds(EMAIL, TodoItemAccess.PERMISSION_VIEW, ITEM_ID1, 3))
+            .thenReturn(Arrays.asList(ITEM_ID2, 5L, 7L));
+
+      final TodoItemPage todoItemPage = indexingTodoItemService.findByAuthenticatedUser(oacc, ITEM_ID1, 2);
+
+      assertThat(todoItemPage.getTodoItemIds()).containsExactly(ITEM_ID2, 5L);
+      assertThat(todoItemPage.getNextAfterId()).isEqualTo(OptionalLong.of(5L));
+      verify(oacc, never()).getResourcesByResourcePermissions(any(Resource.class), any(String.class), any(ResourcePermission.class));
+   }
+
+   @Test
+   public void findByAuthenticatedUserWithAccessIndexOnLastPage() throws Exception {
+      final TodoItemAccessDAO todoItemAccessDAO = mock(TodoItemAccessDAO.class);
+      final TodoItemService indexingTodoItemService = TodoItemService.builder(todoItemDAO)
+            .withTodoItemAccessDAO(todoItemAccessDAO)
+            .build();
+      when(oacc.getSessionResource()).thenReturn(Resources.getInstance(22L, EMAIL));
+      when(todoItemAccessDAO.findTodoItemIds(EMAIL, TodoItemAccess.PERMISSION_VIEW, Long.MIN_VALUE, 11))
+            .thenReturn(Arrays.asList(ITEM_ID1, ITEM_ID2));
+
+      final TodoItemPage todoItemPage = indexingTodoItemService.findByAuthenticatedUser(oacc, null, 10);
+
+      assertThat(todoItemPage.getTodoItemIds()).containsExactly(ITEM_ID1, ITEM_ID2);
+      assertThat(todoItemPage.getNextAfterId()).isEqualTo(OptionalLong.empty());
+   }
+
+   @Test
+   public void createItemWhenColocatedCreatesInOneTransaction() throws Exception {
+      final ColocatedTodoItemStore colocatedTodoItemStore = mock(ColocatedTodoItemStore.class);
+      final TodoItemService colocatedTodoItemService
+            = TodoItemService.builder(todoItemDAO).withColocatedTodoItemStore(colocatedTodoItemStore).build();
+      final Resource authenticatedResource = Resources.getInstance(22L, EMAIL);
+      final TodoItem todoItem = new TodoItem(ITEM_ID1 - 100, TITLE1, false);
+      final TodoItem expectedTodoItem = new TodoItem(ITEM_ID1, TITLE1, false);
+      when(oacc.getSessionResource()).thenReturn(authenticatedResource);
+      when(colocatedTodoItemStore.createItem(authenticatedResource, todoItem)).thenReturn(expectedTodoItem);
+
+      final TodoItem returnedTodoItem = colocatedTodoItemService.createItem(oacc, todoItem);
+
+      assertThat(returnedTodoItem).isEqualTo(expectedTodoItem);
+      verifyZeroInteractions(todoItemDAO);
+      verify(oacc, never()).createResource(any(String.class), any(String.class), any(String.class));
+   }
+
+   @Test
+   public void findByAuthenticatedUserWhenColocatedDoesNotQueryOacc() throws Exception {
+      final ColocatedTodoItemStore colocatedTodoItemStore = mock(ColocatedTodoItemStore.class);
+      final TodoItemService colocatedTodoItemService
+            = TodoItemService.builder(todoItemDAO).withColocatedTodoItemStore(colocatedTodoItemStore).build();
+      final Resource authenticatedResource = Resources.getInstance(22L, EMAIL);
+      when(oacc.getSessionResource()).thenReturn(authenticatedResource);
+      when(colocatedTodoItemStore.findTodoItemIds(authenticatedResource, Long.MIN_VALUE, 2))
+            .thenReturn(Arrays.asList(ITEM_ID1, ITEM_ID2));
+
+      final TodoItemPage todoItemPage = colocatedTodoItemService.findByAuthenticatedUser(oacc, null, 1);
+
+      assertThat(todoItemPage.getTodoItemIds()).containsExactly(ITEM_ID1);
+      assertThat(todoItemPage.getNextAfterId()).isEqualTo(OptionalLong.of(ITEM_ID1));
+      verify(oacc, never()).getResourcesByResourcePermissions(any(Resource.class), any(String.class), any(ResourcePermission.class));
+   }
+
+   @Test
+   public void createItems() throws Exception {
+      when(todoItemDAO.nextIds(2)).thenReturn(Arrays.asList(ITEM_ID1, ITEM_ID2));
+
+      final List<TodoItemBatchResult> results
+            = todoItemService.createItems(oacc, Arrays.asList(new TodoItem(0, TITLE1, null),
+                                                              new TodoItem(0, TITLE2, true)));
+
+      final TodoItem expectedTodoItem1 = new TodoItem(ITEM_ID1, TITLE1, false);
+      final TodoItem expectedTodoItem2 = new TodoItem(ITEM_ID2, TITLE2, true);
+      assertThat(results).containsExactly(TodoItemBatchResult.created(expectedTodoItem1),
+                                          TodoItemBatchResult.created(expectedTodoItem2));
+      verify(todoItemDAO).insertAll(Arrays.asList(expectedTodoItem1, expectedTodoItem2));
+      verify(todoItemDAO, never()).insert(any(TodoItem.class));
+      verify(oacc).createResource(SecurityModel.RESOURCECLASS_TODO,
+                                  SecurityModel.DOMAIN_SECURE_TODO,
+                                  String.valueOf(ITEM_ID1));
+      verify(oacc).createResource(SecurityModel.RESOURCECLASS_TODO,
+                                  SecurityModel.DOMAIN_SECURE_TODO,
+                                  String.valueOf(ITEM_ID2));
+      verify(todoItemDAO, never()).deleteByIds(any(long[].class));
+   }
+
+   @Test
+   public void createItemsRecordsTheOaccResourceIdsInOneBatch() throws Exception {
+      when(todoItemDAO.nextIds(2)).thenReturn(Arrays.asList(ITEM_ID1, ITEM_ID2));
+
+      final List<TodoItemBatchResult> results
+            = todoItemService.createItems(oacc, Arrays.asList(new TodoItem(0, TITLE1, null),
+                                                              new TodoItem(0, TITLE2, true)));
+
+      assertThat(results).extracting(result -> result.getTodo().getOaccResourceId())
+            .containsExactly(OACC_ID_OFFSET + ITEM_ID1, OACC_ID_OFFSET + ITEM_ID2);
+      verify(todoItemDAO).updateOaccResourceIds(Arrays.asList(results.get(0).getTodo(), results.get(1).getTodo()));
+   }
+
+   @Test
+   public void createItemsReportsInvalidTodoItemsAndCreatesTheOthers() throws Exception {
+      when(todoItemDAO.nextIds(1)).thenReturn(Collections.singletonList(ITEM_ID1));
+
+      final List<TodoItemBatchResult> results
+            = todoItemService.createItems(oacc, Arrays.asList(new TodoItem(0, null, false),
+                                                              new TodoItem(0, TITLE1, false),
+                                                              null,
+                                                              new TodoItem(0, BLANK, false)));
+
+      assertThat(results).containsExactly(TodoItemBatchResult.rejected("Title is required."),
+                                          TodoItemBatchResult.created(new TodoItem(ITEM_ID1, TITLE1, false)),
+                                          TodoItemBatchResult.rejected("Todo item is required."),
+                                          TodoItemBatchResult.rejected("Title can not be blank."));
+      verify(todoItemDAO).insertAll(Collections.singletonList(new TodoItem(ITEM_ID1, TITLE1, false)));
+   }
+
+   @Test
+   public void createItemsWithOnlyInvalidTodoItemsInsertsNothing() throws Exception {
+      final List<TodoItemBatchResult> results
+            = todoItemService.createItems(oacc, Collections.singletonList(new TodoItem(0, BLANK, false)));
+
+      assertThat(results).containsExactly(TodoItemBatchResult.rejected("Title can not be blank."));
+      verifyZeroInteractions(todoItemDAO);
+      verifyZeroInteractions(oacc);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void createItemsWithTooManyTodoItems() throws Exception {
+      todoItemService.createItems(oacc, Collections.nCopies(TodoItemService.MAXIMUM_BATCH_SIZE + 1,
+                                                            new TodoItem(0, TITLE1, false)));
+   }
+
+   @Test
+   public void createItemsWhenOaccRejectsOneDeletesOnlyThatOne() throws Exception {
+      when(todoItemDAO.nextIds(2)).thenReturn(Arrays.asList(ITEM_ID1, ITEM_ID2));
+      doThrow(new IllegalArgumentException("External id is not unique: 1"))
+            .when(oacc).createResource(SecurityModel.RESOURCECLASS_TODO,
+                                       SecurityModel.DOMAIN_SECURE_TODO,
+                                       String.valueOf(ITEM_ID1));
+
+      final List<TodoItemBatchResult> results
+            = todoItemService.createItems(oacc, Arrays.asList(new TodoItem(0, TITLE1, false),
+                                                              new TodoItem(0, TITLE2, false)));
+
+      assertThat(results).containsExactly(TodoItemBatchResult.rejected("External id is not unique: 1"),
+                                          TodoItemBatchResult.created(new TodoItem(ITEM_ID2, TITLE2, false)));
+      verify(todoItemDAO).deleteByIds(aryEq(new long[]{ITEM_ID1}));
+   }
+
+   @Test
+   public void createItemsWhenUnauthorizedDeletesAllTodoItems() throws Exception {
+      final TodoItemAccessDAO todoItemAccessDAO = mock(TodoItemAccessDAO.class);
+      final TodoItemService indexingTodoItemService = TodoItemService.builder(todoItemDAO)
+            .withTodoItemAccessDAO(todoItemAccessDAO)
+            .build();
+      when(oacc.getSessionResource()).thenReturn(Resources.getInstance(22L, EMAIL));
+      when(todoItemDAO.nextIds(2)).thenReturn(Arrays.asList(ITEM_ID1, ITEM_ID2));
+      doThrow(new NotAuthorizedException(""))
+            .when(oacc).createResource(any(String.class), any(String.class), any(String.class));
+
+      try {
+         indexingTodoItemService.createItems(oacc, Arrays.asList(new TodoItem(0, TITLE1, false),
+                                                                 new TodoItem(0, TITLE2, false)));
+      }
+      catch (NotAuthorizedException e) {
+         verify(todoItemDAO).deleteByIds(aryEq(new long[]{ITEM_ID1, ITEM_ID2}));
+         verifyZeroInteractions(todoItemAccessDAO);
+         return;
+      }
+      fail("expected NotAuthorizedException");
+   }
+
+   @Test
+   public void createItemsRecordsCreatorsAccessInOneBatch() throws Exception {
+      final TodoItemAccessDAO todoItemAccessDAO = mock(TodoItemAccessDAO.class);
+      final AccessibleTodoIdCache accessibleTodoIdCache = newAccessibleTodoIdCache();
+      final TodoItemService indexingTodoItemService
+            = TodoItemService.builder(todoItemDAO)
+                  .withAccessibleTodoIdCache(accessibleTodoIdCache)
+                  .withTodoItemAccessDAO(todoItemAccessDAO)
+                  .build();
+      final int creatorPermissions = TodoItemAccess.PERMISSION_VIEW
+                                     | TodoItemAccess.PERMISSION_EDIT
+                                     | TodoItemAccess.PERMISSION_MARK_COMPLETED;
+      when(oacc.getSessionResource()).thenReturn(Resources.getInstance(22L, EMAIL));
+      when(todoItemDAO.nextIds(2)).thenReturn(Arrays.asList(ITEM_ID1, ITEM_ID2));
+      accessibleTodoIdCache.getIds(EMAIL, () -> new long[0]);
+
+      indexingTodoItemService.createItems(oacc, Arrays.asList(new TodoItem(0, TITLE1, false),
+                                                              new TodoItem(0, TITLE2, false)));
+
+      verify(todoItemAccessDAO).grant(Arrays.asList(new TodoItemAccess(EMAIL, ITEM_ID1, creatorPermissions),
+                                                    new TodoItemAccess(EMAIL, ITEM_ID2, creatorPermissions)));
+      assertThat(accessibleTodoIdCache.getIds(EMAIL, () -> new long[]{ITEM_ID1, ITEM_ID2}))
+            .containsExactly(ITEM_ID1, ITEM_ID2);
+   }
+
+   @Test
+   public void createItemsWhenColocatedCreatesInOneTransaction() throws Exception {
+      final ColocatedTodoItemStore colocatedTodoItemStore = mock(ColocatedTodoItemStore.class);
+      final TodoItemService colocatedTodoItemService
+            = TodoItemService.builder(todoItemDAO).withColocatedTodoItemStore(colocatedTodoItemStore).build();
+      final Resource authenticatedResource = Resources.getInstance(22L, EMAIL);
+      final TodoItem todoItem = new TodoItem(0, TITLE1, false);
+      final TodoItemBatchResult expectedResult = TodoItemBatchResult.created(new TodoItem(ITEM_ID1, TITLE1, false));
+      when(oacc.getSessionResource()).thenReturn(authenticatedResource);
+      when(colocatedTodoItemStore.createItems(authenticatedResource, Collections.singletonList(todoItem)))
+            .thenReturn(Collections.singletonList(expectedResult));
+
+      final List<TodoItemBatchResult> results
+            = colocatedTodoItemService.createItems(oacc, Arrays.asList(new TodoItem(0, BLANK, false), todoItem));
+
+      assertThat(results).containsExactly(TodoItemBatchResult.rejected("Title can not be blank."), expectedResult);
+      verifyZeroInteractions(todoItemDAO);
+      verify(oacc, never()).createResource(any(String.class), any(String.class), any(String.class));
+   }
+
+   @Test
+   public void shareItemsGrantsEveryPair() throws Exception {
+      final String otherEmail = "other@oaccframework.org";
+      todoItemService = TodoItemService.builder(todoItemDAO)
+            .withOaccTransactionRunner(newOaccTransactionRunner())
+            .build();
+
+      final List<TodoItemShareResult> results
+            = todoItemService.shareItems(oacc, new TodoItemShares(Arrays.asList(ITEM_ID1, ITEM_ID2, ITEM_ID1),
+                                                                  Arrays.asList(EMAIL, otherEmail.toUpperCase())));
+
+      assertThat(results).containsExactly(TodoItemShareResult.shared(ITEM_ID1, EMAIL),
+                                          TodoItemShareResult.shared(ITEM_ID1, otherEmail),
+                                          TodoItemShareResult.shared(ITEM_ID2, EMAIL),
+                                          TodoItemShareResult.shared(ITEM_ID2, otherEmail));
+      for (long todoItemId : new long[]{ITEM_ID1, ITEM_ID2}) {
+         for (String email : new String[]{EMAIL, otherEmail}) {
+            verify(oacc).grantResourcePermissions(Resources.getInstance(email),
+                                                  Resources.getInstance(String.valueOf(todoItemId)),
+                                                  SecurityModel.PERM_VIEW,
+                                                  SecurityModel.PERM_MARK_COMPLETED);
+         }
+      }
+      // the todo items are only read for their oacc resource IDs, which they do not have, so their external IDs are used
+      verify(todoItemDAO).findByIds(aryEq(new long[]{ITEM_ID1, ITEM_ID2}));
+      verifyNoMoreInteractions(todoItemDAO);
+   }
+
+   @Test
+   public void shareItemsOnlyResolvesTodoItemsWithoutAnOaccResourceId() throws Exception {
+      final OaccTransactionRunner oaccTransactionRunner = mock(OaccTransactionRunner.class);
+      final AccessControlContext batchOacc = mock(AccessControlContext.class);
+      final Resource sessionResource = Resources.getInstance(22L, EMAIL);
+      final String otherEmail = "other@oaccframework.org";
+      todoItemService = TodoItemService.builder(todoItemDAO).withOaccTransactionRunner(oaccTransactionRunner).build();
+      when(oacc.getSessionResource()).thenReturn(sessionResource);
+      when(todoItemDAO.findByIds(aryEq(new long[]{ITEM_ID1, ITEM_ID2})))
+            .thenReturn(Arrays.asList(new TodoItem(ITEM_ID1, TITLE1, false, OACC_ID_OFFSET + ITEM_ID1),
+                                      new TodoItem(ITEM_ID2, TITLE2, false)));
+      when(oaccTransactionRunner.resolveResources(any()))
+            .thenReturn(ImmutableMap.of(otherEmail, Resources.getInstance(33L),
+                                        String.valueOf(ITEM_ID2), Resources.getInstance(OACC_ID_OFFSET + ITEM_ID2)));
+      when(oaccTransactionRunner.inTransaction(eq(sessionResource), any()))
+            .thenAnswer(invocation -> invocation.<Function<AccessControlContext, ?>>getArgument(1).apply(batchOacc));
+
+      final List<TodoItemShareResult> results
+            = todoItemService.shareItems(oacc, new TodoItemShares(Arrays.asList(ITEM_ID1, ITEM_ID2),
+                                                                  Collections.singletonList(otherEmail)));
+
+      assertThat(results).containsExactly(TodoItemShareResult.shared(ITEM_ID1, otherEmail),
+                                          TodoItemShareResult.shared(ITEM_ID2, otherEmail));
+      verify(oaccTransactionRunner).resolveResources(ImmutableSet.of(otherEmail, String.valueOf(ITEM_ID2)));
+      for (long todoItemId : new long[]{ITEM_ID1, ITEM_ID2}) {
+         verify(batchOacc).grantResourcePermissions(Resources.getInstance(33L),
+                                                    Resources.getInstance(OACC_ID_OFFSET + todoItemId),
+                                                    SecurityModel.PERM_VIEW,
+                                                    SecurityModel.PERM_MARK_COMPLETED);
+      }
+   }
+
+   @Test
+   public void shareItemsWithAnInvalidEmailSharesNothing() throws Exception {
+      try {
+         todoItemService.shareItems(oacc, new TodoItemShares(Collections.singletonList(ITEM_ID1),
+                                                             Arrays.asList(EMAIL, "nobody")));
+      }
+      catch (IllegalArgumentException e) {
+         assertThat(e.getMessage()).isEqualTo("Email must be a well-formed email address.");
+         verifyZeroInteractions(oacc);
+         return;
+      }
+      fail("expected IllegalArgumentException");
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void shareItemsWithoutEmails() throws Exception {
+      todoItemService.shareItems(oacc, new TodoItemShares(Collections.singletonList(ITEM_ID1),
+                                                          Collections.emptyList()));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void shareItemsWithTooManyPairs() throws Exception {
+      final List<Long> todoItemIds = LongStream.rangeClosed(1, TodoItemService.MAXIMUM_BATCH_SIZE / 2 + 1)
+            .boxed()
+            .collect(Collectors.toList());
+
+      todoItemService.shareItems(oacc, new TodoItemShares(todoItemIds, Arrays.asList(EMAIL, "other@oaccframework.org")));
+   }
+
+   @Test
+   public void shareItemsReportsFailedPairsAndSharesTheOthers() throws Exception {
+      final String otherEmail = "other@oaccframework.org";
+      todoItemService = TodoItemService.builder(todoItemDAO)
+            .withOaccTransactionRunner(newOaccTransactionRunner(otherEmail))
+            .build();
+      doThrow(new NotAuthorizedException(""))
+            .when(oacc).grantResourcePermissions(Resources.getInstance(EMAIL),
+                                                 Resources.getInstance(String.valueOf(ITEM_ID1)),
+                                                 SecurityModel.PERM_VIEW,
+                                                 SecurityModel.PERM_MARK_COMPLETED);
+
+      final List<TodoItemShareResult> results
+            = todoItemService.shareItems(oacc, new TodoItemShares(Arrays.asList(ITEM_ID1, ITEM_ID2),
+                                                                  Arrays.asList(EMAIL, otherEmail)));
+
+      assertThat(results).containsExactly(TodoItemShareResult.failed(ITEM_ID1, EMAIL, 403, null),
+                                          TodoItemShareResult.failed(ITEM_ID1, otherEmail, 404, "User not found."),
+                                          TodoItemShareResult.shared(ITEM_ID2, EMAIL),
+                                          TodoItemShareResult.failed(ITEM_ID2, otherEmail, 404, "User not found."));
+      // the user that does not exist is known before any grant is made
+      verify(oacc, never()).grantResourcePermissions(eq(Resources.getInstance(otherEmail)),
+                                                     any(Resource.class),
+                                                     any(ResourcePermission.class),
+                                                     any());
+   }
+
+   @Test
+   public void shareItemsReportsGrantsOaccRejectsAsUnprocessed() throws Exception {
+      todoItemService = TodoItemService.builder(todoItemDAO)
+            .withOaccTransactionRunner(newOaccTransactionRunner())
+            .build();
+      doThrow(new IllegalArgumentException("rejected"))
+            .when(oacc).grantResourcePermissions(Resources.getInstance(EMAIL),
+                                                 Resources.getInstance(String.valueOf(ITEM_ID1)),
+                                                 SecurityModel.PERM_VIEW,
+                                                 SecurityModel.PERM_MARK_COMPLETED);
+
+      final List<TodoItemShareResult> results
+            = todoItemService.shareItems(oacc, new TodoItemShares(Arrays.asList(ITEM_ID1, ITEM_ID2),
+                                                                  Collections.singletonList(EMAIL)));
+
+      assertThat(results).containsExactly(TodoItemShareResult.failed(ITEM_ID1, EMAIL, 422, "rejected"),
+                                          TodoItemShareResult.shared(ITEM_ID2, EMAIL));
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void shareItemsWithoutAnOaccTransactionRunner() throws Exception {
+      todoItemService.shareItems(oacc, new TodoItemShares(Collections.singletonList(ITEM_ID1),
+                                                          Collections.singletonList(EMAIL)));
+   }
+
+   @Test
+   public void shareItemsRecordsAccessInOneBatchAndInvalidatesCachedIds() throws Exception {
+      final String otherEmail = "other@oaccframework.org";
+      final TodoItemAccessDAO todoItemAccessDAO = mock(TodoItemAccessDAO.class);
+      final AccessibleTodoIdCache accessibleTodoIdCache = newAccessibleTodoIdCache();
+      final TodoItemService indexingTodoItemService
+            = TodoItemService.builder(todoItemDAO)
+                  .withAccessibleTodoIdCache(accessibleTodoIdCache)
+                  .withTodoItemAccessDAO(todoItemAccessDAO)
+                  .withOaccTransactionRunner(newOaccTransactionRunner())
+                  .build();
+      final int sharedPermissions = TodoItemAccess.PERMISSION_VIEW | TodoItemAccess.PERMISSION_MARK_COMPLETED;
+      accessibleTodoIdCache.getIds(otherEmail, () -> new long[0]);
+
+      indexingTodoItemService.shareItems(oacc, new TodoItemShares(Arrays.asList(ITEM_ID1, ITEM_ID2),
+                                                                  Collections.singletonList(otherEmail)));
+
+      verify(todoItemAccessDAO).grant(Arrays.asList(new TodoItemAccess(otherEmail, ITEM_ID1, sharedPermissions),
+                                                    new TodoItemAccess(otherEmail, ITEM_ID2, sharedPermissions)));
+      assertThat(accessibleTodoIdCache.getIds(otherEmail, () -> new long[]{ITEM_ID1, ITEM_ID2}))
+            .containsExactly(ITEM_ID1, ITEM_ID2);
+   }
+
+   @Test
+   public void updateItemsChecksPermissionsOncePerPermissionSet() throws Exception {
+      final long itemId3 = 3L;
+      final Resource sessionResource = Resources.getInstance(22L, EMAIL);
+      when(oacc.getSessionResource()).thenReturn(sessionResource);
+      when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                  SecurityModel.RESOURCECLASS_TODO,
+                                                  SecurityModel.PERM_VIEW,
+                                                  SecurityModel.PERM_EDIT))
+            .thenReturn(Collections.singleton(Resources.getInstance(String.valueOf(ITEM_ID1))));
+      when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                  SecurityModel.RESOURCECLASS_TODO,
+                                                  SecurityModel.PERM_VIEW,
+                                                  SecurityModel.PERM_MARK_COMPLETED))
+            .thenReturn(Stream.of(ITEM_ID1, ITEM_ID2)
+                              .map(id -> Resources.getInstance(String.valueOf(id)))
+                              .collect(Collectors.toSet()));
+      when(todoItemDAO.findByIds(aryEq(new long[]{ITEM_ID1, ITEM_ID2})))
+            .thenReturn(Arrays.asList(new TodoItem(ITEM_ID1, TITLE1, false, null, 1L),
+                                      new TodoItem(ITEM_ID2, TITLE2, false, null, 1L)));
+      final TodoItem updatedTodoItem1 = new TodoItem(ITEM_ID1, TITLE2, false);
+      final TodoItem updatedTodoItem2 = new TodoItem(ITEM_ID2, TITLE2, true);
+      when(todoItemDAO.updateAll(Arrays.asList(updatedTodoItem1, updatedTodoItem2))).thenReturn(new int[]{1, 1});
+
+      final List<TodoItemBatchResult> results
+            = todoItemService.updateItems(oacc, Arrays.asList(new TodoItem(ITEM_ID1, TITLE2, null),
+                                                              new TodoItem(ITEM_ID2, null, true),
+                                                              new TodoItem(itemId3, TITLE1, null)));
+
+      assertThat(results).containsExactly(TodoItemBatchResult.updated(updatedTodoItem1),
+                                          TodoItemBatchResult.updated(updatedTodoItem2),
+                                          TodoItemBatchResult.forbidden());
+      // no per-item permission checks
+      verify(oacc).getSessionResource();
+      verify(oacc).getResourcesByResourcePermissions(sessionResource,
+                                                     SecurityModel.RESOURCECLASS_TODO,
+                                                     SecurityModel.PERM_VIEW,
+                                                     SecurityModel.PERM_EDIT);
+      verify(oacc).getResourcesByResourcePermissions(sessionResource,
+                                                     SecurityModel.RESOURCECLASS_TODO,
+                                                     SecurityModel.PERM_VIEW,
+                                                     SecurityModel.PERM_MARK_COMPLETED);
+      verifyNoMoreInteractions(oacc);
+      verify(todoItemDAO, never()).patch(anyLong(), any(TodoItem.class), any());
+   }
+
+   @Test
+   public void updateItemsInATransactionOnlyAppendsTheChangesOnceCommitted() throws Exception {
+      final TodoChangeDAO todoChangeDAO = mock(TodoChangeDAO.class);
+      final UnitOfWorkHandles unitOfWorkHandles = mock(UnitOfWorkHandles.class);
+      final List<Runnable> afterCommitActions = new ArrayList<>();
+      doAnswer(invocation -> afterCommitActions.add(invocation.getArgument(0)))
+            .when(unitOfWorkHandles).afterCommit(any());
+      final TodoItemService transactionalTodoItemService
+            = TodoItemService.builder(todoItemDAO)
+                  .withTodoChangeDAO(todoChangeDAO)
+                  .withUnitOfWorkHandles(unitOfWorkHandles)
+                  .build();
+      final Resource sessionResource = Resources.getInstance(22L, EMAIL);
+      when(oacc.getSessionResource()).thenReturn(sessionResource);
+      when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                  SecurityModel.RESOURCECLASS_TODO,
+                                                  SecurityModel.PERM_VIEW,
+                                                  SecurityModel.PERM_EDIT))
+            .thenReturn(Collections.singleton(Resources.getInstance(String.valueOf(ITEM_ID1))));
+      when(todoItemDAO.findByIds(aryEq(new long[]{ITEM_ID1})))
+            .thenReturn(Collections.singletonList(new TodoItem(ITEM_ID1, TITLE1, false, null, 1L)));
+      when(todoItemDAO.updateAll(any())).thenReturn(new int[]{1});
+
+      transactionalTodoItemService.updateItems(oacc, Collections.singletonList(new TodoItem(ITEM_ID1, TITLE2, null)));
+
+      verify(todoChangeDAO, never()).appendAll(any());
+      afterCommitActions.forEach(Runnable::run);
+      verify(todoChangeDAO).appendAll(Collections.singletonList(TodoChange.of(ITEM_ID1, null)));
+   }
+
+   @Test
+   public void updateItemsDoesNotLetMarkCompletedPermissionEditTheTitle() throws Exception {
+      final Resource sessionResource = Resources.getInstance(22L, EMAIL);
+      when(oacc.getSessionResource()).thenReturn(sessionResource);
+      when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                  SecurityModel.RESOURCECLASS_TODO,
+                                                  SecurityModel.PERM_VIEW,
+                                                  SecurityModel.PERM_EDIT))
+            .thenReturn(Collections.emptySet());
+
+      final List<TodoItemBatchResult> results
+            = todoItemService.updateItems(oacc, Collections.singletonList(new TodoItem(ITEM_ID1, TITLE2, true)));
+
+      assertThat(results).containsExactly(TodoItemBatchResult.forbidden());
+      verify(oacc, never()).getResourcesByResourcePermissions(sessionResource,
+                                                              SecurityModel.RESOURCECLASS_TODO,
+                                                              SecurityModel.PERM_VIEW,
+                                                              SecurityModel.PERM_MARK_COMPLETED);
+      verifyZeroInteractions(todoItemDAO);
+   }
+
+   @Test
+   public void updateItemsReportsInvalidAndMissingTodoItems() throws Exception {
+      final Resource sessionResource = Resources.getInstance(22L, EMAIL);
+      when(oacc.getSessionResource()).thenReturn(sessionResource);
+      when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                  SecurityModel.RESOURCECLASS_TODO,
+                                                  SecurityModel.PERM_VIEW,
+                                                  SecurityModel.PERM_MARK_COMPLETED))
+            .thenReturn(Stream.of(ITEM_ID1, ITEM_ID2)
+                              .map(id -> Resources.getInstance(String.valueOf(id)))
+                              .collect(Collectors.toSet()));
+      when(todoItemDAO.findByIds(aryEq(new long[]{ITEM_ID1, ITEM_ID2})))
+            .thenReturn(Collections.singletonList(new TodoItem(ITEM_ID1, TITLE1, false, null, 1L)));
+      final TodoItem updatedTodoItem1 = new TodoItem(ITEM_ID1, TITLE1, true);
+      when(todoItemDAO.updateAll(Collections.singletonList(updatedTodoItem1))).thenReturn(new int[]{1});
+
+      final List<TodoItemBatchResult> results
+            = todoItemService.updateItems(oacc, Arrays.asList(new TodoItem(ITEM_ID1, null, true),
+                                                              new TodoItem(ITEM_ID1, null, false),
+                                                              new TodoItem(ITEM_ID2, null, true),
+                                                              new TodoItem(ITEM_ID2, BLANK, null)));
+
+      assertThat(results).containsExactly(TodoItemBatchResult.updated(updatedTodoItem1),
+                                          TodoItemBatchResult.rejected("A todo item can only be patched once per batch."),
+                                          TodoItemBatchResult.notFound("Todo item not found."),
+                                          TodoItemBatchResult.rejected("Title can not be blank."));
+   }
+
+   @Test
+   public void updateItemsReportsConcurrentlyChangedTodoItemsAsConflicts() throws Exception {
+      final Resource sessionResource = Resources.getInstance(22L, EMAIL);
+      when(oacc.getSessionResource()).thenReturn(sessionResource);
+      when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                  SecurityModel.RESOURCECLASS_TODO,
+                                                  SecurityModel.PERM_VIEW,
+                                                  SecurityModel.PERM_MARK_COMPLETED))
+            .thenReturn(Stream.of(ITEM_ID1, ITEM_ID2)
+                              .map(id -> Resources.getInstance(String.valueOf(id)))
+                              .collect(Collectors.toSet()));
+      when(todoItemDAO.findByIds(aryEq(new long[]{ITEM_ID1, ITEM_ID2})))
+            .thenReturn(Arrays.asList(new TodoItem(ITEM_ID1, TITLE1, false, null, 1L),
+                                      new TodoItem(ITEM_ID2, TITLE2, false, null, 4L)));
+      // the second todo item is no longer at the version it was read at
+      when(todoItemDAO.updateAll(any())).thenReturn(new int[]{1, 0});
+
+      final List<TodoItemBatchResult> results
+            = todoItemService.updateItems(oacc, Arrays.asList(new TodoItem(ITEM_ID1, null, true),
+                                                              new TodoItem(ITEM_ID2, null, true)));
+
+      assertThat(results).containsExactly(TodoItemBatchResult.updated(new TodoItem(ITEM_ID1, TITLE1, true)),
+                                          TodoItemBatchResult.conflict("Todo item was changed concurrently."));
+      assertThat(results.get(0).getTodo().getVersion()).isEqualTo(2L);
+      @SuppressWarnings("unchecked")
+      final ArgumentCaptor<List<TodoItem>> todoItems = ArgumentCaptor.forClass(List.class);
+      verify(todoItemDAO).updateAll(todoItems.capture());
+      assertThat(todoItems.getValue()).extracting(TodoItem::getId, TodoItem::getVersion)
+            .containsExactly(tuple(ITEM_ID1, 1L), tuple(ITEM_ID2, 4L));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void updateItemsWithTooManyTodoItems() throws Exception {
+      todoItemService.updateItems(oacc, Collections.nCopies(TodoItemService.MAXIMUM_BATCH_SIZE + 1,
+                                                            new TodoItem(ITEM_ID1, null, true)));
+   }
+
+   @Test
+   public void findPermissionsQueriesOaccOncePerPermission() throws Exception {
+      final long itemId3 = 3L;
+      final Resource sessionResource = Resources.getInstance(22L, EMAIL);
+      when(oacc.getSessionResource()).thenReturn(sessionResource);
+      when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                  SecurityModel.RESOURCECLASS_TODO,
+                                                  SecurityModel.PERM_VIEW))
+            .thenReturn(Stream.of(ITEM_ID1, ITEM_ID2, 4L)
+                              .map(id -> Resources.getInstance(String.valueOf(id)))
+                              .collect(Collectors.toSet()));
+      when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                  SecurityModel.RESOURCECLASS_TODO,
+                                                  SecurityModel.PERM_VIEW,
+                                                  SecurityModel.PERM_EDIT))
+            .thenReturn(Collections.singleton(Resources.getInstance(String.valueOf(ITEM_ID1))));
+      when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                  SecurityModel.RESOURCECLASS_TODO,
+                                                  SecurityModel.PERM_VIEW,
+                                                  SecurityModel.PERM_MARK_COMPLETED))
+            .thenReturn(Stream.of(ITEM_ID1, ITEM_ID2)
+                              .map(id -> Resources.getInstance(String.valueOf(id)))
+                              .collect(Collectors.toSet()));
+
+      final List<TodoItemPermissions> results
+            = todoItemService.findPermissions(oacc, Arrays.asList(ITEM_ID2, itemId3, ITEM_ID1), false);
+
+      assertThat(results).containsExactly(
+            new TodoItemPermissions(ITEM_ID2,
+                                    TodoItemAccess.PERMISSION_VIEW | TodoItemAccess.PERMISSION_MARK_COMPLETED,
+                                    null),
+            new TodoItemPermissions(itemId3, 0, null),
+            new TodoItemPermissions(ITEM_ID1,
+                                    TodoItemAccess.PERMISSION_VIEW
+                                    | TodoItemAccess.PERMISSION_EDIT
+                                    | TodoItemAccess.PERMISSION_MARK_COMPLETED,
+                                    null));
+      // no per-item permission checks
+      verify(oacc).getSessionResource();
+      verify(oacc).getResourcesByResourcePermissions(sessionResource,
+                                                     SecurityModel.RESOURCECLASS_TODO,
+                                                     SecurityModel.PERM_VIEW);
+      verify(oacc).getResourcesByResourcePermissions(sessionResource,
+                                                     SecurityModel.RESOURCECLASS_TODO,
+                                                     SecurityModel.PERM_VIEW,
+                                                     SecurityModel.PERM_EDIT);
+      verify(oacc).getResourcesByResourcePermissions(sessionResource,
+                                                     SecurityModel.RESOURCECLASS_TODO,
+                                                     SecurityModel.PERM_VIEW,
+                                                     SecurityModel.PERM_MARK_COMPLETED);
+      verifyNoMoreInteractions(oacc);
+      verifyZeroInteractions(todoItemDAO);
+   }
+
+   @Test
+   public void findPermissionsIncludesViewableTodoItems() throws Exception {
+      final Resource sessionResource = Resources.getInstance(22L, EMAIL);
+      final TodoItem todoItem1 = new TodoItem(ITEM_ID1, TITLE1, false);
+      when(oacc.getSessionResource()).thenReturn(sessionResource);
+      when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                  SecurityModel.RESOURCECLASS_TODO,
+                                                  SecurityModel.PERM_VIEW))
+            .thenReturn(Collections.singleton(Resources.getInstance(String.valueOf(ITEM_ID1))));
+      when(todoItemDAO.findByIds(aryEq(new long[]{ITEM_ID1}))).thenReturn(Collections.singletonList(todoItem1));
+
+      final List<TodoItemPermissions> results
+            = todoItemService.findPermissions(oacc, Arrays.asList(ITEM_ID1, ITEM_ID2), true);
+
+      assertThat(results).containsExactly(new TodoItemPermissions(ITEM_ID1, TodoItemAccess.PERMISSION_VIEW, todoItem1),
+                                          new TodoItemPermissions(ITEM_ID2, 0, null));
+   }
+
+   @Test
+   public void findPermissionsWithoutViewableTodoItemsOnlyQueriesOaccOnce() throws Exception {
+      final Resource sessionResource = Resources.getInstance(22L, EMAIL);
+      when(oacc.getSessionResource()).thenReturn(sessionResource);
+      when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                  SecurityModel.RESOURCECLASS_TODO,
+                                                  SecurityModel.PERM_VIEW))
+            .thenReturn(Collections.emptySet());
+
+      final List<TodoItemPermissions> results
+            = todoItemService.findPermissions(oacc, Collections.singletonList(ITEM_ID1), true);
+
+      assertThat(results).containsExactly(new TodoItemPermissions(ITEM_ID1, 0, null));
+      verify(oacc, never()).getResourcesByResourcePermissions(sessionResource,
+                                                              SecurityModel.RESOURCECLASS_TODO,
+                                                              SecurityModel.PERM_VIEW,
+                                                              SecurityModel.PERM_EDIT);
+      verify(oacc, never()).getResourcesByResourcePermissions(sessionResource,
+                                                              SecurityModel.RESOURCECLASS_TODO,
+                                                              SecurityModel.PERM_VIEW,
+                                                              SecurityModel.PERM_MARK_COMPLETED);
+      verifyZeroInteractions(todoItemDAO);
+   }
+
+   @Test
+   public void findPermissionsOfALargeBatchLooksUpEditAndMarkCompletedOnTheExecutor() throws Exception {
+      final Resource sessionResource = Resources.getInstance(22L, EMAIL);
+      final AtomicInteger lookups = new AtomicInteger();
+      final TodoItemService todoItemService
+            = TodoItemService.builder(todoItemDAO)
+                  .withPermissionLookupExecutor(runnable -> {
+                     lookups.incrementAndGet();
+                     new Thread(runnable).start();
+                  }, 2)
+                  .build();
+      when(oacc.getSessionResource()).thenReturn(sessionResource);
+      when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                  SecurityModel.RESOURCECLASS_TODO,
+                                                  SecurityModel.PERM_VIEW))
+            .thenReturn(Collections.singleton(Resources.getInstance(String.valueOf(ITEM_ID1))));
+      when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                  SecurityModel.RESOURCECLASS_TODO,
+                                                  SecurityModel.PERM_VIEW,
+                                                  SecurityModel.PERM_EDIT))
+            .thenReturn(Collections.emptySet());
+      when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                  SecurityModel.RESOURCECLASS_TODO,
+                                                  SecurityModel.PERM_VIEW,
+                                                  SecurityModel.PERM_MARK_COMPLETED))
+            .thenReturn(Collections.singleton(Resources.getInstance(String.valueOf(ITEM_ID1))));
+
+      assertThat(todoItemService.findPermissions(oacc, Collections.singletonList(ITEM_ID1), false))
+            .containsExactly(new TodoItemPermissions(ITEM_ID1,
+                                                     TodoItemAccess.PERMISSION_VIEW
+                                                     | TodoItemAccess.PERMISSION_MARK_COMPLETED,
+                                                     null));
+      assertThat(lookups.get()).isEqualTo(0);
+
+      assertThat(todoItemService.findPermissions(oacc, Arrays.asList(ITEM_ID1, ITEM_ID2), false))
+            .containsExactly(new TodoItemPermissions(ITEM_ID1,
+                                                     TodoItemAccess.PERMISSION_VIEW
+                                                     | TodoItemAccess.PERMISSION_MARK_COMPLETED,
+                                                     null),
+                             new TodoItemPermissions(ITEM_ID2, 0, null));
+      assertThat(lookups.get()).isEqualTo(2);
+   }
+
+   @Test
+   public void findPermissionsOfALargeBatchWithoutViewableTodoItemsSubmitsNoLookups() throws Exception {
+      final Resource sessionResource = Resources.getInstance(22L, EMAIL);
+      final AtomicInteger lookups = new AtomicInteger();
+      final TodoItemService todoItemService
+            = TodoItemService.builder(todoItemDAO)
+                  .withPermissionLookupExecutor(runnable -> {
+                     lookups.incrementAndGet();
+                     new Thread(runnable).start();
+                  }, 1)
+                  .build();
+      when(oacc.getSessionResource()).thenReturn(sessionResource);
+      when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                  SecurityModel.RESOURCECLASS_TODO,
+                                                  SecurityModel.PERM_VIEW))
+            .thenReturn(Collections.emptySet());
+
+      assertThat(todoItemService.findPermissions(oacc, Collections.singletonList(ITEM_ID1), false))
+            .containsExactly(new TodoItemPermissions(ITEM_ID1, 0, null));
+      assertThat(lookups.get()).isEqualTo(0);
+   }
+
+   @Test
+   public void findPermissionsWaitsForTheLookupsOnTheExecutorWhenItFails() throws Exception {
+      final Resource sessionResource = Resources.getInstance(22L, EMAIL);
+      final AtomicInteger finishedLookups = new AtomicInteger();
+      final TodoItemService todoItemService
+            = TodoItemService.builder(todoItemDAO)
+                  .withPermissionLookupExecutor(runnable -> new Thread(runnable).start(), 1)
+                  .build();
+      when(oacc.getSessionResource()).thenReturn(sessionResource);
+      when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                  SecurityModel.RESOURCECLASS_TODO,
+                                                  SecurityModel.PERM_VIEW))
+            .thenReturn(Collections.singleton(Resources.getInstance(String.valueOf(ITEM_ID1))));
+      for (ResourcePermission resourcePermission : Arrays.asList(SecurityModel.PERM_EDIT,
+                                                                 SecurityModel.PERM_MARK_COMPLETED)) {
+         when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                     SecurityModel.RESOURCECLASS_TODO,
+                                                     SecurityModel.PERM_VIEW,
+                                                     resourcePermission))
+               .thenAnswer(invocation -> {
+                  Thread.sleep(200);
+                  finishedLookups.incrementAndGet();
+                  return Collections.emptySet();
+               });
+      }
+      when(todoItemDAO.findByIds(any(long[].class))).thenThrow(new IllegalStateException("unavailable"));
+
+      try {
+         todoItemService.findPermissions(oacc, Collections.singletonList(ITEM_ID1), true);
+         fail("expected an IllegalStateException");
+      }
+      catch (IllegalStateException e) {
+         // the context is released once the request ends, so no lookup may still be using it
+         assertThat(finishedLookups.get()).isEqualTo(2);
+      }
+   }
+
+   @Test(expected = NotAuthorizedException.class)
+   public void findPermissionsRethrowsWhatALookupOnTheExecutorThrows() throws Exception {
+      final Resource sessionResource = Resources.getInstance(22L, EMAIL);
+      final TodoItemService todoItemService
+            = TodoItemService.builder(todoItemDAO)
+                  .withPermissionLookupExecutor(runnable -> new Thread(runnable).start(), 1)
+                  .build();
+      when(oacc.getSessionResource()).thenReturn(sessionResource);
+      when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                  SecurityModel.RESOURCECLASS_TODO,
+                                                  SecurityModel.PERM_VIEW))
+            .thenReturn(Collections.singleton(Resources.getInstance(String.valueOf(ITEM_ID1))));
+      when(oacc.getResourcesByResourcePermissions(sessionResource,
+                                                  SecurityModel.RESOURCECLASS_TODO,
+                                                  SecurityModel.PERM_VIEW,
+                                                  SecurityModel.PERM_EDIT))
+            .thenThrow(new NotAuthorizedException("not authorized"));
+
+      todoItemService.findPermissions(oacc, Collections.singletonList(ITEM_ID1), false);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void findPermissionsWithTooManyTodoItemIds() throws Exception {
+      todoItemService.findPermissions(oacc,
+                                      Collections.nCopies(TodoItemService.MAXIMUM_BATCH_SIZE + 1, ITEM_ID1),
+                                      false);
+   }
+
+   private static AccessibleTodoIdCache newAccessibleTodoIdCache() {
+      return new AccessibleTodoIdCache(100, 60000, new MetricRegistry());
+   }
+
+   private static TodoChangeVersions newTodoChangeVersions() {
+      return new TodoChangeVersions(100, 60000, new MetricRegistry());
+   }
+
+   // resolves every external ID except the specified ones, and runs every transaction on the test's oacc context
+   private OaccTransactionRunner newOaccTransactionRunner(String... missingExternalIds) {
+      final OaccTransactionRunner oaccTransactionRunner = mock(OaccTransactionRunner.class);
+      final Set<String> missing = ImmutableSet.copyOf(missingExternalIds);
+      when(oaccTransactionRunner.resolveResources(any()))
+            .thenAnswer(invocation -> invocation.<Collection<String>>getArgument(0).stream()
+                  .filter(externalId -> !missing.contains(externalId))
+                  .collect(Collectors.toMap(Function.identity(), externalId -> Resources.getInstance(externalId))));
+      when(oaccTransactionRunner.inTransaction(any(), any()))
+            .thenAnswer(invocation -> invocation.<Function<AccessControlContext, ?>>getArgument(1).apply(oacc));
+      return oaccTransactionRunner;
+   }
+
+   private TodoItemService newLoggingTodoItemService(TodoChangeDAO todoChangeDAO) {
+      return TodoItemService.builder(todoItemDAO).withTodoChangeDAO(todoChangeDAO).build();
+   }
+
+   private TodoItemService newPublishingTodoItemService(TodoEventBus todoEventBus) {
+      return TodoItemService.builder(todoItemDAO).withTodoEventBus(todoEventBus).build();
+   }
+
+   private TodoItemService newTrackingTodoItemService(TodoChangeVersions todoChangeVersions) {
+      return TodoItemService.builder(todoItemDAO).withTodoChangeVersions(todoChangeVersions).build();
+   }
+}
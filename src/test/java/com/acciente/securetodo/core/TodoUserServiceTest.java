@@ -20,6 +20,7 @@ import com.acciente.oacc.AccessControlContext;
 import com.acciente.oacc.Credentials;
 import com.acciente.oacc.PasswordCredentials;
 import com.acciente.oacc.Resource;
+import com.acciente.oacc.ResourcePermission;
 import com.acciente.oacc.Resources;
 import com.acciente.securetodo.AccessControlContextFactory;
 import com.acciente.securetodo.api.TodoUser;
@@ -27,10 +28,15 @@ import com.acciente.securetodo.db.TodoUserDAO;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -53,7 +59,9 @@ public class TodoUserServiceTest {
       todoUserDAO = mock(TodoUserDAO.class);
       accessControlContextFactory = mock(AccessControlContextFactory.class);
       oacc = mock(AccessControlContext.class);
+      when(accessControlContextFactory.borrow()).thenReturn(oacc);
       when(accessControlContextFactory.build()).thenReturn(oacc);
+      when(accessControlContextFactory.getPasswordCost()).thenReturn(12);
 
       todoUserService = new TodoUserService(todoUserDAO, accessControlContextFactory);
    }
@@ -115,11 +123,15 @@ public class TodoUserServiceTest {
                                   SecurityModel.DOMAIN_SECURE_TODO,
                                   submittedTodoUser.getEmail(),
                                   PasswordCredentials.newInstance(submittedTodoUser.getPassword()));
-      verify(accessControlContextFactory, times(2)).build();
+      verify(accessControlContextFactory).borrow();
+      verify(accessControlContextFactory).release(oacc);
+      verify(accessControlContextFactory).build();
+      verify(oacc).authenticate(SecurityModel.RESOURCE_ROLEHELPER_TODOCREATOR,
+                                SecurityModel.CREDENTIALS_ROLEHELPER_TODOCREATOR);
       verify(oacc).grantResourcePermissions(createdResource,
                                             SecurityModel.RESOURCE_ROLE_TODOCREATOR,
                                             SecurityModel.PERM_INHERIT);
-      verify(todoUserDAO).insert(submittedTodoUser);
+      verify(todoUserDAO).insert(submittedTodoUser, 12);
       verify(oacc, never()).deleteResource(any(Resource.class));
    }
 
@@ -139,7 +151,7 @@ public class TodoUserServiceTest {
                                   SecurityModel.DOMAIN_SECURE_TODO,
                                   email_lowercase,
                                   PasswordCredentials.newInstance(upperTodoUser.getPassword()));
-      verify(todoUserDAO).insert(lowerTodoUser);
+      verify(todoUserDAO).insert(lowerTodoUser, 12);
       verify(oacc, never()).deleteResource(any(Resource.class));
    }
 
@@ -150,4 +162,57 @@ public class TodoUserServiceTest {
 
       todoUserService.createUser(new TodoUser(EMAIL, PASSWORD_AS_CHARS));
    }
-}
\ No newline at end of file
+
+   @Test
+   public void createUserThatFailsReleasesContexts() throws Exception {
+      final Resource createdResource = Resources.getInstance(1L, EMAIL);
+      when(oacc.createResource(anyString(), anyString(), anyString(), any(Credentials.class)))
+            .thenReturn(createdResource);
+      doThrow(new IllegalStateException()).when(todoUserDAO).insert(any(TodoUser.class), anyInt());
+
+      try {
+         todoUserService.createUser(new TodoUser(EMAIL, PASSWORD_AS_CHARS));
+         fail("creating a todo user should have failed");
+      }
+      catch (IllegalStateException e) {
+         // expected
+      }
+
+      verify(oacc).deleteResource(createdResource);
+      verify(accessControlContextFactory).release(oacc);
+   }
+
+   @Test
+   public void createUsersAuthenticatesRoleHelperOnce() throws Exception {
+      when(oacc.createResource(anyString(), anyString(), anyString(), any(Credentials.class)))
+            .thenReturn(Resources.getInstance(1L, EMAIL), Resources.getInstance(2L, "other" + EMAIL));
+
+      todoUserService.createUser(new TodoUser(EMAIL, PASSWORD_AS_CHARS));
+      todoUserService.createUser(new TodoUser("other" + EMAIL, PASSWORD_AS_CHARS));
+
+      verify(accessControlContextFactory).build();
+      verify(oacc).authenticate(SecurityModel.RESOURCE_ROLEHELPER_TODOCREATOR,
+                                SecurityModel.CREDENTIALS_ROLEHELPER_TODOCREATOR);
+      verify(oacc, times(2)).grantResourcePermissions(any(Resource.class),
+                                                      any(Resource.class),
+                                                      any(ResourcePermission.class));
+   }
+
+   @Test
+   public void createUserRefreshesInheritanceClosureAfterAssigningRoles() throws Exception {
+      final InheritanceClosure inheritanceClosure = mock(InheritanceClosure.class);
+      final TodoUserService closureTodoUserService
+            = new TodoUserService(todoUserDAO, accessControlContextFactory, inheritanceClosure);
+      final Resource createdResource = Resources.getInstance(1L, EMAIL);
+      when(oacc.createResource(anyString(), anyString(), anyString(), any(Credentials.class)))
+            .thenReturn(createdResource);
+
+      closureTodoUserService.createUser(new TodoUser(EMAIL, PASSWORD_AS_CHARS));
+
+      final InOrder inOrder = inOrder(oacc, inheritanceClosure);
+      inOrder.verify(oacc).grantResourcePermissions(createdResource,
+                                                    SecurityModel.RESOURCE_ROLE_TODOCREATOR,
+                                                    SecurityModel.PERM_INHERIT);
+      inOrder.verify(inheritanceClosure).refresh(createdResource);
+   }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.db;
+
+import com.acciente.securetodo.api.TodoItem;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.skife.jdbi.v2.ResultIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CachingTodoItemDAOTest {
+   private static final TodoItem TODO_ITEM1 = new TodoItem(1, "Write test cases", false);
+   private static final TodoItem TODO_ITEM2 = new TodoItem(2, "Refactor code", true);
+   private static final TodoItem TODO_ITEM3 = new TodoItem(3, "Update docs", false);
+
+   private TodoItemDAO        todoItemDAO;
+   private UnitOfWorkHandles  unitOfWorkHandles;
+   private MetricRegistry     metrics;
+   private CachingTodoItemDAO cachingTodoItemDAO;
+
+   @Before
+   public void setUp() throws Exception {
+      todoItemDAO = mock(TodoItemDAO.class);
+      unitOfWorkHandles = mock(UnitOfWorkHandles.class);
+      metrics = new MetricRegistry();
+      cachingTodoItemDAO = new CachingTodoItemDAO(todoItemDAO, unitOfWorkHandles, 1024 * 1024, 60000, metrics);
+   }
+
+   @Test
+   public void findByIdTwiceOnlyQueriesOnce() throws Exception {
+      when(todoItemDAO.findById(1)).thenReturn(TODO_ITEM1);
+
+      assertThat(cachingTodoItemDAO.findById(1)).isEqualTo(TODO_ITEM1);
+      assertThat(cachingTodoItemDAO.findById(1)).isEqualTo(TODO_ITEM1);
+
+      verify(todoItemDAO, times(1)).findById(1);
+      assertThat(metrics.meter(CachingTodoItemDAO.class.getCanonicalName() + " hits").getCount()).isEqualTo(1);
+      assertThat(metrics.meter(CachingTodoItemDAO.class.getCanonicalName() + " misses").getCount()).isEqualTo(1);
+   }
+
+   @Test
+   public void findByIdNotFoundIsNotCached() throws Exception {
+      assertThat(cachingTodoItemDAO.findById(1)).isNull();
+      assertThat(cachingTodoItemDAO.findById(1)).isNull();
+
+      verify(todoItemDAO, times(2)).findById(1);
+   }
+
+   @Test
+   public void insertWritesThrough() throws Exception {
+      when(todoItemDAO.insert(any(TodoItem.class))).thenReturn(1L);
+
+      final long newId = cachingTodoItemDAO.insert(new TodoItem(-1, TODO_ITEM1.getTitle(), null));
+
+      final TodoItem cachedTodoItem = cachingTodoItemDAO.findById(newId);
+      assertThat(cachedTodoItem).isEqualTo(TODO_ITEM1);
+      assertThat(cachedTodoItem.getVersion()).isEqualTo(TodoItemDAO.INITIAL_VERSION);
+      verify(todoItemDAO, never()).findById(anyLong());
+   }
+
+   @Test
+   public void insertAllWritesThrough() throws Exception {
+      cachingTodoItemDAO.insertAll(Arrays.asList(TODO_ITEM1, TODO_ITEM2));
+
+      assertThat(cachingTodoItemDAO.findById(1)).isEqualTo(TODO_ITEM1);
+      assertThat(cachingTodoItemDAO.findById(2)).isEqualTo(TODO_ITEM2);
+      verify(todoItemDAO).insertAll(Arrays.asList(TODO_ITEM1, TODO_ITEM2));
+      verify(todoItemDAO, never()).findById(anyLong());
+   }
+
+   @Test
+   public void patchWritesThrough() throws Exception {
+      final TodoItem patchItem = new TodoItem(0, null, true);
+      final TodoItem patchedTodoItem = new TodoItem(1, TODO_ITEM1.getTitle(), true, null, 2L);
+      when(todoItemDAO.patch(1, patchItem, null)).thenReturn(patchedTodoItem);
+
+      assertThat(cachingTodoItemDAO.patch(1, patchItem, null)).isEqualTo(patchedTodoItem);
+
+      final TodoItem cachedTodoItem = cachingTodoItemDAO.findById(1);
+      assertThat(cachedTodoItem).isEqualTo(patchedTodoItem);
+      assertThat(cachedTodoItem.getVersion()).isEqualTo(2L);
+      verify(todoItemDAO, never()).findById(1);
+   }
+
+   @Test
+   public void patchAtCachedVersionDoesNotReadBack() throws Exception {
+      final TodoItem patchItem = new TodoItem(0, null, true);
+      when(todoItemDAO.findById(1)).thenReturn(TODO_ITEM1.withVersion(1L));
+      when(todoItemDAO.patchById(1, patchItem, 1L)).thenReturn(1);
+      cachingTodoItemDAO.findById(1);
+
+      final TodoItem patchedTodoItem = cachingTodoItemDAO.patch(1, patchItem, null);
+
+      assertThat(patchedTodoItem).isEqualTo(new TodoItem(1, TODO_ITEM1.getTitle(), true));
+      assertThat(patchedTodoItem.getVersion()).isEqualTo(2L);
+      assertThat(cachingTodoItemDAO.findById(1)).isSameAs(patchedTodoItem);
+      verify(todoItemDAO, never()).patch(anyLong(), any(TodoItem.class), any());
+      verify(todoItemDAO, times(1)).findById(1);
+   }
+
+   @Test
+   public void patchAtStaleCachedVersionIsRetriedWithoutIt() throws Exception {
+      final TodoItem patchItem = new TodoItem(0, null, true);
+      final TodoItem patchedTodoItem = new TodoItem(1, "Changed elsewhere", true, null, 5L);
+      when(todoItemDAO.findById(1)).thenReturn(TODO_ITEM1.withVersion(1L));
+      when(todoItemDAO.patch(1, patchItem, null)).thenReturn(patchedTodoItem);
+      cachingTodoItemDAO.findById(1);
+
+      // the patch at the cached version does not apply, because the todo item was changed elsewhere
+      assertThat(cachingTodoItemDAO.patch(1, patchItem, null)).isEqualTo(patchedTodoItem);
+
+      assertThat(cachingTodoItemDAO.findById(1)).isEqualTo(patchedTodoItem);
+      verify(todoItemDAO).patchById(1, patchItem, 1L);
+   }
+
+   @Test
+   public void patchAtStaleExpectedVersionFails() throws Exception {
+      final TodoItem patchItem = new TodoItem(0, null, true);
+      when(todoItemDAO.findById(1)).thenReturn(TODO_ITEM1.withVersion(1L));
+      cachingTodoItemDAO.findById(1);
+
+      // the cached todo item is at the expected version, but the stored one no longer is
+      assertThat(cachingTodoItemDAO.patch(1, patchItem, 1L)).isNull();
+
+      verify(todoItemDAO).patchById(1, patchItem, 1L);
+      verify(todoItemDAO, never()).patch(anyLong(), any(TodoItem.class), any());
+      cachingTodoItemDAO.findById(1);
+      verify(todoItemDAO, times(2)).findById(1);
+   }
+
+   @Test
+   public void patchNotAppliedInvalidates() throws Exception {
+      final TodoItem patchItem = new TodoItem(0, null, true);
+      when(todoItemDAO.findById(1)).thenReturn(TODO_ITEM1.withVersion(2L));
+      cachingTodoItemDAO.findById(1);
+
+      // the cached todo item is not at the expected version, so the DAO checks the stored one
+      assertThat(cachingTodoItemDAO.patch(1, patchItem, 1L)).isNull();
+
+      verify(todoItemDAO).patch(1, patchItem, 1L);
+      cachingTodoItemDAO.findById(1);
+      verify(todoItemDAO, times(2)).findById(1);
+   }
+
+   @Test
+   public void updateAllWritesThroughUpdatedAndInvalidatesMissing() throws Exception {
+      final TodoItem updatedTodoItem1 = new TodoItem(1, "Write more test cases", true, null, 1L);
+      final TodoItem updatedTodoItem2 = new TodoItem(2, "Refactor more code", true, null, 1L);
+      when(todoItemDAO.findByIds(aryEq(new long[]{1, 2}))).thenReturn(Arrays.asList(TODO_ITEM1, TODO_ITEM2));
+      when(todoItemDAO.updateAll(Arrays.asList(updatedTodoItem1, updatedTodoItem2))).thenReturn(new int[]{1, 0});
+      cachingTodoItemDAO.findByIds(new long[]{1, 2});
+
+      cachingTodoItemDAO.updateAll(Arrays.asList(updatedTodoItem1, updatedTodoItem2));
+
+      final TodoItem cachedTodoItem1 = cachingTodoItemDAO.findById(1);
+      assertThat(cachedTodoItem1).isEqualTo(updatedTodoItem1);
+      assertThat(cachedTodoItem1.getVersion()).isEqualTo(2L);
+      assertThat(cachingTodoItemDAO.findById(2)).isNull();
+      verify(todoItemDAO, never()).findById(1);
+   }
+
+   @Test
+   public void updateAllInATransactionIsOnlyWrittenThroughOnceCommitted() throws Exception {
+      final TodoItem updatedTodoItem1 = new TodoItem(1, "Write more test cases", true, null, 1L);
+      when(todoItemDAO.findById(1)).thenReturn(TODO_ITEM1.withVersion(1L));
+      when(todoItemDAO.updateAll(any())).thenReturn(new int[]{1});
+      cachingTodoItemDAO.findById(1);
+
+      when(unitOfWorkHandles.isInTransaction()).thenReturn(true);
+      cachingTodoItemDAO.updateAll(Collections.singletonList(updatedTodoItem1));
+      final ArgumentCaptor<Runnable> afterCommitAction = ArgumentCaptor.forClass(Runnable.class);
+      verify(unitOfWorkHandles).afterCommit(afterCommitAction.capture());
+      when(unitOfWorkHandles.isInTransaction()).thenReturn(false);
+
+      // the committed todo item, until the update is committed
+      assertThat(cachingTodoItemDAO.findById(1).getVersion()).isEqualTo(1L);
+      afterCommitAction.getValue().run();
+      final TodoItem cachedTodoItem1 = cachingTodoItemDAO.findById(1);
+      assertThat(cachedTodoItem1).isEqualTo(updatedTodoItem1);
+      assertThat(cachedTodoItem1.getVersion()).isEqualTo(2L);
+      verify(todoItemDAO, times(1)).findById(1);
+   }
+
+   @Test
+   public void updateAllInATransactionDoesNotOverwriteALaterWriteWhenCommitted() throws Exception {
+      when(todoItemDAO.findById(1)).thenReturn(TODO_ITEM1.withVersion(1L));
+      when(todoItemDAO.updateAll(any())).thenReturn(new int[]{1});
+      cachingTodoItemDAO.findById(1);
+
+      when(unitOfWorkHandles.isInTransaction()).thenReturn(true);
+      cachingTodoItemDAO.updateAll(Collections.singletonList(new TodoItem(1, "Write more test cases", true, null, 1L)));
+      final ArgumentCaptor<Runnable> afterCommitAction = ArgumentCaptor.forClass(Runnable.class);
+      verify(unitOfWorkHandles).afterCommit(afterCommitAction.capture());
+      when(unitOfWorkHandles.isInTransaction()).thenReturn(false);
+      // written right after the commit, before the write-through
+      cachingTodoItemDAO.updateAll(Collections.singletonList(new TodoItem(1, "Write all test cases", true, null, 2L)));
+
+      afterCommitAction.getValue().run();
+      final TodoItem cachedTodoItem1 = cachingTodoItemDAO.findById(1);
+      assertThat(cachedTodoItem1.getTitle()).isEqualTo("Write all test cases");
+      assertThat(cachedTodoItem1.getVersion()).isEqualTo(3L);
+   }
+
+   @Test
+   public void findByIdInATransactionIsNotCached() throws Exception {
+      when(unitOfWorkHandles.isInTransaction()).thenReturn(true);
+      when(todoItemDAO.findById(1)).thenReturn(TODO_ITEM1);
+
+      cachingTodoItemDAO.findById(1);
+      cachingTodoItemDAO.findById(1);
+
+      verify(todoItemDAO, times(2)).findById(1);
+   }
+
+   @Test
+   public void updateOaccResourceIdsUpdatesCachedTodoItems() throws Exception {
+      when(todoItemDAO.findById(1)).thenReturn(TODO_ITEM1);
+      when(todoItemDAO.updateOaccResourceIds(any())).thenReturn(new int[]{1, 1});
+      cachingTodoItemDAO.findById(1);
+
+      // the todo items handed in only carry their ID and oacc resource ID, as they do when backfilling
+      cachingTodoItemDAO.updateOaccResourceIds(Arrays.asList(new TodoItem(1, null, null, 101L),
+                                                             new TodoItem(2, null, null, 102L)));
+
+      final TodoItem cachedTodoItem1 = cachingTodoItemDAO.findById(1);
+      assertThat(cachedTodoItem1).isEqualTo(TODO_ITEM1);
+      assertThat(cachedTodoItem1.getOaccResourceId()).isEqualTo(101L);
+      verify(todoItemDAO, times(1)).findById(1);
+      // a todo item that was not cached is not cached from the incomplete one that was handed in
+      assertThat(cachingTodoItemDAO.findById(2)).isNull();
+   }
+
+   @Test
+   public void deleteInvalidates() throws Exception {
+      when(todoItemDAO.findById(1)).thenReturn(TODO_ITEM1);
+      cachingTodoItemDAO.findById(1);
+
+      cachingTodoItemDAO.delete(1);
+
+      when(todoItemDAO.findById(1)).thenReturn(null);
+      assertThat(cachingTodoItemDAO.findById(1)).isNull();
+      assertThat(cachingTodoItemDAO.size()).isZero();
+   }
+
+   @Test
+   public void deleteByIdsInvalidates() throws Exception {
+      when(todoItemDAO.findByIds(aryEq(new long[]{1, 2}))).thenReturn(Arrays.asList(TODO_ITEM1, TODO_ITEM2));
+      cachingTodoItemDAO.findByIds(new long[]{1, 2});
+
+      cachingTodoItemDAO.deleteByIds(new long[]{1, 2});
+
+      assertThat(cachingTodoItemDAO.findById(1)).isNull();
+      assertThat(cachingTodoItemDAO.findById(2)).isNull();
+      assertThat(cachingTodoItemDAO.size()).isZero();
+   }
+
+   @Test
+   public void findByIdOverlappingUpdateDoesNotCacheStaleRow() throws Exception {
+      final TodoItem patchItem = new TodoItem(0, "Write more test cases", true);
+      final TodoItem updatedTodoItem = new TodoItem(1, "Write more test cases", true);
+      when(todoItemDAO.patch(1, patchItem, null)).thenReturn(updatedTodoItem);
+      when(todoItemDAO.findById(1)).thenAnswer(invocation -> {
+         // simulates an update that completes while the old row is being read
+         cachingTodoItemDAO.patch(1, patchItem, null);
+         return TODO_ITEM1;
+      });
+
+      assertThat(cachingTodoItemDAO.findById(1)).isEqualTo(TODO_ITEM1);
+
+      assertThat(cachingTodoItemDAO.findById(1)).isEqualTo(updatedTodoItem);
+   }
+
+   @Test
+   public void findByIdsFillsMissingTodoItemsWithOneQuery() throws Exception {
+      when(todoItemDAO.findById(2)).thenReturn(TODO_ITEM2);
+      when(todoItemDAO.findByIds(aryEq(new long[]{1, 3}))).thenReturn(Arrays.asList(TODO_ITEM1, TODO_ITEM3));
+      cachingTodoItemDAO.findById(2);
+
+      assertThat(cachingTodoItemDAO.findByIds(new long[]{1, 2, 3})).containsExactly(TODO_ITEM1, TODO_ITEM2, TODO_ITEM3);
+      assertThat(cachingTodoItemDAO.findByIds(new long[]{1, 2, 3})).containsExactly(TODO_ITEM1, TODO_ITEM2, TODO_ITEM3);
+
+      verify(todoItemDAO, times(1)).findByIds(any(long[].class));
+   }
+
+   @Test
+   public void iterateByIdsMergesCachedAndLoadedTodoItems() throws Exception {
+      final ResultIterator<TodoItem> loadedTodoItems = new ListResultIterator(Arrays.asList(TODO_ITEM1, TODO_ITEM3));
+      when(todoItemDAO.findById(2)).thenReturn(TODO_ITEM2);
+      // the row for ID 4 no longer exists
+      when(todoItemDAO.iterateByIds(aryEq(new long[]{1, 3, 4}))).thenReturn(loadedTodoItems);
+      cachingTodoItemDAO.findById(2);
+
+      try (ResultIterator<TodoItem> todoItems = cachingTodoItemDAO.iterateByIds(new long[]{1, 2, 3, 4})) {
+         assertThat(toList(todoItems)).containsExactly(TODO_ITEM1, TODO_ITEM2, TODO_ITEM3);
+      }
+
+      assertThat(((ListResultIterator) loadedTodoItems).closed).isTrue();
+      try (ResultIterator<TodoItem> todoItems = cachingTodoItemDAO.iterateByIds(new long[]{1, 2, 3})) {
+         assertThat(toList(todoItems)).containsExactly(TODO_ITEM1, TODO_ITEM2, TODO_ITEM3);
+      }
+      verify(todoItemDAO, times(1)).iterateByIds(any(long[].class));
+   }
+
+   @Test
+   public void iterateByIdsOutOfOrderBypassesCache() throws Exception {
+      final ResultIterator<TodoItem> loadedTodoItems = new ListResultIterator(Arrays.asList(TODO_ITEM1, TODO_ITEM2));
+      when(todoItemDAO.iterateByIds(aryEq(new long[]{2, 1}))).thenReturn(loadedTodoItems);
+
+      assertThat(cachingTodoItemDAO.iterateByIds(new long[]{2, 1})).isSameAs(loadedTodoItems);
+   }
+
+   @Test
+   public void estimatedBytesGrowsWithTitleLength() throws Exception {
+      when(todoItemDAO.findById(1)).thenReturn(TODO_ITEM1);
+      when(todoItemDAO.findById(2)).thenReturn(new TodoItem(2, new String(new char[1000]), false));
+
+      cachingTodoItemDAO.findById(1);
+      final long bytesForShortTitle = cachingTodoItemDAO.estimatedBytes();
+      cachingTodoItemDAO.findById(2);
+
+      assertThat(cachingTodoItemDAO.estimatedBytes() - bytesForShortTitle).isGreaterThanOrEqualTo(2000);
+   }
+
+   private static List<TodoItem> toList(Iterator<TodoItem> todoItems) {
+      final List<TodoItem> list = new ArrayList<>();
+      todoItems.forEachRemaining(list::add);
+      return list;
+   }
+
+   private static class ListResultIterator implements ResultIterator<TodoItem> {
+      private final Iterator<TodoItem> iterator;
+      private       boolean            closed;
+
+      private ListResultIterator(List<TodoItem> todoItems) {
+         this.iterator = todoItems.iterator();
+      }
+
+      @Override
+      public boolean hasNext() {
+         return iterator.hasNext();
+      }
+
+      @Override
+      public TodoItem next() {
+         return iterator.next();
+      }
+
+      @Override
+      public void close() {
+         closed = true;
+      }
+   }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.db;
+
+import com.acciente.securetodo.api.TodoItem;
+import com.acciente.securetodo.db.mappers.TodoItemMapper;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.sqlobject.SqlQuery;
+import org.skife.jdbi.v2.sqlobject.customizers.RegisterMapper;
+import org.skife.jdbi.v2.sqlobject.stringtemplate.UseStringTemplate3StatementLocator;
+import org.skife.jdbi.v2.unstable.BindIn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Compares the latency of looking up sets of 10, 1,000 and 50,000 todo items by ID:
+ * <ul>
+ * <li>bind-in: an IN list rendered with {@code @BindIn}, one bind parameter per ID, as the lookups used to be</li>
+ * <li>one-array: all the IDs bound as a single array, in one query</li>
+ * <li>find-by-ids: {@link TodoItemDAO#findByIds}, i.e. a single array per chunk of
+ * {@link TodoItemDAO#ID_LOOKUP_CHUNK_SIZE} IDs</li>
+ * </ul>
+ * Every lookup maps its full result. The ID sets are random, sorted, and drawn from the todo items in the table; each
+ * mode is run on the same ID sets, and each round runs the modes in a different order, so that neither the ID sets nor
+ * the order the modes run in favors any of them.
+ * <p>
+ * Not a test; run its main method with the test classpath, e.g. from the IDE.
+ */
+public class IdLookupBenchmark {
+   private static final int   TODO_ITEMS     = 60000;
+   private static final int[] ID_SET_SIZES   = {10, 1000, 50000};
+   private static final int   LOOKUP_NANOS   = 2_000_000_000;
+   private static final int   WARM_UP_ROUNDS = 2;
+   private static final int   ROUNDS         = 3;
+
+   private enum Mode {BIND_IN, ONE_ARRAY, FIND_BY_IDS}
+
+   @UseStringTemplate3StatementLocator
+   @RegisterMapper(TodoItemMapper.class)
+   public interface BindInTodoItemDAO {
+      @SqlQuery("SELECT * FROM todo.todoItem WHERE id IN (<ids>) ORDER BY id")
+      List<TodoItem> findByIds(@BindIn("ids") Collection<Long> ids);
+   }
+
+   public static void main(String[] args) throws Exception {
+      final DBI dbi = new DBI(TestDatabases.migrated("migrations_tododb.xml"));
+      try (Handle handle = dbi.open()) {
+         final TodoItemDAO todoItemDAO = handle.attach(TodoItemDAO.class);
+         final BindInTodoItemDAO bindInTodoItemDAO = handle.attach(BindInTodoItemDAO.class);
+         final long[] todoItemIds = insertTodoItems(todoItemDAO);
+         final Random random = new Random(42);
+
+         System.out.println("     IDs  mode          lookups   p50 us   p90 us");
+         for (int round = 0; round < WARM_UP_ROUNDS + ROUNDS; round++) {
+            final boolean isWarmUp = round < WARM_UP_ROUNDS;
+            for (int idSetSize : ID_SET_SIZES) {
+               final long[][] idSets = new long[16][];
+               for (int i = 0; i < idSets.length; i++) {
+                  idSets[i] = randomSortedIds(random, todoItemIds, idSetSize);
+               }
+               for (int modeIndex = 0; modeIndex < Mode.values().length; modeIndex++) {
+                  final Mode mode = Mode.values()[(round + modeIndex) % Mode.values().length];
+                  final Function<long[], List<TodoItem>> lookup = lookup(mode, todoItemDAO, bindInTodoItemDAO);
+                  final long[] nanos = time(lookup, idSets);
+                  if (!isWarmUp) {
+                     System.out.printf("%8d  %-12s  %7d  %7d  %7d%n",
+                                       idSetSize,
+                                       mode.name().toLowerCase().replace('_', '-'),
+                                       nanos.length,
+                                       nanos[nanos.length / 2] / 1000,
+                                       nanos[nanos.length * 9 / 10] / 1000);
+                  }
+               }
+            }
+         }
+         handle.execute("SHUTDOWN");
+      }
+   }
+
+   private static Function<long[], List<TodoItem>> lookup(Mode mode,
+                                                          TodoItemDAO todoItemDAO,
+                                                          BindInTodoItemDAO bindInTodoItemDAO) {
+      switch (mode) {
+         case BIND_IN:
+            return ids -> {
+               final List<Long> boxedIds = new ArrayList<>(ids.length);
+               for (long id : ids) {
+                  boxedIds.add(id);
+               }
+               return bindInTodoItemDAO.findByIds(boxedIds);
+            };
+         case ONE_ARRAY:
+            return todoItemDAO::findChunkByIds;
+         default:
+            return todoItemDAO::findByIds;
+      }
+   }
+
+   // runs the lookup over the ID sets, round robin, for about LOOKUP_NANOS, and returns the sorted latencies
+   private static long[] time(Function<long[], List<TodoItem>> lookup, long[][] idSets) {
+      long[] nanos = new long[64];
+      int lookupCount = 0;
+      final long endNanos = System.nanoTime() + LOOKUP_NANOS;
+      while (System.nanoTime() < endNanos || lookupCount < idSets.length) {
+         final long[] ids = idSets[lookupCount % idSets.length];
+         final long startNanos = System.nanoTime();
+         final int resultSize = lookup.apply(ids).size();
+         final long elapsedNanos = System.nanoTime() - startNanos;
+         if (resultSize != ids.length) {
+            throw new IllegalStateException("Expected " + ids.length + " todo items, found " + resultSize + ".");
+         }
+         if (lookupCount == nanos.length) {
+            nanos = Arrays.copyOf(nanos, nanos.length * 2);
+         }
+         nanos[lookupCount++] = elapsedNanos;
+      }
+      nanos = Arrays.copyOf(nanos, lookupCount);
+      Arrays.sort(nanos);
+      return nanos;
+   }
+
+   private static long[] insertTodoItems(TodoItemDAO todoItemDAO) {
+      final List<Long> ids = todoItemDAO.nextIds(TODO_ITEMS);
+      final List<TodoItem> todoItems = new ArrayList<>(TODO_ITEMS);
+      for (long id : ids) {
+         todoItems.add(new TodoItem(id, "todo number " + id, false));
+      }
+      todoItemDAO.insertAll(todoItems);
+      return ids.stream().mapToLong(Long::longValue).toArray();
+   }
+
+   private static long[] randomSortedIds(Random random, long[] todoItemIds, int count) {
+      // a partial Fisher-Yates shuffle of a copy, so that no ID is picked twice
+      final long[] shuffledIds = todoItemIds.clone();
+      for (int i = 0; i < count; i++) {
+         final int j = i + random.nextInt(shuffledIds.length - i);
+         final long id = shuffledIds[i];
+         shuffledIds[i] = shuffledIds[j];
+         shuffledIds[j] = id;
+      }
+      final long[] ids = Arrays.copyOf(shuffledIds, count);
+      Arrays.sort(ids);
+      return ids;
+   }
+}
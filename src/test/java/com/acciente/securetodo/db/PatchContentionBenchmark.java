@@ -0,0 +1,198 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.db;
+
+import com.acciente.securetodo.api.TodoItem;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.Striped;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Compares the latency of patching a few hot todo items from many threads at once, through the caching DAO:
+ * <ul>
+ * <li>read-write: reads the todo item, and writes back a patched copy, as the update used to (the writes of
+ * concurrent patches can overwrite each other, which shows up as lost writes)</li>
+ * <li>read-cas: reads the todo item, and writes back a patched copy only if it is still at the version that was read,
+ * retrying from the read if it is not, as a client using If-Match would</li>
+ * <li>patch: applies the patch with a single conditional update</li>
+ * </ul>
+ * Every write increments a counter kept in the title (which the patch can not do, so it counts the versions instead),
+ * so that the writes that were lost can be counted at the end.
+ * <p>
+ * Not a test; run its main method with the test classpath, e.g. from the IDE.
+ */
+public class PatchContentionBenchmark {
+   private static final int THREADS        = 16;
+   private static final int HOT_TODO_ITEMS = 4;
+   private static final int PATCHES        = 2000;
+   private static final int WARM_UP_ROUNDS = 2;
+   private static final int CONNECTIONS    = 8;
+
+   private static final Striped<Lock> WRITE_LOCKS = Striped.lock(64);
+
+   private enum Mode {READ_WRITE, READ_CAS, PATCH}
+
+   public static void main(String[] args) throws Exception {
+      System.out.println("mode         p50 us  p99 us  max us    ops/s  lost writes");
+      for (int round = 0; round <= WARM_UP_ROUNDS; round++) {
+         final boolean isWarmUp = round < WARM_UP_ROUNDS;
+         for (Mode mode : Mode.values()) {
+            run(mode, isWarmUp);
+         }
+      }
+   }
+
+   private static void run(Mode mode, boolean isWarmUp) throws Exception {
+      final DataSource dataSource = newDataSource();
+      final ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+      try {
+         TestDatabases.migrate(dataSource, "migrations_tododb.xml");
+         final DBI dbi = new DBI(dataSource);
+         final TodoItemDAO todoItemDAO = new CachingTodoItemDAO(dbi.onDemand(TodoItemDAO.class),
+                                                                null,
+                                                                16 * 1024 * 1024,
+                                                                60000,
+                                                                new MetricRegistry());
+         final long[] ids = new long[HOT_TODO_ITEMS];
+         for (int i = 0; i < ids.length; i++) {
+            ids[i] = todoItemDAO.insert(new TodoItem(0, "0", false));
+         }
+
+         final CountDownLatch startLatch = new CountDownLatch(1);
+         final List<Future<long[]>> futures = new ArrayList<>(THREADS);
+         for (int thread = 0; thread < THREADS; thread++) {
+            final int firstIndex = thread;
+            futures.add(executorService.submit(() -> {
+               final long[] nanos = new long[PATCHES];
+               startLatch.await();
+               for (int i = 0; i < PATCHES; i++) {
+                  final long id = ids[(firstIndex + i) % ids.length];
+                  final long startNanos = System.nanoTime();
+                  patch(mode, dbi, todoItemDAO, id);
+                  nanos[i] = System.nanoTime() - startNanos;
+               }
+               return nanos;
+            }));
+         }
+
+         final long startNanos = System.nanoTime();
+         startLatch.countDown();
+         final long[] nanos = new long[THREADS * PATCHES];
+         for (int thread = 0; thread < THREADS; thread++) {
+            System.arraycopy(futures.get(thread).get(), 0, nanos, thread * PATCHES, PATCHES);
+         }
+         final long elapsedNanos = System.nanoTime() - startNanos;
+         Arrays.sort(nanos);
+
+         long appliedWrites = 0;
+         try (Handle handle = dbi.open()) {
+            final TodoItemDAO uncachedTodoItemDAO = handle.attach(TodoItemDAO.class);
+            for (long id : ids) {
+               final TodoItem todoItem = uncachedTodoItemDAO.findById(id);
+               appliedWrites += mode == Mode.PATCH
+                                ? todoItem.getVersion() - TodoItemDAO.INITIAL_VERSION
+                                : Long.parseLong(todoItem.getTitle());
+            }
+         }
+
+         if (!isWarmUp) {
+            System.out.printf("%-12s %6d  %6d  %6d  %7d  %11d%n",
+                              mode.name().toLowerCase().replace('_', '-'),
+                              nanos[nanos.length / 2] / 1000,
+                              nanos[nanos.length * 99 / 100] / 1000,
+                              nanos[nanos.length - 1] / 1000,
+                              nanos.length * 1_000_000_000L / elapsedNanos,
+                              nanos.length - appliedWrites);
+         }
+      }
+      finally {
+         executorService.shutdownNow();
+         try (Handle handle = new DBI(dataSource).open()) {
+            handle.execute("SHUTDOWN");
+         }
+         dataSource.close();
+      }
+   }
+
+   private static void patch(Mode mode, DBI dbi, TodoItemDAO todoItemDAO, long id) {
+      switch (mode) {
+         case READ_WRITE: {
+            // what the update used to do: write back a patched copy of what was read, no matter what happened since;
+            // the todo item is read from the database, since the caching DAO no longer writes such copies through to
+            // its cache, but the write is still serialized with the other writes of the todo item, as it was
+            try (Handle handle = dbi.open()) {
+               final TodoItem todoItem = handle.attach(TodoItemDAO.class).findById(id);
+               final Lock writeLock = WRITE_LOCKS.get(id);
+               writeLock.lock();
+               try {
+                  handle.execute("UPDATE todo.todoItem SET title = ?, completed = ? WHERE id = ?",
+                                 String.valueOf(Long.parseLong(todoItem.getTitle()) + 1),
+                                 !todoItem.getCompleted(),
+                                 id);
+               }
+               finally {
+                  writeLock.unlock();
+               }
+            }
+            break;
+         }
+         case READ_CAS: {
+            int updateCount;
+            do {
+               final TodoItem todoItem = todoItemDAO.findById(id);
+               final TodoItem patchedTodoItem = new TodoItem(id,
+                                                             String.valueOf(Long.parseLong(todoItem.getTitle()) + 1),
+                                                             !todoItem.getCompleted(),
+                                                             null,
+                                                             todoItem.getVersion());
+               updateCount = todoItemDAO.updateAll(Collections.singletonList(patchedTodoItem))[0];
+            } while (updateCount == 0);
+            break;
+         }
+         case PATCH: {
+            // the todo item service reads the (cached) todo item first, for its oacc resource
+            final TodoItem todoItem = todoItemDAO.findById(id);
+            todoItemDAO.patch(id, new TodoItem(0, null, !todoItem.getCompleted()), null);
+            break;
+         }
+      }
+   }
+
+   private static DataSource newDataSource() {
+      final DataSource dataSource = new DataSource();
+      dataSource.setDriverClassName("org.hsqldb.jdbc.JDBCDriver");
+      dataSource.setUrl(TestDatabases.newUrl());
+      dataSource.setUsername("sa");
+      dataSource.setPassword("");
+      dataSource.setInitialSize(CONNECTIONS);
+      dataSource.setMaxIdle(CONNECTIONS);
+      dataSource.setMaxActive(CONNECTIONS);
+      return dataSource;
+   }
+}
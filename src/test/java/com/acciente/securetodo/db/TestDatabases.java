@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.db;
+
+import liquibase.Liquibase;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+
+import javax.sql.DataSource;
+import java.util.UUID;
+
+/**
+ * Creates the in-memory HSQLDB databases the tests and benchmarks run against, migrated with the application's own
+ * Liquibase changelogs.
+ */
+public final class TestDatabases {
+   private TestDatabases() {
+   }
+
+   /**
+    * Returns the URL of a new, empty in-memory database.
+    */
+   public static String newUrl() {
+      return "jdbc:hsqldb:mem:" + UUID.randomUUID();
+   }
+
+   /**
+    * Returns an (unpooled) data source of a new in-memory database, migrated with the specified changelogs in order.
+    */
+   public static JDBCDataSource migrated(String... changelogs) throws Exception {
+      final JDBCDataSource dataSource = new JDBCDataSource();
+      dataSource.setUrl(newUrl());
+      dataSource.setUser("sa");
+      migrate(dataSource, changelogs);
+      return dataSource;
+   }
+
+   /**
+    * Migrates the database of the specified data source with the specified changelogs in order.
+    */
+   public static void migrate(DataSource dataSource, String... changelogs) throws Exception {
+      try (Handle handle = new DBI(dataSource).open()) {
+         for (String changelog : changelogs) {
+            new Liquibase(changelog,
+                          new ClassLoaderResourceAccessor(),
+                          new JdbcConnection(handle.getConnection())).update("");
+         }
+         // liquibase leaves the connection in manual commit mode, which matters if it goes back to a pool
+         handle.getConnection().setAutoCommit(true);
+      }
+   }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.db;
+
+import com.acciente.securetodo.api.TodoChange;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TodoChangeDAOTest {
+   private static final String ALICE = "alice@oaccframework.org";
+   private static final String BOB   = "bob@oaccframework.org";
+
+   private static DBI dbi;
+
+   private TodoChangeDAO todoChangeDAO;
+
+   @BeforeClass
+   public static void setUpDatabase() throws Exception {
+      dbi = new DBI(TestDatabases.migrated("migrations_tododb.xml"));
+   }
+
+   @AfterClass
+   public static void tearDownDatabase() throws Exception {
+      try (Handle handle = dbi.open()) {
+         handle.execute("SHUTDOWN");
+      }
+   }
+
+   @Before
+   public void setUp() throws Exception {
+      try (Handle handle = dbi.open()) {
+         handle.execute("DELETE FROM todo.todoChange");
+      }
+      todoChangeDAO = dbi.onDemand(TodoChangeDAO.class);
+   }
+
+   @Test
+   public void findFirstAndLastIdOfEmptyLog() throws Exception {
+      assertThat(todoChangeDAO.findFirstId()).isNull();
+      assertThat(todoChangeDAO.findLastId()).isNull();
+   }
+
+   @Test
+   public void findChangesReturnsLatestChangeOfTodoItemsGrantedToAccessorOrUpdated() throws Exception {
+      final long grantId = append(1, ALICE);
+      append(2, BOB);
+      final long updateId = append(3, null);
+      final long regrantId = append(1, null);
+
+      assertThat(todoChangeDAO.findChanges(ALICE, grantId - 1, 10))
+            .containsExactly(new TodoChange(updateId, 3, null),
+                             new TodoChange(regrantId, 1, ALICE));
+      assertThat(todoChangeDAO.findChanges(BOB, grantId - 1, 10))
+            .extracting(TodoChange::getTodoItemId)
+            .containsExactly(2L, 3L, 1L);
+   }
+
+   @Test
+   public void findChangesOnlyReturnsChangesSinceIdUpToLimit() throws Exception {
+      final long firstId = append(1, ALICE);
+      append(2, ALICE);
+      append(3, ALICE);
+      append(4, ALICE);
+
+      assertThat(todoChangeDAO.findChanges(ALICE, firstId, 2))
+            .extracting(TodoChange::getTodoItemId)
+            .containsExactly(2L, 3L);
+   }
+
+   @Test
+   public void appendAllAppendsInOrder() throws Exception {
+      todoChangeDAO.appendAll(Arrays.asList(TodoChange.of(1, ALICE), TodoChange.of(2, null)));
+
+      final long lastId = todoChangeDAO.findLastId();
+      assertThat(todoChangeDAO.findFirstId()).isEqualTo(lastId - 1);
+      assertThat(todoChangeDAO.findChanges(ALICE, 0, 10))
+            .containsExactly(new TodoChange(lastId - 1, 1, ALICE),
+                             new TodoChange(lastId, 2, null));
+   }
+
+   @Test
+   public void compactKeepsLastEntryBeforeCutoff() throws Exception {
+      append(1, ALICE);
+      final long keptId = append(2, ALICE);
+      final long lastId = append(3, ALICE);
+      try (Handle handle = dbi.open()) {
+         handle.execute("UPDATE todo.todoChange SET changedAt = ? WHERE id <= ?",
+                        new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2)),
+                        keptId);
+      }
+
+      assertThat(todoChangeDAO.compact(new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1))))
+            .isEqualTo(1);
+
+      assertThat(todoChangeDAO.findFirstId()).isEqualTo(keptId);
+      assertThat(todoChangeDAO.findLastId()).isEqualTo(lastId);
+   }
+
+   @Test
+   public void compactWithoutOldEntriesDeletesNothing() throws Exception {
+      append(1, ALICE);
+
+      assertThat(todoChangeDAO.compact(new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1))))
+            .isZero();
+   }
+
+   private long append(long todoItemId, String accessor) {
+      todoChangeDAO.append(TodoChange.of(todoItemId, accessor));
+      return todoChangeDAO.findLastId();
+   }
+}
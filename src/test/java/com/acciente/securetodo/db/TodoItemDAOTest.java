@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.db;
+
+import com.acciente.securetodo.api.TodoItem;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TodoItemDAOTest {
+   private static DBI dbi;
+
+   private TodoItemDAO todoItemDAO;
+
+   @BeforeClass
+   public static void setUpDatabase() throws Exception {
+      dbi = new DBI(TestDatabases.migrated("migrations_tododb.xml"));
+   }
+
+   @AfterClass
+   public static void tearDownDatabase() throws Exception {
+      try (Handle handle = dbi.open()) {
+         handle.execute("SHUTDOWN");
+      }
+   }
+
+   @Before
+   public void setUp() throws Exception {
+      todoItemDAO = dbi.onDemand(TodoItemDAO.class);
+   }
+
+   @Test
+   public void insertStartsAtInitialVersion() throws Exception {
+      final long id = todoItemDAO.insert(new TodoItem(0, "wash car", null));
+
+      assertThat(todoItemDAO.findById(id).getVersion()).isEqualTo(TodoItemDAO.INITIAL_VERSION);
+   }
+
+   @Test
+   public void patchAppliesOnlyTheSetFieldsAndIncrementsTheVersion() throws Exception {
+      final long id = todoItemDAO.insert(new TodoItem(0, "wash car", false));
+
+      final TodoItem patchedTodoItem = todoItemDAO.patch(id, new TodoItem(0, null, true), null);
+
+      assertThat(patchedTodoItem).isEqualTo(new TodoItem(id, "wash car", true));
+      assertThat(patchedTodoItem.getVersion()).isEqualTo(TodoItemDAO.INITIAL_VERSION + 1);
+      assertThat(todoItemDAO.patch(id, new TodoItem(0, "wash truck", null), null).getVersion())
+            .isEqualTo(TodoItemDAO.INITIAL_VERSION + 2);
+      assertThat(todoItemDAO.findById(id)).isEqualTo(new TodoItem(id, "wash truck", true));
+   }
+
+   @Test
+   public void patchAtExpectedVersion() throws Exception {
+      final long id = todoItemDAO.insert(new TodoItem(0, "wash car", false));
+
+      final TodoItem patchedTodoItem = todoItemDAO.patch(id, new TodoItem(0, null, true), TodoItemDAO.INITIAL_VERSION);
+
+      assertThat(patchedTodoItem).isEqualTo(new TodoItem(id, "wash car", true));
+      // the version the patch was made at is gone now
+      assertThat(todoItemDAO.patch(id, new TodoItem(0, null, false), TodoItemDAO.INITIAL_VERSION)).isNull();
+      assertThat(todoItemDAO.findById(id)).isEqualTo(new TodoItem(id, "wash car", true));
+   }
+
+   @Test
+   public void patchThatDoesNotExist() throws Exception {
+      assertThat(todoItemDAO.patch(-1, new TodoItem(0, null, true), null)).isNull();
+   }
+
+   @Test
+   public void updateAllOnlyWritesTodoItemsStillAtTheirVersion() throws Exception {
+      final long id1 = todoItemDAO.insert(new TodoItem(0, "one", false));
+      final long id2 = todoItemDAO.insert(new TodoItem(0, "two", false));
+      final TodoItem todoItem1 = todoItemDAO.findById(id1);
+      final TodoItem todoItem2 = todoItemDAO.findById(id2);
+      todoItemDAO.patch(id2, new TodoItem(0, "two, concurrently", null), null);
+
+      final int[] updateCounts
+            = todoItemDAO.updateAll(Arrays.asList(new TodoItem(id1, "one", true).withVersion(todoItem1.getVersion()),
+                                                  new TodoItem(id2, "two", true).withVersion(todoItem2.getVersion())));
+
+      assertThat(updateCounts).containsExactly(1, 0);
+      assertThat(todoItemDAO.findById(id1).getVersion()).isEqualTo(TodoItemDAO.INITIAL_VERSION + 1);
+      assertThat(todoItemDAO.findById(id2)).isEqualTo(new TodoItem(id2, "two, concurrently", false));
+   }
+
+   @Test
+   public void findByIdsLooksUpVeryManyIdsInChunksInAscendingOrder() throws Exception {
+      final long id1 = todoItemDAO.insert(new TodoItem(0, "wash car", false));
+      final long id2 = todoItemDAO.insert(new TodoItem(0, "walk dog", false));
+      // IDs that do not exist fill the first chunk, so that the todo items are only found in the second one
+      final long[] ids = new long[TodoItemDAO.ID_LOOKUP_CHUNK_SIZE + 2];
+      ids[0] = id2;
+      ids[1] = id1;
+      for (int i = 2; i < ids.length; i++) {
+         ids[i] = -i;
+      }
+
+      assertThat(todoItemDAO.findByIds(ids)).extracting(TodoItem::getId).containsExactly(id1, id2);
+   }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.db;
+
+import com.acciente.securetodo.api.TodoChange;
+import com.acciente.securetodo.api.TodoItem;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.db.DataSourceFactory;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.exceptions.UnableToExecuteStatementException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class UnitOfWorkHandlesTest {
+   private static CountingDataSource dataSource;
+   private static DBI                dbi;
+
+   private UnitOfWorkHandles unitOfWorkHandles;
+   private TodoItemDAO       todoItemDAO;
+   private TodoChangeDAO     todoChangeDAO;
+
+   @BeforeClass
+   public static void setUpDatabase() throws Exception {
+      final DataSourceFactory dataSourceFactory = new DataSourceFactory();
+      dataSourceFactory.setDriverClass("org.hsqldb.jdbc.JDBCDriver");
+      dataSourceFactory.setUrl(TestDatabases.newUrl());
+      dataSourceFactory.setUser("sa");
+      dataSourceFactory.setValidationQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_TABLES");
+      dataSource = new CountingDataSource(dataSourceFactory.build(new MetricRegistry(), "test"),
+                                          "test",
+                                          new MetricRegistry());
+      dbi = new DBI(dataSource);
+      TestDatabases.migrate(dataSource, "migrations_tododb.xml");
+   }
+
+   @AfterClass
+   public static void tearDownDatabase() throws Exception {
+      try (Handle handle = dbi.open()) {
+         handle.execute("SHUTDOWN");
+      }
+      dataSource.stop();
+   }
+
+   @Before
+   public void setUp() throws Exception {
+      unitOfWorkHandles = new UnitOfWorkHandles(dbi);
+      todoItemDAO = unitOfWorkHandles.onDemand(TodoItemDAO.class);
+      todoChangeDAO = unitOfWorkHandles.onDemand(TodoChangeDAO.class);
+   }
+
+   @Test
+   public void withoutUnitOfWorkEachCallChecksOutAConnection() throws Exception {
+      final long checkouts = dataSource.getThreadCheckouts();
+
+      final long id = todoItemDAO.insert(new TodoItem(0, "wash car", false));
+      todoItemDAO.findById(id);
+
+      assertThat(dataSource.getThreadCheckouts() - checkouts).isEqualTo(2);
+   }
+
+   @Test
+   public void unitOfWorkSharesOneConnectionAcrossDaos() throws Exception {
+      final long checkouts = dataSource.getThreadCheckouts();
+
+      final UnitOfWorkHandles.Scope scope = unitOfWorkHandles.open();
+      final long id = todoItemDAO.insert(new TodoItem(0, "wash car", false));
+      // runs in a transaction of its own, on the shared handle
+      final TodoItem todoItem = todoItemDAO.patch(id, new TodoItem(id, null, true), null);
+      todoChangeDAO.appendAll(Collections.singletonList(TodoChange.of(id, null)));
+      assertThat(scope.isHandleOpen()).isTrue();
+      scope.close();
+
+      assertThat(todoItem.getCompleted()).isTrue();
+      assertThat(scope.isHandleOpen()).isFalse();
+      assertThat(dataSource.getThreadCheckouts() - checkouts).isEqualTo(1);
+      // each statement was committed on its own, so the writes are visible on other connections
+      assertThat(dbi.onDemand(TodoItemDAO.class).findById(id).getCompleted()).isTrue();
+   }
+
+   @Test
+   public void unitOfWorkWithoutDaoCallsChecksOutNothing() throws Exception {
+      final long checkouts = dataSource.getThreadCheckouts();
+
+      final UnitOfWorkHandles.Scope scope = unitOfWorkHandles.open();
+      scope.close();
+
+      assertThat(scope.isHandleOpen()).isFalse();
+      assertThat(dataSource.getThreadCheckouts()).isEqualTo(checkouts);
+   }
+
+   @Test
+   public void closedUnitOfWorkIsNoLongerUsed() throws Exception {
+      final UnitOfWorkHandles.Scope scope = unitOfWorkHandles.open();
+      final long id = todoItemDAO.insert(new TodoItem(0, "wash car", false));
+      // closed by another thread, which leaves the unit of work bound to this one
+      final Thread closingThread = new Thread(scope::close);
+      closingThread.start();
+      closingThread.join();
+      final long checkouts = dataSource.getThreadCheckouts();
+
+      assertThat(todoItemDAO.findById(id).getTitle()).isEqualTo("wash car");
+      assertThat(dataSource.getThreadCheckouts() - checkouts).isEqualTo(1);
+   }
+
+   @Test
+   public void unbindEndsTheUnitOfWorkOfTheThread() throws Exception {
+      final UnitOfWorkHandles.Scope scope = unitOfWorkHandles.open();
+      todoItemDAO.insert(new TodoItem(0, "wash car", false));
+
+      unitOfWorkHandles.unbind();
+      final long checkouts = dataSource.getThreadCheckouts();
+      todoItemDAO.nextIds(1);
+
+      assertThat(dataSource.getThreadCheckouts() - checkouts).isEqualTo(1);
+      scope.close();
+   }
+
+   @Test
+   public void transactionalUnitOfWorkCommitsItsWritesTogether() throws Exception {
+      final List<String> actions = new ArrayList<>();
+
+      final UnitOfWorkHandles.Scope scope = unitOfWorkHandles.open(true);
+      final long id = todoItemDAO.insert(new TodoItem(0, "wash car", false));
+      todoChangeDAO.appendAll(Collections.singletonList(TodoChange.of(id, null)));
+      unitOfWorkHandles.afterCommit(() -> actions.add("committed"));
+      assertThat(scope.isInTransaction()).isTrue();
+      assertThat(actions).isEmpty();
+
+      scope.commit();
+
+      assertThat(actions).containsExactly("committed");
+      assertThat(dbi.onDemand(TodoItemDAO.class).findById(id).getTitle()).isEqualTo("wash car");
+      // back in autocommit mode, so that actions no longer wait for a commit
+      unitOfWorkHandles.afterCommit(() -> actions.add("after the commit"));
+      assertThat(actions).containsExactly("committed", "after the commit");
+      scope.close();
+   }
+
+   @Test
+   public void transactionalUnitOfWorkRollsBackItsWrites() throws Exception {
+      final List<String> actions = new ArrayList<>();
+
+      final UnitOfWorkHandles.Scope scope = unitOfWorkHandles.open(true);
+      final long id = todoItemDAO.insert(new TodoItem(0, "wash car", false));
+      unitOfWorkHandles.afterCommit(() -> actions.add("committed"));
+      assertThat(unitOfWorkHandles.isInTransaction()).isTrue();
+      scope.rollback();
+      assertThat(unitOfWorkHandles.isInTransaction()).isFalse();
+      scope.commit();
+      scope.close();
+
+      assertThat(actions).isEmpty();
+      assertThat(dbi.onDemand(TodoItemDAO.class).findById(id)).isNull();
+   }
+
+   @Test
+   public void transactionalUnitOfWorkIsRolledBackWhenClosedBeforeItsCommit() throws Exception {
+      final long id;
+      try (UnitOfWorkHandles.Scope ignored = unitOfWorkHandles.open(true)) {
+         id = todoItemDAO.insert(new TodoItem(0, "wash car", false));
+      }
+
+      assertThat(dbi.onDemand(TodoItemDAO.class).findById(id)).isNull();
+   }
+
+   @Test
+   public void transactionalUnitOfWorkWithoutDaoCallsChecksOutNothing() throws Exception {
+      final long checkouts = dataSource.getThreadCheckouts();
+      final List<String> actions = new ArrayList<>();
+
+      final UnitOfWorkHandles.Scope scope = unitOfWorkHandles.open(true);
+      unitOfWorkHandles.afterCommit(() -> actions.add("committed"));
+      scope.commit();
+      scope.close();
+
+      assertThat(actions).containsExactly("committed");
+      assertThat(dataSource.getThreadCheckouts()).isEqualTo(checkouts);
+   }
+
+   @Test
+   public void failedCallThrowsTheDaoException() throws Exception {
+      final long id = todoItemDAO.insert(new TodoItem(0, "wash car", false));
+
+      try (UnitOfWorkHandles.Scope ignored = unitOfWorkHandles.open()) {
+         // the ID is taken already
+         todoItemDAO.insertAll(Collections.singletonList(new TodoItem(id, "wash car", false)));
+      }
+      catch (UnableToExecuteStatementException e) {
+         return;
+      }
+      fail("expected UnableToExecuteStatementException");
+   }
+}
@@ -18,46 +18,73 @@ package com.acciente.securetodo.resources;
 
 import com.acciente.oacc.AccessControlContext;
 import com.acciente.oacc.NotAuthorizedException;
+import com.acciente.securetodo.api.TodoEvent;
 import com.acciente.securetodo.api.TodoItem;
+import com.acciente.securetodo.api.TodoItemBatchResult;
+import com.acciente.securetodo.api.TodoItemPermissions;
+import com.acciente.securetodo.api.TodoItemShareResult;
+import com.acciente.securetodo.api.TodoItemShares;
 import com.acciente.securetodo.auth.OaccBasicAuthenticator;
 import com.acciente.securetodo.auth.OaccPrincipal;
+import com.acciente.securetodo.core.TodoItemPage;
+import com.acciente.securetodo.core.StaleTodoItemException;
+import com.acciente.securetodo.core.TodoChangeVersions;
+import com.acciente.securetodo.core.TodoEventBus;
+import com.acciente.securetodo.core.TodoEventSink;
+import com.acciente.securetodo.core.TodoItemChangePage;
 import com.acciente.securetodo.core.TodoItemService;
 import com.acciente.securetodo.resources.exceptions.AuthorizationExceptionMapper;
 import com.acciente.securetodo.resources.exceptions.IllegalArgumentExceptionMapper;
 import com.acciente.securetodo.resources.exceptions.InvalidCredentialsExceptionMapper;
 import com.acciente.securetodo.resources.exceptions.NotAuthenticatedExceptionMapper;
+import com.acciente.securetodo.resources.exceptions.StaleTodoItemExceptionMapper;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
 import io.dropwizard.auth.AuthDynamicFeature;
 import io.dropwizard.auth.AuthValueFactoryProvider;
 import io.dropwizard.auth.AuthenticationException;
 import io.dropwizard.auth.basic.BasicCredentialAuthFilter;
 import io.dropwizard.auth.basic.BasicCredentials;
+import io.dropwizard.jackson.Jackson;
 import io.dropwizard.testing.junit.ResourceTestRule;
 import org.glassfish.grizzly.http.util.Header;
 import org.glassfish.jersey.client.HttpUrlConnectorProvider;
+import org.glassfish.jersey.media.sse.SseFeature;
 import org.glassfish.jersey.test.grizzly.GrizzlyWebTestContainerFactory;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.ClassRule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.xml.bind.DatatypeConverter;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.OptionalLong;
 
 import static io.dropwizard.testing.FixtureHelpers.fixture;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
@@ -71,6 +98,9 @@ public class TodoItemResourceTest {
    private static final OaccBasicAuthenticator oaccBasicAuthenticator = mock(OaccBasicAuthenticator.class);
    private static final OaccPrincipal          oaccPrincipal          = mock(OaccPrincipal.class);
    private static final AccessControlContext   oacc                   = mock(AccessControlContext.class);
+   private static final TodoChangeVersions     todoChangeVersions     = new TodoChangeVersions(100,
+                                                                                               60000,
+                                                                                               new MetricRegistry());
 
    static {
       // need to init the environment mock **BEFORE** setting up the ResourceTestRule as a class rule
@@ -89,7 +119,9 @@ public class TodoItemResourceTest {
          .addProvider(new NotAuthenticatedExceptionMapper(environment))
          .addProvider(new InvalidCredentialsExceptionMapper(environment))
          .addProvider(new AuthorizationExceptionMapper(environment))
-         .addResource(new TodoItemResource(todoItemService))
+         .addProvider(new StaleTodoItemExceptionMapper(environment))
+         .addProvider(SseFeature.class)
+         .addResource(new TodoItemResource(todoItemService, todoChangeVersions, Jackson.newObjectMapper()))
          .build();
 
    @Before
@@ -122,6 +154,96 @@ public class TodoItemResourceTest {
       assertThat(response.readEntity(TodoItem.class)).isEqualTo(expectedTodoItem);
    }
 
+   @Test
+   public void postNewTodoItems() throws UnsupportedEncodingException, AuthenticationException {
+      final List<TodoItemBatchResult> expectedResults
+            = Arrays.asList(TodoItemBatchResult.created(new TodoItem(1, "make new todo items", true)),
+                            TodoItemBatchResult.rejected("Title can not be blank."));
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+      when(todoItemService.createItems(eq(oacc), any()))
+            .thenReturn(expectedResults);
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos/batch")
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .post(Entity.entity("[{\"title\":\"make new todo items\",\"completed\":true},{\"title\":\" \"}]",
+                                MediaType.APPLICATION_JSON));
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());   // 200 OK
+      assertThat(response.readEntity(new GenericType<List<TodoItemBatchResult>>() {})).isEqualTo(expectedResults);
+      @SuppressWarnings("unchecked")
+      final ArgumentCaptor<List<TodoItem>> newTodoItems = ArgumentCaptor.forClass(List.class);
+      verify(todoItemService, atLeastOnce()).createItems(eq(oacc), newTodoItems.capture());
+      assertThat(newTodoItems.getValue()).extracting(TodoItem::getTitle, TodoItem::getCompleted)
+            .containsExactly(tuple("make new todo items", true), tuple(" ", null));
+   }
+
+   @Test
+   public void postNewTodoItemsWhenUnauthorized() throws UnsupportedEncodingException, AuthenticationException {
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+      when(todoItemService.createItems(eq(oacc), any()))
+            .thenThrow(new NotAuthorizedException("not authorized to create todo items"));
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos/batch")
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .post(Entity.entity("[{\"title\":\"make new todo items\"}]", MediaType.APPLICATION_JSON));
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.FORBIDDEN.getStatusCode());   // 403 Forbidden
+   }
+
+   @Test
+   public void postShares() throws UnsupportedEncodingException, AuthenticationException {
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+      final List<TodoItemShareResult> expectedResults
+            = Arrays.asList(TodoItemShareResult.shared(1L, "bob@oaccframework.org"),
+                            TodoItemShareResult.failed(2L, "bob@oaccframework.org", 403, null));
+      when(todoItemService.shareItems(eq(oacc), any(TodoItemShares.class))).thenReturn(expectedResults);
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos/shares")
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .post(Entity.entity("{\"todoItemIds\":[1,2],\"emails\":[\"bob@oaccframework.org\"]}",
+                                MediaType.APPLICATION_JSON));
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());   // 200 OK
+      assertThat(response.readEntity(new GenericType<List<TodoItemShareResult>>() {})).isEqualTo(expectedResults);
+      final ArgumentCaptor<TodoItemShares> shares = ArgumentCaptor.forClass(TodoItemShares.class);
+      verify(todoItemService, atLeastOnce()).shareItems(eq(oacc), shares.capture());
+      assertThat(shares.getValue().getTodoItemIds()).containsExactly(1L, 2L);
+      assertThat(shares.getValue().getEmails()).containsExactly("bob@oaccframework.org");
+   }
+
+   @Test
+   public void postPermissionsQuery() throws UnsupportedEncodingException, AuthenticationException {
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+      final List<TodoItemPermissions> expectedResults
+            = Arrays.asList(new TodoItemPermissions(1L, 7, new TodoItem(1, "make new todo items", false)),
+                            new TodoItemPermissions(2L, 0, null));
+      when(todoItemService.findPermissions(oacc, Arrays.asList(1L, 2L), true)).thenReturn(expectedResults);
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos/permissions")
+            .queryParam("include_todos", true)
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .post(Entity.entity("[1,2]", MediaType.APPLICATION_JSON));
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());   // 200 OK
+      assertThat(response.readEntity(new GenericType<List<TodoItemPermissions>>() {})).isEqualTo(expectedResults);
+   }
+
    @Test
    public void postNewTodoItemWithoutAuthentication() {
       final String todoItem = fixture("fixtures/todoItem_new.json");
@@ -153,15 +275,23 @@ public class TodoItemResourceTest {
    }
 
    @Test
-   public void getTodoItems() throws AuthenticationException, UnsupportedEncodingException {
+   public void getTodoItems() throws AuthenticationException, IOException {
       final List<TodoItem> expectedTodoItems
             = Collections.singletonList(new TodoItem(1, "list all items", true));
 
       when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
             .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
       when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
-      when(todoItemService.findByAuthenticatedUser(eq(oacc)))
-            .thenReturn(expectedTodoItems);
+      final TodoItemPage todoItemPage = new TodoItemPage(new long[]{1L}, OptionalLong.empty());
+      when(todoItemService.findByAuthenticatedUser(eq(oacc), isNull(), eq(TodoItemResource.DEFAULT_PAGE_SIZE)))
+            .thenReturn(todoItemPage);
+      doAnswer(invocation -> {
+         final TodoItemService.TodoItemWriter todoItemWriter = invocation.getArgument(1);
+         for (TodoItem todoItem : expectedTodoItems) {
+            todoItemWriter.write(todoItem);
+         }
+         return null;
+      }).when(todoItemService).writeTodoItems(eq(todoItemPage), any(TodoItemService.TodoItemWriter.class));
 
       final Response response = resources.getJerseyTest()
             .target("/todos")
@@ -170,6 +300,90 @@ public class TodoItemResourceTest {
             .get();
 
       assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());   // 200 OK
+      assertThat(response.getLink("next")).isNull();
+      assertThat(response.readEntity(new GenericType<List<TodoItem>>() {})).isEqualTo(expectedTodoItems);
+   }
+
+   @Test
+   public void getTodoItemsWritesEachTodoItemLikeTheObjectMapper() throws AuthenticationException, IOException {
+      final TodoItem todoItem = new TodoItem(1, "list all items", null, 101L, 2L);
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+      final TodoItemPage todoItemPage = new TodoItemPage(new long[]{1L}, OptionalLong.empty());
+      when(todoItemService.findByAuthenticatedUser(eq(oacc), isNull(), eq(TodoItemResource.DEFAULT_PAGE_SIZE)))
+            .thenReturn(todoItemPage);
+      doAnswer(invocation -> {
+         final TodoItemService.TodoItemWriter todoItemWriter = invocation.getArgument(1);
+         todoItemWriter.write(todoItem);
+         return null;
+      }).when(todoItemService).writeTodoItems(eq(todoItemPage), any(TodoItemService.TodoItemWriter.class));
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos")
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .get();
+
+      assertThat(response.readEntity(String.class))
+            .isEqualTo("[" + Jackson.newObjectMapper().writeValueAsString(todoItem) + "]");
+   }
+
+   @Test
+   public void getTodoItemsWithMoreItemsLinksToNextPage() throws AuthenticationException, UnsupportedEncodingException {
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+      when(todoItemService.findByAuthenticatedUser(eq(oacc), isNull(), eq(1)))
+            .thenReturn(new TodoItemPage(new long[]{1L}, OptionalLong.of(1)));
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos")
+            .queryParam("limit", 1)
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .get();
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());   // 200 OK
+      final String nextCursor = TodoItemResource.encodeCursor(1);
+      assertThat(response.getLink("next").getUri().getQuery()).contains("limit=1", "cursor=" + nextCursor);
+      assertThat(TodoItemResource.decodeCursor(nextCursor)).isEqualTo(1L);
+   }
+
+   @Test
+   public void getTodoItemsWithCursorAndTooLargeLimit() throws AuthenticationException, UnsupportedEncodingException {
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+      when(todoItemService.findByAuthenticatedUser(eq(oacc), eq(42L), eq(TodoItemResource.MAXIMUM_PAGE_SIZE)))
+            .thenReturn(new TodoItemPage(new long[0], OptionalLong.empty()));
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos")
+            .queryParam("limit", TodoItemResource.MAXIMUM_PAGE_SIZE + 1)
+            .queryParam("cursor", TodoItemResource.encodeCursor(42))
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .get();
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());   // 200 OK
+   }
+
+   @Test
+   public void getTodoItemsWithInvalidCursor() throws AuthenticationException, UnsupportedEncodingException {
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos")
+            .queryParam("cursor", "not-a-cursor")
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .get();
+
+      assertThat(response.getStatus()).isEqualTo(422);   // 422 Unprocessable Entity
+      verifyZeroInteractions(todoItemService);
    }
 
    @Test
@@ -183,13 +397,37 @@ public class TodoItemResourceTest {
 
    @Test
    public void patchTodoItem() throws AuthenticationException, UnsupportedEncodingException {
+      final long todoItemId = 1;
+      final String todoItem = fixture("fixtures/todoItem_new.json");
+      final TodoItem expectedTodoItem = new TodoItem(1, "update titles", false, null, 2L);
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+      when(todoItemService.updateItem(eq(oacc), any(Long.class), any(TodoItem.class), isNull()))
+            .thenReturn(expectedTodoItem);
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos/" + todoItemId)
+            .property(HttpUrlConnectorProvider.SET_METHOD_WORKAROUND, true) // to support PATCH
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .build("PATCH", Entity.entity(todoItem, MediaType.APPLICATION_JSON))
+            .invoke();
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());   // 200 OK
+      assertThat(response.readEntity(TodoItem.class)).isEqualTo(expectedTodoItem);
+      assertThat(response.getEntityTag()).isEqualTo(new EntityTag("2"));
+   }
+
+   @Test
+   public void patchTodoItemWithoutVersionIsNotTagged() throws AuthenticationException, UnsupportedEncodingException {
       final long todoItemId = 1;
       final String todoItem = fixture("fixtures/todoItem_new.json");
       final TodoItem expectedTodoItem = new TodoItem(1, "update titles", false);
       when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
             .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
       when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
-      when(todoItemService.updateItem(eq(oacc), any(Long.class), any(TodoItem.class)))
+      when(todoItemService.updateItem(eq(oacc), any(Long.class), any(TodoItem.class), isNull()))
             .thenReturn(expectedTodoItem);
 
       final Response response = resources.getJerseyTest()
@@ -202,6 +440,270 @@ public class TodoItemResourceTest {
 
       assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());   // 200 OK
       assertThat(response.readEntity(TodoItem.class)).isEqualTo(expectedTodoItem);
+      assertThat(response.getEntityTag()).isNull();
+   }
+
+   @Test
+   public void patchTodoItemIfMatch() throws AuthenticationException, UnsupportedEncodingException {
+      final long todoItemId = 1;
+      final String todoItem = fixture("fixtures/todoItem_new.json");
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+      when(todoItemService.updateItem(eq(oacc), eq(todoItemId), any(TodoItem.class), eq(2L)))
+            .thenReturn(new TodoItem(1, "update titles", false, null, 3L));
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos/" + todoItemId)
+            .property(HttpUrlConnectorProvider.SET_METHOD_WORKAROUND, true) // to support PATCH
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .header(HttpHeaders.IF_MATCH, "\"2\"")
+            .build("PATCH", Entity.entity(todoItem, MediaType.APPLICATION_JSON))
+            .invoke();
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());   // 200 OK
+      assertThat(response.getEntityTag()).isEqualTo(new EntityTag("3"));
+   }
+
+   @Test
+   public void patchTodoItemThatIsStale() throws AuthenticationException, UnsupportedEncodingException {
+      final long todoItemId = 1;
+      final String todoItem = fixture("fixtures/todoItem_new.json");
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+      when(todoItemService.updateItem(eq(oacc), eq(todoItemId), any(TodoItem.class), eq(2L)))
+            .thenThrow(new StaleTodoItemException(todoItemId));
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos/" + todoItemId)
+            .property(HttpUrlConnectorProvider.SET_METHOD_WORKAROUND, true) // to support PATCH
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .header(HttpHeaders.IF_MATCH, "\"2\"")
+            .build("PATCH", Entity.entity(todoItem, MediaType.APPLICATION_JSON))
+            .invoke();
+
+      assertThat(response.getStatus())
+            .isEqualTo(Response.Status.PRECONDITION_FAILED.getStatusCode());   // 412 Precondition Failed
+   }
+
+   @Test
+   public void decodeIfMatch() {
+      assertThat(TodoItemResource.decodeIfMatch(null)).isNull();
+      assertThat(TodoItemResource.decodeIfMatch("*")).isNull();
+      assertThat(TodoItemResource.decodeIfMatch("\"42\"")).isEqualTo(42L);
+      // entity tags that no todo item version matches
+      assertThat(TodoItemResource.decodeIfMatch("W/\"42\"")).isEqualTo(0L);
+      assertThat(TodoItemResource.decodeIfMatch("\"abc\"")).isEqualTo(0L);
+   }
+
+   @Test
+   public void getTodoItem() throws AuthenticationException, UnsupportedEncodingException {
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+      when(oaccPrincipal.getName()).thenReturn(EMAIL);
+      when(todoItemService.findItem(oacc, 1L)).thenReturn(new TodoItem(1, "get one item", false, null, 3L));
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos/1")
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .get();
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());   // 200 OK
+      assertThat(response.getEntityTag()).isEqualTo(new EntityTag("3"));
+      assertThat(response.readEntity(TodoItem.class)).isEqualTo(new TodoItem(1, "get one item", false));
+   }
+
+   @Test
+   public void getTodoItemThatIsNotModified() throws AuthenticationException, UnsupportedEncodingException {
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+      when(oaccPrincipal.getName()).thenReturn(EMAIL);
+      todoChangeVersions.handOut(EMAIL, 2L, id -> new TodoItem(id, "get one item", false, null, 5L));
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos/2")
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .header(HttpHeaders.IF_NONE_MATCH, "\"4\", \"5\"")
+            .get();
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.NOT_MODIFIED.getStatusCode());   // 304 Not Modified
+      assertThat(response.getEntityTag()).isEqualTo(new EntityTag("5"));
+      verifyZeroInteractions(todoItemService);
+   }
+
+   @Test
+   public void getTodoItemThatIsGone() throws AuthenticationException, UnsupportedEncodingException {
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+      when(oaccPrincipal.getName()).thenReturn(EMAIL);
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos/3")
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .header(HttpHeaders.IF_NONE_MATCH, "\"1\"")
+            .get();
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.NOT_FOUND.getStatusCode());   // 404 Not Found
+      verify(todoItemService, atLeastOnce()).findItem(oacc, 3L);
+   }
+
+   @Test
+   public void getTodoItemsIsTaggedWithChangeVersion() throws AuthenticationException, UnsupportedEncodingException {
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+      when(oaccPrincipal.getName()).thenReturn(EMAIL);
+      when(todoItemService.findByAuthenticatedUser(eq(oacc), isNull(), eq(TodoItemResource.DEFAULT_PAGE_SIZE)))
+            .thenReturn(new TodoItemPage(new long[0], OptionalLong.empty(), OptionalLong.of(42)));
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos")
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .header(HttpHeaders.IF_NONE_MATCH, "\"41\"")
+            .get();
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());   // 200 OK
+      assertThat(response.getEntityTag()).isEqualTo(new EntityTag("42"));
+   }
+
+   @Test
+   public void getTodoItemsThatAreNotModified() throws AuthenticationException, UnsupportedEncodingException {
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+      when(oaccPrincipal.getName()).thenReturn(EMAIL);
+      final long changeVersion = todoChangeVersions.getVersion(EMAIL);
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos")
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .header(HttpHeaders.IF_NONE_MATCH, "W/\"" + changeVersion + "\"")
+            .get();
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.NOT_MODIFIED.getStatusCode());   // 304 Not Modified
+      assertThat(response.getEntityTag()).isEqualTo(new EntityTag(String.valueOf(changeVersion)));
+      verifyZeroInteractions(todoItemService);
+   }
+
+   @Test
+   public void getTodoItemChanges() throws AuthenticationException, IOException {
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+      final TodoItemChangePage todoItemChangePage = new TodoItemChangePage(new long[]{4L}, 12L, true);
+      when(todoItemService.findChanges(oacc, 10L, 20)).thenReturn(todoItemChangePage);
+      doAnswer(invocation -> {
+         final TodoItemService.TodoItemWriter todoItemWriter = invocation.getArgument(1);
+         todoItemWriter.write(new TodoItem(4, "sync changes", false));
+         return null;
+      }).when(todoItemService).writeTodoItems(any(TodoItemPage.class), any(TodoItemService.TodoItemWriter.class));
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos/changes")
+            .queryParam("since", TodoItemResource.encodeSince(10L))
+            .queryParam("limit", 20)
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .get();
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());   // 200 OK
+      final JsonNode todoItemChanges = response.readEntity(JsonNode.class);
+      assertThat(TodoItemResource.decodeSince(todoItemChanges.get("since").asText())).isEqualTo(12L);
+      assertThat(todoItemChanges.get("hasMore").asBoolean()).isTrue();
+      assertThat(todoItemChanges.get("resyncRequired").asBoolean()).isFalse();
+      assertThat(todoItemChanges.get("todos")).hasSize(1);
+      assertThat(todoItemChanges.get("todos").get(0).get("title").asText()).isEqualTo("sync changes");
+      final ArgumentCaptor<TodoItemPage> todoItemPage = ArgumentCaptor.forClass(TodoItemPage.class);
+      verify(todoItemService, atLeastOnce()).writeTodoItems(todoItemPage.capture(),
+                                                            any(TodoItemService.TodoItemWriter.class));
+      assertThat(todoItemPage.getValue().getTodoItemIds()).containsExactly(4L);
+   }
+
+   @Test
+   public void getTodoItemChangesThatRequireResync() throws AuthenticationException, IOException {
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+      when(todoItemService.findChanges(eq(oacc), isNull(), eq(TodoItemResource.DEFAULT_PAGE_SIZE)))
+            .thenReturn(TodoItemChangePage.resyncRequired(42L));
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos/changes")
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .get();
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());   // 200 OK
+      final JsonNode todoItemChanges = response.readEntity(JsonNode.class);
+      assertThat(TodoItemResource.decodeSince(todoItemChanges.get("since").asText())).isEqualTo(42L);
+      assertThat(todoItemChanges.get("resyncRequired").asBoolean()).isTrue();
+      assertThat(todoItemChanges.get("todos")).isEmpty();
+   }
+
+   @Test
+   public void getTodoItemChangesWithInvalidSince() throws AuthenticationException, UnsupportedEncodingException {
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos/changes")
+            // a cursor is not a since token, even though both are encoded the same way
+            .queryParam("since", TodoItemResource.encodeCursor(10L))
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .get();
+
+      assertThat(response.getStatus()).isEqualTo(422);   // 422 Unprocessable Entity
+      verifyZeroInteractions(todoItemService);
+   }
+
+   @Test
+   public void decodeIfNoneMatch() {
+      assertThat(TodoItemResource.decodeIfNoneMatch(null)).isEmpty();
+      assertThat(TodoItemResource.decodeIfNoneMatch("*")).isEmpty();
+      assertThat(TodoItemResource.decodeIfNoneMatch("\"42\"")).containsExactly(42L);
+      // weak entity tags match, too, and those we did not issue are skipped
+      assertThat(TodoItemResource.decodeIfNoneMatch("W/\"42\", \"abc\", \"7\"")).containsExactly(42L, 7L);
+   }
+
+   @Test
+   public void patchTodoItems() throws AuthenticationException, UnsupportedEncodingException {
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+      final List<TodoItemBatchResult> expectedResults
+            = Arrays.asList(TodoItemBatchResult.updated(new TodoItem(1, "update titles", true)),
+                            TodoItemBatchResult.forbidden());
+      when(todoItemService.updateItems(eq(oacc), any())).thenReturn(expectedResults);
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos/batch")
+            .property(HttpUrlConnectorProvider.SET_METHOD_WORKAROUND, true) // to support PATCH
+            .request()
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .build("PATCH", Entity.entity("[{\"id\":1,\"completed\":true},{\"id\":2,\"title\":\"update titles\"}]",
+                                          MediaType.APPLICATION_JSON))
+            .invoke();
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());   // 200 OK
+      assertThat(response.readEntity(new GenericType<List<TodoItemBatchResult>>() {})).isEqualTo(expectedResults);
+      @SuppressWarnings("unchecked")
+      final ArgumentCaptor<List<TodoItem>> patchItems = ArgumentCaptor.forClass(List.class);
+      verify(todoItemService, atLeastOnce()).updateItems(eq(oacc), patchItems.capture());
+      assertThat(patchItems.getValue()).extracting(TodoItem::getId, TodoItem::getTitle, TodoItem::getCompleted)
+            .containsExactly(tuple(1L, null, true), tuple(2L, "update titles", null));
    }
 
    @Test
@@ -228,7 +730,7 @@ public class TodoItemResourceTest {
       when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
             .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
       when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
-      when(todoItemService.updateItem(eq(oacc), any(Long.class), any(TodoItem.class)))
+      when(todoItemService.updateItem(eq(oacc), any(Long.class), any(TodoItem.class), isNull()))
             .thenThrow(new NotAuthorizedException("not authorized"));
 
       final Response response = resources.getJerseyTest()
@@ -249,7 +751,7 @@ public class TodoItemResourceTest {
       when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
             .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
       when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
-      when(todoItemService.updateItem(eq(oacc), any(Long.class), any(TodoItem.class)))
+      when(todoItemService.updateItem(eq(oacc), any(Long.class), any(TodoItem.class), isNull()))
             .thenThrow(new IllegalArgumentException("Resource " + todoItemId + " not found!"));
 
       final Response response = resources.getJerseyTest()
@@ -271,7 +773,7 @@ public class TodoItemResourceTest {
       when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
             .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
       when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
-      when(todoItemService.updateItem(eq(oacc), any(Long.class), any(TodoItem.class)))
+      when(todoItemService.updateItem(eq(oacc), any(Long.class), any(TodoItem.class), isNull()))
             .thenThrow(new IllegalArgumentException("Either title or completed (or both) is required."));
 
       final Response response = resources.getJerseyTest()
@@ -362,6 +864,52 @@ public class TodoItemResourceTest {
       verifyZeroInteractions(oacc);
    }
 
+   @Test
+   public void getEventsPushesTheUsersTodoEvents() throws AuthenticationException, UnsupportedEncodingException {
+      final TodoEventBus todoEventBus = new TodoEventBus(10, Runnable::run, new MetricRegistry());
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+      // the events are written before the response is, which the event output holds on to until then
+      when(todoItemService.subscribe(eq(oacc), any(TodoEventSink.class))).thenAnswer(invocation -> {
+         final TodoEventBus.Subscription subscription
+               = todoEventBus.subscribe(EMAIL, new long[]{1}, invocation.getArgument(1));
+         todoEventBus.publish(TodoEvent.updated(new TodoItem(1, "wash car", true, null, 2L)));
+         todoEventBus.publish(TodoEvent.shared(2, EMAIL));
+         subscription.close();
+         return subscription;
+      });
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos/events")
+            .request(SseFeature.SERVER_SENT_EVENTS_TYPE)
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .get();
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());
+      assertThat(response.getMediaType().isCompatible(SseFeature.SERVER_SENT_EVENTS_TYPE)).isTrue();
+      assertThat(response.readEntity(String.class))
+            .isEqualTo("event: updated\n"
+                             + "data: {\"type\":\"updated\",\"todoItemId\":1,\"version\":2}\n\n"
+                             + "event: shared\n"
+                             + "data: {\"type\":\"shared\",\"todoItemId\":2}\n\n");
+   }
+
+   @Test
+   public void getEventsWhenNotEnabled() throws AuthenticationException, UnsupportedEncodingException {
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class)))
+            .thenReturn(java.util.Optional.ofNullable(oaccPrincipal));
+      when(oaccPrincipal.getAccessControlContext()).thenReturn(oacc);
+
+      final Response response = resources.getJerseyTest()
+            .target("/todos/events")
+            .request(SseFeature.SERVER_SENT_EVENTS_TYPE)
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .get();
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.NOT_FOUND.getStatusCode());   // 404 Not Found
+   }
+
    private static String getBasicAuthHeader(String username, String password) throws UnsupportedEncodingException {
       return "Basic " + DatatypeConverter.printBase64Binary((username + ":" + password).getBytes("UTF-8"));
    }
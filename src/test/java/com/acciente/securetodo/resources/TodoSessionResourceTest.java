@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016 - 2017, Acciente LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.acciente.securetodo.resources;
+
+import com.acciente.securetodo.api.TodoSession;
+import com.acciente.securetodo.auth.OaccBasicAuthenticator;
+import com.acciente.securetodo.auth.OaccBearerAuthenticator;
+import com.acciente.securetodo.auth.OaccPrincipal;
+import com.acciente.securetodo.auth.OaccSessionStore;
+import com.acciente.securetodo.resources.exceptions.NotAuthenticatedExceptionMapper;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.auth.AuthDynamicFeature;
+import io.dropwizard.auth.AuthFilter;
+import io.dropwizard.auth.AuthValueFactoryProvider;
+import io.dropwizard.auth.AuthenticationException;
+import io.dropwizard.auth.basic.BasicCredentialAuthFilter;
+import io.dropwizard.auth.basic.BasicCredentials;
+import io.dropwizard.auth.chained.ChainedAuthFilter;
+import io.dropwizard.auth.oauth.OAuthCredentialAuthFilter;
+import io.dropwizard.testing.junit.ResourceTestRule;
+import org.glassfish.grizzly.http.util.Header;
+import org.glassfish.jersey.test.grizzly.GrizzlyWebTestContainerFactory;
+import org.junit.After;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.xml.bind.DatatypeConverter;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class TodoSessionResourceTest {
+   private static final String EMAIL    = "tester@oaccframework.org";
+   private static final String PASSWORD = "secret";
+   private static final String TOKEN    = "token";
+
+   private static final Meter                  meter                  = mock(Meter.class);
+   private static final MetricRegistry         environment            = mock(MetricRegistry.class);
+   private static final OaccSessionStore       sessionStore           = mock(OaccSessionStore.class);
+   private static final OaccBasicAuthenticator oaccBasicAuthenticator = mock(OaccBasicAuthenticator.class);
+   private static final OaccPrincipal          oaccPrincipal          = mock(OaccPrincipal.class);
+
+   static {
+      // need to init the environment mock **BEFORE** setting up the ResourceTestRule as a class rule
+      when(environment.meter(anyString())).thenReturn(meter);
+   }
+
+   private static final AuthFilter<?, OaccPrincipal> basicAuthFilter
+         = new BasicCredentialAuthFilter.Builder<OaccPrincipal>()
+               .setAuthenticator(oaccBasicAuthenticator)
+               .setRealm("OACC Basic Authentication")
+               .buildAuthFilter();
+   private static final AuthFilter<?, OaccPrincipal> bearerAuthFilter
+         = new OAuthCredentialAuthFilter.Builder<OaccPrincipal>()
+               .setAuthenticator(new OaccBearerAuthenticator(sessionStore))
+               .setPrefix("Bearer")
+               .setRealm("OACC Bearer Authentication")
+               .buildAuthFilter();
+
+   @ClassRule
+   public static final ResourceTestRule resources = ResourceTestRule.builder()
+         .setTestContainerFactory(new GrizzlyWebTestContainerFactory())
+         .addProvider(new AuthDynamicFeature(new ChainedAuthFilter<>(Arrays.asList(basicAuthFilter,
+                                                                                   bearerAuthFilter))))
+         .addProvider(new AuthValueFactoryProvider.Binder<>(OaccPrincipal.class))
+         .addProvider(new NotAuthenticatedExceptionMapper(environment))
+         .addResource(new TodoSessionResource(sessionStore))
+         .build();
+
+   @After
+   public void tearDown() {
+      // we have to reset the mock after each test because of the @ClassRule's injected mocks
+      reset(sessionStore, oaccBasicAuthenticator, oaccPrincipal);
+   }
+
+   @Test
+   public void postNewSession() throws UnsupportedEncodingException, AuthenticationException {
+      when(oaccBasicAuthenticator.authenticate(any(BasicCredentials.class))).thenReturn(Optional.of(oaccPrincipal));
+      when(sessionStore.createSession(oaccPrincipal)).thenReturn(TOKEN);
+      when(sessionStore.getAbsoluteTimeoutSeconds()).thenReturn(3600L);
+
+      final Response response = resources.getJerseyTest()
+            .target("/sessions")
+            .request(MediaType.APPLICATION_JSON)
+            .header(Header.Authorization.name(), getBasicAuthHeader(EMAIL, PASSWORD))
+            .post(Entity.json(""));
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());
+      final TodoSession todoSession = response.readEntity(TodoSession.class);
+      assertThat(todoSession.getToken()).isEqualTo(TOKEN);
+      assertThat(todoSession.getTokenType()).isEqualTo("Bearer");
+      assertThat(todoSession.getExpiresIn()).isEqualTo(3600L);
+   }
+
+   @Test
+   public void postNewSessionWithoutCredentials() {
+      final Response response = resources.getJerseyTest()
+            .target("/sessions")
+            .request(MediaType.APPLICATION_JSON)
+            .post(Entity.json(""));
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.UNAUTHORIZED.getStatusCode());
+      verifyZeroInteractions(sessionStore);
+   }
+
+   @Test
+   public void postNewSessionWithBearerToken() {
+      when(sessionStore.findSession(TOKEN)).thenReturn(Optional.of(oaccPrincipal));
+
+      final Response response = resources.getJerseyTest()
+            .target("/sessions")
+            .request(MediaType.APPLICATION_JSON)
+            .header(Header.Authorization.name(), "Bearer " + TOKEN)
+            .post(Entity.json(""));
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.UNAUTHORIZED.getStatusCode());
+   }
+
+   @Test
+   public void deleteSession() {
+      when(sessionStore.findSession(TOKEN)).thenReturn(Optional.of(oaccPrincipal));
+
+      final Response response = resources.getJerseyTest()
+            .target("/sessions")
+            .request()
+            .header(Header.Authorization.name(), "Bearer " + TOKEN)
+            .delete();
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.NO_CONTENT.getStatusCode());
+      verify(sessionStore, atLeastOnce()).invalidateSession(TOKEN);
+   }
+
+   @Test
+   public void deleteUnknownSession() {
+      when(sessionStore.findSession(TOKEN)).thenReturn(Optional.empty());
+
+      final Response response = resources.getJerseyTest()
+            .target("/sessions")
+            .request()
+            .header(Header.Authorization.name(), "Bearer " + TOKEN)
+            .delete();
+
+      assertThat(response.getStatus()).isEqualTo(Response.Status.UNAUTHORIZED.getStatusCode());
+   }
+
+   private static String getBasicAuthHeader(String username, String password) throws UnsupportedEncodingException {
+      return "Basic " + DatatypeConverter.printBase64Binary((username + ":" + password).getBytes("UTF-8"));
+   }
+}
@@ -19,9 +19,11 @@ package com.acciente.securetodo.resources;
 import com.acciente.securetodo.api.TodoUser;
 import com.acciente.securetodo.core.TodoUserService;
 import com.acciente.securetodo.resources.exceptions.IllegalArgumentExceptionMapper;
+import com.acciente.securetodo.resources.exceptions.RejectedExecutionExceptionMapper;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import io.dropwizard.testing.junit.ResourceTestRule;
+import org.glassfish.jersey.test.grizzly.GrizzlyWebTestContainerFactory;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.ClassRule;
@@ -29,9 +31,11 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
 
 import static io.dropwizard.testing.FixtureHelpers.fixture;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -58,8 +62,10 @@ public class TodoUserResourceTest {
 
    @ClassRule
    public static final ResourceTestRule resources = ResourceTestRule.builder()
+         .setTestContainerFactory(new GrizzlyWebTestContainerFactory())
          .addResource(new TodoUserResource(todoUserService))
          .addProvider(new IllegalArgumentExceptionMapper(environment))
+         .addProvider(new RejectedExecutionExceptionMapper(environment, 1))
          .build();
 
    @Before
@@ -78,7 +84,7 @@ public class TodoUserResourceTest {
       when(todoUserService.createUser(any(TodoUser.class)))
             .thenThrow(new IllegalArgumentException("Password is required."));
 
-      final Response response = resources.client().target("/users").request().post(Entity.entity(todoUser_noPwd, MediaType.APPLICATION_JSON));
+      final Response response = resources.getJerseyTest().target("/users").request().post(Entity.entity(todoUser_noPwd, MediaType.APPLICATION_JSON));
 
       assertThat(response.getStatus()).isEqualTo(422);   // 422 Unprocessable Entity
    }
@@ -89,7 +95,7 @@ public class TodoUserResourceTest {
       final TodoUser expectedTodoUser = new TodoUser(EMAIL);
       when(todoUserService.createUser(any(TodoUser.class))).thenReturn(expectedTodoUser);
 
-      final Response response = resources.client().target("/users")
+      final Response response = resources.getJerseyTest().target("/users")
             .request(MediaType.APPLICATION_JSON)
             .post(Entity.entity(postedTodoUserJson, MediaType.APPLICATION_JSON));
 
@@ -107,7 +113,7 @@ public class TodoUserResourceTest {
       final TodoUser expectedTodoUser = new TodoUser(email_lowercase);
       when(todoUserService.createUser(any(TodoUser.class))).thenReturn(expectedTodoUser);
 
-      final Response response = resources.client().target("/users")
+      final Response response = resources.getJerseyTest().target("/users")
             .request(MediaType.APPLICATION_JSON)
             .post(Entity.entity(postedTodoUserJson, MediaType.APPLICATION_JSON));
 
@@ -129,10 +135,23 @@ public class TodoUserResourceTest {
       when(todoUserService.createUser(any(TodoUser.class)))
             .thenThrow(new IllegalArgumentException("External id is not unique"));
 
-      final Response response = resources.client().target("/users")
+      final Response response = resources.getJerseyTest().target("/users")
             .request(MediaType.APPLICATION_JSON)
             .post(Entity.entity(postedTodoUserJson, MediaType.APPLICATION_JSON));
 
       assertThat(response.getStatus()).isEqualTo(422);   // 422 Unprocessable Entity
    }
+
+   @Test
+   public void postNewUserWhenHashingExecutorIsSaturated() throws IOException {
+      final String postedTodoUserJson = fixture("fixtures/todoUser.json");
+      when(todoUserService.createUser(any(TodoUser.class))).thenThrow(new RejectedExecutionException());
+
+      final Response response = resources.getJerseyTest().target("/users")
+            .request(MediaType.APPLICATION_JSON)
+            .post(Entity.entity(postedTodoUserJson, MediaType.APPLICATION_JSON));
+
+      assertThat(response.getStatus()).isEqualTo(429);   // 429 Too Many Requests
+      assertThat(response.getHeaderString(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+   }
 }